@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+/**
+ * Load test of {@link Thing42Async}: requests against one shared graph
+ * with up to 1000 or 100000 of them in flight at once.
+ * <br />
+ * Each benchmark thread submits requests, nine reads of the peers with
+ * a key for each pair of bulk writes that add and remove two peers,
+ * and waits only when the limit of requests in flight is reached, so
+ * ops/s counts completed requests. Requests run on the default
+ * executor of the facade: a virtual thread each on Java 21 and later,
+ * the common ForkJoinPool before.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class AsyncBenchmark implements Microbench.Suite {
+    /** Limits of requests in flight to run with. */
+    private static final int[] IN_FLIGHT = {1000, 100000};
+    /** Number of peers of the shared node. */
+    private static final int FANOUT = 64;
+    /** Number of distinct keys of the peers. */
+    private static final int KEYS = 8;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (int inFlight : IN_FLIGHT) {
+            for (int threads : bench.getThreadCounts()) {
+                run(bench, inFlight, threads);
+            }
+        }
+    }
+
+    /**
+     * Runs the load test for one combination of parameters.
+     *
+     * @param bench the harness
+     * @param inFlight the most requests in flight
+     * @param threads the number of submitting threads
+     */
+    private void run(final Microbench bench, final int inFlight, final int threads) {
+        final Map<String, String> params = Microbench.params("inflight", String.valueOf(inFlight));
+        final Thing42Async<Integer, String> async = new Thing42Async<Integer, String>();
+        final Thing42<Integer, String> node = new Thing42<Integer, String>(-1, 0, "node");
+        for (int i = 0; i < FANOUT; i++) {
+            node.addPeer(new Thing42<Integer, String>(i % KEYS, i, "peer"));
+        }
+        final List<List<Thing42<Integer, String>>> batches
+            = new ArrayList<List<Thing42<Integer, String>>>();
+        for (int t = 0; t < threads; t++) {
+            batches.add(Arrays.asList(new Thing42<Integer, String>(t % KEYS, -1, "new"),
+                                      new Thing42<Integer, String>(t % KEYS, -2, "new")));
+        }
+        final Semaphore permits = new Semaphore(inFlight);
+        final BiConsumer<Object, Throwable> release = new BiConsumer<Object, Throwable>() {
+            public void accept(final Object result, final Throwable ex) {
+                permits.release();
+            }
+        };
+
+        bench.measure("Async.mixed", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                permits.acquireUninterruptibly();
+                CompletableFuture<?> request;
+                switch ((int) (i % 10)) {
+                case 0:
+                    request = async.addPeers(node, batches.get(thread));
+                    break;
+                case 1:
+                    request = async.removePeers(node, batches.get(thread));
+                    break;
+                default:
+                    request = async.getPeersAsCollection(node, (int) (i % KEYS));
+                    break;
+                }
+                request.whenComplete(release);
+                return i;
+            }
+        });
+        // let the last requests finish before the next benchmark
+        permits.acquireUninterruptibly(inFlight);
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks of the batch mutation methods against loops over the
+ * single-element ones.
+ * <br />
+ * Each operation adds a whole batch of peers or pool members to an
+ * empty node and removes it again, so ops/s counts batches, not
+ * elements. The peers of a batch share batch / 4 keys, so removals
+ * by key group have something to group.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class BatchBenchmark implements Microbench.Suite {
+    /** Numbers of elements per batch to run with. */
+    private static final int[] SIZES = {16, 1024};
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (int size : SIZES) {
+            for (int threads : bench.getThreadCounts()) {
+                for (String storage : new String[] {"lists", "indexed", "concurrent"}) {
+                    run(bench, size, threads, storage, true);
+                    run(bench, size, threads, storage, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs all benchmarks for one combination of parameters.
+     * Each thread gets its own node and batch.
+     *
+     * @param bench the harness
+     * @param size the number of elements per batch
+     * @param threads the number of threads
+     * @param storage "lists" or "indexed" for Thing42 with that peer
+     * storage, "concurrent" for ConcurrentThing42
+     * @param batch whether to use the batch methods or loops
+     */
+    private void run(final Microbench bench, final int size, final int threads,
+                     final String storage, final boolean batch) {
+        final Map<String, String> params = Microbench.params("size",
+            String.valueOf(size), "storage", storage, "impl", batch ? "batch" : "loop");
+        final List<Thing42orNull<Integer, String>> nodes
+            = new ArrayList<Thing42orNull<Integer, String>>();
+        final List<List<Thing42orNull<Integer, String>>> batches
+            = new ArrayList<List<Thing42orNull<Integer, String>>>();
+        for (int t = 0; t < threads; t++) {
+            if ("concurrent".equals(storage)) {
+                nodes.add(new ConcurrentThing42<Integer, String>(-1, 0, "node"));
+            } else {
+                nodes.add(new Thing42<Integer, String>(-1, 0, "node",
+                    "lists".equals(storage) ? Thing42.PeerStorage.LISTS
+                    : Thing42.PeerStorage.INDEXED, Thing42.Equality.DEEP));
+            }
+            List<Thing42orNull<Integer, String>> elements
+                = new ArrayList<Thing42orNull<Integer, String>>();
+            for (int i = 0; i < size; i++) {
+                elements.add(new Thing42<Integer, String>(i % Math.max(1, size / 4), i, "peer"));
+            }
+            batches.add(elements);
+        }
+
+        bench.measure("Batch.addPeers+removePeers", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42orNull<Integer, String> node = nodes.get(thread);
+                List<Thing42orNull<Integer, String>> elements = batches.get(thread);
+                if (batch) {
+                    node.addPeers(elements);
+                    return node.removePeers(elements) ? 1 : 0;
+                }
+                for (Thing42orNull<Integer, String> e : elements) {
+                    node.addPeer(e);
+                }
+                long removed = 0;
+                for (Thing42orNull<Integer, String> e : elements) {
+                    removed += node.removePeer(e) ? 1 : 0;
+                }
+                return removed;
+            }
+        });
+        bench.measure("Batch.appendAllToPool+removeAllFromPool", params, threads,
+                      new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42orNull<Integer, String> node = nodes.get(thread);
+                List<Thing42orNull<Integer, String>> elements = batches.get(thread);
+                if (batch) {
+                    node.appendAllToPool(elements);
+                    return node.removeAllFromPool(elements) ? 1 : 0;
+                }
+                for (Thing42orNull<Integer, String> e : elements) {
+                    node.appendToPool(e);
+                }
+                long removed = 0;
+                for (Thing42orNull<Integer, String> e : elements) {
+                    removed += node.removeFromPool(e) ? 1 : 0;
+                }
+                return removed;
+            }
+        });
+    }
+}
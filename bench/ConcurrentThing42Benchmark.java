@@ -0,0 +1,137 @@
+import java.util.Map;
+
+/**
+ * Contention benchmarks for ConcurrentThing42.
+ * <br />
+ * All threads share one node. Every operation is measured on a
+ * ConcurrentThing42, on a PersistentThing42, on a StampedThing42 and,
+ * as the baseline, on a Thing42 guarded by a single lock. Mutations add and then remove the same peer or pool
+ * member so the node keeps its size. With hot keys all threads work on
+ * the same key; with cold keys each thread has its own key.
+ * <br /><br />
+ * To see how the implementations scale, run with a range of thread
+ * counts, e.g.
+ * <code>ant bench -Dbench.suites=ConcurrentThing42Benchmark
+ * -Dbench.threads=1,2,4,8,16,32</code>.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class ConcurrentThing42Benchmark implements Microbench.Suite {
+    /** Number of peers the shared node starts with. */
+    private static final int FANOUT = 64;
+    /** Largest number of threads, bounding the per-thread keys. */
+    private static final int MAX_THREADS = 1024;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (String dist : new String[] {"hot", "cold"}) {
+            for (int threads : bench.getThreadCounts()) {
+                for (String impl : new String[] {"locked", "concurrent", "persistent", "stamped"}) {
+                    run(bench, dist, threads, impl);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs all benchmarks for one combination of parameters.
+     *
+     * @param bench the harness
+     * @param dist the key distribution, "hot" or "cold"
+     * @param threads the number of threads
+     * @param impl "concurrent" for ConcurrentThing42, "persistent" for
+     * PersistentThing42, "stamped" for StampedThing42, "locked" for a
+     * locked Thing42
+     */
+    @SuppressWarnings("unchecked")
+    private void run(final Microbench bench, final String dist, final int threads,
+                     final String impl) {
+        final Map<String, String> params = Microbench.params("keys", dist, "impl", impl);
+        final boolean concurrent = !"locked".equals(impl);
+        final Thing42orNull<Integer, Integer> node;
+        if ("concurrent".equals(impl)) {
+            node = new ConcurrentThing42<Integer, Integer>(-1, 0, 0);
+        } else if ("persistent".equals(impl)) {
+            node = new PersistentThing42<Integer, Integer>(-1, 0, 0);
+        } else if ("stamped".equals(impl)) {
+            node = new StampedThing42<Integer, Integer>(-1, 0, 0);
+        } else {
+            node = new Thing42<Integer, Integer>(-1, 0, 0);
+        }
+        for (int i = 0; i < FANOUT; i++) {
+            node.addPeer(new Thing42<Integer, Integer>(MAX_THREADS + i, i, i));
+        }
+        final Thing42<Integer, Integer>[] mine = new Thing42[threads];
+        for (int t = 0; t < threads; t++) {
+            int key = "hot".equals(dist) ? 0 : t;
+            mine[t] = new Thing42<Integer, Integer>(key, t, t);
+        }
+        final Object lock = new Object();
+
+        bench.measure("Concurrent.addPeer+removePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> peer = mine[thread];
+                if (concurrent) {
+                    node.addPeer(peer);
+                    return node.removePeer(peer) ? 1 : 0;
+                }
+                synchronized (lock) {
+                    node.addPeer(peer);
+                    return node.removePeer(peer) ? 1 : 0;
+                }
+            }
+        });
+        bench.measure("Concurrent.appendToPool+removeFromPool", params, threads,
+                      new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = mine[thread];
+                if (concurrent) {
+                    node.appendToPool(member);
+                    return node.removeFromPool(member) ? 1 : 0;
+                }
+                synchronized (lock) {
+                    node.appendToPool(member);
+                    return node.removeFromPool(member) ? 1 : 0;
+                }
+            }
+        });
+        bench.measure("Concurrent.getOnePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Integer key = Integer.valueOf(MAX_THREADS + (int) (i % FANOUT));
+                if (concurrent) {
+                    return node.getOnePeer(key) == null ? 0 : 1;
+                }
+                synchronized (lock) {
+                    return node.getOnePeer(key) == null ? 0 : 1;
+                }
+            }
+        });
+        bench.measure("Concurrent.setData+getData", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                if (concurrent) {
+                    node.setData(thread);
+                    return node.getData();
+                }
+                synchronized (lock) {
+                    node.setData(thread);
+                    return node.getData();
+                }
+            }
+        });
+        bench.measure("Concurrent.getData", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                if (concurrent) {
+                    return node.getData();
+                }
+                synchronized (lock) {
+                    return node.getData();
+                }
+            }
+        });
+    }
+}
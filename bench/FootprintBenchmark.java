@@ -0,0 +1,184 @@
+/**
+ * Reports the heap taken by a node, in bytes, by number of peers, for
+ * each peer storage of Thing42 and for LongThing42, and by nodes with
+ * long string keys, as copies and interned.
+ * <br />
+ * The peers themselves are shared by all nodes, so only the memory of
+ * the nodes is counted. Measurements are taken by comparing the used
+ * heap before and after allocating many nodes, so they are estimates
+ * that depend on the JVM and its collector; they are printed as tables
+ * and are not part of the JSON results.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class FootprintBenchmark implements Microbench.Suite {
+    /** Numbers of peers to report. */
+    private static final int[] FANOUTS = {0, 1, 2, 3, 8, 9, 16, 64};
+    /** Number of nodes measured per row. */
+    private static final int NODES = 20000;
+
+    /** Creates a node with a given number of peers. */
+    private interface Factory {
+        /**
+         * Creates a node.
+         *
+         * @param fanout the number of peers
+         * @return the node
+         */
+        Object create(int fanout);
+    }
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness, consulted only for its filter
+     */
+    public void run(final Microbench bench) {
+        if (bench.isSelected("Footprint.peers")) {
+            reportPeers();
+        }
+        if (bench.isSelected("Footprint.keys")) {
+            reportKeys();
+        }
+    }
+
+    /**
+     * Prints the bytes per node by number of peers.
+     */
+    private static void reportPeers() {
+        final Thing42<Integer, String>[] peers = newArray(FANOUTS[FANOUTS.length - 1]);
+        final LongThing42[] longPeers = new LongThing42[peers.length];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new Thing42<Integer, String>(i, i, "peer");
+            longPeers[i] = new LongThing42(i, i, i);
+        }
+
+        Factory lists = new Factory() {
+            public Object create(final int fanout) {
+                return node(Thing42.PeerStorage.LISTS, peers, fanout);
+            }
+        };
+        Factory indexed = new Factory() {
+            public Object create(final int fanout) {
+                return node(Thing42.PeerStorage.INDEXED, peers, fanout);
+            }
+        };
+        Factory longs = new Factory() {
+            public Object create(final int fanout) {
+                LongThing42 node = new LongThing42(-1, 0, 0);
+                for (int i = 0; i < fanout; i++) {
+                    node.addPeer(longPeers[i]);
+                }
+                return node;
+            }
+        };
+
+        System.out.println("Footprint.peers: bytes per node by number of peers");
+        System.out.printf("%8s %12s %12s %12s%n", "peers", "LISTS", "INDEXED", "LongThing42");
+        for (int fanout : FANOUTS) {
+            System.out.printf("%8d %12d %12d %12d%n", fanout, measure(lists, fanout),
+                              measure(indexed, fanout), measure(longs, fanout));
+        }
+    }
+
+    /**
+     * Prints the bytes per node with a long string key, as copies and
+     * interned.
+     */
+    private static void reportKeys() {
+        final Thing42KeyInterner<String> interner = new Thing42KeyInterner<String>();
+        Factory copies = new Factory() {
+            private int count;
+            public Object create(final int fanout) {
+                return new Thing42<String, String>(key(count++), 0, "node");
+            }
+        };
+        Factory interned = new Factory() {
+            private int count;
+            public Object create(final int fanout) {
+                return new Thing42<String, String>(interner.intern(key(count++)), 0, "node");
+            }
+        };
+        long copyBytes = measure(copies, 0);
+        long internedBytes = measure(interned, 0);
+        System.out.println("Footprint.keys: bytes per node with a key of 60 chars");
+        System.out.printf("%12s %12s%n", "copies", "interned");
+        System.out.printf("%12d %12d%n", copyBytes, internedBytes);
+    }
+
+    /**
+     * Builds a new key, one of 16 distinct ones.
+     *
+     * @param i any number
+     * @return a new string of 60 chars
+     */
+    private static String key(final int i) {
+        return new StringBuilder("org/example/graph/partition-0001/segment-0042/node-")
+            .append(1000000000 + (i & 15)).toString();
+    }
+
+    /**
+     * Creates a Thing42 with some of the given peers.
+     *
+     * @param storage the peer storage
+     * @param peers the peers
+     * @param fanout the number of peers to add
+     * @return the node
+     */
+    private static Thing42<Integer, String> node(final Thing42.PeerStorage storage,
+                                                 final Thing42<Integer, String>[] peers,
+                                                 final int fanout) {
+        Thing42<Integer, String> node = new Thing42<Integer, String>(-1, 0, "node", storage);
+        for (int i = 0; i < fanout; i++) {
+            node.addPeer(peers[i]);
+        }
+        return node;
+    }
+
+    /**
+     * Measures the heap taken by a node.
+     *
+     * @param factory creates the nodes
+     * @param fanout the number of peers of each node
+     * @return the average number of bytes per node
+     */
+    private static long measure(final Factory factory, final int fanout) {
+        Object[] nodes = new Object[NODES];
+        long before = usedHeap();
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = factory.create(fanout);
+        }
+        long after = usedHeap();
+        if (nodes[NODES - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return Math.max(0, (after - before) / NODES);
+    }
+
+    /**
+     * Measures the used heap after collecting garbage.
+     *
+     * @return the number of bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Creates an array of Thing42 objects.
+     *
+     * @param length the length
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<Integer, String>[] newArray(final int length) {
+        return new Thing42[length];
+    }
+}
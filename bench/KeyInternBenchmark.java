@@ -0,0 +1,119 @@
+import java.util.Map;
+
+/**
+ * Benchmarks of lookups by long string keys, with and without a
+ * {@link Thing42KeyInterner}.
+ * <br />
+ * Keys share a long prefix, as paths and qualified names do, so equals
+ * compares most of their characters. With "copies" every peer and
+ * every lookup has its own instance of its key, as if parsed from
+ * input. With "interned" the peers have canonical keys, and lookups
+ * use the canonical keys ("canonical") or copies ("copies"). The cost
+ * of interning a copy is measured on its own. The memory saved is
+ * reported by FootprintBenchmark.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class KeyInternBenchmark implements Microbench.Suite {
+    /** Numbers of peers to run with. */
+    private static final int[] FANOUTS = {16, 4096};
+    /** Prefix of every key. */
+    private static final String PREFIX = "org/example/graph/partition-0001/segment-0042/node-";
+    /** Number of lookup keys, a power of 2. */
+    private static final int LOOKUPS = 1024;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (int fanout : FANOUTS) {
+            for (int threads : bench.getThreadCounts()) {
+                run(bench, fanout, threads, false, false);
+                run(bench, fanout, threads, true, false);
+                run(bench, fanout, threads, true, true);
+            }
+        }
+    }
+
+    /**
+     * Runs all benchmarks for one combination of parameters.
+     * Each thread gets its own node; the peers, keys and interner are
+     * shared.
+     *
+     * @param bench the harness
+     * @param fanout the number of peers, each with its own key
+     * @param threads the number of threads
+     * @param interned whether the peers have canonical keys
+     * @param canonical whether lookups use canonical keys
+     */
+    private void run(final Microbench bench, final int fanout, final int threads,
+                     final boolean interned, final boolean canonical) {
+        final Map<String, String> params = Microbench.params("fanout", String.valueOf(fanout),
+            "keys", interned ? "interned" : "copies", "lookup", canonical ? "canonical" : "copies");
+        final Thing42KeyInterner<String> interner = new Thing42KeyInterner<String>();
+        final Thing42<String, Integer>[] peers = newArray(fanout);
+        for (int i = 0; i < fanout; i++) {
+            String key = copy(PREFIX + i);
+            peers[i] = new Thing42<String, Integer>(interned ? interner.intern(key) : key, i, i);
+        }
+        final Thing42<String, Integer>[] nodes = newArray(threads);
+        for (int t = 0; t < threads; t++) {
+            nodes[t] = new Thing42<String, Integer>(copy("node"), 0, 0);
+            for (Thing42<String, Integer> peer : peers) {
+                nodes[t].addPeer(peer);
+            }
+        }
+        final String[] keys = new String[LOOKUPS];
+        final Thing42<String, Integer>[] twins = newArray(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            int p = (int) ((i * 0x9E3779B9L) & 0x7fffffff) % fanout;
+            keys[i] = canonical ? peers[p].getKey() : copy(PREFIX + p);
+            twins[i] = new Thing42<String, Integer>(keys[i], p, p);
+        }
+
+        bench.measure("KeyIntern.getOnePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return nodes[thread].getOnePeer(keys[(int) i & (LOOKUPS - 1)]).getLevel();
+            }
+        });
+        bench.measure("KeyIntern.removePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<String, Integer> twin = twins[(int) i & (LOOKUPS - 1)];
+                boolean removed = nodes[thread].removePeer(twin);
+                nodes[thread].addPeer(peers[(int) twin.getLevel()]);
+                return removed ? 1 : 0;
+            }
+        });
+        if (interned && !canonical) {
+            bench.measure("KeyIntern.intern", params, threads, new Microbench.Op() {
+                public long run(final int thread, final long i) {
+                    return interner.intern(keys[(int) i & (LOOKUPS - 1)]).length();
+                }
+            });
+        }
+    }
+
+    /**
+     * Copies a string, so that it is not the instance of any other key.
+     *
+     * @param s the string
+     * @return an equal, new string
+     */
+    private static String copy(final String s) {
+        return new String(s.toCharArray());
+    }
+
+    /**
+     * Creates an array of Thing42 objects.
+     *
+     * @param length the length
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<String, Integer>[] newArray(final int length) {
+        return new Thing42[length];
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Map;
+
+/**
+ * Benchmarks of LongThing42 against Thing42&lt;Long, Long&gt;.
+ * <br />
+ * Both nodes get the same peers, with keys above the range of the Long
+ * cache so that boxing really allocates. LongThing42 is measured
+ * through its primitive accessors and, to show the cost of the
+ * interface, through the boxed ones.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class LongThing42Benchmark implements Microbench.Suite {
+    /** Numbers of peers to run with. */
+    private static final int[] FANOUTS = {16, 4096};
+    /** Smallest key, above the values cached by Long.valueOf. */
+    private static final long FIRST_KEY = 1000;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (int fanout : FANOUTS) {
+            for (int threads : bench.getThreadCounts()) {
+                run(bench, fanout, threads, "generic");
+                run(bench, fanout, threads, "long");
+                run(bench, fanout, threads, "long-boxed");
+            }
+        }
+    }
+
+    /**
+     * Runs all benchmarks for one combination of parameters.
+     * Each thread gets its own node.
+     *
+     * @param bench the harness
+     * @param fanout the number of peers
+     * @param threads the number of threads
+     * @param impl "generic" for Thing42, "long" for the primitive
+     * accessors of LongThing42, "long-boxed" for its boxed accessors
+     */
+    private void run(final Microbench bench, final int fanout, final int threads,
+                     final String impl) {
+        final Map<String, String> params = Microbench.params("fanout",
+            String.valueOf(fanout), "impl", impl);
+        final boolean generic = "generic".equals(impl);
+        final boolean primitive = "long".equals(impl);
+        final Thing42<Long, Long>[] boxed = newGenericArray(threads);
+        final LongThing42[] longs = new LongThing42[threads];
+        for (int t = 0; t < threads; t++) {
+            boxed[t] = new Thing42<Long, Long>(Long.valueOf(-1), 0, Long.valueOf(FIRST_KEY));
+            longs[t] = new LongThing42(-1, 0, FIRST_KEY);
+            for (int i = 0; i < fanout; i++) {
+                if (generic) {
+                    boxed[t].addPeer(new Thing42<Long, Long>(FIRST_KEY + i, i, FIRST_KEY));
+                } else {
+                    longs[t].addPeer(new LongThing42(FIRST_KEY + i, i, FIRST_KEY));
+                }
+            }
+        }
+
+        bench.measure("Long.getOnePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                long key = FIRST_KEY + i % fanout;
+                if (generic) {
+                    return boxed[thread].getOnePeer(Long.valueOf(key)) == null ? 0 : 1;
+                }
+                if (primitive) {
+                    return longs[thread].getOnePeer(key) == null ? 0 : 1;
+                }
+                return longs[thread].getOnePeer(Long.valueOf(key)) == null ? 0 : 1;
+            }
+        });
+        bench.measure("Long.getOnePeer.miss", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                long key = FIRST_KEY + fanout + i % fanout;
+                if (generic) {
+                    return boxed[thread].getOnePeer(Long.valueOf(key)) == null ? 0 : 1;
+                }
+                if (primitive) {
+                    return longs[thread].getOnePeer(key) == null ? 0 : 1;
+                }
+                return longs[thread].getOnePeer(Long.valueOf(key)) == null ? 0 : 1;
+            }
+        });
+        bench.measure("Long.setData+getData", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                long value = FIRST_KEY + i;
+                if (generic) {
+                    boxed[thread].setData(Long.valueOf(value));
+                    return boxed[thread].getData().longValue();
+                }
+                if (primitive) {
+                    longs[thread].setData(value);
+                    return longs[thread].getDataAsLong();
+                }
+                longs[thread].setData(Long.valueOf(value));
+                return longs[thread].getData().longValue();
+            }
+        });
+        bench.measure("Long.addPeer+removePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                if (generic) {
+                    Thing42<Long, Long> peer
+                        = new Thing42<Long, Long>(FIRST_KEY + i % fanout, 0, Long.valueOf(0));
+                    boxed[thread].addPeer(peer);
+                    return boxed[thread].removePeer(peer) ? 1 : 0;
+                }
+                LongThing42 peer = new LongThing42(FIRST_KEY + i % fanout, 0, 0);
+                longs[thread].addPeer(peer);
+                return longs[thread].removePeer(peer) ? 1 : 0;
+            }
+        });
+    }
+
+    /**
+     * Creates an array of generic nodes.
+     *
+     * @param length the length
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<Long, Long>[] newGenericArray(final int length) {
+        return new Thing42[length];
+    }
+}
@@ -0,0 +1,377 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.regex.Pattern;
+
+/**
+ * Small throughput harness used by the Thing42 benchmarks.
+ * <br />
+ * Each benchmark is an {@link Op} that is called in a tight loop by
+ * one or more threads for a fixed amount of time. The harness runs a
+ * number of warmup iterations followed by measured iterations and
+ * reports the mean throughput (ops/s) and its standard deviation.
+ * Results are printed as a table and written as a JSON array so that
+ * runs can be compared by other tools.
+ * <br /><br />
+ * Settings are read from system properties:
+ * <ul>
+ * <li><code>bench.warmup</code> number of warmup iterations (3)</li>
+ * <li><code>bench.iterations</code> number of measured iterations (5)</li>
+ * <li><code>bench.time</code> length of one iteration in ms (1000)</li>
+ * <li><code>bench.threads</code> comma separated thread counts
+ *     (1 and the number of available processors)</li>
+ * <li><code>bench.filter</code> regular expression a benchmark name
+ *     must contain to be run (all)</li>
+ * <li><code>bench.out</code> JSON result file (none)</li>
+ * </ul>
+ * The arguments of {@link #main(String[])} are the class names of the
+ * {@link Suite}s to run.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Microbench {
+    /**
+     * A group of benchmarks.
+     */
+    public interface Suite {
+        /**
+         * Registers and runs the benchmarks of this suite.
+         *
+         * @param bench the harness to measure with
+         */
+        void run(Microbench bench);
+    }
+
+    /**
+     * A single benchmarked operation.
+     */
+    public interface Op {
+        /**
+         * Performs the operation once.
+         *
+         * @param thread index of the calling thread, from 0
+         * @param iteration number of calls already made by this thread
+         * @return any value derived from the result, so that the
+         * operation cannot be optimized away
+         */
+        long run(int thread, long iteration);
+    }
+
+    /** Measured iterations of one benchmark. */
+    private static final class Result {
+        /** Benchmark name. */
+        private final String name;
+        /** Benchmark parameters, in declaration order. */
+        private final Map<String, String> params;
+        /** Number of threads calling the operation. */
+        private final int threads;
+        /** Throughput of each measured iteration, in ops/s. */
+        private final double[] samples;
+
+        /**
+         * Constructor for objects of class Result.
+         *
+         * @param name the benchmark name
+         * @param params the benchmark parameters
+         * @param threads the number of threads
+         * @param samples the measured throughputs
+         */
+        private Result(final String name, final Map<String, String> params,
+                       final int threads, final double[] samples) {
+            this.name = name;
+            this.params = params;
+            this.threads = threads;
+            this.samples = samples;
+        }
+
+        /**
+         * Mean of the samples.
+         *
+         * @return the mean throughput
+         */
+        private double mean() {
+            double sum = 0;
+            for (double s : samples) {
+                sum += s;
+            }
+            return sum / samples.length;
+        }
+
+        /**
+         * Sample standard deviation of the samples.
+         *
+         * @return the standard deviation, 0 for a single sample
+         */
+        private double stddev() {
+            if (samples.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double sum = 0;
+            for (double s : samples) {
+                sum += (s - mean) * (s - mean);
+            }
+            return Math.sqrt(sum / (samples.length - 1));
+        }
+    }
+
+    /** Sink for the values returned by operations. */
+    private static volatile long sink;
+
+    /** Number of warmup iterations. */
+    private final int warmup;
+    /** Number of measured iterations. */
+    private final int iterations;
+    /** Length of one iteration in milliseconds. */
+    private final long time;
+    /** Thread counts every benchmark is run with. */
+    private final int[] threadCounts;
+    /** Only benchmarks whose name contains this pattern are run. */
+    private final Pattern filter;
+    /** Results collected so far. */
+    private final List<Result> results = new ArrayList<Result>();
+
+    /** Set to stop the threads of the running iteration. */
+    private volatile boolean stop;
+
+    /**
+     * Constructor for objects of class Microbench.
+     * Settings are read from the system properties.
+     */
+    public Microbench() {
+        this.warmup = Integer.getInteger("bench.warmup", 3);
+        this.iterations = Integer.getInteger("bench.iterations", 5);
+        this.time = Long.getLong("bench.time", 1000L);
+        String threads = System.getProperty("bench.threads",
+            "1," + Runtime.getRuntime().availableProcessors());
+        String[] parts = threads.split(",");
+        this.threadCounts = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            threadCounts[i] = Integer.parseInt(parts[i].trim());
+        }
+        this.filter = Pattern.compile(System.getProperty("bench.filter", ""));
+    }
+
+    /**
+     * Thread counts benchmarks are run with.
+     * Suites that only support a single thread may ignore this.
+     *
+     * @return the configured thread counts
+     */
+    public int[] getThreadCounts() {
+        return threadCounts.clone();
+    }
+
+    /**
+     * Builds a parameter map from alternating names and values.
+     *
+     * @param namesAndValues name, value, name, value...
+     * @return the parameters in the given order
+     */
+    public static Map<String, String> params(final Object... namesAndValues) {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            params.put(String.valueOf(namesAndValues[i]),
+                       String.valueOf(namesAndValues[i + 1]));
+        }
+        return params;
+    }
+
+    /**
+     * Tells whether a benchmark passes the configured filter.
+     * Suites can use this to skip expensive setup.
+     *
+     * @param name the benchmark name
+     * @return true if the benchmark should be run
+     */
+    public boolean isSelected(final String name) {
+        return filter.matcher(name).find();
+    }
+
+    /**
+     * Measures the throughput of an operation.
+     * Does nothing if the name does not pass the filter.
+     *
+     * @param name the benchmark name
+     * @param params the benchmark parameters, reported with the result
+     * @param threads the number of threads calling the operation
+     * @param op the operation
+     */
+    public void measure(final String name, final Map<String, String> params,
+                        final int threads, final Op op) {
+        if (!isSelected(name)) {
+            return;
+        }
+        final long[] counts = new long[threads];
+        for (int i = 0; i < warmup; i++) {
+            runIteration(threads, op, counts);
+        }
+        double[] samples = new double[iterations];
+        for (int i = 0; i < iterations; i++) {
+            samples[i] = runIteration(threads, op, counts);
+        }
+        Result result = new Result(name, params, threads, samples);
+        results.add(result);
+        System.out.println(String.format(Locale.ROOT, "%-40s %-48s %3d %16.1f +- %12.1f ops/s",
+            name, params, threads, result.mean(), result.stddev()));
+    }
+
+    /**
+     * Runs one timed iteration.
+     *
+     * @param threads the number of threads
+     * @param op the operation
+     * @param counts per-thread call counts, carried across iterations
+     * @return the throughput of the iteration in ops/s
+     */
+    private double runIteration(final int threads, final Op op, final long[] counts) {
+        final CyclicBarrier start = new CyclicBarrier(threads + 1);
+        final long[] done = new long[threads];
+        Thread[] workers = new Thread[threads];
+        stop = false;
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    long i = counts[thread];
+                    long acc = 0;
+                    await(start);
+                    while (!stop) {
+                        acc += op.run(thread, i++);
+                    }
+                    done[thread] = i - counts[thread];
+                    counts[thread] = i;
+                    sink += acc;
+                }
+            });
+            workers[t].start();
+        }
+        await(start);
+        long begin = System.nanoTime();
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stop = true;
+        long elapsed = System.nanoTime() - begin;
+        long ops = 0;
+        for (int t = 0; t < threads; t++) {
+            try {
+                workers[t].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ops += done[t];
+        }
+        return ops * 1e9 / elapsed;
+    }
+
+    /**
+     * Waits on a barrier, converting checked exceptions.
+     *
+     * @param barrier the barrier to wait on
+     */
+    private static void await(final CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes all results as a JSON array.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeJson(final File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.println("[");
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                out.print("  {\"benchmark\": " + quote(result.name));
+                out.print(", \"params\": {");
+                Iterator<Map.Entry<String, String>> it = result.params.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, String> e = it.next();
+                    out.print(quote(e.getKey()) + ": " + quote(e.getValue()));
+                    if (it.hasNext()) {
+                        out.print(", ");
+                    }
+                }
+                out.print("}, \"threads\": " + result.threads);
+                out.print(", \"mode\": \"thrpt\", \"unit\": \"ops/s\"");
+                out.print(String.format(Locale.ROOT, ", \"score\": %.3f, \"error\": %.3f",
+                    result.mean(), result.stddev()));
+                out.print(", \"samples\": [");
+                for (int i = 0; i < result.samples.length; i++) {
+                    out.print(String.format(Locale.ROOT, i == 0 ? "%.3f" : ", %.3f",
+                        result.samples[i]));
+                }
+                out.println(r + 1 < results.size() ? "]}," : "]}");
+            }
+            out.println("]");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Quotes a string for JSON.
+     *
+     * @param s the string
+     * @return the quoted string
+     */
+    private static String quote(final String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Runs the given suites and writes the results to the
+     * <code>bench.out</code> file if one is configured.
+     *
+     * @param args class names of the suites to run
+     * @throws Exception if a suite cannot be created or the results
+     * cannot be written
+     */
+    public static void main(final String[] args) throws Exception {
+        Microbench bench = new Microbench();
+        for (String name : args) {
+            Suite suite = (Suite) Class.forName(name).getDeclaredConstructor().newInstance();
+            System.out.println("# " + name);
+            suite.run(bench);
+        }
+        String out = System.getProperty("bench.out");
+        if (out != null && out.length() > 0) {
+            bench.writeJson(new File(out));
+            System.out.println("# results written to " + out);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Map;
+
+/**
+ * Benchmarks of lookups by key that mostly miss, with and without the
+ * peer filter of Thing42.
+ * <br />
+ * Keys are strings with a long shared prefix, as paths and qualified
+ * names are. The lookup keys hit a peer with the given rate and
+ * otherwise name keys no peer has. With 8 peers a node keeps them in
+ * its compact array, which a miss scans comparing keys; with 4096 a
+ * miss is one probe of a HashMap. The cost of keeping the filter up
+ * to date is measured by removing and adding back a peer followed by a
+ * lookup; the removals rebuild the filter once per fanout of them.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class PeerFilterBenchmark implements Microbench.Suite {
+    /** Numbers of peers to run with. */
+    private static final int[] FANOUTS = {8, 4096};
+    /** Percentages of lookups that find a peer. */
+    private static final int[] HIT_PERCENTS = {50, 10, 1};
+    /** Prefix of every key. */
+    private static final String PREFIX = "org/example/graph/partition-0001/segment-0042/node-";
+    /** Number of lookup keys, a power of 2. */
+    private static final int LOOKUPS = 1024;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (int fanout : FANOUTS) {
+            for (int hits : HIT_PERCENTS) {
+                for (int threads : bench.getThreadCounts()) {
+                    run(bench, fanout, hits, threads, false);
+                    run(bench, fanout, hits, threads, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs all benchmarks for one combination of parameters.
+     * Each thread gets its own node; the peers and keys are shared.
+     *
+     * @param bench the harness
+     * @param fanout the number of peers, each with its own key
+     * @param hits the percentage of lookups that find a peer
+     * @param threads the number of threads
+     * @param filtered whether the nodes have the peer filter on
+     */
+    private void run(final Microbench bench, final int fanout, final int hits,
+                     final int threads, final boolean filtered) {
+        final Map<String, String> params = Microbench.params("fanout", String.valueOf(fanout),
+            "hits", hits + "%", "filter", filtered ? "on" : "off");
+        final Thing42<String, Integer>[] peers = newArray(fanout);
+        for (int i = 0; i < fanout; i++) {
+            peers[i] = new Thing42<String, Integer>(PREFIX + i, i, i);
+        }
+        final Thing42<String, Integer>[] nodes = newArray(threads);
+        for (int t = 0; t < threads; t++) {
+            nodes[t] = new Thing42<String, Integer>("node", 0, 0);
+            for (Thing42<String, Integer> peer : peers) {
+                nodes[t].addPeer(peer);
+            }
+            nodes[t].setPeerFilter(filtered);
+        }
+        final String[] keys = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int p = (int) ((i * 0x9E3779B9L) & 0x7fffffff);
+            keys[i] = (p % 100 < hits) ? PREFIX + (p % fanout) : PREFIX + (fanout + p % 100000);
+        }
+
+        bench.measure("PeerFilter.getOnePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return nodes[thread].getOnePeer(keys[(int) i & (LOOKUPS - 1)]) == null ? 0 : 1;
+            }
+        });
+        bench.measure("PeerFilter.getPeersAsCollection", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return nodes[thread].getPeersAsCollection(keys[(int) i & (LOOKUPS - 1)]).size();
+            }
+        });
+        if (hits == HIT_PERCENTS[0]) {
+            bench.measure("PeerFilter.removePeer+addPeer+getOnePeer", params, threads,
+                          new Microbench.Op() {
+                public long run(final int thread, final long i) {
+                    Thing42<String, Integer> peer = peers[(int) (i % fanout)];
+                    boolean removed = nodes[thread].removePeer(peer);
+                    nodes[thread].addPeer(peer);
+                    nodes[thread].getOnePeer(keys[(int) i & (LOOKUPS - 1)]);
+                    return removed ? 1 : 0;
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates an array of Thing42 objects.
+     *
+     * @param length the length
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<String, Integer>[] newArray(final int length) {
+        return new Thing42[length];
+    }
+}
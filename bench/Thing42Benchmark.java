@@ -0,0 +1,427 @@
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks for every operation of Thing42.
+ * <br />
+ * Each operation is measured with a small and a large fan-out (number
+ * of peers and pool members of the benchmarked node) and with a hot and
+ * a cold key distribution. With the hot distribution all peers share a
+ * handful of keys, so per-key buckets are large; with the cold
+ * distribution every peer has its own key.
+ * <br /><br />
+ * Read-only operations share one node between all threads. Thing42 is
+ * not thread safe, so mutating operations give every thread its own
+ * node; with more than one thread they measure how the operation
+ * scales when the nodes are independent.
+ * <br /><br />
+ * Peer removal and lookup are also measured with
+ * {@link Thing42.PeerStorage#INDEXED} peer storage, and equals and
+ * hashCode with {@link Thing42.Equality#STRUCTURAL} equality. Pool
+ * operations are also measured with {@link Thing42.PoolStorage#SEGMENTED}
+ * and {@link Thing42.PoolStorage#DEQUE} pool storage, and setData and removePeer with a {@link Thing42Feed}
+ * recording every change and with {@link Thing42Metrics} enabled.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42Benchmark implements Microbench.Suite {
+    /** Fan-outs measured. */
+    private static final int[] FANOUTS = {16, 4096};
+    /** Number of distinct keys with the hot distribution. */
+    private static final int HOT_KEYS = 4;
+    /** Length of the precomputed random index sequences, a power of 2. */
+    private static final int SEQUENCE = 1024;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        for (int fanout : FANOUTS) {
+            for (String dist : new String[] {"hot", "cold"}) {
+                for (int threads : bench.getThreadCounts()) {
+                    run(bench, fanout, dist, threads);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs all benchmarks for one combination of parameters.
+     *
+     * @param bench the harness
+     * @param fanout the number of peers and pool members
+     * @param dist the key distribution, "hot" or "cold"
+     * @param threads the number of threads
+     */
+    private void run(final Microbench bench, final int fanout, final String dist,
+                     final int threads) {
+        final Map<String, String> params = Microbench.params("fanout", fanout, "keys", dist,
+            "peers", "lists");
+        final Map<String, String> indexedParams = Microbench.params("fanout", fanout,
+            "keys", dist, "peers", "indexed");
+        final Map<String, String> segmentedParams = Microbench.params("fanout", fanout,
+            "keys", dist, "pool", "segmented");
+        final Map<String, String> dequeParams = Microbench.params("fanout", fanout,
+            "keys", dist, "pool", "deque");
+        final Map<String, String> feedParams = Microbench.params("fanout", fanout,
+            "keys", dist, "peers", "lists", "feed", "yes");
+        final Map<String, String> metricsParams = Microbench.params("fanout", fanout,
+            "keys", dist, "peers", "lists", "metrics", "on");
+        final Map<String, String> structuralParams = Microbench.params("fanout", fanout,
+            "keys", dist, "peers", "lists", "equality", "structural");
+        final int keyCount = "hot".equals(dist) ? Math.min(HOT_KEYS, fanout) : fanout;
+        final Thing42<Integer, Integer>[] members = members(fanout, keyCount);
+        final int[] index = sequence(fanout, 42);
+        final int[] lookup = sequence(keyCount, 7);
+        final int mask = SEQUENCE - 1;
+
+        final Thing42<Integer, Integer> shared = node(members);
+        final Thing42<Integer, Integer> twin = node(members(fanout, keyCount));
+        final Thing42<Integer, Integer> structural = structural(members(fanout, keyCount));
+        final Thing42<Integer, Integer> structuralTwin = structural(members(fanout, keyCount));
+        final Thing42<Integer, Integer>[] own = nodes(threads, members);
+        final Thing42<Integer, Integer>[] indexed = nodes(threads, members);
+
+        bench.measure("Thing42.addPeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                int n = (int) (i % fanout);
+                if (n == 0) {
+                    own[thread] = new Thing42<Integer, Integer>(-1, 0, 0);
+                }
+                own[thread].addPeer(members[n]);
+                return n;
+            }
+        });
+        bench.measure("Thing42.appendToPool", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                int n = (int) (i % fanout);
+                if (n == 0) {
+                    own[thread] = new Thing42<Integer, Integer>(-1, 0, 0);
+                }
+                own[thread].appendToPool(members[n]);
+                return n;
+            }
+        });
+
+        bench.measure("Thing42.appendToPool", segmentedParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                int n = (int) (i % fanout);
+                if (n == 0) {
+                    own[thread] = new Thing42<Integer, Integer>(-1, 0, 0, Thing42.PeerStorage.LISTS,
+                        Thing42.Equality.DEEP, Thing42.PoolStorage.SEGMENTED);
+                }
+                own[thread].appendToPool(members[n]);
+                return n;
+            }
+        });
+
+        fill(own, members);
+        final Thing42<Integer, Integer> segmented = new Thing42<Integer, Integer>(-1, 0, 0,
+            Thing42.PeerStorage.LISTS, Thing42.Equality.DEEP, Thing42.PoolStorage.SEGMENTED);
+        for (Thing42<Integer, Integer> member : members) {
+            segmented.appendToPool(member);
+        }
+        bench.measure("Thing42.getPoolAsList", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                long levels = 0;
+                for (Thing42orNull<Integer, Integer> member : shared.getPoolAsList()) {
+                    levels += member.getLevel();
+                }
+                return levels;
+            }
+        });
+        bench.measure("Thing42.getPoolAsList", segmentedParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                long levels = 0;
+                for (Thing42orNull<Integer, Integer> member : segmented.getPoolAsList()) {
+                    levels += member.getLevel();
+                }
+                return levels;
+            }
+        });
+        bench.measure("Thing42.getOnePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return shared.getOnePeer(lookup[(int) i & mask]) == null ? 0 : 1;
+            }
+        });
+        bench.measure("Thing42.getPeersAsCollection", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                long levels = 0;
+                for (Thing42orNull<Integer, Integer> peer : shared.getPeersAsCollection()) {
+                    levels += peer.getLevel();
+                }
+                return levels;
+            }
+        });
+        bench.measure("Thing42.getPeersAsCollection(K)", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return shared.getPeersAsCollection(lookup[(int) i & mask]).size();
+            }
+        });
+        // Removals put the member back so the node keeps its fan-out.
+        bench.measure("Thing42.removePeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = members[index[(int) i & mask]];
+                boolean removed = own[thread].removePeer(member);
+                own[thread].addPeer(member);
+                return removed ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.containsPeer", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return shared.containsPeer(members[index[(int) i & mask]]) ? 1 : 0;
+            }
+        });
+        for (int t = 0; t < threads; t++) {
+            indexed[t] = node(members, Thing42.PeerStorage.INDEXED);
+        }
+        bench.measure("Thing42.removePeer", indexedParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = members[index[(int) i & mask]];
+                boolean removed = indexed[thread].removePeer(member);
+                indexed[thread].addPeer(member);
+                return removed ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.containsPeer", indexedParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return indexed[thread].containsPeer(members[index[(int) i & mask]]) ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.removeFromPool", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = members[index[(int) i & mask]];
+                boolean removed = own[thread].removeFromPool(member);
+                own[thread].appendToPool(member);
+                return removed ? 1 : 0;
+            }
+        });
+        @SuppressWarnings("unchecked")
+        final Thing42<Integer, Integer>[] queues = new Thing42[threads];
+        for (int t = 0; t < threads; t++) {
+            queues[t] = new Thing42<Integer, Integer>(-1, 0, 0, Thing42.PeerStorage.LISTS,
+                Thing42.Equality.DEEP, Thing42.PoolStorage.DEQUE);
+            for (Thing42<Integer, Integer> member : members) {
+                queues[t].appendToPool(member);
+            }
+        }
+        bench.measure("Thing42.removeFromPool", dequeParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = members[index[(int) i & mask]];
+                boolean removed = queues[thread].removeFromPool(member);
+                queues[thread].appendToPool(member);
+                return removed ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.poolContains", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return own[thread].poolContains(members[index[(int) i & mask]]) ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.poolContains", dequeParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return queues[thread].poolContains(members[index[(int) i & mask]]) ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.pollPool+appendToPool", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42orNull<Integer, Integer> head = own[thread].pollPool();
+                own[thread].appendToPool(head);
+                return head.getLevel();
+            }
+        });
+        bench.measure("Thing42.pollPool+appendToPool", dequeParams, threads,
+                      new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42orNull<Integer, Integer> head = queues[thread].pollPool();
+                queues[thread].appendToPool(head);
+                return head.getLevel();
+            }
+        });
+        bench.measure("Thing42.setData", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                own[thread].setData((int) i);
+                return i;
+            }
+        });
+        // The same with every change recorded in a feed whose listener
+        // only counts the changes.
+        final long[] seen = new long[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thing42Feed<Integer, Integer> feed = new Thing42Feed<Integer, Integer>(1024);
+            feed.addListener(new Thing42Feed.Listener<Integer, Integer>() {
+                public void onChanges(final Thing42Feed<Integer, Integer>.Changes changes) {
+                    seen[thread] += changes.size();
+                }
+            });
+            own[t].setFeed(feed);
+        }
+        bench.measure("Thing42.setData", feedParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                own[thread].setData((int) i);
+                return seen[thread];
+            }
+        });
+        bench.measure("Thing42.removePeer", feedParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = members[index[(int) i & mask]];
+                boolean removed = own[thread].removePeer(member);
+                own[thread].addPeer(member);
+                return removed ? 1 : 0;
+            }
+        });
+        for (Thing42<Integer, Integer> node : own) {
+            node.setFeed(null);
+        }
+        // The same with metrics turned on, which deoptimizes the code
+        // compiled while they were off.
+        Thing42Metrics.setEnabled(true);
+        bench.measure("Thing42.setData", metricsParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                own[thread].setData((int) i);
+                return i;
+            }
+        });
+        bench.measure("Thing42.removePeer", metricsParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                Thing42<Integer, Integer> member = members[index[(int) i & mask]];
+                boolean removed = own[thread].removePeer(member);
+                own[thread].addPeer(member);
+                return removed ? 1 : 0;
+            }
+        });
+        Thing42Metrics.setEnabled(false);
+        Thing42Metrics.reset();
+        bench.measure("Thing42.equals", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return shared.equals(twin) ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.hashCode", params, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return shared.hashCode();
+            }
+        });
+        bench.measure("Thing42.equals", structuralParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return structural.equals(structuralTwin) ? 1 : 0;
+            }
+        });
+        bench.measure("Thing42.hashCode", structuralParams, threads, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return structural.hashCode();
+            }
+        });
+    }
+
+    /**
+     * Creates leaf nodes to be used as peers and pool members.
+     *
+     * @param count the number of nodes
+     * @param keyCount the number of distinct keys among them
+     * @return the nodes
+     */
+    @SuppressWarnings("unchecked")
+    static Thing42<Integer, Integer>[] members(final int count, final int keyCount) {
+        Thing42<Integer, Integer>[] members = new Thing42[count];
+        for (int i = 0; i < count; i++) {
+            members[i] = new Thing42<Integer, Integer>(i % keyCount, i, i);
+        }
+        return members;
+    }
+
+    /**
+     * Creates a node having every member as a peer and in its pool.
+     *
+     * @param members the peers and pool members
+     * @return the node
+     */
+    static Thing42<Integer, Integer> node(final Thing42<Integer, Integer>[] members) {
+        return node(members, Thing42.PeerStorage.LISTS);
+    }
+
+    /**
+     * Creates a node having every member as a peer and in its pool.
+     *
+     * @param members the peers and pool members
+     * @param storage how the node stores its peers
+     * @return the node
+     */
+    static Thing42<Integer, Integer> node(final Thing42<Integer, Integer>[] members,
+                                          final Thing42.PeerStorage storage) {
+        Thing42<Integer, Integer> node = new Thing42<Integer, Integer>(-1, 0, 0, storage);
+        for (Thing42<Integer, Integer> member : members) {
+            node.addPeer(member);
+            node.appendToPool(member);
+        }
+        return node;
+    }
+
+    /**
+     * Creates a node with structural equality having every member,
+     * also with structural equality, as a peer and in its pool.
+     *
+     * @param leaves the keys, levels and data of the members
+     * @return the node
+     */
+    static Thing42<Integer, Integer> structural(final Thing42<Integer, Integer>[] leaves) {
+        Thing42<Integer, Integer> node = new Thing42<Integer, Integer>(-1, 0, 0,
+            Thing42.PeerStorage.LISTS, Thing42.Equality.STRUCTURAL);
+        for (Thing42<Integer, Integer> leaf : leaves) {
+            Thing42<Integer, Integer> member = new Thing42<Integer, Integer>(leaf.getKey(),
+                leaf.getLevel(), leaf.getData(), Thing42.PeerStorage.LISTS,
+                Thing42.Equality.STRUCTURAL);
+            node.addPeer(member);
+            node.appendToPool(member);
+        }
+        return node;
+    }
+
+    /**
+     * Creates one node per thread.
+     *
+     * @param threads the number of threads
+     * @param members the peers and pool members of each node
+     * @return the nodes
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<Integer, Integer>[] nodes(final int threads,
+                                                     final Thing42<Integer, Integer>[] members) {
+        Thing42<Integer, Integer>[] nodes = new Thing42[threads];
+        fill(nodes, members);
+        return nodes;
+    }
+
+    /**
+     * Replaces every node of an array with a freshly filled node.
+     *
+     * @param nodes the nodes to replace
+     * @param members the peers and pool members of each node
+     */
+    private static void fill(final Thing42<Integer, Integer>[] nodes,
+                             final Thing42<Integer, Integer>[] members) {
+        for (int t = 0; t < nodes.length; t++) {
+            nodes[t] = node(members);
+        }
+    }
+
+    /**
+     * Precomputes a pseudo-random sequence of indexes.
+     *
+     * @param bound the exclusive upper bound of the indexes
+     * @param seed the random seed
+     * @return the sequence, of length {@link #SEQUENCE}
+     */
+    static int[] sequence(final int bound, final long seed) {
+        Random random = new Random(seed);
+        int[] sequence = new int[SEQUENCE];
+        for (int i = 0; i < SEQUENCE; i++) {
+            sequence[i] = random.nextInt(bound);
+        }
+        return sequence;
+    }
+}
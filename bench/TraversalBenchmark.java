@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scaling benchmark of the parallel traversal.
+ * <br />
+ * A random graph of 2^18 nodes with 4 peers each is walked as a whole,
+ * counting its nodes, by the sequential walk and by the parallel one
+ * on pools of 1, 2, 4... up to the number of available processors. The
+ * graph is built once on the heap, walked by identity, and once off
+ * the heap, walked by handle. Ops/s counts whole walks.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class TraversalBenchmark implements Microbench.Suite {
+    /** Number of nodes. */
+    private static final int NODES = 1 << 18;
+    /** Number of peers of each node. */
+    private static final int FANOUT = 4;
+
+    /**
+     * Runs the suite.
+     *
+     * @param bench the harness to measure with
+     */
+    public void run(final Microbench bench) {
+        Random random = new Random(42);
+        List<Thing42<Integer, Integer>> nodes = new ArrayList<Thing42<Integer, Integer>>(NODES);
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new Thing42<Integer, Integer>(i, i, i, Thing42.PeerStorage.INDEXED,
+                                                    Thing42.Equality.IDENTITY));
+        }
+        OffHeapGraph graph = new OffHeapGraph();
+        for (int i = 0; i < NODES; i++) {
+            graph.add(i, i, i);
+        }
+        for (int i = 0; i < NODES; i++) {
+            // a ring keeps every node reachable from node 0
+            int[] peers = new int[FANOUT];
+            peers[0] = (i + 1) % NODES;
+            for (int j = 1; j < FANOUT; j++) {
+                peers[j] = random.nextInt(NODES);
+            }
+            for (int p : peers) {
+                nodes.get(i).addPeer(nodes.get(p));
+                graph.addPeer(i, p);
+            }
+        }
+        run(bench, "heap", new Thing42Traversal<Integer, Integer>(nodes.get(0)));
+        run(bench, "off-heap", new Thing42Traversal<Long, Long>(graph.node(0))
+            .visited(Thing42Traversal.Visited.HANDLES));
+    }
+
+    /**
+     * Runs the walks of one graph.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param bench the harness
+     * @param storage "heap" or "off-heap"
+     * @param traversal the walk of the whole graph
+     */
+    private <K, D> void run(final Microbench bench, final String storage,
+                            final Thing42Traversal<K, D> traversal) {
+        Map<String, String> params = Microbench.params("nodes", String.valueOf(NODES),
+            "storage", storage, "parallelism", "sequential");
+        bench.measure("Traversal.count", params, 1, new Microbench.Op() {
+            public long run(final int thread, final long i) {
+                return traversal.stream().count();
+            }
+        });
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int parallelism = 1; ; parallelism = Math.min(2 * parallelism, cores)) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            params = Microbench.params("nodes", String.valueOf(NODES),
+                "storage", storage, "parallelism", String.valueOf(parallelism));
+            bench.measure("Traversal.count", params, 1, new Microbench.Op() {
+                public long run(final int thread, final long i) {
+                    return traversal.count(pool);
+                }
+            });
+            pool.shutdown();
+            if (parallelism == cores) {
+                break;
+            }
+        }
+    }
+}
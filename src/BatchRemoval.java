@@ -0,0 +1,65 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Removes a batch of elements from a list in a single compaction, for
+ * the batch methods of the list-backed stores.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class BatchRemoval {
+    /**
+     * Prevents instantiation.
+     */
+    private BatchRemoval() {
+    }
+
+    /**
+     * Removes, for each element of a batch in turn, the first element
+     * of a list equal to it and not already removed, as repeated calls
+     * to {@link List#remove(Object)} would; but the list is compacted
+     * once instead of shifted for every removal.
+     *
+     * @param <T> the type of element
+     * @param list the list to remove from
+     * @param batch the elements to remove
+     * @param removed receives the removed elements of the list; may be null
+     * @return the number of elements removed
+     */
+    static <T> int removeAll(final List<T> list, final Collection<? extends T> batch,
+                              final List<? super T> removed) {
+        int n = list.size();
+        boolean[] gone = new boolean[n];
+        int count = 0;
+        // elements before first are all removed, so removing a prefix
+        // in order takes a single pass
+        int first = 0;
+        for (T element : batch) {
+            for (int i = first; i < n; i++) {
+                if (!gone[i] && element.equals(list.get(i))) {
+                    gone[i] = true;
+                    count++;
+                    break;
+                }
+            }
+            while (first < n && gone[first]) {
+                first++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        int w = 0;
+        for (int i = 0; i < n; i++) {
+            T t = list.get(i);
+            if (!gone[i]) {
+                list.set(w++, t);
+            } else if (removed != null) {
+                removed.add(t);
+            }
+        }
+        list.subList(w, n).clear();
+        return count;
+    }
+}
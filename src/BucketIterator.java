@@ -0,0 +1,64 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only iterator over the peers of a sequence of key buckets.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class BucketIterator<K, D> implements Iterator<Thing42orNull<K, D>> {
+    /** Buckets not yet started. */
+    private final Iterator<? extends Iterable<Thing42orNull<K, D>>> buckets;
+    /** Iterator over the current bucket. */
+    private Iterator<Thing42orNull<K, D>> current;
+
+    /**
+     * Constructor for objects of class BucketIterator.
+     *
+     * @param buckets the buckets to iterate
+     */
+    BucketIterator(final Iterator<? extends Iterable<Thing42orNull<K, D>>> buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * Tells whether there are more peers.
+     *
+     * @return true if next() returns a peer
+     */
+    public boolean hasNext() {
+        while (current == null || !current.hasNext()) {
+            if (!buckets.hasNext()) {
+                return false;
+            }
+            current = buckets.next().iterator();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next peer.
+     *
+     * @return the next peer
+     * @throws NoSuchElementException if there are no more peers
+     */
+    public Thing42orNull<K, D> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Not supported.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Growable set of non-negative longs, kept as a bitmap that many
+ * threads may set bits of at once, for visiting nodes by handle.
+ * <br />
+ * The bits live in chunks of 2^22 bits (512 KB) that are allocated
+ * when a bit in them is first set, so a walk over part of a big graph
+ * only pays for the handles it touches. Setting a bit is a read and,
+ * if the bit was clear, a compare-and-set.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class ConcurrentBitmap {
+    /** log2 of the number of longs per chunk. */
+    private static final int SHIFT = 16;
+    /** Mask of the index of a long within its chunk. */
+    private static final int MASK = (1 << SHIFT) - 1;
+
+    /** The chunks; null until a bit in them is set. Replaced, never changed. */
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+    /**
+     * Sets a bit.
+     *
+     * @param bit the index of the bit
+     * @return true if the bit was clear and this call set it
+     * @throws IllegalArgumentException if the index is negative
+     */
+    boolean set(final long bit) throws IllegalArgumentException {
+        if (bit < 0) {
+            throw new IllegalArgumentException("negative bit " + bit);
+        }
+        long word = bit >>> 6;
+        int c = (int) (word >>> SHIFT);
+        AtomicLongArray[] current = chunks;
+        AtomicLongArray chunk = (c < current.length) ? current[c] : null;
+        if (chunk == null) {
+            chunk = chunk(c);
+        }
+        int i = (int) word & MASK;
+        long mask = 1L << bit;
+        for (;;) {
+            long w = chunk.get(i);
+            if ((w & mask) != 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(i, w, w | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a bit is set.
+     *
+     * @param bit the index of the bit
+     * @return true if the bit is set
+     */
+    boolean get(final long bit) {
+        if (bit < 0) {
+            return false;
+        }
+        long word = bit >>> 6;
+        int c = (int) (word >>> SHIFT);
+        AtomicLongArray[] current = chunks;
+        AtomicLongArray chunk = (c < current.length) ? current[c] : null;
+        return chunk != null && (chunk.get((int) word & MASK) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Allocates a chunk if no other thread has.
+     *
+     * @param c the chunk number
+     * @return the chunk
+     */
+    private synchronized AtomicLongArray chunk(final int c) {
+        AtomicLongArray[] current = chunks;
+        if (c < current.length && current[c] != null) {
+            return current[c];
+        }
+        AtomicLongArray[] grown = Arrays.copyOf(current, Math.max(current.length, c + 1));
+        grown[c] = new AtomicLongArray(1 << SHIFT);
+        chunks = grown;
+        return grown[c];
+    }
+}
@@ -0,0 +1,380 @@
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Thread-safe implementation of the Thing42orNull interface.
+ * <br />
+ * Peers are kept in a ConcurrentHashMap from key to a lock-free queue
+ * of the peers with that key, and the pool is a lock-free segmented
+ * array (the same as Thing42's {@link Thing42.PoolStorage#SEGMENTED}), so no
+ * method takes a lock that is shared by the whole object: threads
+ * working on different keys rarely contend, threads adding or removing
+ * peers with the same key contend on the map's lock for that key, and
+ * threads working on the pool only contend on a compare-and-set.
+ * Reads take no lock. The queue of a key is dropped once its last peer
+ * is removed, so keys that come and go do not leak memory.
+ * <br /><br />
+ * Each method documents its linearization behaviour. Mutators and
+ * single-element reads are linearizable. The peer collections are
+ * read-only views that are weakly consistent: they reflect every
+ * mutation that completed before the call and may or may not reflect
+ * mutations that run concurrently with the iteration, but they never
+ * throw ConcurrentModificationException. The pool is returned as a
+ * read-only snapshot that does not change afterwards.
+ * <br /><br />
+ * Since the peers and pool can change at any time, equals and hashCode
+ * are those of Object: a ConcurrentThing42 is only equal to itself.
+ * Duplicate peers and pool members are accepted, and null keys are
+ * allowed, as in Thing42.
+ *
+ * @param <K> The generic attribute Key for this ConcurrentThing42
+ * @param <D> The generic, mutable attribute Data for this ConcurrentThing42
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class ConcurrentThing42<K, D> implements Thing42orNull<K, D> {
+    /** Stands in for the null key, which ConcurrentHashMap does not allow. */
+    private static final Object NULL_KEY = new Object();
+
+    /** Key variable holds the key of this ConcurrentThing42. Immutable. */
+    private final K key;
+    /** Level variable holds the level of this ConcurrentThing42. Immutable. */
+    private final long level;
+    /** Data variable holds the data of this ConcurrentThing42. */
+    private volatile D data;
+
+    /**
+     * Peers
+     * The mapping is K key (or NULL_KEY) -> queue of peers with this key.
+     * Queues are only changed inside compute calls on their key, so a
+     * queue is removed when it becomes empty without losing a peer that
+     * is being added to it.
+     */
+    private final ConcurrentHashMap<Object, ConcurrentLinkedQueue<Thing42orNull<K, D>>> peers
+        = new ConcurrentHashMap<Object, ConcurrentLinkedQueue<Thing42orNull<K, D>>>();
+    /** Number of peers over all keys. */
+    private final AtomicInteger peerCount = new AtomicInteger();
+    /** Read-only view of all peers. */
+    private final Collection<Thing42orNull<K, D>> peersView = new PeersView();
+    /** Pool, in order of insertion. */
+    private final SegmentedPool<K, D> pool = new SegmentedPool<K, D>();
+
+    /**
+     * Constructor for objects of class ConcurrentThing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     */
+    public ConcurrentThing42(final K key, final long level, final D data) {
+        this.key = key;
+        this.level = level;
+        this.data = data;
+    }
+
+    /**
+     * Maps a key to the key used in the peers map.
+     *
+     * @param k a key, possibly null
+     * @return the key, or NULL_KEY for null
+     */
+    private static Object mask(final Object k) {
+        return (k == null) ? NULL_KEY : k;
+    }
+
+    /**
+     * Add a peer to this object. <br />Accepts duplicates.
+     * Linearizable: the peer is visible to every read that starts after
+     * this call returns.
+     *
+     * @param newPeer the peer to add
+     * @throws NullPointerException if the specified peer is null
+     */
+    public void addPeer(final Thing42orNull<K, D> newPeer)
+    throws NullPointerException {
+        if (newPeer == null) {
+            throw new NullPointerException();
+        }
+
+        peers.compute(mask(newPeer.getKey()), new BiFunction<Object,
+            ConcurrentLinkedQueue<Thing42orNull<K, D>>, ConcurrentLinkedQueue<Thing42orNull<K, D>>>() {
+            public ConcurrentLinkedQueue<Thing42orNull<K, D>> apply(final Object k,
+                final ConcurrentLinkedQueue<Thing42orNull<K, D>> bucket) {
+                ConcurrentLinkedQueue<Thing42orNull<K, D>> b = bucket;
+                if (b == null) {
+                    b = new ConcurrentLinkedQueue<Thing42orNull<K, D>>();
+                }
+                b.add(newPeer);
+                return b;
+            }
+        });
+        peerCount.incrementAndGet();
+    }
+
+    /**
+     * Append a member to the pool of this object.
+     * <br />Duplicate objects are accepted.
+     * Wait-free except when it starts a new segment of the pool.
+     * Members appended by one thread stay in the order they were
+     * appended in, and appends of different threads are ordered by
+     * when they reserve their slot.
+     *
+     * @param newMember the object to be appended to the pool
+     * @throws NullPointerException if the specified item is null
+     */
+    public void appendToPool(final Thing42orNull<K, D> newMember)
+    throws NullPointerException {
+        if (newMember == null) {
+            throw new NullPointerException();
+        }
+        pool.append(newMember);
+    }
+
+    /**
+     * Append several members to the pool of this object.
+     * The members are given adjacent slots, reserved with a single
+     * fetch-and-add, so appends of other threads never interleave with
+     * them and they appear in the pool in iteration order.
+     *
+     * @param newMembers the objects to be appended to the pool
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is appended
+     */
+    @Override
+    public void appendAllToPool(final Collection<? extends Thing42orNull<K, D>> newMembers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(newMembers);
+        pool.appendAll(newMembers);
+    }
+
+    /**
+     * Access the data of this ConcurrentThing42.
+     * Linearizable.
+     *
+     * @return the data of this object
+     */
+    public D getData() {
+        return data;
+    }
+
+    /**
+     * Access the key of this ConcurrentThing42.
+     *
+     * @return the key of this object
+     */
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * Access the level of this ConcurrentThing42.
+     *
+     * @return the level of this object
+     */
+    public long getLevel() {
+        return level;
+    }
+
+    /**
+     * Access a peer matching the specified key.
+     * Linearizable: returns the oldest peer with the key at some
+     * instant during the call.
+     *
+     * @param key the search key
+     * @return any peer known by this object that
+     * matches the given key; null if no match
+     */
+    public Thing42orNull<K, D> getOnePeer(final K key) {
+        ConcurrentLinkedQueue<Thing42orNull<K, D>> bucket = peers.get(mask(key));
+        return (bucket == null) ? null : bucket.peek();
+    }
+
+    /**
+     * Access all peers.
+     * <br />Returns a live, read-only, weakly consistent view.
+     * Its size() is O(1) but, while peers are added or removed
+     * concurrently, may briefly differ from the number of peers
+     * its iterator returns.
+     *
+     * @return all peers known by this object;
+     * if no peers then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<K, D>> getPeersAsCollection() {
+        return peersView;
+    }
+
+    /**
+     * Access all peers matching the specified key.
+     * <br />Returns a live, read-only, weakly consistent view.
+     * Its size() counts the peers and is O(n).
+     *
+     * @param key the search key
+     * @return all peers known by this object that match the given key;
+     * if no peer matches then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<K, D>> getPeersAsCollection(final K key) {
+        final Object k = mask(key);
+        return new AbstractCollection<Thing42orNull<K, D>>() {
+            @Override
+            public int size() {
+                return bucket().size();
+            }
+
+            @Override
+            public boolean contains(final Object o) {
+                return bucket().contains(o);
+            }
+
+            @Override
+            public Iterator<Thing42orNull<K, D>> iterator() {
+                return Collections.unmodifiableCollection(bucket()).iterator();
+            }
+
+            /**
+             * The queue of the key as it is now.
+             *
+             * @return the queue; an empty list if the key has no peers
+             */
+            private Collection<Thing42orNull<K, D>> bucket() {
+                ConcurrentLinkedQueue<Thing42orNull<K, D>> bucket = peers.get(k);
+                if (bucket == null) {
+                    return Collections.<Thing42orNull<K, D>>emptyList();
+                }
+                return bucket;
+            }
+        };
+    }
+
+    /**
+     * Access all members of the pool.
+     * <br />Returns a read-only, consistent snapshot in O(number of
+     * segments of the pool): it
+     * contains every member appended before the call and not removed
+     * since, in pool order, and never changes afterwards.
+     *
+     * @return all members of the pool known by this object;
+     * if no members then returns a List with size() == 0.
+     */
+    public List<Thing42orNull<K, D>> getPoolAsList() {
+        return pool.asList();
+    }
+
+    /**
+     * Remove a single instance of the specified object from this object's pool.
+     * Linearizable: removes the first equal member at some instant
+     * during the call, leaving a tombstone in its place.
+     *
+     * @param member the member to be removed from the pool
+     * @return true if a pool member was removed as a result of this call
+     * @throws NullPointerException if the specified parameter is null
+     */
+    public boolean removeFromPool(final Thing42orNull<K, D> member)
+    throws NullPointerException {
+        if (member == null) {
+            throw new NullPointerException();
+        }
+
+        return pool.remove(member) != null;
+    }
+
+    /**
+     * Remove a single instance of the specified peer from this object.
+     * Linearizable: when several threads remove the same peer, each
+     * instance is removed by exactly one of them.
+     *
+     * @param peer the peer to be removed
+     * @return true if a peer was removed as a result of this call
+     * @throws NullPointerException if the specified peer is null
+     */
+    public boolean removePeer(final Thing42orNull<K, D> peer)
+    throws NullPointerException {
+        if (peer == null) {
+            throw new NullPointerException();
+        }
+
+        final boolean[] removed = new boolean[1];
+        peers.computeIfPresent(mask(peer.getKey()), new BiFunction<Object,
+            ConcurrentLinkedQueue<Thing42orNull<K, D>>, ConcurrentLinkedQueue<Thing42orNull<K, D>>>() {
+            public ConcurrentLinkedQueue<Thing42orNull<K, D>> apply(final Object k,
+                final ConcurrentLinkedQueue<Thing42orNull<K, D>> bucket) {
+                removed[0] = bucket.remove(peer);
+                return bucket.isEmpty() ? null : bucket;
+            }
+        });
+        if (!removed[0]) {
+            return false;
+        }
+        peerCount.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Modify the data of this ConcurrentThing42.
+     * Linearizable.
+     *
+     * @param newData the updated data for this object
+     */
+    public void setData(final D newData) {
+        this.data = newData;
+    }
+
+    /**
+     * Determines whether the specified Object is this ConcurrentThing42.
+     *
+     * @param obj an Object to be compared with this ConcurrentThing42.
+     * @return true if obj is this object; false otherwise.
+     * @see #hashCode()
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return this == obj;
+    }
+
+    /**
+     * Returns the identity hashcode of this ConcurrentThing42.
+     *
+     * @return the hashcode for this ConcurrentThing42
+     */
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * Read-only, weakly consistent view of all peers.
+     */
+    private final class PeersView extends AbstractCollection<Thing42orNull<K, D>> {
+        @Override
+        public int size() {
+            return Math.max(0, peerCount.get());
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            if (!(o instanceof Thing42orNull)) {
+                return false;
+            }
+            ConcurrentLinkedQueue<Thing42orNull<K, D>> bucket
+                = peers.get(mask(((Thing42orNull<?, ?>) o).getKey()));
+            return bucket != null && bucket.contains(o);
+        }
+
+        @Override
+        public Iterator<Thing42orNull<K, D>> iterator() {
+            return new BucketIterator<K, D>(peers.values().iterator());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class ConcurrentThing42Test.
+ *
+ * Tests the single-threaded behaviour of ConcurrentThing42 against the
+ * Thing42orNull contract, and that concurrent mutations lose no updates.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class ConcurrentThing42Test
+{
+    /** Number of threads used by the concurrent tests. */
+    private static final int THREADS = 8;
+    /** Number of operations per thread in the concurrent tests. */
+    private static final int OPS = 2000;
+
+    //The ConcurrentThing42 object upon which tests should call methods.
+    ConcurrentThing42<Integer, String> testThing;
+    //A valid Thing42 object that can be passed as a parameter to methods.
+    Thing42<Integer, String> validThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new ConcurrentThing42<Integer, String>(1, 1, "test");
+        validThing = new Thing42<Integer, String>(2, 2, "test");
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        testThing = null;
+        validThing = null;
+    }
+
+    /**
+     * Adds, finds and removes peers, including duplicates
+     * and a peer with a null key.
+     */
+    @Test
+    public void testPeers()
+    {
+        Thing42<Integer, String> nullKey = new Thing42<Integer, String>(null, 3, "test");
+        assertNull(testThing.getOnePeer(2));
+        testThing.addPeer(validThing);
+        testThing.addPeer(validThing);
+        testThing.addPeer(nullKey);
+        assertTrue(testThing.getPeersAsCollection().size() == 3);
+        assertTrue(testThing.getPeersAsCollection(2).size() == 2);
+        assertTrue(testThing.getPeersAsCollection().contains(nullKey));
+        assertEquals(validThing, testThing.getOnePeer(2));
+        assertEquals(nullKey, testThing.getOnePeer(null));
+
+        assertTrue(testThing.removePeer(validThing));
+        assertTrue(testThing.removePeer(nullKey));
+        assertFalse(testThing.removePeer(nullKey));
+        assertTrue(testThing.getPeersAsCollection().size() == 1);
+        assertTrue(testThing.getPeersAsCollection(5).size() == 0);
+    }
+
+    /**
+     * Appends and removes pool members and checks their order.
+     */
+    @Test
+    public void testPool()
+    {
+        Thing42<Integer, String> other = new Thing42<Integer, String>(3, 3, "test");
+        testThing.appendToPool(validThing);
+        testThing.appendToPool(other);
+        testThing.appendToPool(validThing);
+        assertTrue(testThing.getPoolAsList().size() == 3);
+        assertTrue(testThing.getPoolAsList().get(1) == other);
+        assertTrue(testThing.removeFromPool(validThing));
+        assertTrue(testThing.getPoolAsList().get(0) == other);
+        assertFalse(testThing.removeFromPool(testThing));
+    }
+
+    /**
+     * Attempts to add null as a peer.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testAddNullPeer()
+    {
+        testThing.addPeer(null);
+    }
+
+    /**
+     * Attempts to append null to the pool.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testAppendNullMember()
+    {
+        testThing.appendToPool(null);
+    }
+
+    /**
+     * Attempts to modify the pool through the returned list.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPoolIsReadOnly()
+    {
+        testThing.getPoolAsList().add(validThing);
+    }
+
+    /**
+     * Verifies that ConcurrentThing42 objects are only equal to themselves.
+     */
+    @Test
+    public void testEquals()
+    {
+        ConcurrentThing42<Integer, String> other = new ConcurrentThing42<Integer, String>(1, 1, "test");
+        assertTrue(testThing.equals(testThing));
+        assertFalse(testThing.equals(other));
+        assertFalse(testThing.equals(null));
+        assertTrue(testThing.hashCode() == testThing.hashCode());
+    }
+
+    /**
+     * Adds peers and pool members from several threads, then removes
+     * them from several threads, and checks that no update was lost.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrentMutations() throws InterruptedException
+    {
+        run(new Runnable() {
+            public void run() {
+                for (int i = 0; i < OPS; i++) {
+                    Thing42<Integer, String> peer = new Thing42<Integer, String>(i % 16, i, "test");
+                    testThing.addPeer(peer);
+                    testThing.appendToPool(peer);
+                }
+            }
+        });
+        assertTrue(testThing.getPeersAsCollection().size() == THREADS * OPS);
+        assertTrue(testThing.getPoolAsList().size() == THREADS * OPS);
+        int count = 0;
+        for (Thing42orNull<Integer, String> peer : testThing.getPeersAsCollection()) {
+            count++;
+        }
+        assertTrue(count == THREADS * OPS);
+
+        final List<Thing42orNull<Integer, String>> added
+            = new ArrayList<Thing42orNull<Integer, String>>(testThing.getPeersAsCollection());
+        final int[] removed = new int[1];
+        run(new Runnable() {
+            public void run() {
+                int n = 0;
+                for (Thing42orNull<Integer, String> peer : added) {
+                    if (testThing.removePeer(peer)) {
+                        n++;
+                    }
+                }
+                synchronized (removed) {
+                    removed[0] += n;
+                }
+            }
+        });
+        assertTrue(removed[0] == THREADS * OPS);
+        assertTrue(testThing.getPeersAsCollection().size() == 0);
+        assertFalse(testThing.getPeersAsCollection().iterator().hasNext());
+    }
+
+    /**
+     * Adds and removes peers of the same few keys from several threads,
+     * so that their queues are dropped and created again while peers
+     * are added, and checks that no peer is lost and that a view of a
+     * key follows its peers across queues.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testKeyChurn() throws InterruptedException
+    {
+        final Collection<Thing42orNull<Integer, String>> view = testThing.getPeersAsCollection(0);
+        run(new Runnable() {
+            public void run() {
+                for (int i = 0; i < OPS; i++) {
+                    Thing42<Integer, String> peer = new Thing42<Integer, String>(i % 2, i, "test");
+                    testThing.addPeer(peer);
+                    assertTrue(testThing.removePeer(peer));
+                }
+                testThing.addPeer(new Thing42<Integer, String>(0, 0, "kept"));
+            }
+        });
+        assertTrue(testThing.getPeersAsCollection().size() == THREADS);
+        assertTrue(view.size() == THREADS);
+        for (Thing42orNull<Integer, String> peer : view) {
+            assertTrue(testThing.removePeer(peer));
+        }
+        assertTrue(view.isEmpty());
+        assertNull(testThing.getOnePeer(0));
+        testThing.addPeer(validThing);
+        assertTrue(testThing.getPeersAsCollection(2).contains(validThing));
+    }
+
+    /**
+     * Runs a task on THREADS threads and waits for them.
+     *
+     * @param task the task
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void run(final Runnable task) throws InterruptedException
+    {
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(task);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
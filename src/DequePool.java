@@ -0,0 +1,378 @@
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Pool storage for pools used as work queues: a ring buffer with an
+ * index of the positions of each member.
+ * <br />
+ * Members are numbered by a sequence that grows with every append, and
+ * member number s lives in slot s mod the capacity of the ring, so
+ * appending and polling the head are O(1) amortized and never shift
+ * the others. The index maps each member, by identity, to the numbers
+ * of its occurrences in pool order; since appends add the highest
+ * number and polls and removals take the lowest, it is a FIFO per
+ * member, and {@link #contains} and {@link #remove} are O(1) expected.
+ * <br /><br />
+ * A member removed from the middle leaves a tombstone, an empty slot,
+ * so the others keep their numbers. Tombstones at either end are
+ * dropped at once, and the ring is compacted when tombstones outnumber
+ * the members, by the removal that makes them do so. {@link #asList()}
+ * returns a read-only view that never changes the pool: it skips
+ * tombstones when iterating, and its get(int) is O(1) while there are
+ * no tombstones and otherwise walks past them from the nearer end. Its
+ * contains still matches with equals.
+ * <br /><br />
+ * Members are matched by identity, like peers in
+ * {@link Thing42.PeerStorage#INDEXED}: contains and remove only find
+ * the very instance that was appended, not an equal one.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class DequePool<K, D> implements PoolStore<K, D> {
+    /** Smallest capacity of the ring. */
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * Numbers of the occurrences of a member, oldest first, in a small
+     * ring of their own.
+     */
+    private static final class Positions {
+        /** The number of the only occurrence while seqs is null. */
+        private long only;
+        /** The numbers once there were two; only size of them, from head, are used. */
+        private long[] seqs;
+        /** Index of the oldest number in seqs. */
+        private int head;
+        /** Number of occurrences. */
+        private int size;
+
+        /**
+         * Adds the number of a new, last occurrence.
+         *
+         * @param seq the number
+         */
+        private void add(final long seq) {
+            if (seqs == null) {
+                if (size == 0) {
+                    only = seq;
+                    size = 1;
+                    return;
+                }
+                seqs = new long[] {only, 0};
+                head = 0;
+            } else if (size == seqs.length) {
+                long[] more = new long[seqs.length * 2];
+                for (int i = 0; i < size; i++) {
+                    more[i] = seqs[(head + i) % seqs.length];
+                }
+                seqs = more;
+                head = 0;
+            }
+            seqs[(head + size) % seqs.length] = seq;
+            size++;
+        }
+
+        /**
+         * Removes the number of the first occurrence.
+         *
+         * @return the number
+         */
+        private long poll() {
+            size--;
+            if (seqs == null) {
+                return only;
+            }
+            long seq = seqs[head];
+            head = (head + 1) % seqs.length;
+            return seq;
+        }
+
+        /**
+         * Forgets all occurrences.
+         */
+        private void clear() {
+            seqs = null;
+            head = 0;
+            size = 0;
+        }
+    }
+
+    /** The slots, null until the first append; null slots are empty or tombstones. */
+    private Object[] ring;
+    /** Number of the first slot in use; its slot is never a tombstone. */
+    private long head;
+    /** Number of the next member appended. */
+    private long tail;
+    /** Number of members. */
+    private int size;
+    /** Positions of each member; null until the first append. */
+    private IdentityHashMap<Object, Positions> index;
+    /** Number of changes, to detect changes during iteration. */
+    private int changes;
+    /** Read-only view, created on first use. */
+    private View view;
+
+    /** {@inheritDoc} */
+    public void append(final Thing42orNull<K, D> member) {
+        if (ring == null) {
+            ring = new Object[MIN_CAPACITY];
+            index = new IdentityHashMap<Object, Positions>();
+        } else if (tail - head == ring.length) {
+            resize(ring.length * 2);
+        }
+        ring[slot(tail)] = member;
+        Positions positions = index.get(member);
+        if (positions == null) {
+            positions = new Positions();
+            index.put(member, positions);
+        }
+        positions.add(tail);
+        tail++;
+        size++;
+        changes++;
+    }
+
+    /** {@inheritDoc} */
+    public void appendAll(final Collection<? extends Thing42orNull<K, D>> batch) {
+        if (ring == null) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            ring = new Object[capacityFor(batch.size())];
+            index = new IdentityHashMap<Object, Positions>();
+        } else if (tail - head + batch.size() > ring.length) {
+            resize(capacityFor(tail - head + batch.size()));
+        }
+        for (Thing42orNull<K, D> member : batch) {
+            append(member);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    public Thing42orNull<K, D> poll() {
+        if (size == 0) {
+            return null;
+        }
+        Object member = ring[slot(head)];
+        take(member);
+        return (Thing42orNull<K, D>) member;
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(final Thing42orNull<K, D> member) {
+        return index != null && index.containsKey(member);
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    public Thing42orNull<K, D> remove(final Thing42orNull<K, D> member) {
+        Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_FROM_POOL_SCAN, 1);
+        if (!contains(member)) {
+            return null;
+        }
+        Object stored = member;
+        take(stored);
+        return (Thing42orNull<K, D>) stored;
+    }
+
+    /** {@inheritDoc} */
+    public int removeAll(final Collection<? extends Thing42orNull<K, D>> batch,
+                         final List<? super Thing42orNull<K, D>> removed) {
+        int count = 0;
+        for (Thing42orNull<K, D> member : batch) {
+            Thing42orNull<K, D> r = remove(member);
+            if (r != null) {
+                count++;
+                if (removed != null) {
+                    removed.add(r);
+                }
+            }
+        }
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public List<Thing42orNull<K, D>> asList() {
+        if (view == null) {
+            view = new View();
+        }
+        return view;
+    }
+
+    /** {@inheritDoc} */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes the first occurrence of a member, leaving a tombstone
+     * unless it is at either end.
+     *
+     * @param member a member of the pool
+     */
+    private void take(final Object member) {
+        Positions positions = index.get(member);
+        long seq = positions.poll();
+        if (positions.size == 0) {
+            index.remove(member);
+        }
+        ring[slot(seq)] = null;
+        size--;
+        changes++;
+        if (size == 0) {
+            // every slot is empty; keep the ring for the next appends
+            head = 0;
+            tail = 0;
+            return;
+        }
+        while (ring[slot(head)] == null) {
+            head++;
+        }
+        while (ring[slot(tail - 1)] == null) {
+            tail--;
+        }
+        if (tail - head > 2L * size + MIN_CAPACITY) {
+            resize(capacityFor(size));
+        }
+    }
+
+    /**
+     * Smallest power of 2 capacity of at least MIN_CAPACITY that holds
+     * a number of slots.
+     *
+     * @param slots the number of slots
+     * @return the capacity
+     * @throws IllegalStateException if the slots do not fit in an array
+     */
+    private static int capacityFor(final long slots) throws IllegalStateException {
+        if (slots > (1 << 30)) {
+            throw new IllegalStateException("pool is full");
+        }
+        int n = Integer.highestOneBit((int) Math.max(MIN_CAPACITY, slots));
+        return (n < slots) ? n << 1 : n;
+    }
+
+    /**
+     * Moves the members to a new ring, dropping the tombstones and
+     * renumbering the members from 0.
+     *
+     * @param capacity the capacity of the new ring, a power of 2 that
+     * holds all members
+     * @throws IllegalStateException if the pool is too large
+     */
+    private void resize(final int capacity) throws IllegalStateException {
+        if (capacity <= 0) {
+            throw new IllegalStateException("pool is full");
+        }
+        Object[] moved = new Object[capacity];
+        int n = 0;
+        for (Positions positions : index.values()) {
+            positions.clear();
+        }
+        for (long s = head; s < tail; s++) {
+            Object member = ring[slot(s)];
+            if (member != null) {
+                moved[n] = member;
+                index.get(member).add(n);
+                n++;
+            }
+        }
+        ring = moved;
+        head = 0;
+        tail = n;
+    }
+
+    /**
+     * Slot of a member number in the ring.
+     *
+     * @param seq the number
+     * @return the slot
+     */
+    private int slot(final long seq) {
+        return (int) seq & (ring.length - 1);
+    }
+
+    /**
+     * Read-only view of the members in pool order.
+     */
+    private final class View extends AbstractList<Thing42orNull<K, D>> {
+        /** {@inheritDoc} */
+        @Override
+        @SuppressWarnings("unchecked")
+        public Thing42orNull<K, D> get(final int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+            }
+            if (tail - head == size) {
+                return (Thing42orNull<K, D>) ring[slot(head + i)];
+            }
+            // walk past the tombstones from the nearer end; neither end
+            // is a tombstone
+            long seq;
+            if (i < size / 2) {
+                seq = head;
+                for (int n = i; n > 0; n--) {
+                    do {
+                        seq++;
+                    } while (ring[slot(seq)] == null);
+                }
+            } else {
+                seq = tail - 1;
+                for (int n = size - 1 - i; n > 0; n--) {
+                    do {
+                        seq--;
+                    } while (ring[slot(seq)] == null);
+                }
+            }
+            return (Thing42orNull<K, D>) ring[slot(seq)];
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Iterator<Thing42orNull<K, D>> iterator() {
+            return new Iterator<Thing42orNull<K, D>>() {
+                private final int expected = changes;
+                private long next = head;
+
+                public boolean hasNext() {
+                    return next < tail;
+                }
+
+                @SuppressWarnings("unchecked")
+                public Thing42orNull<K, D> next() {
+                    if (changes != expected) {
+                        throw new ConcurrentModificationException();
+                    }
+                    if (next >= tail) {
+                        throw new NoSuchElementException();
+                    }
+                    Object member = ring[slot(next)];
+                    do {
+                        next++;
+                    } while (next < tail && ring[slot(next)] == null);
+                    return (Thing42orNull<K, D>) member;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
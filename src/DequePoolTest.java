@@ -0,0 +1,233 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class DequePoolTest.
+ *
+ * Tests the pool of a Thing42 created with PoolStorage.DEQUE: use as a
+ * queue, membership, removal from the middle and the list view.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class DequePoolTest
+{
+    //The Thing42 object with a deque pool.
+    Thing42<Integer, String> testThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new Thing42<Integer, String>(1, 1, "test", Thing42.PeerStorage.LISTS,
+            Thing42.Equality.DEEP, Thing42.PoolStorage.DEQUE);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        testThing = null;
+    }
+
+    /**
+     * Creates a distinct member.
+     *
+     * @param i the key and level of the member
+     * @return the member
+     */
+    private static Thing42<Integer, String> member(int i)
+    {
+        return new Thing42<Integer, String>(i, i, "member");
+    }
+
+    /**
+     * Uses the pool as a queue, wrapping around the ring many times.
+     */
+    @Test
+    public void testQueue()
+    {
+        assertNull(testThing.pollPool());
+        List<Thing42<Integer, String>> members = new ArrayList<Thing42<Integer, String>>();
+        for (int i = 0; i < 5; i++) {
+            members.add(member(i));
+            testThing.appendToPool(members.get(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Thing42orNull<Integer, String> head = testThing.pollPool();
+            assertTrue(head == members.get(i % 5));
+            testThing.appendToPool(head);
+        }
+        assertTrue(testThing.getPoolAsList().size() == 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(testThing.pollPool() == members.get(i));
+        }
+        assertNull(testThing.pollPool());
+        assertTrue(testThing.getPoolAsList().isEmpty());
+        testThing.appendToPool(members.get(0));
+        assertTrue(testThing.getPoolAsList().equals(Arrays.asList(members.get(0))));
+    }
+
+    /**
+     * Checks membership by identity, with duplicates.
+     */
+    @Test
+    public void testContains()
+    {
+        Thing42<Integer, String> a = member(1);
+        assertFalse(testThing.poolContains(a));
+        testThing.appendToPool(a);
+        testThing.appendToPool(a);
+        assertTrue(testThing.poolContains(a));
+        assertFalse(testThing.poolContains(member(1)));
+        assertFalse(testThing.removeFromPool(member(1)));
+        assertTrue(testThing.removeFromPool(a));
+        assertTrue(testThing.poolContains(a));
+        assertTrue(testThing.pollPool() == a);
+        assertFalse(testThing.poolContains(a));
+        try {
+            testThing.poolContains(null);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Removes members at random and polls, and compares the pool with
+     * an ArrayList that does the same.
+     */
+    @Test
+    public void testAgainstList()
+    {
+        Random random = new Random(22);
+        List<Thing42<Integer, String>> members = new ArrayList<Thing42<Integer, String>>();
+        for (int i = 0; i < 50; i++) {
+            members.add(member(i));
+        }
+        List<Thing42orNull<Integer, String>> expected = new ArrayList<Thing42orNull<Integer, String>>();
+        for (int step = 0; step < 20000; step++) {
+            Thing42<Integer, String> m = members.get(random.nextInt(members.size()));
+            switch (random.nextInt(4)) {
+            case 0:
+                testThing.appendToPool(m);
+                expected.add(m);
+                break;
+            case 1:
+                testThing.appendAllToPool(Arrays.asList(m, members.get(0)));
+                expected.add(m);
+                expected.add(members.get(0));
+                break;
+            case 2:
+                Thing42orNull<Integer, String> head = testThing.pollPool();
+                assertTrue(head == (expected.isEmpty() ? null : expected.remove(0)));
+                break;
+            default:
+                int at = indexOf(expected, m);
+                assertTrue(testThing.removeFromPool(m) == (at >= 0));
+                if (at >= 0) {
+                    expected.remove(at);
+                }
+                break;
+            }
+            assertTrue(testThing.poolContains(m) == (indexOf(expected, m) >= 0));
+            if (step % 97 == 0) {
+                assertEquals(expected, testThing.getPoolAsList());
+                List<Thing42orNull<Integer, String>> got
+                    = new ArrayList<Thing42orNull<Integer, String>>();
+                for (int i = 0; i < testThing.getPoolAsList().size(); i++) {
+                    got.add(testThing.getPoolAsList().get(i));
+                }
+                assertEquals(expected, got);
+            }
+        }
+    }
+
+    /**
+     * Checks that the list view is read-only and fails fast when the
+     * pool changes during iteration.
+     */
+    @Test
+    public void testView()
+    {
+        testThing.appendToPool(member(1));
+        testThing.appendToPool(member(2));
+        List<Thing42orNull<Integer, String>> view = testThing.getPoolAsList();
+        try {
+            view.add(member(3));
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+        Iterator<Thing42orNull<Integer, String>> it = view.iterator();
+        it.next();
+        testThing.appendToPool(member(3));
+        try {
+            it.next();
+            fail();
+        } catch (ConcurrentModificationException ex) {
+            // expected
+        }
+        assertTrue(view.contains(member(3)));
+    }
+
+    /**
+     * Reads members by position past tombstones while iterating, and
+     * checks that reading changes neither the order nor the iteration.
+     */
+    @Test
+    public void testGetDuringIteration()
+    {
+        List<Thing42<Integer, String>> members = new ArrayList<Thing42<Integer, String>>();
+        for (int i = 0; i < 6; i++) {
+            members.add(member(i));
+            testThing.appendToPool(members.get(i));
+        }
+        testThing.pollPool();
+        testThing.pollPool();
+        assertTrue(testThing.removeFromPool(members.get(4)));
+        List<Thing42orNull<Integer, String>> view = testThing.getPoolAsList();
+        List<Thing42orNull<Integer, String>> seen = new ArrayList<Thing42orNull<Integer, String>>();
+        for (Thing42orNull<Integer, String> m : view) {
+            assertTrue(view.get(0) == members.get(2));
+            assertTrue(view.get(2) == members.get(5));
+            seen.add(m);
+        }
+        assertTrue(seen.equals(Arrays.asList(members.get(2), members.get(3), members.get(5))));
+        assertTrue(view.get(1) == members.get(3));
+    }
+
+    /**
+     * Index of the first occurrence of an instance in a list.
+     *
+     * @param list the list
+     * @param member the instance
+     * @return the index; -1 if none
+     */
+    private static int indexOf(final List<Thing42orNull<Integer, String>> list,
+                               final Thing42orNull<Integer, String> member)
+    {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == member) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
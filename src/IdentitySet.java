@@ -0,0 +1,98 @@
+/**
+ * Set of objects compared by identity, for the visited set of a
+ * traversal.
+ * <br />
+ * The objects are kept in a single open-addressing array with linear
+ * probing, one reference per slot and at most two thirds full, which
+ * is about half the size of an IdentityHashMap and a third of a
+ * HashSet. Objects cannot be removed.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class IdentitySet {
+    /** The objects; null marks an empty slot. Length is a power of 2. */
+    private Object[] table = new Object[16];
+    /** Number of objects. */
+    private int size;
+
+    /**
+     * Adds an object.
+     *
+     * @param o the object, not null
+     * @return true if the object was not in the set
+     */
+    boolean add(final Object o) {
+        if (3 * (size + 1) > 2 * table.length) {
+            grow();
+        }
+        int mask = table.length - 1;
+        int i = slot(o, mask);
+        for (Object t = table[i]; t != null; t = table[i]) {
+            if (t == o) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = o;
+        size++;
+        return true;
+    }
+
+    /**
+     * Tells whether an object is in the set.
+     *
+     * @param o the object
+     * @return true if the very same object was added
+     */
+    boolean contains(final Object o) {
+        int mask = table.length - 1;
+        int i = slot(o, mask);
+        for (Object t = table[i]; t != null; t = table[i]) {
+            if (t == o) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Number of objects in the set.
+     *
+     * @return the number of objects
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * First slot to probe for an object.
+     *
+     * @param o the object
+     * @param mask the length of the table minus 1
+     * @return the slot
+     */
+    private static int slot(final Object o, final int mask) {
+        int h = System.identityHashCode(o);
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Doubles the table.
+     */
+    private void grow() {
+        Object[] old = table;
+        table = new Object[old.length * 2];
+        int mask = table.length - 1;
+        for (Object o : old) {
+            if (o != null) {
+                int i = slot(o, mask);
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = o;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Peer storage that keeps an insertion-ordered identity multiset of
+ * peers per key.
+ * <br />
+ * The mapping is K key -> PeerBag of peers with this key.
+ * Peers are matched by identity, so removing or finding a peer is O(1)
+ * expected however many peers share its key, and never calls the deep
+ * Thing42 equals. Buckets that become empty are dropped.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class IndexedPeerStore<K, D> implements PeerStore<K, D> {
+    /** Peers by key. */
+    private final HashMap<K, PeerBag<K, D>> peers = new HashMap<K, PeerBag<K, D>>(0);
+    /** Number of peers over all keys. */
+    private int size;
+
+    /** {@inheritDoc} */
+    public void add(final Thing42orNull<K, D> peer) {
+        K k = peer.getKey();
+        PeerBag<K, D> bag = peers.get(k);
+        if (bag == null) {
+            bag = new PeerBag<K, D>();
+            peers.put(k, bag);
+        }
+        bag.addPeer(peer);
+        size++;
+    }
+
+    /** {@inheritDoc} */
+    public void addAll(final Collection<? extends Thing42orNull<K, D>> batch) {
+        PeerBag<K, D> bag = null;
+        K last = null;
+        for (Thing42orNull<K, D> peer : batch) {
+            K k = peer.getKey();
+            // peers sharing a key are often added together
+            if (bag == null || !ListPeerStore.sameKey(k, last)) {
+                bag = peers.get(k);
+                if (bag == null) {
+                    bag = new PeerBag<K, D>();
+                    peers.put(k, bag);
+                }
+                last = k;
+            }
+            bag.addPeer(peer);
+            size++;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public Thing42orNull<K, D> remove(final Thing42orNull<K, D> peer) {
+        K k = peer.getKey();
+        PeerBag<K, D> bag = peers.get(k);
+        if (bag == null || !bag.removePeer(peer)) {
+            return null;
+        }
+        if (bag.isEmpty()) {
+            peers.remove(k);
+        }
+        size--;
+        // peers are matched by identity, so the stored peer is this one
+        return peer;
+    }
+
+    /** {@inheritDoc} */
+    public int removeAll(final Collection<? extends Thing42orNull<K, D>> batch,
+                         final List<? super Thing42orNull<K, D>> removed) {
+        int count = 0;
+        for (Thing42orNull<K, D> peer : batch) {
+            if (remove(peer) != null) {
+                count++;
+                if (removed != null) {
+                    removed.add(peer);
+                }
+            }
+        }
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(final Thing42orNull<K, D> peer) {
+        PeerBag<K, D> bag = peers.get(peer.getKey());
+        return bag != null && bag.containsPeer(peer);
+    }
+
+    /** {@inheritDoc} */
+    public Thing42orNull<K, D> getOne(final K key) {
+        PeerBag<K, D> bag = peers.get(key);
+        return bag == null ? null : bag.first();
+    }
+
+    /** {@inheritDoc} */
+    public Collection<Thing42orNull<K, D>> get(final K key) {
+        PeerBag<K, D> bag = peers.get(key);
+        if (bag == null) {
+            return Collections.<Thing42orNull<K, D>>emptyList();
+        }
+        return bag;
+    }
+
+    /** {@inheritDoc} */
+    public Set<K> keys() {
+        return peers.keySet();
+    }
+
+    /** {@inheritDoc} */
+    public int size() {
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<Thing42orNull<K, D>> iterator() {
+        return new BucketIterator<K, D>(peers.values().iterator());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (Map.Entry<K, PeerBag<K, D>> e : peers.entrySet()) {
+            int list = 1;
+            for (Thing42orNull<K, D> peer : e.getValue()) {
+                list = 31 * list + peer.hashCode();
+            }
+            K k = e.getKey();
+            result += (k == null ? 0 : k.hashCode()) ^ list;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Secondary index of the peers of a Thing42 by key and then by level,
+ * for the level-ordered peer queries.
+ * <br />
+ * A key is only indexed once it is first asked for, by {@link #cover},
+ * and only while it has peers: a key without peers is not indexed, and
+ * a key is dropped when its last peer is removed. While a key is
+ * indexed the owner passes every peer it adds or removes, and the
+ * peers with that key are kept in parallel arrays of levels and peers
+ * sorted by level, equal levels in the order the peers were added.
+ * Queries are binary searches; adding or removing a peer is a binary
+ * search and a shift of the arrays.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class LevelIndex<K, D> {
+    /** The peers of one key, sorted by level. */
+    private static final class Sorted {
+        /** Levels of the peers, ascending. */
+        private long[] levels;
+        /** The peers, in the order of levels. */
+        private Object[] peers;
+        /** Number of peers. */
+        private int size;
+
+        /**
+         * Constructor for objects of class Sorted.
+         *
+         * @param capacity the initial capacity
+         */
+        private Sorted(final int capacity) {
+            this.levels = new long[Math.max(2, capacity)];
+            this.peers = new Object[levels.length];
+        }
+
+        /**
+         * Index of the first peer whose level is at least a value.
+         *
+         * @param level the value
+         * @return the index, size if none
+         */
+        private int lowerBound(final long level) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (levels[mid] < level) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Index of the first peer whose level is greater than a value.
+         *
+         * @param level the value
+         * @return the index, size if none
+         */
+        private int upperBound(final long level) {
+            return (level == Long.MAX_VALUE) ? size : lowerBound(level + 1);
+        }
+
+        /**
+         * Inserts a peer after the peers with the same level.
+         *
+         * @param peer the peer
+         */
+        private void insert(final Thing42orNull<?, ?> peer) {
+            long level = peer.getLevel();
+            int i = upperBound(level);
+            if (size == levels.length) {
+                levels = Arrays.copyOf(levels, size * 2);
+                peers = Arrays.copyOf(peers, size * 2);
+            }
+            System.arraycopy(levels, i, levels, i + 1, size - i);
+            System.arraycopy(peers, i, peers, i + 1, size - i);
+            levels[i] = level;
+            peers[i] = peer;
+            size++;
+        }
+
+        /**
+         * Removes a peer, which must be the very instance inserted.
+         *
+         * @param peer the peer
+         * @return true if it was found
+         */
+        private boolean delete(final Thing42orNull<?, ?> peer) {
+            long level = peer.getLevel();
+            for (int i = lowerBound(level); i < size && levels[i] == level; i++) {
+                if (peers[i] == peer) {
+                    System.arraycopy(levels, i + 1, levels, i, size - i - 1);
+                    System.arraycopy(peers, i + 1, peers, i, size - i - 1);
+                    peers[--size] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** The indexed keys and their peers. */
+    private final HashMap<K, Sorted> byKey = new HashMap<K, Sorted>(2);
+
+    /**
+     * Indexes a key, if it is not indexed yet and has peers.
+     *
+     * @param key the key
+     * @param peers all peers of the owner with the key
+     */
+    void cover(final K key, final Collection<Thing42orNull<K, D>> peers) {
+        if (peers.isEmpty() || byKey.containsKey(key)) {
+            return;
+        }
+        Sorted sorted = new Sorted(peers.size());
+        // insertion keeps equal levels in the order of the store
+        for (Thing42orNull<K, D> peer : peers) {
+            sorted.insert(peer);
+        }
+        byKey.put(key, sorted);
+    }
+
+    /**
+     * Tells whether a key is indexed.
+     *
+     * @param key the key
+     * @return true if the owner must pass peers with the key
+     */
+    boolean covers(final K key) {
+        return byKey.containsKey(key);
+    }
+
+    /**
+     * Records a peer added to the owner.
+     *
+     * @param peer the peer
+     */
+    void add(final Thing42orNull<K, D> peer) {
+        Sorted sorted = byKey.get(peer.getKey());
+        if (sorted != null) {
+            sorted.insert(peer);
+        }
+    }
+
+    /**
+     * Records a peer removed from the owner, and stops indexing its key
+     * once the key has no peers left.
+     *
+     * @param peer the very instance that was stored
+     */
+    void remove(final Thing42orNull<K, D> peer) {
+        K key = peer.getKey();
+        Sorted sorted = byKey.get(key);
+        if (sorted != null && sorted.delete(peer) && sorted.size == 0) {
+            byKey.remove(key);
+        }
+    }
+
+    /**
+     * The peer with a key and the least level, the first added if
+     * several have it.
+     *
+     * @param key a key passed to cover; keys that are not indexed have
+     * no peers
+     * @return the peer; null if none
+     */
+    @SuppressWarnings("unchecked")
+    Thing42orNull<K, D> min(final K key) {
+        Sorted sorted = byKey.get(key);
+        return (sorted == null) ? null : (Thing42orNull<K, D>) sorted.peers[0];
+    }
+
+    /**
+     * The peer with a key and the greatest level, the first added if
+     * several have it.
+     *
+     * @param key a key passed to cover; keys that are not indexed have
+     * no peers
+     * @return the peer; null if none
+     */
+    @SuppressWarnings("unchecked")
+    Thing42orNull<K, D> max(final K key) {
+        Sorted sorted = byKey.get(key);
+        if (sorted == null) {
+            return null;
+        }
+        return (Thing42orNull<K, D>) sorted.peers[sorted.lowerBound(sorted.levels[sorted.size - 1])];
+    }
+
+    /**
+     * The peers with a key whose level lies in a range.
+     *
+     * @param key a key passed to cover; keys that are not indexed have
+     * no peers
+     * @param min the smallest level, inclusive
+     * @param max the greatest level, inclusive
+     * @return the peers, by ascending level
+     */
+    @SuppressWarnings("unchecked")
+    List<Thing42orNull<K, D>> range(final K key, final long min, final long max) {
+        Sorted sorted = byKey.get(key);
+        if (sorted == null) {
+            return new ArrayList<Thing42orNull<K, D>>(0);
+        }
+        int from = sorted.lowerBound(min);
+        int to = (min > max) ? from : sorted.upperBound(max);
+        ArrayList<Thing42orNull<K, D>> found = new ArrayList<Thing42orNull<K, D>>(to - from);
+        for (int i = from; i < to; i++) {
+            found.add((Thing42orNull<K, D>) sorted.peers[i]);
+        }
+        return found;
+    }
+
+    /**
+     * The peers with a key and the greatest levels.
+     *
+     * @param key a key passed to cover; keys that are not indexed have
+     * no peers
+     * @param count the greatest number of peers returned
+     * @return the peers, by descending level, equal levels in the order
+     * they were added
+     */
+    @SuppressWarnings("unchecked")
+    List<Thing42orNull<K, D>> top(final K key, final int count) {
+        Sorted sorted = byKey.get(key);
+        if (sorted == null) {
+            return new ArrayList<Thing42orNull<K, D>>(0);
+        }
+        ArrayList<Thing42orNull<K, D>> found
+            = new ArrayList<Thing42orNull<K, D>>(Math.min(count, sorted.size));
+        int end = sorted.size;
+        while (end > 0 && found.size() < count) {
+            int start = sorted.lowerBound(sorted.levels[end - 1]);
+            for (int i = start; i < end && found.size() < count; i++) {
+                found.add((Thing42orNull<K, D>) sorted.peers[i]);
+            }
+            end = start;
+        }
+        return found;
+    }
+}
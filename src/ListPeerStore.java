@@ -0,0 +1,388 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Peer storage that keeps a list of peers per key, in a layout that
+ * adapts to the number of peers.
+ * <br />
+ * Most nodes have only a few peers, so up to {@link #THRESHOLD} peers
+ * are kept in a single small array, grouped by key and in order of
+ * insertion within a key; an object without peers allocates nothing
+ * beyond this store. When the array would grow past the threshold the
+ * peers are moved to a hash index, the mapping K key -> ArrayList of
+ * peers with this key, which gives O(1) lookup by key (note: finding
+ * a specific peer in the list of peers matching a given key is still
+ * O(n)). Lists that become empty are dropped, and once the last peer
+ * is removed the store is back to its empty, compact form.
+ * <br /><br />
+ * Accepts duplicate peers. Peers are matched with equals.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class ListPeerStore<K, D> implements PeerStore<K, D> {
+    /** Largest number of peers kept in the compact array. */
+    static final int THRESHOLD = 8;
+
+    /**
+     * Peers while there are at most THRESHOLD of them, grouped by key;
+     * only the first size entries are used. Null when there are no
+     * peers or when the index is in use.
+     */
+    private Thing42orNull<K, D>[] compact;
+    /** Peers by key once there were more than THRESHOLD; null before. */
+    private HashMap<K, ArrayList<Thing42orNull<K, D>>> index;
+    /** Number of peers over all keys. */
+    private int size;
+
+    /**
+     * Compares two keys, either of which may be null. Identical keys,
+     * such as keys from a {@link Thing42KeyInterner}, match without
+     * calling equals.
+     *
+     * @param a a key
+     * @param b another key
+     * @return true if the keys are equal
+     */
+    static boolean sameKey(final Object a, final Object b) {
+        return a == b || (a != null && a.equals(b));
+    }
+
+    /**
+     * Finds the end of the group of peers with a key in the compact array.
+     *
+     * @param start the first peer of the group
+     * @return one past the last peer of the group
+     */
+    private int groupEnd(final int start) {
+        K k = compact[start].getKey();
+        int end = start + 1;
+        while (end < size && sameKey(k, compact[end].getKey())) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Finds the group of peers with a key in the compact array.
+     *
+     * @param key the key
+     * @return the first peer of the group; -1 if there is none
+     */
+    private int groupStart(final Object key) {
+        int i = 0;
+        while (i < size) {
+            if (sameKey(key, compact[i].getKey())) {
+                return i;
+            }
+            i = groupEnd(i);
+        }
+        return -1;
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    public void add(final Thing42orNull<K, D> peer) {
+        if (index == null && size == THRESHOLD) {
+            promote();
+        }
+        if (index != null) {
+            K k = peer.getKey();
+            ArrayList<Thing42orNull<K, D>> list = index.get(k);
+            if (list == null) {
+                list = new ArrayList<Thing42orNull<K, D>>(2);
+                index.put(k, list);
+            }
+            list.add(peer);
+            size++;
+            return;
+        }
+        if (compact == null) {
+            compact = new Thing42orNull[2];
+        } else if (size == compact.length) {
+            compact = Arrays.copyOf(compact, Math.min(THRESHOLD, size * 2));
+        }
+        // insert after the last peer with the same key, or at the end
+        int at = groupStart(peer.getKey());
+        at = (at < 0) ? size : groupEnd(at);
+        System.arraycopy(compact, at, compact, at + 1, size - at);
+        compact[at] = peer;
+        size++;
+    }
+
+    /** {@inheritDoc} */
+    public void addAll(final Collection<? extends Thing42orNull<K, D>> batch) {
+        if (index == null) {
+            if (size + batch.size() <= THRESHOLD) {
+                for (Thing42orNull<K, D> peer : batch) {
+                    add(peer);
+                }
+                return;
+            }
+            promote(size + batch.size());
+        }
+        ArrayList<Thing42orNull<K, D>> list = null;
+        K last = null;
+        for (Thing42orNull<K, D> peer : batch) {
+            K k = peer.getKey();
+            // peers sharing a key are often added together
+            if (list == null || !sameKey(k, last)) {
+                list = index.get(k);
+                if (list == null) {
+                    list = new ArrayList<Thing42orNull<K, D>>(2);
+                    index.put(k, list);
+                }
+                last = k;
+            }
+            list.add(peer);
+            size++;
+        }
+    }
+
+    /**
+     * Moves the peers from the compact array to the hash index.
+     */
+    private void promote() {
+        promote(THRESHOLD + 1);
+    }
+
+    /**
+     * Moves the peers from the compact array to the hash index.
+     *
+     * @param expected the number of peers the index is sized for
+     */
+    private void promote(final int expected) {
+        index = new HashMap<K, ArrayList<Thing42orNull<K, D>>>((int) (expected / 0.75f) + 1);
+        int i = 0;
+        while (i < size) {
+            int end = groupEnd(i);
+            ArrayList<Thing42orNull<K, D>> list
+                = new ArrayList<Thing42orNull<K, D>>(Math.max(2, end - i));
+            for (int j = i; j < end; j++) {
+                list.add(compact[j]);
+            }
+            index.put(compact[i].getKey(), list);
+            i = end;
+        }
+        compact = null;
+    }
+
+    /** {@inheritDoc} */
+    public Thing42orNull<K, D> remove(final Thing42orNull<K, D> peer) {
+        if (index != null) {
+            K k = peer.getKey();
+            ArrayList<Thing42orNull<K, D>> list = index.get(k);
+            int i = (list == null) ? -1 : list.indexOf(peer);
+            Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_PEER_SCAN,
+                                  (i >= 0) ? i + 1 : (list == null) ? 0 : list.size());
+            if (i < 0) {
+                return null;
+            }
+            Thing42orNull<K, D> stored = list.remove(i);
+            if (list.isEmpty()) {
+                index.remove(k);
+            }
+            if (--size == 0) {
+                index = null;
+            }
+            return stored;
+        }
+        int i = (size == 0) ? -1 : find(peer);
+        // slots of the compact array looked at
+        Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_PEER_SCAN,
+                              (i >= 0) ? i + 1 : size);
+        if (i < 0) {
+            return null;
+        }
+        Thing42orNull<K, D> stored = compact[i];
+        System.arraycopy(compact, i + 1, compact, i, size - i - 1);
+        compact[--size] = null;
+        if (size == 0) {
+            compact = null;
+        }
+        return stored;
+    }
+
+    /** {@inheritDoc} */
+    public int removeAll(final Collection<? extends Thing42orNull<K, D>> batch,
+                         final List<? super Thing42orNull<K, D>> removed) {
+        int count = 0;
+        if (index == null || size <= index.size() * THRESHOLD) {
+            // lists are short, so removing one peer at a time shifts little
+            for (Thing42orNull<K, D> peer : batch) {
+                Thing42orNull<K, D> r = remove(peer);
+                if (r != null) {
+                    count++;
+                    if (removed != null) {
+                        removed.add(r);
+                    }
+                }
+            }
+            return count;
+        }
+        // removals of different keys do not interact, so each list is
+        // compacted once for all the peers of the batch with its key
+        HashMap<K, ArrayList<Thing42orNull<K, D>>> groups
+            = new HashMap<K, ArrayList<Thing42orNull<K, D>>>();
+        for (Thing42orNull<K, D> peer : batch) {
+            K k = peer.getKey();
+            ArrayList<Thing42orNull<K, D>> group = groups.get(k);
+            if (group == null) {
+                group = new ArrayList<Thing42orNull<K, D>>(2);
+                groups.put(k, group);
+            }
+            group.add(peer);
+        }
+        for (Map.Entry<K, ArrayList<Thing42orNull<K, D>>> e : groups.entrySet()) {
+            ArrayList<Thing42orNull<K, D>> list = index.get(e.getKey());
+            if (list == null) {
+                continue;
+            }
+            count += BatchRemoval.removeAll(list, e.getValue(), removed);
+            if (list.isEmpty()) {
+                index.remove(e.getKey());
+            }
+        }
+        size -= count;
+        if (size == 0) {
+            index = null;
+        }
+        return count;
+    }
+
+    /**
+     * Finds a peer in the compact array.
+     *
+     * @param peer the peer
+     * @return the position of the first equal peer; -1 if there is none
+     */
+    private int find(final Thing42orNull<K, D> peer) {
+        int i = groupStart(peer.getKey());
+        if (i < 0) {
+            return -1;
+        }
+        int end = groupEnd(i);
+        for (; i < end; i++) {
+            if (peer.equals(compact[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(final Thing42orNull<K, D> peer) {
+        if (index != null) {
+            ArrayList<Thing42orNull<K, D>> list = index.get(peer.getKey());
+            return list != null && list.contains(peer);
+        }
+        return find(peer) >= 0;
+    }
+
+    /** {@inheritDoc} */
+    public Thing42orNull<K, D> getOne(final K key) {
+        if (index != null) {
+            ArrayList<Thing42orNull<K, D>> list = index.get(key);
+            //We always just return the first one in the list.
+            return (list == null || list.isEmpty()) ? null : list.get(0);
+        }
+        int i = groupStart(key);
+        return (i < 0) ? null : compact[i];
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br />Once the peers are indexed this is a read-only view of the
+     * list held by the index; before that it is a read-only copy.
+     */
+    public Collection<Thing42orNull<K, D>> get(final K key) {
+        if (index != null) {
+            ArrayList<Thing42orNull<K, D>> list = index.get(key);
+            if (list != null) {
+                return Collections.unmodifiableList(list);
+            }
+            return Collections.<Thing42orNull<K, D>>emptyList();
+        }
+        int i = groupStart(key);
+        if (i < 0) {
+            return Collections.<Thing42orNull<K, D>>emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOfRange(compact, i, groupEnd(i))));
+    }
+
+    /** {@inheritDoc} */
+    public Set<K> keys() {
+        if (index != null) {
+            return index.keySet();
+        }
+        Set<K> keys = new LinkedHashSet<K>();
+        for (int i = 0; i < size; i = groupEnd(i)) {
+            keys.add(compact[i].getKey());
+        }
+        return keys;
+    }
+
+    /** {@inheritDoc} */
+    public int size() {
+        return size;
+    }
+
+    /** {@inheritDoc} */
+    public Iterator<Thing42orNull<K, D>> iterator() {
+        if (index != null) {
+            return new BucketIterator<K, D>(index.values().iterator());
+        }
+        return new Iterator<Thing42orNull<K, D>>() {
+            private int i;
+
+            public boolean hasNext() {
+                return compact != null && i < size;
+            }
+
+            public Thing42orNull<K, D> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return compact[i++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        if (index != null) {
+            return index.hashCode();
+        }
+        // what a HashMap of the groups as ArrayLists would return
+        int result = 0;
+        int i = 0;
+        while (i < size) {
+            int end = groupEnd(i);
+            int list = 1;
+            for (int j = i; j < end; j++) {
+                list = 31 * list + compact[j].hashCode();
+            }
+            K k = compact[i].getKey();
+            result += ((k == null) ? 0 : k.hashCode()) ^ list;
+            i = end;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pool storage backed by an ArrayList, which is simple and maintains
+ * order of insertion. {@link #asList()} returns the ArrayList itself.
+ * The ArrayList is only created when a member is appended, so an
+ * object that never uses its pool does not pay for it; until then
+ * asList() returns an empty, immutable list, and reading the pool
+ * never writes to this store.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class ListPoolStore<K, D> implements PoolStore<K, D> {
+    /** The members, in order of insertion; null until the first append. */
+    private ArrayList<Thing42orNull<K, D>> pool;
+
+    /** {@inheritDoc} */
+    public void append(final Thing42orNull<K, D> member) {
+        if (pool == null) {
+            pool = new ArrayList<Thing42orNull<K, D>>(2);
+        }
+        pool.add(member);
+    }
+
+    /** {@inheritDoc} */
+    public void appendAll(final Collection<? extends Thing42orNull<K, D>> batch) {
+        if (pool == null) {
+            pool = new ArrayList<Thing42orNull<K, D>>(Math.max(2, batch.size()));
+        }
+        pool.addAll(batch);
+    }
+
+    /**
+     * Removes the first member, shifting all others.
+     *
+     * @return the member that was removed; null if the pool is empty
+     */
+    public Thing42orNull<K, D> poll() {
+        return (pool == null || pool.isEmpty()) ? null : pool.remove(0);
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(final Thing42orNull<K, D> member) {
+        return pool != null && pool.contains(member);
+    }
+
+    /** {@inheritDoc} */
+    public Thing42orNull<K, D> remove(final Thing42orNull<K, D> member) {
+        int i = (pool == null) ? -1 : pool.indexOf(member);
+        Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_FROM_POOL_SCAN,
+                              (i >= 0) ? i + 1 : size());
+        return (i < 0) ? null : pool.remove(i);
+    }
+
+    /** {@inheritDoc} */
+    public int removeAll(final Collection<? extends Thing42orNull<K, D>> batch,
+                         final List<? super Thing42orNull<K, D>> removed) {
+        return (pool == null) ? 0 : BatchRemoval.removeAll(pool, batch, removed);
+    }
+
+    /** {@inheritDoc} */
+    public List<Thing42orNull<K, D>> asList() {
+        if (pool == null) {
+            return Collections.<Thing42orNull<K, D>>emptyList();
+        }
+        return pool;
+    }
+
+    /** {@inheritDoc} */
+    public int size() {
+        return (pool == null) ? 0 : pool.size();
+    }
+}
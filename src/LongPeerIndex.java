@@ -0,0 +1,416 @@
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Peers grouped by primitive long key, for LongThing42.
+ * <br />
+ * Keys live in an open-addressing table with linear probing, so
+ * looking up a key neither boxes it nor follows a pointer per entry.
+ * Each key has a bucket holding its peers in order of insertion;
+ * a bucket that becomes empty is removed with backward-shift deletion,
+ * so the table never fills up with dead keys. Peers with a null key
+ * are kept in a separate bucket.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class LongPeerIndex {
+    /** Initial table length, a power of 2. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /**
+     * Peers sharing a key, in order of insertion. Read-only for
+     * callers outside LongPeerIndex.
+     */
+    static final class Bucket extends AbstractCollection<Thing42orNull<Long, Long>> {
+        /** The peers; only the first size entries are used. */
+        private Thing42orNull<Long, Long>[] peers;
+        /** Number of peers. */
+        private int size;
+
+        /**
+         * Constructor for objects of class Bucket.
+         */
+        @SuppressWarnings("unchecked")
+        private Bucket() {
+            peers = new Thing42orNull[1];
+        }
+
+        /**
+         * Appends a peer.
+         *
+         * @param peer the peer
+         */
+        private void addPeer(final Thing42orNull<Long, Long> peer) {
+            if (size == peers.length) {
+                peers = Arrays.copyOf(peers, size * 2);
+            }
+            peers[size++] = peer;
+        }
+
+        /**
+         * Removes the first peer equal to the given one.
+         *
+         * @param peer the peer
+         * @return true if a peer was removed
+         */
+        private boolean removePeer(final Object peer) {
+            for (int i = 0; i < size; i++) {
+                if (peer == peers[i] || peer.equals(peers[i])) {
+                    System.arraycopy(peers, i + 1, peers, i, size - i - 1);
+                    peers[--size] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Accesses the first peer.
+         *
+         * @return the first peer; null if empty
+         */
+        Thing42orNull<Long, Long> first() {
+            return (size == 0) ? null : peers[0];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Thing42orNull<Long, Long>> iterator() {
+            return new Iterator<Thing42orNull<Long, Long>>() {
+                private int i;
+
+                public boolean hasNext() {
+                    return i < size;
+                }
+
+                public Thing42orNull<Long, Long> next() {
+                    if (i >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return peers[i++];
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /** Keys of the occupied slots. */
+    private long[] keys;
+    /** Buckets of the occupied slots; null marks a free slot. */
+    private Bucket[] buckets;
+    /** Number of occupied slots. */
+    private int occupied;
+    /** Bucket of the peers with a null key; null if none. */
+    private Bucket nullKey;
+    /** Number of peers over all keys. */
+    private int size;
+
+    /**
+     * Constructor for objects of class LongPeerIndex.
+     */
+    LongPeerIndex() {
+        keys = new long[INITIAL_CAPACITY];
+        buckets = new Bucket[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Spreads the bits of a key.
+     *
+     * @param key the key
+     * @return the hash
+     */
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Finds the slot of a key.
+     *
+     * @param key the key
+     * @return the slot; or, if the key is absent, -1 minus the free
+     * slot where it would go
+     */
+    private int slot(final long key) {
+        int mask = buckets.length - 1;
+        int i = hash(key) & mask;
+        while (buckets[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1 - i;
+    }
+
+    /**
+     * Adds a peer.
+     *
+     * @param peer the peer, not null
+     */
+    void add(final Thing42orNull<Long, Long> peer) {
+        if (peer instanceof LongThing42) {
+            add(((LongThing42) peer).getKeyAsLong(), peer);
+            return;
+        }
+        Long k = peer.getKey();
+        if (k == null) {
+            if (nullKey == null) {
+                nullKey = new Bucket();
+            }
+            nullKey.addPeer(peer);
+            size++;
+        } else {
+            add(k.longValue(), peer);
+        }
+    }
+
+    /**
+     * Adds a peer with a non-null key.
+     *
+     * @param key the key of the peer
+     * @param peer the peer
+     */
+    private void add(final long key, final Thing42orNull<Long, Long> peer) {
+        int i = slot(key);
+        if (i < 0) {
+            if (occupied + 1 > buckets.length >> 1) {
+                resize();
+                i = slot(key);
+            }
+            i = -1 - i;
+            keys[i] = key;
+            buckets[i] = new Bucket();
+            occupied++;
+        }
+        buckets[i].addPeer(peer);
+        size++;
+    }
+
+    /**
+     * Removes the first peer equal to the given one.
+     *
+     * @param peer the peer, not null
+     * @return true if a peer was removed
+     */
+    boolean remove(final Thing42orNull<Long, Long> peer) {
+        long key;
+        if (peer instanceof LongThing42) {
+            key = ((LongThing42) peer).getKeyAsLong();
+        } else if (peer.getKey() != null) {
+            key = peer.getKey().longValue();
+        } else {
+            if (nullKey == null || !nullKey.removePeer(peer)) {
+                return false;
+            }
+            size--;
+            return true;
+        }
+        int i = slot(key);
+        if (i < 0 || !buckets[i].removePeer(peer)) {
+            return false;
+        }
+        size--;
+        if (buckets[i].size == 0) {
+            delete(i);
+        }
+        return true;
+    }
+
+    /**
+     * Frees a slot, moving later entries of its probe sequence back so
+     * that lookups never need tombstones.
+     *
+     * @param slot the slot to free
+     */
+    private void delete(final int slot) {
+        int mask = buckets.length - 1;
+        int hole = slot;
+        int i = (hole + 1) & mask;
+        while (buckets[i] != null) {
+            int home = hash(keys[i]) & mask;
+            // move the entry if the hole lies on its probe path
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                buckets[hole] = buckets[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        buckets[hole] = null;
+        occupied--;
+    }
+
+    /**
+     * Doubles the table.
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        Bucket[] oldBuckets = buckets;
+        keys = new long[oldKeys.length * 2];
+        buckets = new Bucket[oldBuckets.length * 2];
+        for (int j = 0; j < oldBuckets.length; j++) {
+            if (oldBuckets[j] != null) {
+                int i = -1 - slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                buckets[i] = oldBuckets[j];
+            }
+        }
+    }
+
+    /**
+     * Accesses the peers with a key.
+     *
+     * @param key the key
+     * @return the bucket; null if there are no peers with the key
+     */
+    Bucket get(final long key) {
+        int i = slot(key);
+        return (i < 0) ? null : buckets[i];
+    }
+
+    /**
+     * Accesses the peers with a possibly null key.
+     *
+     * @param key the key
+     * @return the bucket; null if there are no peers with the key
+     */
+    Bucket get(final Long key) {
+        return (key == null) ? nullKey : get(key.longValue());
+    }
+
+    /**
+     * Number of peers, counting duplicates.
+     *
+     * @return the number of peers
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Determines whether another index holds equal peers under each key,
+     * in the same order within a key. The order of the keys in the
+     * table does not matter.
+     *
+     * @param obj an Object to be compared with this index
+     * @return true if obj is an index with equal peers under each key
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof LongPeerIndex)) {
+            return false;
+        }
+        LongPeerIndex other = (LongPeerIndex) obj;
+        if (size != other.size || !sameBucket(nullKey, other.nullKey)) {
+            return false;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != null && !sameBucket(buckets[i], other.get(keys[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns what a HashMap from the keys to lists of their peers would
+     * return, which does not depend on the order of the keys.
+     *
+     * @return the hashcode of this index
+     */
+    @Override
+    public int hashCode() {
+        int result = (nullKey == null || nullKey.size == 0) ? 0 : bucketHash(nullKey);
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != null) {
+                result += Long.hashCode(keys[i]) ^ bucketHash(buckets[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares two buckets peer by peer; null counts as empty.
+     *
+     * @param a a bucket, possibly null
+     * @param b a bucket, possibly null
+     * @return true if they hold equal peers in the same order
+     */
+    private static boolean sameBucket(final Bucket a, final Bucket b) {
+        int n = (a == null) ? 0 : a.size;
+        if (n != ((b == null) ? 0 : b.size)) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (!a.peers[i].equals(b.peers[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the peers of a bucket in order, as a List does.
+     *
+     * @param bucket the bucket
+     * @return the hash
+     */
+    private static int bucketHash(final Bucket bucket) {
+        int result = 1;
+        for (int i = 0; i < bucket.size; i++) {
+            result = 31 * result + bucket.peers[i].hashCode();
+        }
+        return result;
+    }
+
+    /**
+     * Iterates all peers, key by key: first the peers with a null key,
+     * then the others in table order. The iterator is read-only.
+     *
+     * @return an iterator over all peers
+     */
+    Iterator<Thing42orNull<Long, Long>> iterator() {
+        return new Iterator<Thing42orNull<Long, Long>>() {
+            private int slot = -1;
+            private Bucket bucket = nullKey;
+            private int i;
+
+            public boolean hasNext() {
+                while (bucket == null || i >= bucket.size) {
+                    slot++;
+                    if (slot >= buckets.length) {
+                        return false;
+                    }
+                    bucket = buckets[slot];
+                    i = 0;
+                }
+                return true;
+            }
+
+            public Thing42orNull<Long, Long> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return bucket.peers[i++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
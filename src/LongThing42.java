@@ -0,0 +1,351 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Implementation of the Thing42orNull interface specialized for
+ * <code>long</code> keys and data.
+ * <br />
+ * A LongThing42 can be used wherever a Thing42orNull&lt;Long, Long&gt;
+ * is expected, but stores its key, level and data as primitives and
+ * indexes its peers by primitive key in an open-addressing table
+ * (LongPeerIndex). The primitive accessors {@link #getKeyAsLong()},
+ * {@link #getDataAsLong()}, {@link #setData(long)} and
+ * {@link #getOnePeer(long)} never box; the generic ones box their
+ * result or argument as the interface requires. Peers that are
+ * LongThing42 objects are indexed without boxing their keys.
+ * <br /><br />
+ * Like Thing42, duplicate peers and pool members are accepted, the pool
+ * is an ArrayList, and equals compares key, level, data, peers and
+ * pool; a LongThing42 is only ever equal to another LongThing42.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class LongThing42 implements Thing42orNull<Long, Long> {
+    /** Key of this LongThing42. Immutable. */
+    private final long key;
+    /** Level of this LongThing42. Immutable. */
+    private final long level;
+    /** Data of this LongThing42, if not null. */
+    private long data;
+    /** True if the data is null. */
+    private boolean nullData;
+    /** Peers by key. */
+    private final LongPeerIndex peers = new LongPeerIndex();
+    /** Read-only view of all peers, created on first use. */
+    private PeersView peersView;
+    /** Pool, in order of insertion. */
+    private final ArrayList<Thing42orNull<Long, Long>> pool
+        = new ArrayList<Thing42orNull<Long, Long>>(0);
+
+    /**
+     * Constructor for objects of class LongThing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     */
+    public LongThing42(final long key, final long level, final long data) {
+        this.key = key;
+        this.level = level;
+        this.data = data;
+    }
+
+    /**
+     * Add a peer to this object. <br />Accepts duplicates.
+     *
+     * @param newPeer the peer to add
+     * @throws NullPointerException if the specified peer is null
+     */
+    public void addPeer(final Thing42orNull<Long, Long> newPeer)
+    throws NullPointerException {
+        if (newPeer == null) {
+            throw new NullPointerException();
+        }
+        peers.add(newPeer);
+    }
+
+    /**
+     * Append a member to the pool of this object.
+     * <br />Duplicate objects are accepted.
+     *
+     * @param newMember the object to be appended to the pool
+     * @throws NullPointerException if the specified item is null
+     */
+    public void appendToPool(final Thing42orNull<Long, Long> newMember)
+    throws NullPointerException {
+        if (newMember == null) {
+            throw new NullPointerException();
+        }
+        pool.add(newMember);
+    }
+
+    /**
+     * Access the data of this LongThing42, boxed.
+     *
+     * @return the data of this object
+     */
+    public Long getData() {
+        return nullData ? null : Long.valueOf(data);
+    }
+
+    /**
+     * Access the data of this LongThing42 without boxing.
+     *
+     * @return the data of this object
+     * @throws NullPointerException if the data is null
+     */
+    public long getDataAsLong() throws NullPointerException {
+        if (nullData) {
+            throw new NullPointerException();
+        }
+        return data;
+    }
+
+    /**
+     * Access the key of this LongThing42, boxed.
+     *
+     * @return the key of this object
+     */
+    public Long getKey() {
+        return Long.valueOf(key);
+    }
+
+    /**
+     * Access the key of this LongThing42 without boxing.
+     *
+     * @return the key of this object
+     */
+    public long getKeyAsLong() {
+        return key;
+    }
+
+    /**
+     * Access the level of this LongThing42.
+     *
+     * @return the level of this object
+     */
+    public long getLevel() {
+        return level;
+    }
+
+    /**
+     * Access a peer matching the specified key.
+     *
+     * @param key the search key
+     * @return any peer known by this object that
+     * matches the given key; null if no match
+     */
+    public Thing42orNull<Long, Long> getOnePeer(final Long key) {
+        LongPeerIndex.Bucket bucket = peers.get(key);
+        return (bucket == null) ? null : bucket.first();
+    }
+
+    /**
+     * Access a peer matching the specified key without boxing it.
+     *
+     * @param key the search key
+     * @return the first peer added with the given key that is still
+     * a peer; null if no match
+     */
+    public Thing42orNull<Long, Long> getOnePeer(final long key) {
+        LongPeerIndex.Bucket bucket = peers.get(key);
+        return (bucket == null) ? null : bucket.first();
+    }
+
+    /**
+     * Access all peers.
+     * <br />The returned collection is a live, read-only view.
+     *
+     * @return all peers known by this object;
+     * if no peers then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<Long, Long>> getPeersAsCollection() {
+        if (peersView == null) {
+            peersView = new PeersView();
+        }
+        return peersView;
+    }
+
+    /**
+     * Access all peers matching the specified key.
+     * <br />The returned collection is a read-only view.
+     *
+     * @param key the search key
+     * @return all peers known by this object that match the given key;
+     * if no peer matches then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<Long, Long>> getPeersAsCollection(final Long key) {
+        LongPeerIndex.Bucket bucket = peers.get(key);
+        if (bucket == null) {
+            return Collections.<Thing42orNull<Long, Long>>emptyList();
+        }
+        return bucket;
+    }
+
+    /**
+     * Access all members of the pool.
+     *
+     * @return all members of the pool known by this object;
+     * if no members then returns a List with size() == 0.
+     */
+    public List<Thing42orNull<Long, Long>> getPoolAsList() {
+        return pool;
+    }
+
+    /**
+     * Remove a single instance of the specified object from this object's pool.
+     *
+     * @param member the member to be removed from the pool
+     * @return true if a pool member was removed as a result of this call
+     * @throws NullPointerException if the specified parameter is null
+     */
+    public boolean removeFromPool(final Thing42orNull<Long, Long> member)
+    throws NullPointerException {
+        if (member == null) {
+            throw new NullPointerException();
+        }
+        return pool.remove(member);
+    }
+
+    /**
+     * Remove a single instance of the specified peer from this object.
+     *
+     * @param peer the peer to be removed
+     * @return true if a peer was removed as a result of this call
+     * @throws NullPointerException if the specified peer is null
+     */
+    public boolean removePeer(final Thing42orNull<Long, Long> peer)
+    throws NullPointerException {
+        if (peer == null) {
+            throw new NullPointerException();
+        }
+        return peers.remove(peer);
+    }
+
+    /**
+     * Modify the data of this LongThing42.
+     *
+     * @param newData the updated data for this object; may be null
+     */
+    public void setData(final Long newData) {
+        if (newData == null) {
+            this.nullData = true;
+            this.data = 0;
+        } else {
+            setData(newData.longValue());
+        }
+    }
+
+    /**
+     * Modify the data of this LongThing42 without boxing.
+     *
+     * @param newData the updated data for this object
+     */
+    public void setData(final long newData) {
+        this.nullData = false;
+        this.data = newData;
+    }
+
+    /**
+     * Determines whether or not the specified Object is equal to this
+     * LongThing42: it must be a LongThing42 with the same key, level
+     * and data, equal peers under each key in the same order within
+     * the key, and an equal pool.
+     *
+     * @param obj an Object to be compared with this LongThing42.
+     * @return true if obj is an equal LongThing42; false otherwise.
+     * @see #hashCode()
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LongThing42)) {
+            return false;
+        }
+        LongThing42 thing = (LongThing42) obj;
+        return key == thing.key
+            && level == thing.level
+            && nullData == thing.nullData
+            && data == thing.data
+            && getPeersAsCollection().equals(thing.getPeersAsCollection())
+            && pool.equals(thing.pool);
+    }
+
+    /**
+     * Returns the hashcode for this LongThing42.
+     *
+     * @return the hashcode for this LongThing42
+     */
+    @Override
+    public int hashCode() {
+        int prime = 17;
+        int result = 1;
+        result = prime * result + (int) (key ^ (key >>> 32));
+        result = prime * result + (nullData ? 0 : (int) (data ^ (data >>> 32)));
+        result = prime * result + (int) (level ^ (level >>> 32));
+        result = prime * result + getPeersAsCollection().hashCode();
+        result = prime * result + pool.hashCode();
+        return result;
+    }
+
+    /**
+     * Read-only view of all peers. Two views are equal if they contain
+     * equal peers under each key, in the same order within a key.
+     */
+    private final class PeersView extends AbstractCollection<Thing42orNull<Long, Long>> {
+        @Override
+        public int size() {
+            return peers.size();
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            if (!(o instanceof Thing42orNull)) {
+                return false;
+            }
+            Object k = ((Thing42orNull<?, ?>) o).getKey();
+            if (k != null && !(k instanceof Long)) {
+                return false;
+            }
+            LongPeerIndex.Bucket bucket = peers.get((Long) k);
+            return bucket != null && bucket.contains(o);
+        }
+
+        @Override
+        public Iterator<Thing42orNull<Long, Long>> iterator() {
+            return peers.iterator();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof LongThing42.PeersView)) {
+                return false;
+            }
+            return peers.equals(((PeersView) o).owner().peers);
+        }
+
+        @Override
+        public int hashCode() {
+            return peers.hashCode();
+        }
+
+        /**
+         * Accesses the LongThing42 this view belongs to.
+         *
+         * @return the owner
+         */
+        private LongThing42 owner() {
+            return LongThing42.this;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class LongThing42Test.
+ *
+ * Tests the primitive accessors of LongThing42 and its peer index,
+ * including growth of the index and removal of emptied keys.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class LongThing42Test
+{
+    //The LongThing42 object upon which tests should call methods.
+    LongThing42 testThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new LongThing42(1, 1, 42);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        testThing = null;
+    }
+
+    /**
+     * Verifies the primitive and boxed accessors agree, also for null data.
+     */
+    @Test
+    public void testData()
+    {
+        assertTrue(testThing.getKeyAsLong() == 1);
+        assertEquals(Long.valueOf(1), testThing.getKey());
+        assertTrue(testThing.getDataAsLong() == 42);
+        assertEquals(Long.valueOf(42), testThing.getData());
+        testThing.setData(Long.valueOf(7));
+        assertTrue(testThing.getDataAsLong() == 7);
+        testThing.setData((Long) null);
+        assertNull(testThing.getData());
+        testThing.setData(8L);
+        assertEquals(Long.valueOf(8), testThing.getData());
+    }
+
+    /**
+     * Attempts to read null data as a primitive.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testNullDataAsLong()
+    {
+        testThing.setData((Long) null);
+        testThing.getDataAsLong();
+    }
+
+    /**
+     * Adds many keys with duplicates, looks them up with both key
+     * types, and removes them again in a different order.
+     */
+    @Test
+    public void testPeerIndex()
+    {
+        LongThing42[] peers = new LongThing42[1000];
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new LongThing42(i % 300, i, i);
+            testThing.addPeer(peers[i]);
+        }
+        assertTrue(testThing.getPeersAsCollection().size() == 1000);
+        for (int k = 0; k < 300; k++) {
+            assertTrue(testThing.getOnePeer(k) == peers[k]);
+            assertTrue(testThing.getOnePeer(Long.valueOf(k)) == peers[k]);
+        }
+        assertTrue(testThing.getPeersAsCollection(Long.valueOf(5)).size() == 4);
+        assertNull(testThing.getOnePeer(300));
+
+        for (int i = peers.length - 1; i >= 0; i -= 2) {
+            assertTrue(testThing.removePeer(peers[i]));
+        }
+        for (int i = 0; i < peers.length; i += 2) {
+            assertTrue(testThing.removePeer(peers[i]));
+        }
+        assertFalse(testThing.removePeer(peers[0]));
+        assertTrue(testThing.getPeersAsCollection().size() == 0);
+        assertFalse(testThing.getPeersAsCollection().iterator().hasNext());
+        for (int k = 0; k < 300; k++) {
+            assertNull(testThing.getOnePeer(k));
+        }
+    }
+
+    /**
+     * Adds peers of other Thing42orNull types, including one with a null key.
+     */
+    @Test
+    public void testGenericPeers()
+    {
+        Thing42<Long, Long> generic = new Thing42<Long, Long>(2L, 2, 2L);
+        Thing42<Long, Long> nullKey = new Thing42<Long, Long>(null, 3, 3L);
+        testThing.addPeer(generic);
+        testThing.addPeer(nullKey);
+        assertTrue(testThing.getOnePeer(2) == generic);
+        assertTrue(testThing.getOnePeer((Long) null) == nullKey);
+        assertTrue(testThing.getPeersAsCollection().contains(nullKey));
+        assertTrue(testThing.getPeersAsCollection().size() == 2);
+        assertTrue(testThing.removePeer(nullKey));
+        assertFalse(testThing.removePeer(nullKey));
+        assertTrue(testThing.removePeer(new Thing42<Long, Long>(2L, 2, 2L)));
+    }
+
+    /**
+     * Attempts to add null as a peer.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testAddNullPeer()
+    {
+        testThing.addPeer(null);
+    }
+
+    /**
+     * Tests equals and hashCode on equal and unequal objects.
+     */
+    @Test
+    public void testEquals()
+    {
+        LongThing42 thing1 = new LongThing42(1, 1, 42);
+        LongThing42 thing2 = new LongThing42(1, 1, 42);
+        assertTrue(thing1.equals(thing2));
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+        thing1.addPeer(new LongThing42(5, 5, 5));
+        thing1.appendToPool(new LongThing42(6, 6, 6));
+        assertFalse(thing1.equals(thing2));
+        thing2.addPeer(new LongThing42(5, 5, 5));
+        thing2.appendToPool(new LongThing42(6, 6, 6));
+        assertTrue(thing1.equals(thing2));
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+        thing2.setData(43L);
+        assertFalse(thing1.equals(thing2));
+        assertFalse(thing1.equals(new Thing42<Long, Long>(1L, 1, 42L)));
+    }
+
+    /**
+     * Verifies that equality and hashCode do not depend on the order
+     * in which keys were added or on the size of the table.
+     */
+    @Test
+    public void testEqualsIgnoresKeyOrder()
+    {
+        LongThing42 thing1 = new LongThing42(1, 1, 42);
+        LongThing42 thing2 = new LongThing42(1, 1, 42);
+        thing1.addPeer(new LongThing42(2, 2, 2));
+        thing1.addPeer(new LongThing42(3, 3, 3));
+        thing2.addPeer(new LongThing42(3, 3, 3));
+        thing2.addPeer(new LongThing42(2, 2, 2));
+        assertTrue(thing1.equals(thing2));
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+
+        LongThing42 grown = new LongThing42(1, 1, 42);
+        for (long k = 100; k < 200; k++) {
+            grown.addPeer(new LongThing42(k, k, k));
+        }
+        grown.addPeer(new LongThing42(3, 3, 3));
+        grown.addPeer(new LongThing42(2, 2, 2));
+        for (long k = 100; k < 200; k++) {
+            assertTrue(grown.removePeer(new LongThing42(k, k, k)));
+        }
+        assertTrue(grown.equals(thing1));
+        assertTrue(grown.hashCode() == thing1.hashCode());
+
+        thing2.addPeer(new LongThing42(2, 2, 7));
+        thing1.addPeer(new LongThing42(3, 3, 7));
+        assertFalse(thing1.equals(thing2));
+    }
+}
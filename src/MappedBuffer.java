@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a whole file, for Thing42GraphFile.
+ * <br />
+ * A single MappedByteBuffer is limited to 2 GB, so the file is mapped
+ * in windows of 1 GB that each reach a little into the next window.
+ * Numbers and short values that start in a window can then be read
+ * from that window alone, without copying; only values longer than
+ * the overlap that cross a window boundary are copied to the heap.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class MappedBuffer {
+    /** log2 of the window size. */
+    private static final int SHIFT = 30;
+    /** Mask of a position within its window. */
+    private static final long MASK = (1L << SHIFT) - 1;
+    /** Number of bytes each window reaches into the next one. */
+    private static final int OVERLAP = 1 << 16;
+
+    /** The windows. */
+    private final MappedByteBuffer[] windows;
+    /** Size of the file. */
+    private final long size;
+
+    /**
+     * Maps a file.
+     *
+     * @param channel the open file
+     * @throws IOException if the file cannot be mapped
+     */
+    MappedBuffer(final FileChannel channel) throws IOException {
+        size = channel.size();
+        windows = new MappedByteBuffer[(int) ((size + MASK) >>> SHIFT)];
+        for (int i = 0; i < windows.length; i++) {
+            long start = (long) i << SHIFT;
+            long length = Math.min(size - start, MASK + 1 + OVERLAP);
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+    }
+
+    /**
+     * Size of the file.
+     *
+     * @return the number of bytes
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @param pos the position in the file
+     * @return the byte
+     */
+    byte get(final long pos) {
+        return windows[(int) (pos >>> SHIFT)].get((int) (pos & MASK));
+    }
+
+    /**
+     * Reads a big-endian int.
+     *
+     * @param pos the position in the file
+     * @return the int
+     */
+    int getInt(final long pos) {
+        return windows[(int) (pos >>> SHIFT)].getInt((int) (pos & MASK));
+    }
+
+    /**
+     * Reads a big-endian long.
+     *
+     * @param pos the position in the file
+     * @return the long
+     */
+    long getLong(final long pos) {
+        return windows[(int) (pos >>> SHIFT)].getLong((int) (pos & MASK));
+    }
+
+    /**
+     * Accesses a range of the file, without copying it if possible.
+     *
+     * @param pos the position in the file
+     * @param length the number of bytes
+     * @return a read-only buffer of the bytes
+     */
+    ByteBuffer slice(final long pos, final int length) {
+        MappedByteBuffer window = windows[(int) (pos >>> SHIFT)];
+        int offset = (int) (pos & MASK);
+        if (offset + length <= window.limit()) {
+            ByteBuffer slice = window.duplicate();
+            slice.position(offset);
+            slice.limit(offset + length);
+            return slice.slice().asReadOnlyBuffer();
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = get(pos + i);
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+}
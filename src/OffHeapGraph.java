@@ -0,0 +1,813 @@
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A graph of Thing42orNull&lt;Long, Long&gt; nodes kept outside the
+ * Java heap.
+ * <br />
+ * Nodes are addressed by long handles, numbered from 0 in order of
+ * creation. Their keys, levels and data are stored in columns of
+ * direct memory, and their peers and pools in adjacency arrays of
+ * handles in a direct memory arena, so a graph of any size is only a
+ * few hundred objects to the garbage collector. Adjacency arrays
+ * double when full and are recycled through per-size free lists;
+ * an array that becomes empty is released.
+ * <br /><br />
+ * Nodes can be used through their handles with the methods of this
+ * class, which never allocate on the heap, or through
+ * {@link Node} flyweights, which implement Thing42orNull so existing
+ * code keeps working. A flyweight is a handle and a reference to the
+ * graph; any number of flyweights may stand for the same node, and
+ * they are all equal. Peers and pool members must be nodes of the same
+ * graph. As in Thing42, duplicate peers and pool members are accepted;
+ * peers keep the order in which they were added. Keys are never null,
+ * data may be.
+ * <br /><br />
+ * An OffHeapGraph is not thread-safe. Nodes cannot be deleted; the
+ * memory of a graph is released when it becomes unreachable.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class OffHeapGraph {
+    /** log2 of the number of longs per chunk of memory. */
+    private static final int SHIFT = 16;
+    /** Number of size classes of adjacency arrays. */
+    private static final int CLASSES = 31;
+
+    /** Keys by handle. */
+    private final OffHeapLongs keys;
+    /** Levels by handle. */
+    private final OffHeapLongs levels;
+    /** Data by handle; 0 where the data is null. */
+    private final OffHeapLongs data;
+    /** One bit per handle, set where the data is null. */
+    private final OffHeapLongs nulls;
+    /** Arena offset of the peer array by handle; 0 for none. */
+    private final OffHeapLongs peers;
+    /** Arena offset of the pool array by handle; 0 for none. */
+    private final OffHeapLongs pools;
+    /**
+     * The adjacency arrays. An array at offset a has a header at a,
+     * holding its capacity (a power of 2) in the high and its length
+     * in the low 32 bits, followed by capacity slots of handles.
+     * A free array holds the offset of the next free array of its
+     * size in its first slot. Offset 0 is not used.
+     */
+    private final OffHeapLongs arena;
+    /** First free array per log2 of capacity; 0 for none. */
+    private final long[] free = new long[CLASSES];
+    /** First unused offset of the arena. */
+    private long top = 1;
+    /** Number of nodes. */
+    private long size;
+
+    /**
+     * Constructor for objects of class OffHeapGraph.
+     */
+    public OffHeapGraph() {
+        this(SHIFT);
+    }
+
+    /**
+     * Constructor for objects of class OffHeapGraph with a given size
+     * of memory chunks, to test the chunking with small graphs.
+     *
+     * @param shift log2 of the number of longs per chunk
+     */
+    OffHeapGraph(final int shift) {
+        keys = new OffHeapLongs(shift);
+        levels = new OffHeapLongs(shift);
+        data = new OffHeapLongs(shift);
+        nulls = new OffHeapLongs(shift);
+        peers = new OffHeapLongs(shift);
+        pools = new OffHeapLongs(shift);
+        arena = new OffHeapLongs(shift);
+        arena.ensure(top);
+    }
+
+    /**
+     * Creates a node.
+     *
+     * @param key the key of the node
+     * @param level the level of the node
+     * @param value the data of the node
+     * @return the handle of the node
+     */
+    public long add(final long key, final long level, final long value) {
+        long h = size;
+        keys.ensure(h + 1);
+        levels.ensure(h + 1);
+        data.ensure(h + 1);
+        nulls.ensure((h >>> 6) + 1);
+        peers.ensure(h + 1);
+        pools.ensure(h + 1);
+        keys.set(h, key);
+        levels.set(h, level);
+        data.set(h, value);
+        size++;
+        return h;
+    }
+
+    /**
+     * Creates a node and returns a flyweight for it.
+     *
+     * @param key the key of the node
+     * @param level the level of the node
+     * @param value the data of the node; may be null
+     * @return the node
+     */
+    public Node addNode(final long key, final long level, final Long value) {
+        Node node = new Node(add(key, level, 0));
+        node.setData(value);
+        return node;
+    }
+
+    /**
+     * Accesses a node through a flyweight.
+     *
+     * @param handle the handle of the node
+     * @return a flyweight for the node
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public Node node(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        return new Node(handle);
+    }
+
+    /**
+     * Number of nodes.
+     *
+     * @return the number of nodes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Number of bytes this graph holds outside the Java heap.
+     *
+     * @return the number of bytes
+     */
+    public long offHeapBytes() {
+        return keys.bytes() + levels.bytes() + data.bytes() + nulls.bytes()
+            + peers.bytes() + pools.bytes() + arena.bytes();
+    }
+
+    /**
+     * Checks a handle.
+     *
+     * @param handle the handle
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    private void check(final long handle) throws IndexOutOfBoundsException {
+        if (handle < 0 || handle >= size) {
+            throw new IndexOutOfBoundsException("no node " + handle);
+        }
+    }
+
+    /**
+     * Accesses the key of a node.
+     *
+     * @param handle the handle of the node
+     * @return the key
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public long getKey(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        return keys.get(handle);
+    }
+
+    /**
+     * Accesses the level of a node.
+     *
+     * @param handle the handle of the node
+     * @return the level
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public long getLevel(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        return levels.get(handle);
+    }
+
+    /**
+     * Tells whether the data of a node is null.
+     *
+     * @param handle the handle of the node
+     * @return true if the data is null
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public boolean isDataNull(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        return (nulls.get(handle >>> 6) & (1L << handle)) != 0;
+    }
+
+    /**
+     * Accesses the data of a node.
+     *
+     * @param handle the handle of the node
+     * @return the data
+     * @throws IndexOutOfBoundsException if there is no such node
+     * @throws NullPointerException if the data is null
+     */
+    public long getData(final long handle)
+    throws IndexOutOfBoundsException, NullPointerException {
+        if (isDataNull(handle)) {
+            throw new NullPointerException();
+        }
+        return data.get(handle);
+    }
+
+    /**
+     * Modifies the data of a node.
+     *
+     * @param handle the handle of the node
+     * @param value the updated data
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public void setData(final long handle, final long value)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        data.set(handle, value);
+        nulls.set(handle >>> 6, nulls.get(handle >>> 6) & ~(1L << handle));
+    }
+
+    /**
+     * Sets the data of a node to null.
+     *
+     * @param handle the handle of the node
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public void clearData(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        data.set(handle, 0);
+        nulls.set(handle >>> 6, nulls.get(handle >>> 6) | (1L << handle));
+    }
+
+    /**
+     * Adds a peer to a node. Accepts duplicates.
+     *
+     * @param handle the handle of the node
+     * @param peer the handle of the peer
+     * @throws IndexOutOfBoundsException if there is no such node or peer
+     */
+    public void addPeer(final long handle, final long peer)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        check(peer);
+        append(peers, handle, peer);
+    }
+
+    /**
+     * Removes a single instance of a peer from a node.
+     *
+     * @param handle the handle of the node
+     * @param peer the handle of the peer
+     * @return true if a peer was removed
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public boolean removePeer(final long handle, final long peer)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        return remove(peers, handle, peer);
+    }
+
+    /**
+     * Number of peers of a node, counting duplicates.
+     *
+     * @param handle the handle of the node
+     * @return the number of peers
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public int peerCount(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        return length(peers.get(handle));
+    }
+
+    /**
+     * Accesses a peer of a node by position.
+     *
+     * @param handle the handle of the node
+     * @param index the position, in order of addition
+     * @return the handle of the peer
+     * @throws IndexOutOfBoundsException if there is no such node or peer
+     */
+    public long getPeer(final long handle, final int index)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        return slot(peers.get(handle), index);
+    }
+
+    /**
+     * Finds the first peer of a node with a key.
+     *
+     * @param handle the handle of the node
+     * @param key the search key
+     * @return the handle of the peer; -1 if no peer has the key
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public long findPeer(final long handle, final long key)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        long block = peers.get(handle);
+        int n = length(block);
+        for (int i = 0; i < n; i++) {
+            long peer = arena.get(block + 1 + i);
+            if (keys.get(peer) == key) {
+                return peer;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a member to the pool of a node. Accepts duplicates.
+     *
+     * @param handle the handle of the node
+     * @param member the handle of the member
+     * @throws IndexOutOfBoundsException if there is no such node or member
+     */
+    public void appendToPool(final long handle, final long member)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        check(member);
+        append(pools, handle, member);
+    }
+
+    /**
+     * Removes the first instance of a member from the pool of a node.
+     *
+     * @param handle the handle of the node
+     * @param member the handle of the member
+     * @return true if a member was removed
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public boolean removeFromPool(final long handle, final long member)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        return remove(pools, handle, member);
+    }
+
+    /**
+     * Number of members of the pool of a node, counting duplicates.
+     *
+     * @param handle the handle of the node
+     * @return the number of members
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public int poolSize(final long handle) throws IndexOutOfBoundsException {
+        check(handle);
+        return length(pools.get(handle));
+    }
+
+    /**
+     * Accesses a member of the pool of a node by position.
+     *
+     * @param handle the handle of the node
+     * @param index the position in the pool
+     * @return the handle of the member
+     * @throws IndexOutOfBoundsException if there is no such node or member
+     */
+    public long getPoolMember(final long handle, final int index)
+    throws IndexOutOfBoundsException {
+        check(handle);
+        return slot(pools.get(handle), index);
+    }
+
+    /**
+     * Length of an adjacency array.
+     *
+     * @param block the offset of the array; 0 for none
+     * @return the number of handles in the array
+     */
+    private int length(final long block) {
+        return (block == 0) ? 0 : (int) arena.get(block);
+    }
+
+    /**
+     * Reads a slot of an adjacency array.
+     *
+     * @param block the offset of the array; 0 for none
+     * @param index the slot
+     * @return the handle in the slot
+     * @throws IndexOutOfBoundsException if the slot is not in use
+     */
+    private long slot(final long block, final int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= length(block)) {
+            throw new IndexOutOfBoundsException("no element " + index);
+        }
+        return arena.get(block + 1 + index);
+    }
+
+    /**
+     * Appends a handle to the adjacency array of a node.
+     *
+     * @param column the column of the arrays
+     * @param handle the handle of the node
+     * @param value the handle to append
+     */
+    private void append(final OffHeapLongs column, final long handle, final long value) {
+        long block = column.get(handle);
+        if (block == 0) {
+            block = allocate(1);
+            column.set(handle, block);
+        }
+        long header = arena.get(block);
+        int capacity = (int) (header >>> 32);
+        int n = (int) header;
+        if (n == capacity) {
+            if (capacity == 1 << (CLASSES - 1)) {
+                throw new IllegalStateException("too many peers or pool members");
+            }
+            long bigger = allocate(Integer.numberOfTrailingZeros(capacity) + 1);
+            arena.copy(block + 1, bigger + 1, n);
+            release(block);
+            block = bigger;
+            column.set(handle, block);
+            capacity *= 2;
+        }
+        arena.set(block + 1 + n, value);
+        arena.set(block, ((long) capacity << 32) | (n + 1));
+    }
+
+    /**
+     * Removes the first instance of a handle from the adjacency array
+     * of a node, releasing the array if it becomes empty.
+     *
+     * @param column the column of the arrays
+     * @param handle the handle of the node
+     * @param value the handle to remove
+     * @return true if the handle was removed
+     */
+    private boolean remove(final OffHeapLongs column, final long handle, final long value) {
+        long block = column.get(handle);
+        int n = length(block);
+        for (int i = 0; i < n; i++) {
+            if (arena.get(block + 1 + i) == value) {
+                arena.copy(block + 2 + i, block + 1 + i, n - i - 1);
+                if (n == 1) {
+                    release(block);
+                    column.set(handle, 0);
+                } else {
+                    arena.set(block, (arena.get(block) & 0xFFFFFFFF00000000L) | (n - 1));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Allocates an empty adjacency array.
+     *
+     * @param c log2 of the capacity
+     * @return the offset of the array
+     */
+    private long allocate(final int c) {
+        long block = free[c];
+        if (block != 0) {
+            free[c] = arena.get(block + 1);
+        } else {
+            block = top;
+            top += 1 + (1L << c);
+            arena.ensure(top);
+        }
+        arena.set(block, (1L << c) << 32);
+        return block;
+    }
+
+    /**
+     * Puts an adjacency array on the free list of its size.
+     *
+     * @param block the offset of the array
+     */
+    private void release(final long block) {
+        int c = Long.numberOfTrailingZeros(arena.get(block) >>> 32);
+        arena.set(block + 1, free[c]);
+        free[c] = block;
+    }
+
+    /**
+     * Flyweight for a node of an OffHeapGraph.
+     * <br />
+     * Peers and pool members passed in must be flyweights of the same
+     * graph. The collections returned are read-only: the peers view
+     * and the pool list are live and must not be iterated while the
+     * node changes, getPeersAsCollection(K) returns a copy. Two
+     * flyweights are equal if they stand for the same node of the same
+     * graph.
+     */
+    public final class Node implements Thing42orNull<Long, Long> {
+        /** Handle of the node. */
+        private final long handle;
+
+        /**
+         * Constructor for objects of class Node.
+         *
+         * @param handle the handle of the node
+         */
+        private Node(final long handle) {
+            this.handle = handle;
+        }
+
+        /**
+         * Access the handle of this node.
+         *
+         * @return the handle
+         */
+        public long getHandle() {
+            return handle;
+        }
+
+        /**
+         * Access the graph of this node.
+         *
+         * @return the graph
+         */
+        public OffHeapGraph getGraph() {
+            return OffHeapGraph.this;
+        }
+
+        /**
+         * Finds the handle of a node of this graph.
+         *
+         * @param thing a Thing42orNull, not null
+         * @return its handle; -1 if it is not a node of this graph
+         */
+        private long handleOf(final Thing42orNull<Long, Long> thing) {
+            if (thing instanceof Node && ((Node) thing).getGraph() == OffHeapGraph.this) {
+                return ((Node) thing).handle;
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the handle of a node of this graph that is to be added.
+         *
+         * @param thing a Thing42orNull
+         * @return its handle
+         * @throws NullPointerException if thing is null
+         * @throws IllegalArgumentException if thing is not a node of this graph
+         */
+        private long required(final Thing42orNull<Long, Long> thing)
+        throws NullPointerException, IllegalArgumentException {
+            if (thing == null) {
+                throw new NullPointerException();
+            }
+            long h = handleOf(thing);
+            if (h < 0) {
+                throw new IllegalArgumentException("not a node of this graph");
+            }
+            return h;
+        }
+
+        /**
+         * Add a peer to this object. <br />Accepts duplicates.
+         *
+         * @param newPeer the peer to add
+         * @throws NullPointerException if the specified peer is null
+         * @throws IllegalArgumentException if the peer is not a node of this graph
+         */
+        public void addPeer(final Thing42orNull<Long, Long> newPeer)
+        throws NullPointerException, IllegalArgumentException {
+            OffHeapGraph.this.addPeer(handle, required(newPeer));
+        }
+
+        /**
+         * Append a member to the pool of this object.
+         * <br />Duplicate objects are accepted.
+         *
+         * @param newMember the object to be appended to the pool
+         * @throws NullPointerException if the specified item is null
+         * @throws IllegalArgumentException if the member is not a node of this graph
+         */
+        public void appendToPool(final Thing42orNull<Long, Long> newMember)
+        throws NullPointerException, IllegalArgumentException {
+            OffHeapGraph.this.appendToPool(handle, required(newMember));
+        }
+
+        /**
+         * Access the data of this node.
+         *
+         * @return the data of this object
+         */
+        public Long getData() {
+            return isDataNull(handle) ? null : Long.valueOf(data.get(handle));
+        }
+
+        /**
+         * Access the key of this node.
+         *
+         * @return the key of this object
+         */
+        public Long getKey() {
+            return Long.valueOf(keys.get(handle));
+        }
+
+        /**
+         * Access the level of this node.
+         *
+         * @return the level of this object
+         */
+        public long getLevel() {
+            return levels.get(handle);
+        }
+
+        /**
+         * Access a peer matching the specified key.
+         *
+         * @param key the search key
+         * @return the first peer added with the given key that is still
+         * a peer; null if no match
+         */
+        public Thing42orNull<Long, Long> getOnePeer(final Long key) {
+            if (key == null) {
+                return null;
+            }
+            long peer = findPeer(handle, key.longValue());
+            return (peer < 0) ? null : new Node(peer);
+        }
+
+        /**
+         * Access all peers.
+         * <br />The returned collection is a live, read-only view.
+         *
+         * @return all peers known by this object;
+         * if no peers then returns a collection with size() == 0.
+         */
+        public Collection<Thing42orNull<Long, Long>> getPeersAsCollection() {
+            return new AbstractCollection<Thing42orNull<Long, Long>>() {
+                @Override
+                public int size() {
+                    return peerCount(handle);
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public boolean contains(final Object o) {
+                    if (!(o instanceof Node)) {
+                        return false;
+                    }
+                    long h = handleOf((Thing42orNull<Long, Long>) o);
+                    long block = peers.get(handle);
+                    int n = length(block);
+                    for (int i = 0; i < n; i++) {
+                        if (arena.get(block + 1 + i) == h) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+
+                @Override
+                public Iterator<Thing42orNull<Long, Long>> iterator() {
+                    return new Iterator<Thing42orNull<Long, Long>>() {
+                        private int i;
+
+                        public boolean hasNext() {
+                            return i < peerCount(handle);
+                        }
+
+                        public Thing42orNull<Long, Long> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return new Node(getPeer(handle, i++));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        /**
+         * Access all peers matching the specified key.
+         * <br />The returned collection is a copy.
+         *
+         * @param key the search key
+         * @return all peers known by this object that match the given key;
+         * if no peer matches then returns a collection with size() == 0.
+         */
+        public Collection<Thing42orNull<Long, Long>> getPeersAsCollection(final Long key) {
+            ArrayList<Thing42orNull<Long, Long>> matches
+                = new ArrayList<Thing42orNull<Long, Long>>(0);
+            if (key == null) {
+                return matches;
+            }
+            long block = peers.get(handle);
+            int n = length(block);
+            for (int i = 0; i < n; i++) {
+                long peer = arena.get(block + 1 + i);
+                if (keys.get(peer) == key.longValue()) {
+                    matches.add(new Node(peer));
+                }
+            }
+            return matches;
+        }
+
+        /**
+         * Access all members of the pool.
+         * <br />The returned list is a live, read-only view.
+         *
+         * @return all members of the pool known by this object;
+         * if no members then returns a List with size() == 0.
+         */
+        public List<Thing42orNull<Long, Long>> getPoolAsList() {
+            return new AbstractList<Thing42orNull<Long, Long>>() {
+                @Override
+                public Thing42orNull<Long, Long> get(final int index) {
+                    return new Node(getPoolMember(handle, index));
+                }
+
+                @Override
+                public int size() {
+                    return poolSize(handle);
+                }
+            };
+        }
+
+        /**
+         * Remove a single instance of the specified object from this object's pool.
+         *
+         * @param member the member to be removed from the pool
+         * @return true if a pool member was removed as a result of this call
+         * @throws NullPointerException if the specified parameter is null
+         */
+        public boolean removeFromPool(final Thing42orNull<Long, Long> member)
+        throws NullPointerException {
+            if (member == null) {
+                throw new NullPointerException();
+            }
+            long h = handleOf(member);
+            return h >= 0 && OffHeapGraph.this.removeFromPool(handle, h);
+        }
+
+        /**
+         * Remove a single instance of the specified peer from this object.
+         *
+         * @param peer the peer to be removed
+         * @return true if a peer was removed as a result of this call
+         * @throws NullPointerException if the specified peer is null
+         */
+        public boolean removePeer(final Thing42orNull<Long, Long> peer)
+        throws NullPointerException {
+            if (peer == null) {
+                throw new NullPointerException();
+            }
+            long h = handleOf(peer);
+            return h >= 0 && OffHeapGraph.this.removePeer(handle, h);
+        }
+
+        /**
+         * Modify the data of this node.
+         *
+         * @param newData the updated data for this object; may be null
+         */
+        public void setData(final Long newData) {
+            if (newData == null) {
+                clearData(handle);
+            } else {
+                OffHeapGraph.this.setData(handle, newData.longValue());
+            }
+        }
+
+        /**
+         * Determines whether the specified Object is a flyweight for the
+         * same node of the same graph.
+         *
+         * @param obj an Object to be compared with this node.
+         * @return true if obj stands for the same node; false otherwise.
+         * @see #hashCode()
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Node)) {
+                return false;
+            }
+            Node node = (Node) obj;
+            return node.getGraph() == OffHeapGraph.this && node.handle == handle;
+        }
+
+        /**
+         * Returns the hashcode for this node.
+         *
+         * @return the hashcode for this node
+         */
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(OffHeapGraph.this)
+                + (int) (handle ^ (handle >>> 32));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import static org.junit.Assert.*;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class OffHeapGraphTest.
+ *
+ * Tests the handle methods and the flyweights of OffHeapGraph. The
+ * graph is created with tiny memory chunks so that columns and
+ * adjacency arrays span many of them.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class OffHeapGraphTest
+{
+    //The graph upon which tests should call methods.
+    OffHeapGraph graph;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        graph = new OffHeapGraph(3);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        graph = null;
+    }
+
+    /**
+     * Creates nodes and reads their columns back, including null data.
+     */
+    @Test
+    public void testColumns()
+    {
+        for (int i = 0; i < 200; i++) {
+            assertTrue(graph.add(1000 + i, i, -i) == i);
+        }
+        assertTrue(graph.size() == 200);
+        for (int i = 0; i < 200; i++) {
+            assertTrue(graph.getKey(i) == 1000 + i);
+            assertTrue(graph.getLevel(i) == i);
+            assertTrue(graph.getData(i) == -i);
+            assertFalse(graph.isDataNull(i));
+        }
+        graph.clearData(70);
+        assertTrue(graph.isDataNull(70));
+        assertFalse(graph.isDataNull(71));
+        assertNull(graph.node(70).getData());
+        graph.setData(70, 5);
+        assertEquals(Long.valueOf(5), graph.node(70).getData());
+    }
+
+    /**
+     * Attempts to read a node that does not exist.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testMissingNode()
+    {
+        graph.add(1, 1, 1);
+        graph.getKey(1);
+    }
+
+    /**
+     * Adds and removes peers by handle, checking their order and that
+     * released adjacency arrays are reused.
+     */
+    @Test
+    public void testPeers()
+    {
+        long node = graph.add(0, 0, 0);
+        for (int i = 1; i <= 100; i++) {
+            graph.add(i, i, i);
+            graph.addPeer(node, i);
+        }
+        assertTrue(graph.peerCount(node) == 100);
+        assertTrue(graph.findPeer(node, 42) == 42);
+        assertTrue(graph.findPeer(node, 101) == -1);
+        assertTrue(graph.removePeer(node, 50));
+        assertFalse(graph.removePeer(node, 50));
+        assertTrue(graph.getPeer(node, 48) == 49);
+        assertTrue(graph.getPeer(node, 49) == 51);
+        for (int i = 1; i <= 100; i++) {
+            graph.removePeer(node, i);
+        }
+        assertTrue(graph.peerCount(node) == 0);
+
+        long bytes = graph.offHeapBytes();
+        for (int i = 1; i <= 100; i++) {
+            graph.appendToPool(node, i);
+        }
+        assertTrue(graph.poolSize(node) == 100);
+        assertTrue(graph.getPoolMember(node, 99) == 100);
+        assertTrue(graph.offHeapBytes() == bytes);
+    }
+
+    /**
+     * Uses nodes through their Thing42orNull flyweights.
+     */
+    @Test
+    public void testFlyweights()
+    {
+        OffHeapGraph.Node node = graph.addNode(1, 1, 42L);
+        OffHeapGraph.Node peer1 = graph.addNode(2, 2, null);
+        OffHeapGraph.Node peer2 = graph.addNode(2, 3, 7L);
+        Thing42orNull<Long, Long> thing = node;
+        thing.addPeer(peer1);
+        thing.addPeer(peer2);
+        thing.appendToPool(peer2);
+        thing.appendToPool(peer1);
+
+        assertEquals(Long.valueOf(1), thing.getKey());
+        assertEquals(Long.valueOf(42), thing.getData());
+        assertNull(peer1.getData());
+        assertEquals(peer1, thing.getOnePeer(2L));
+        assertEquals(graph.node(peer1.getHandle()), peer1);
+        assertTrue(graph.node(peer1.getHandle()).hashCode() == peer1.hashCode());
+        assertNull(thing.getOnePeer(3L));
+        assertTrue(thing.getPeersAsCollection(2L).size() == 2);
+        assertTrue(thing.getPeersAsCollection().contains(peer2));
+
+        Iterator<Thing42orNull<Long, Long>> peers = thing.getPeersAsCollection().iterator();
+        assertEquals(peer1, peers.next());
+        assertEquals(peer2, peers.next());
+        assertFalse(peers.hasNext());
+
+        List<Thing42orNull<Long, Long>> pool = thing.getPoolAsList();
+        assertEquals(peer2, pool.get(0));
+        assertTrue(thing.removeFromPool(peer2));
+        assertTrue(pool.size() == 1);
+        assertEquals(peer1, pool.get(0));
+
+        Thing42<Long, Long> stranger = new Thing42<Long, Long>(2L, 2, 2L);
+        assertFalse(thing.removePeer(stranger));
+        assertFalse(peer1.equals(new OffHeapGraph().addNode(2, 2, null)));
+    }
+
+    /**
+     * Attempts to add a peer that is not a node of the graph.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testForeignPeer()
+    {
+        graph.addNode(1, 1, 1L).addPeer(new Thing42<Long, Long>(2L, 2, 2L));
+    }
+}
@@ -0,0 +1,98 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Growable array of longs kept outside the Java heap, for OffHeapGraph.
+ * <br />
+ * The longs live in direct ByteBuffers of 2^shift longs each, so the
+ * array can hold more than 2^31 bytes, growing never copies what is
+ * already stored, and the garbage collector only ever sees one buffer
+ * object per chunk. New longs read as 0. The memory is released when
+ * the array becomes unreachable.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class OffHeapLongs {
+    /** log2 of the number of longs per chunk. */
+    private final int shift;
+    /** Mask of the index of a long within its chunk. */
+    private final long mask;
+    /** The chunks; only the first count are allocated. */
+    private ByteBuffer[] chunks = new ByteBuffer[1];
+    /** Number of allocated chunks. */
+    private int count;
+
+    /**
+     * Constructor for objects of class OffHeapLongs.
+     *
+     * @param shift log2 of the number of longs per chunk, at most 27
+     */
+    OffHeapLongs(final int shift) {
+        this.shift = shift;
+        this.mask = (1L << shift) - 1;
+    }
+
+    /**
+     * Makes sure the array can hold a number of longs.
+     *
+     * @param length the number of longs
+     */
+    void ensure(final long length) {
+        while (((long) count << shift) < length) {
+            if (count == chunks.length) {
+                chunks = Arrays.copyOf(chunks, count * 2);
+            }
+            chunks[count++] = ByteBuffer.allocateDirect(8 << shift).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Reads a long.
+     *
+     * @param index the index, less than the ensured length
+     * @return the long
+     */
+    long get(final long index) {
+        return chunks[(int) (index >>> shift)].getLong((int) (index & mask) << 3);
+    }
+
+    /**
+     * Writes a long.
+     *
+     * @param index the index, less than the ensured length
+     * @param value the long
+     */
+    void set(final long index, final long value) {
+        chunks[(int) (index >>> shift)].putLong((int) (index & mask) << 3, value);
+    }
+
+    /**
+     * Copies longs within the array; the ranges may overlap.
+     *
+     * @param from the index of the first long to copy
+     * @param to the index to copy it to
+     * @param length the number of longs
+     */
+    void copy(final long from, final long to, final long length) {
+        if (to < from) {
+            for (long i = 0; i < length; i++) {
+                set(to + i, get(from + i));
+            }
+        } else {
+            for (long i = length - 1; i >= 0; i--) {
+                set(to + i, get(from + i));
+            }
+        }
+    }
+
+    /**
+     * Number of bytes allocated outside the heap.
+     *
+     * @return the number of bytes
+     */
+    long bytes() {
+        return (long) count << (shift + 3);
+    }
+}
@@ -0,0 +1,249 @@
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Insertion-ordered multiset of peers, matched by identity.
+ * <br />
+ * Each instance added is an entry of a hash table keyed by
+ * {@link System#identityHashCode(Object)} and of a list in insertion
+ * order. Adding, removing and finding a peer are O(1) expected, plus the
+ * duplicates of the peer, and never call equals or hashCode on the peer,
+ * which for Thing42 are deep, recursive operations.
+ * Iteration returns the peers in the order they were added, duplicates
+ * included, and removing a peer removes its earliest instance, as a list
+ * of the same peers would.
+ * <br />
+ * The collection is a read-only view for callers outside this class.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class PeerBag<K, D> extends AbstractCollection<Thing42orNull<K, D>> {
+    /** Initial number of hash buckets, a power of 2. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** An instance of a peer. */
+    private static final class Entry<K, D> {
+        /** The peer. */
+        private final Thing42orNull<K, D> peer;
+        /** Identity hash of the peer. */
+        private final int hash;
+        /** Next entry in the same hash bucket; instances of a peer in insertion order. */
+        private Entry<K, D> next;
+        /** Previous entry in insertion order. */
+        private Entry<K, D> before;
+        /** Next entry in insertion order. */
+        private Entry<K, D> after;
+
+        /**
+         * Constructor for objects of class Entry.
+         *
+         * @param peer the peer
+         * @param hash the identity hash of the peer
+         */
+        private Entry(final Thing42orNull<K, D> peer, final int hash) {
+            this.peer = peer;
+            this.hash = hash;
+        }
+    }
+
+    /** Hash buckets. */
+    private Entry<K, D>[] table;
+    /** Number of peers, counting duplicates. */
+    private int size;
+    /** First entry in insertion order. */
+    private Entry<K, D> head;
+    /** Last entry in insertion order. */
+    private Entry<K, D> tail;
+    /** Number of structural changes, for fail-fast iteration. */
+    private int modCount;
+
+    /**
+     * Constructor for objects of class PeerBag.
+     */
+    @SuppressWarnings("unchecked")
+    PeerBag() {
+        table = new Entry[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Spreads the identity hash of a peer.
+     *
+     * @param peer the peer
+     * @return the hash
+     */
+    private static int hash(final Object peer) {
+        int h = System.identityHashCode(peer);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the entry of the earliest instance of a peer.
+     *
+     * @param peer the peer
+     * @param h the hash of the peer
+     * @return the entry; null if the peer is not in the bag
+     */
+    private Entry<K, D> find(final Object peer, final int h) {
+        for (Entry<K, D> e = table[h & (table.length - 1)]; e != null; e = e.next) {
+            if (e.peer == peer) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds an instance of a peer.
+     *
+     * @param peer the peer
+     */
+    void addPeer(final Thing42orNull<K, D> peer) {
+        if (size >= table.length - (table.length >> 2)) {
+            resize();
+        }
+        int h = hash(peer);
+        Entry<K, D> e = new Entry<K, D>(peer, h);
+        Entry<K, D> last = find(peer, h);
+        if (last == null) {
+            int i = h & (table.length - 1);
+            e.next = table[i];
+            table[i] = e;
+        } else {
+            // keep the instances of a peer in insertion order in the bucket
+            while (last.next != null && last.next.peer == peer) {
+                last = last.next;
+            }
+            e.next = last.next;
+            last.next = e;
+        }
+        e.before = tail;
+        if (tail == null) {
+            head = e;
+        } else {
+            tail.after = e;
+        }
+        tail = e;
+        size++;
+        modCount++;
+    }
+
+    /**
+     * Removes the earliest instance of a peer.
+     *
+     * @param peer the peer
+     * @return true if an instance was removed
+     */
+    boolean removePeer(final Object peer) {
+        int h = hash(peer);
+        int i = h & (table.length - 1);
+        Entry<K, D> prev = null;
+        for (Entry<K, D> e = table[i]; e != null; prev = e, e = e.next) {
+            if (e.peer != peer) {
+                continue;
+            }
+            if (prev == null) {
+                table[i] = e.next;
+            } else {
+                prev.next = e.next;
+            }
+            if (e.before == null) {
+                head = e.after;
+            } else {
+                e.before.after = e.after;
+            }
+            if (e.after == null) {
+                tail = e.before;
+            } else {
+                e.after.before = e.before;
+            }
+            size--;
+            modCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether an instance of a peer is in the bag.
+     *
+     * @param peer the peer
+     * @return true if the very same instance was added and not removed
+     */
+    boolean containsPeer(final Object peer) {
+        return find(peer, hash(peer)) != null;
+    }
+
+    /**
+     * Accesses the peer added first among those still in the bag.
+     *
+     * @return the first peer; null if the bag is empty
+     */
+    Thing42orNull<K, D> first() {
+        return head == null ? null : head.peer;
+    }
+
+    /**
+     * Doubles the number of hash buckets.
+     * Entries are appended to their buckets in insertion order, so the
+     * instances of a peer stay in that order.
+     */
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        table = new Entry[table.length << 1];
+        Entry<K, D>[] last = new Entry[table.length];
+        for (Entry<K, D> e = head; e != null; e = e.after) {
+            int i = e.hash & (table.length - 1);
+            e.next = null;
+            if (last[i] == null) {
+                table[i] = e;
+            } else {
+                last[i].next = e;
+            }
+            last[i] = e;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<Thing42orNull<K, D>> iterator() {
+        return new Iterator<Thing42orNull<K, D>>() {
+            private final int expected = modCount;
+            private Entry<K, D> entry = head;
+
+            public boolean hasNext() {
+                return entry != null;
+            }
+
+            public Thing42orNull<K, D> next() {
+                if (modCount != expected) {
+                    throw new ConcurrentModificationException();
+                }
+                if (entry == null) {
+                    throw new NoSuchElementException();
+                }
+                Thing42orNull<K, D> peer = entry.peer;
+                entry = entry.after;
+                return peer;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
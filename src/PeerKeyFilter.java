@@ -0,0 +1,181 @@
+import java.util.Collection;
+
+/**
+ * Bloom filter over the keys of the peers of a Thing42, so that
+ * lookups of keys that no peer has can return without probing the peer
+ * storage.
+ * <br />
+ * The filter is blocked: the bits are split into blocks of 512 bits,
+ * one cache line, and each key sets {@link #PROBES} bits of a single
+ * block, all chosen from a 64-bit mix of its hash. A lookup then reads
+ * one cache line instead of PROBES scattered ones. With about
+ * {@link #BITS_PER_KEY} bits per key the false positive rate is near
+ * 1%. A filter never
+ * answers no for a key it was given, so a lookup that it rejects is a
+ * miss. Bits cannot be cleared, so removals only make the filter
+ * stale: its owner rebuilds it from the peers once removals outnumber
+ * half of the keys added, and grows it once more keys were added than
+ * it was sized for (see {@link #isStale()}), both when it changes its
+ * peers.
+ * <br /><br />
+ * Null keys are allowed. Lookups only read the filter, so several
+ * threads may look up keys at once while no thread changes it; like
+ * the peers of a Thing42, it must not be changed during lookups. A
+ * rebuild fills a new array of bits off to the side and then replaces
+ * the old one with a single field write.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class PeerKeyFilter {
+    /** Bits set per key. */
+    static final int PROBES = 7;
+    /** Bits per key the filter is sized for. */
+    static final int BITS_PER_KEY = 10;
+    /** Smallest number of keys a filter is sized for. */
+    private static final int MIN_KEYS = 16;
+    /** Number of longs per block. */
+    private static final int BLOCK_WORDS = 8;
+
+    /** The bits, a power of 2 of blocks of them; replaced whole by rebuild. */
+    private long[] bits;
+    /** Number of keys the bits are sized for. */
+    private int capacity;
+    /** Number of keys added since the last rebuild, counting repeats. */
+    private int added;
+    /** Number of peers removed since the last rebuild. */
+    private int removed;
+
+    /**
+     * Constructor for objects of class PeerKeyFilter.
+     *
+     * @param peers the peers whose keys the filter starts with
+     */
+    PeerKeyFilter(final Collection<? extends Thing42orNull<?, ?>> peers) {
+        rebuild(peers);
+    }
+
+    /**
+     * Adds the key of a new peer.
+     *
+     * @param key the key, possibly null
+     */
+    void add(final Object key) {
+        set(bits, key);
+        added++;
+    }
+
+    /**
+     * Records that peers were removed; their keys stay in the filter.
+     *
+     * @param count the number of peers removed
+     */
+    void removed(final int count) {
+        removed += count;
+    }
+
+    /**
+     * Checks whether some peer may have a key.
+     *
+     * @param key the key, possibly null
+     * @return false if no peer added since the last rebuild has the
+     * key; true if one may have it
+     */
+    boolean mightContain(final Object key) {
+        long[] b = bits;
+        long h = mix(key);
+        int block = block(b, h);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (int) h & 511;
+            if ((b[block + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            h >>>= 9;
+        }
+        return true;
+    }
+
+    /**
+     * Whether the filter should be rebuilt: when more keys were added
+     * than it was sized for, or when more than half of them were
+     * removed since.
+     *
+     * @return true if the filter should be rebuilt
+     */
+    boolean isStale() {
+        return added > capacity || 2 * removed > added;
+    }
+
+    /**
+     * Replaces the filter with one of the keys of a collection of
+     * peers, sized for twice their number.
+     *
+     * @param peers the peers
+     */
+    void rebuild(final Collection<? extends Thing42orNull<?, ?>> peers) {
+        int keys = Math.max(MIN_KEYS, 2 * peers.size());
+        int words = Integer.highestOneBit(keys * BITS_PER_KEY - 1) >>> 5;
+        long[] fresh = new long[Math.max(BLOCK_WORDS, words)];
+        int n = 0;
+        for (Thing42orNull<?, ?> peer : peers) {
+            set(fresh, peer.getKey());
+            n++;
+        }
+        bits = fresh;
+        capacity = keys;
+        added = n;
+        removed = 0;
+    }
+
+    /**
+     * Number of bits of the filter.
+     *
+     * @return the number of bits
+     */
+    int bitCount() {
+        return bits.length << 6;
+    }
+
+    /**
+     * Sets the bits of a key.
+     *
+     * @param b the bits
+     * @param key the key, possibly null
+     */
+    private static void set(final long[] b, final Object key) {
+        long h = mix(key);
+        int block = block(b, h);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = (int) h & 511;
+            b[block + (bit >>> 6)] |= 1L << bit;
+            h >>>= 9;
+        }
+    }
+
+    /**
+     * Index of the first long of the block of a key. The block is taken
+     * from the high bits of a further multiply, so that it does not
+     * depend only on the bits that pick the bits within the block.
+     *
+     * @param b the bits
+     * @param h the mixed hash of the key
+     * @return the index
+     */
+    private static int block(final long[] b, final long h) {
+        int blocks = b.length / BLOCK_WORDS;
+        return ((int) ((h * 0x9E3779B97F4A7C15L) >>> 32) & (blocks - 1)) * BLOCK_WORDS;
+    }
+
+    /**
+     * Mixes the hash of a key into 64 well spread bits.
+     *
+     * @param key the key, possibly null
+     * @return the mixed hash
+     */
+    private static long mix(final Object key) {
+        long h = (key == null) ? 0 : key.hashCode();
+        h = (h ^ 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 31)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 29);
+    }
+}
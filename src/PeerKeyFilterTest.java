@@ -0,0 +1,183 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class PeerKeyFilterTest.
+ *
+ * Tests lookups by key on Thing42 objects with the peer filter on,
+ * against the same objects with it off, as peers are added and
+ * removed, and the false positive rate of the filter.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class PeerKeyFilterTest
+{
+    //Peers with keys 0 to 199 and one with a null key.
+    List<Thing42orNull<Integer, String>> peers;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        peers = new ArrayList<Thing42orNull<Integer, String>>();
+        for (int i = 0; i < 200; i++) {
+            peers.add(new Thing42<Integer, String>(i, i, "peer"));
+        }
+        peers.add(new Thing42<Integer, String>(null, 0, "peer"));
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        peers = null;
+    }
+
+    /**
+     * Looks up keys with and without peers, with every peer storage.
+     */
+    @Test
+    public void testLookups()
+    {
+        for (Thing42.PeerStorage storage : Thing42.PeerStorage.values()) {
+            Thing42<Integer, String> node = new Thing42<Integer, String>(0, 0, "node", storage);
+            node.setPeerFilter(true);
+            assertTrue(node.hasPeerFilter());
+            node.addPeers(peers.subList(0, 100));
+            for (Thing42orNull<Integer, String> peer : peers.subList(100, peers.size())) {
+                node.addPeer(peer);
+            }
+            check(node);
+            node.setPeerFilter(false);
+            assertFalse(node.hasPeerFilter());
+            check(node);
+        }
+    }
+
+    /**
+     * Removes most peers, so that the filter is rebuilt, then adds them
+     * back, so that it grows.
+     */
+    @Test
+    public void testRemovals()
+    {
+        Thing42<Integer, String> node = new Thing42<Integer, String>(0, 0, "node");
+        node.addPeers(peers);
+        node.setPeerFilter(true);
+        for (int i = 0; i < 150; i++) {
+            assertTrue(node.removePeer(peers.get(i)));
+            assertNull(node.getOnePeer(i));
+        }
+        assertTrue(node.removePeers(peers.subList(150, 160)));
+        check(node);
+        node.addPeers(peers.subList(0, 160));
+        check(node);
+        assertTrue(node.getPeersAsCollection(7).contains(peers.get(7)));
+    }
+
+    /**
+     * Removes most peers, so that the filter is stale, then looks up
+     * the remaining keys from several threads at once, and checks that
+     * none is missed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrentLookups() throws InterruptedException
+    {
+        final Thing42<Integer, String> node = new Thing42<Integer, String>(0, 0, "node");
+        node.addPeers(peers);
+        node.setPeerFilter(true);
+        for (int i = 0; i < 150; i++) {
+            assertTrue(node.removePeer(peers.get(i)));
+        }
+        final int[] misses = new int[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    int n = 0;
+                    for (int round = 0; round < 200; round++) {
+                        for (int i = 150; i < 200; i++) {
+                            if (node.getOnePeer(i) == null || node.getPeersAsCollection(i).isEmpty()) {
+                                n++;
+                            }
+                        }
+                    }
+                    synchronized (misses) {
+                        misses[0] += n;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(misses[0] == 0);
+        check(node);
+    }
+
+    /**
+     * Counts the keys without peers that the filter lets through.
+     */
+    @Test
+    public void testFalsePositiveRate()
+    {
+        List<Thing42orNull<Integer, String>> many = new ArrayList<Thing42orNull<Integer, String>>();
+        for (int i = 0; i < 1000; i++) {
+            many.add(new Thing42<Integer, String>(i, i, "peer"));
+        }
+        PeerKeyFilter filter = new PeerKeyFilter(many.subList(0, 10));
+        int bits = filter.bitCount();
+        for (int i = 10; i < 1000; i++) {
+            filter.add(i);
+        }
+        assertTrue(filter.isStale());
+        filter.rebuild(many);
+        assertFalse(filter.isStale());
+        assertTrue(filter.bitCount() > bits);
+        int positives = 0;
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(i >= 1000 || filter.mightContain(i));
+            if (i >= 1000 && filter.mightContain(i)) {
+                positives++;
+            }
+        }
+        assertTrue(positives < 2000);
+        filter.removed(501);
+        assertTrue(filter.isStale());
+    }
+
+    /**
+     * Checks that every lookup on a node agrees with its peers.
+     *
+     * @param node the node
+     */
+    private void check(final Thing42<Integer, String> node)
+    {
+        for (Thing42orNull<Integer, String> peer : peers) {
+            Integer key = peer.getKey();
+            boolean present = node.getPeersAsCollection().contains(peer);
+            assertTrue((node.getOnePeer(key) == peer) == present);
+            assertTrue(node.getPeersAsCollection(key).size() == (present ? 1 : 0));
+        }
+        for (int i = 200; i < 1200; i++) {
+            assertNull(node.getOnePeer(i));
+            assertTrue(node.getPeersAsCollection(i).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Storage for the peers of a Thing42.
+ * <br />
+ * Peers are grouped by key. Implementations accept duplicate peers and
+ * decide how a peer passed to {@link #remove} and {@link #contains} is
+ * matched against the stored peers.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+interface PeerStore<K, D> extends Iterable<Thing42orNull<K, D>> {
+    /**
+     * Adds a peer.
+     *
+     * @param peer the peer to add, not null
+     */
+    void add(Thing42orNull<K, D> peer);
+
+    /**
+     * Adds several peers, in iteration order.
+     *
+     * @param batch the peers to add, none null
+     */
+    void addAll(Collection<? extends Thing42orNull<K, D>> batch);
+
+    /**
+     * Removes a single instance of a peer.
+     *
+     * @param peer the peer to remove, not null
+     * @return the stored peer that was removed; null if none
+     */
+    Thing42orNull<K, D> remove(Thing42orNull<K, D> peer);
+
+    /**
+     * Removes a single instance of each of several peers, as if they
+     * were removed one by one in iteration order.
+     *
+     * @param batch the peers to remove, none null
+     * @param removed receives the stored peers that were removed; may be null
+     * @return the number of peers removed
+     */
+    int removeAll(Collection<? extends Thing42orNull<K, D>> batch,
+                  List<? super Thing42orNull<K, D>> removed);
+
+    /**
+     * Tells whether a peer is stored.
+     *
+     * @param peer the peer to look for, not null
+     * @return true if the peer is stored
+     */
+    boolean contains(Thing42orNull<K, D> peer);
+
+    /**
+     * Accesses the first stored peer with a key.
+     *
+     * @param key the search key
+     * @return the first peer added with the key that is still stored;
+     * null if none
+     */
+    Thing42orNull<K, D> getOne(K key);
+
+    /**
+     * Accesses all peers with a key.
+     *
+     * @param key the search key
+     * @return a read-only collection of the peers with the key; an
+     * empty collection if none
+     */
+    Collection<Thing42orNull<K, D>> get(K key);
+
+    /**
+     * Keys that have peers. The set must not be modified.
+     *
+     * @return the keys of the stored peers
+     */
+    Set<K> keys();
+
+    /**
+     * Number of stored peers, counting duplicates.
+     *
+     * @return the number of peers
+     */
+    int size();
+
+    /**
+     * Iterates all peers, key by key. The iterator is read-only.
+     *
+     * @return an iterator over all peers
+     */
+    Iterator<Thing42orNull<K, D>> iterator();
+
+    /**
+     * Hash code of the stored peers. Equal to the hash code of a
+     * HashMap from each key to a list of its peers in iteration order.
+     *
+     * @return the hash code
+     */
+    int hashCode();
+}
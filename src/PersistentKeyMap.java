@@ -0,0 +1,446 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable map that shares its structure with the maps it was made
+ * from, for the peers of the versions of PersistentThing42.
+ * <br />
+ * This is a hash array mapped trie: each node covers 5 bits of the
+ * hash of the keys and holds, packed by a 32-bit bitmap, only the
+ * slots that are in use. A slot is a key and its value, or a null key
+ * and a child node; keys whose whole hashes are equal share a
+ * collision node. Lookups read at most 7 nodes, and putting or
+ * removing a key copies only the nodes on its path. The null key is
+ * allowed; values must not be null.
+ *
+ * @param <K> the type of key
+ * @param <V> the type of value
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class PersistentKeyMap<K, V> {
+    /** log2 of the width of a node. */
+    private static final int BITS = 5;
+    /** Mask of the bits of the hash that a node covers. */
+    private static final int MASK = (1 << BITS) - 1;
+    /** Stands in for the null key, since a null key marks a child node. */
+    private static final Object NULL_KEY = new Object();
+    /** The empty map. */
+    private static final PersistentKeyMap<Object, Object> EMPTY
+        = new PersistentKeyMap<Object, Object>(null, 0);
+
+    /** A node of the trie: pairs of key and value, or null and child. */
+    private abstract static class Node {
+        /** The slots, two entries each. */
+        protected final Object[] array;
+
+        /**
+         * Constructor for objects of class Node.
+         *
+         * @param array the slots
+         */
+        protected Node(final Object[] array) {
+            this.array = array;
+        }
+
+        /**
+         * Finds the value of a key.
+         *
+         * @param shift the bits of the hash covered by the levels above
+         * @param hash the hash of the key
+         * @param key the key, not null
+         * @return the value; null if none
+         */
+        abstract Object find(int shift, int hash, Object key);
+
+        /**
+         * Makes the node with a key mapped to a value.
+         *
+         * @param shift the bits of the hash covered by the levels above
+         * @param hash the hash of the key
+         * @param key the key, not null
+         * @param value the value
+         * @return the new node; this node if unchanged
+         */
+        abstract Node put(int shift, int hash, Object key, Object value);
+
+        /**
+         * Makes the node without a key.
+         *
+         * @param shift the bits of the hash covered by the levels above
+         * @param hash the hash of the key
+         * @param key the key, not null
+         * @return the new node, null if it would be empty; this node if
+         * the key is not in it
+         */
+        abstract Node without(int shift, int hash, Object key);
+
+        /**
+         * Copies the slots with one entry replaced.
+         *
+         * @param i the index of the entry
+         * @param o the new entry
+         * @return the copy
+         */
+        protected final Object[] with(final int i, final Object o) {
+            Object[] copy = array.clone();
+            copy[i] = o;
+            return copy;
+        }
+
+        /**
+         * Copies the slots without one slot.
+         *
+         * @param i the index of the first entry of the slot
+         * @return the copy
+         */
+        protected final Object[] withoutSlot(final int i) {
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, copy.length - i);
+            return copy;
+        }
+    }
+
+    /** A node whose slots are picked by 5 bits of the hash. */
+    private static final class BitmapNode extends Node {
+        /** Bit b is set if the slot for hash bits b is in use. */
+        private final int bitmap;
+
+        /**
+         * Constructor for objects of class BitmapNode.
+         *
+         * @param bitmap the slots in use
+         * @param array the slots, in order of their bits
+         */
+        private BitmapNode(final int bitmap, final Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        Object find(final int shift, final int hash, final Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[i];
+            if (k == null) {
+                return ((Node) array[i + 1]).find(shift + BITS, hash, key);
+            }
+            return key.equals(k) ? array[i + 1] : null;
+        }
+
+        @Override
+        Node put(final int shift, final int hash, final Object key, final Object value) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, i);
+                copy[i] = key;
+                copy[i + 1] = value;
+                System.arraycopy(array, i, copy, i + 2, array.length - i);
+                return new BitmapNode(bitmap | bit, copy);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = ((Node) v).put(shift + BITS, hash, key, value);
+                return (child == v) ? this : new BitmapNode(bitmap, with(i + 1, child));
+            }
+            if (key.equals(k)) {
+                return (value == v) ? this : new BitmapNode(bitmap, with(i + 1, value));
+            }
+            // two keys in one slot: push both down a level
+            Object[] copy = with(i, null);
+            copy[i + 1] = pair(shift + BITS, k, v, hash, key, value);
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        Node without(final int shift, final int hash, final Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * Integer.bitCount(bitmap & (bit - 1));
+            Object k = array[i];
+            if (k == null) {
+                Node child = (Node) array[i + 1];
+                Node newChild = child.without(shift + BITS, hash, key);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild != null) {
+                    return new BitmapNode(bitmap, with(i + 1, newChild));
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            return (bitmap == bit) ? null : new BitmapNode(bitmap ^ bit, withoutSlot(i));
+        }
+    }
+
+    /** A node of keys whose hashes are all equal. */
+    private static final class CollisionNode extends Node {
+        /** The hash of the keys. */
+        private final int hash;
+
+        /**
+         * Constructor for objects of class CollisionNode.
+         *
+         * @param hash the hash of the keys
+         * @param array the slots
+         */
+        private CollisionNode(final int hash, final Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        /**
+         * Index of the slot of a key.
+         *
+         * @param key the key
+         * @return the index of its first entry; -1 if none
+         */
+        private int indexOf(final Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(final int shift, final int h, final Object key) {
+            int i = (h == hash) ? indexOf(key) : -1;
+            return (i < 0) ? null : array[i + 1];
+        }
+
+        @Override
+        Node put(final int shift, final int h, final Object key, final Object value) {
+            if (h != hash) {
+                // a key with another hash: nest this node one level down
+                BitmapNode parent = new BitmapNode(1 << ((hash >>> shift) & MASK),
+                                                   new Object[] {null, this});
+                return parent.put(shift, h, key, value);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                return (array[i + 1] == value) ? this : new CollisionNode(hash, with(i + 1, value));
+            }
+            Object[] copy = Arrays.copyOf(array, array.length + 2);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        Node without(final int shift, final int h, final Object key) {
+            int i = (h == hash) ? indexOf(key) : -1;
+            if (i < 0) {
+                return this;
+            }
+            return (array.length == 2) ? null : new CollisionNode(hash, withoutSlot(i));
+        }
+    }
+
+    /** Root of the trie; null if empty. */
+    private final Node root;
+    /** Number of keys. */
+    private final int size;
+
+    /**
+     * Constructor for objects of class PersistentKeyMap.
+     *
+     * @param root the root of the trie
+     * @param size the number of keys
+     */
+    private PersistentKeyMap(final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * The empty map.
+     *
+     * @param <K> the type of key
+     * @param <V> the type of value
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentKeyMap<K, V> empty() {
+        return (PersistentKeyMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Maps a key to the key stored in the trie.
+     *
+     * @param key a key, possibly null
+     * @return the key, or NULL_KEY for null
+     */
+    private static Object mask(final Object key) {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    /**
+     * Hash of a stored key, with the high bits folded into the low
+     * bits that the first levels use.
+     *
+     * @param k the stored key
+     * @return the hash
+     */
+    private static int hash(final Object k) {
+        int h = k.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Makes a node of two keys that share a slot at the level above.
+     *
+     * @param shift the bits of the hash covered by the levels above
+     * @param k1 the first key
+     * @param v1 its value
+     * @param h2 the hash of the second key
+     * @param k2 the second key
+     * @param v2 its value
+     * @return the node
+     */
+    private static Node pair(final int shift, final Object k1, final Object v1,
+                             final int h2, final Object k2, final Object v2) {
+        int h1 = hash(k1);
+        if (h1 == h2) {
+            return new CollisionNode(h1, new Object[] {k1, v1, k2, v2});
+        }
+        // the hashes differ in some 5 bits at or above this shift
+        return new BitmapNode(0, new Object[0]).put(shift, h1, k1, v1).put(shift, h2, k2, v2);
+    }
+
+    /**
+     * Finds the value of a key.
+     *
+     * @param key the key, which may be null
+     * @return the value; null if none
+     */
+    @SuppressWarnings("unchecked")
+    V get(final K key) {
+        if (root == null) {
+            return null;
+        }
+        Object k = mask(key);
+        return (V) root.find(0, hash(k), k);
+    }
+
+    /**
+     * Makes the map with a key mapped to a value.
+     *
+     * @param key the key, which may be null
+     * @param value the value, not null
+     * @return the new map
+     */
+    PersistentKeyMap<K, V> put(final K key, final V value) {
+        Object k = mask(key);
+        int h = hash(k);
+        if (root == null) {
+            return new PersistentKeyMap<K, V>(
+                new BitmapNode(0, new Object[0]).put(0, h, k, value), 1);
+        }
+        boolean added = root.find(0, h, k) == null;
+        Node newRoot = root.put(0, h, k, value);
+        return (newRoot == root) ? this : new PersistentKeyMap<K, V>(newRoot, added ? size + 1 : size);
+    }
+
+    /**
+     * Makes the map without a key.
+     *
+     * @param key the key, which may be null
+     * @return the new map; this map if the key is not in it
+     */
+    PersistentKeyMap<K, V> without(final K key) {
+        if (root == null) {
+            return this;
+        }
+        Object k = mask(key);
+        Node newRoot = root.without(0, hash(k), k);
+        if (newRoot == root) {
+            return this;
+        }
+        return (newRoot == null) ? PersistentKeyMap.<K, V>empty()
+            : new PersistentKeyMap<K, V>(newRoot, size - 1);
+    }
+
+    /**
+     * Number of keys.
+     *
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Iterates the values, in no particular order. The iterator is
+     * read-only.
+     *
+     * @return an iterator over the values
+     */
+    Iterator<V> values() {
+        return new Iterator<V>() {
+            /** Slot arrays of the nodes being walked, root first. */
+            private final ArrayList<Object[]> arrays = new ArrayList<Object[]>();
+            /** Next index in each of them. */
+            private int[] indexes = new int[8];
+            /** The next value; null if not found yet. */
+            private Object next;
+
+            {
+                if (root != null) {
+                    arrays.add(root.array);
+                }
+            }
+
+            public boolean hasNext() {
+                while (next == null && !arrays.isEmpty()) {
+                    int top = arrays.size() - 1;
+                    Object[] array = arrays.get(top);
+                    int i = indexes[top];
+                    if (i == array.length) {
+                        arrays.remove(top);
+                        continue;
+                    }
+                    indexes[top] = i + 2;
+                    if (array[i] == null) {
+                        if (top + 1 == indexes.length) {
+                            indexes = Arrays.copyOf(indexes, indexes.length * 2);
+                        }
+                        indexes[top + 1] = 0;
+                        arrays.add(((Node) array[i + 1]).array);
+                    } else {
+                        next = array[i + 1];
+                    }
+                }
+                return next != null;
+            }
+
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object value = next;
+                next = null;
+                return (V) value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
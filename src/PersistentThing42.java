@@ -0,0 +1,617 @@
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe implementation of the Thing42orNull interface whose
+ * state is a sequence of immutable versions.
+ * <br />
+ * The data, peers and pool of a PersistentThing42 are held by a
+ * {@link Version}, which never changes once published. A mutator
+ * builds the next version from the current one and publishes it with
+ * a single compare-and-set, retrying if another thread published
+ * first; readers never lock and never wait. The peers are a persistent
+ * hash trie from key to a persistent vector of the peers with that key,
+ * and the pool is a persistent vector, so a new version shares all but
+ * O(log n) of its structure with the old one: adding a peer or
+ * appending to the pool copies a few small arrays, while removing
+ * copies the list the element is removed from.
+ * <br /><br />
+ * {@link #snapshot()} returns the current version in O(1). Everything
+ * read from a version is consistent with everything else read from it,
+ * whatever writers do meanwhile, so readers that need several reads to
+ * agree take a snapshot first. The read methods of this class each
+ * read the latest version, and return collections that are read-only
+ * and never change afterwards. Every mutator and read is linearizable,
+ * and the batch methods publish all of their changes as one version.
+ * <br /><br />
+ * Since the state changes over time, equals and hashCode are those of
+ * Object, as for ConcurrentThing42. Peers and pool members are matched
+ * with equals on removal. Duplicate peers and pool members are
+ * accepted, and null keys are allowed.
+ *
+ * @param <K> The generic attribute Key for this PersistentThing42
+ * @param <D> The generic, mutable attribute Data for this PersistentThing42
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class PersistentThing42<K, D> implements Thing42orNull<K, D> {
+    /** The latest version. */
+    private final AtomicReference<Version<K, D>> current;
+
+    /**
+     * An immutable version of a PersistentThing42.
+     * <br />
+     * A version is itself a read-only Thing42orNull with the key,
+     * level, data, peers and pool its object had when it was
+     * published, so it can be handed to code that only reads, such as
+     * a traversal. Its peers and pool members are the objects that
+     * were added, which are not versions themselves. Its mutators throw
+     * UnsupportedOperationException.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     */
+    public static final class Version<K, D> implements Thing42orNull<K, D> {
+        /** Key of the object. */
+        private final K key;
+        /** Level of the object. */
+        private final long level;
+        /** Number of the version; the first is 0. */
+        private final long number;
+        /** Data of the object. */
+        private final D data;
+        /** Peers by key; no list is empty. */
+        private final PersistentKeyMap<K, PersistentVector<Thing42orNull<K, D>>> peers;
+        /** Number of peers over all keys. */
+        private final int peerCount;
+        /** Pool, in order of insertion. */
+        private final PersistentVector<Thing42orNull<K, D>> pool;
+
+        /**
+         * Constructor for objects of class Version.
+         *
+         * @param key the key
+         * @param level the level
+         * @param number the number of the version
+         * @param data the data
+         * @param peers the peers by key
+         * @param peerCount the number of peers
+         * @param pool the pool
+         */
+        private Version(final K key, final long level, final long number, final D data,
+                        final PersistentKeyMap<K, PersistentVector<Thing42orNull<K, D>>> peers,
+                        final int peerCount, final PersistentVector<Thing42orNull<K, D>> pool) {
+            this.key = key;
+            this.level = level;
+            this.number = number;
+            this.data = data;
+            this.peers = peers;
+            this.peerCount = peerCount;
+            this.pool = pool;
+        }
+
+        /**
+         * Makes the next version with other data.
+         *
+         * @param newData the data
+         * @return the next version
+         */
+        private Version<K, D> withData(final D newData) {
+            return new Version<K, D>(key, level, number + 1, newData, peers, peerCount, pool);
+        }
+
+        /**
+         * Makes the next version with other peers.
+         *
+         * @param newPeers the peers by key
+         * @param newCount the number of peers
+         * @return the next version
+         */
+        private Version<K, D> withPeers(
+                final PersistentKeyMap<K, PersistentVector<Thing42orNull<K, D>>> newPeers,
+                final int newCount) {
+            return new Version<K, D>(key, level, number + 1, data, newPeers, newCount, pool);
+        }
+
+        /**
+         * Makes the next version with another pool.
+         *
+         * @param newPool the pool
+         * @return the next version
+         */
+        private Version<K, D> withPool(final PersistentVector<Thing42orNull<K, D>> newPool) {
+            return new Version<K, D>(key, level, number + 1, data, peers, peerCount, newPool);
+        }
+
+        /**
+         * Number of this version. Each version published by an object
+         * is numbered one more than the one before it.
+         *
+         * @return the number, from 0
+         */
+        public long getVersion() {
+            return number;
+        }
+
+        /**
+         * Not supported: versions are immutable.
+         *
+         * @param newPeer ignored
+         * @throws UnsupportedOperationException always
+         */
+        public void addPeer(final Thing42orNull<K, D> newPeer) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not supported: versions are immutable.
+         *
+         * @param newMember ignored
+         * @throws UnsupportedOperationException always
+         */
+        public void appendToPool(final Thing42orNull<K, D> newMember) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Access the data of this version.
+         *
+         * @return the data
+         */
+        public D getData() {
+            return data;
+        }
+
+        /**
+         * Access the key of this version.
+         *
+         * @return the key
+         */
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * Access the level of this version.
+         *
+         * @return the level
+         */
+        public long getLevel() {
+            return level;
+        }
+
+        /**
+         * Access the first peer added with the specified key, in
+         * O(log32 n).
+         *
+         * @param k the search key
+         * @return the peer; null if no match
+         */
+        public Thing42orNull<K, D> getOnePeer(final K k) {
+            PersistentVector<Thing42orNull<K, D>> bucket = peers.get(k);
+            return (bucket == null) ? null : bucket.get(0);
+        }
+
+        /**
+         * Access all peers, in O(1).
+         *
+         * @return a read-only collection of all peers of this version;
+         * if no peers then returns a collection with size() == 0.
+         */
+        public Collection<Thing42orNull<K, D>> getPeersAsCollection() {
+            return new AbstractCollection<Thing42orNull<K, D>>() {
+                @Override
+                public int size() {
+                    return peerCount;
+                }
+
+                @Override
+                public Iterator<Thing42orNull<K, D>> iterator() {
+                    return new BucketIterator<K, D>(peers.values());
+                }
+            };
+        }
+
+        /**
+         * Access all peers matching the specified key, in O(log32 n).
+         *
+         * @param k the search key
+         * @return a read-only list of the peers of this version with the
+         * key, in the order they were added; if no peer matches then
+         * returns a collection with size() == 0.
+         */
+        public Collection<Thing42orNull<K, D>> getPeersAsCollection(final K k) {
+            PersistentVector<Thing42orNull<K, D>> bucket = peers.get(k);
+            if (bucket == null) {
+                return Collections.<Thing42orNull<K, D>>emptyList();
+            }
+            return bucket.asList();
+        }
+
+        /**
+         * Access all members of the pool, in O(1).
+         *
+         * @return a read-only list of the pool of this version; if no
+         * members then returns a List with size() == 0.
+         */
+        public List<Thing42orNull<K, D>> getPoolAsList() {
+            return pool.asList();
+        }
+
+        /**
+         * Not supported: versions are immutable.
+         *
+         * @param member ignored
+         * @return never
+         * @throws UnsupportedOperationException always
+         */
+        public boolean removeFromPool(final Thing42orNull<K, D> member) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not supported: versions are immutable.
+         *
+         * @param peer ignored
+         * @return never
+         * @throws UnsupportedOperationException always
+         */
+        public boolean removePeer(final Thing42orNull<K, D> peer) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not supported: versions are immutable.
+         *
+         * @param newData ignored
+         * @throws UnsupportedOperationException always
+         */
+        public void setData(final D newData) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Constructor for objects of class PersistentThing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     */
+    public PersistentThing42(final K key, final long level, final D data) {
+        this.current = new AtomicReference<Version<K, D>>(new Version<K, D>(key, level, 0, data,
+            PersistentKeyMap.<K, PersistentVector<Thing42orNull<K, D>>>empty(), 0,
+            PersistentVector.<Thing42orNull<K, D>>empty()));
+    }
+
+    /**
+     * The current version of this object, in O(1). It never changes;
+     * later mutations publish new versions.
+     *
+     * @return the current version
+     */
+    public Version<K, D> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Number of the current version of this object. It increases by
+     * one with every change, so two equal numbers read from the same
+     * object mean nothing changed in between.
+     *
+     * @return the number, from 0
+     */
+    public long getVersion() {
+        return current.get().number;
+    }
+
+    /**
+     * Add a peer to this object. <br />Accepts duplicates.
+     *
+     * @param newPeer the peer to add
+     * @throws NullPointerException if the specified peer is null
+     */
+    public void addPeer(final Thing42orNull<K, D> newPeer)
+    throws NullPointerException {
+        if (newPeer == null) {
+            throw new NullPointerException();
+        }
+        addPeers(Collections.singletonList(newPeer));
+    }
+
+    /**
+     * Add several peers to this object, as one version.
+     *
+     * @param newPeers the peers to add
+     * @throws NullPointerException if the collection or any peer is
+     * null, in which case nothing is added
+     */
+    @Override
+    public void addPeers(final Collection<? extends Thing42orNull<K, D>> newPeers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(newPeers);
+        if (newPeers.isEmpty()) {
+            return;
+        }
+        Version<K, D> v;
+        Version<K, D> next;
+        do {
+            v = current.get();
+            PersistentKeyMap<K, PersistentVector<Thing42orNull<K, D>>> peers = v.peers;
+            for (Thing42orNull<K, D> peer : newPeers) {
+                PersistentVector<Thing42orNull<K, D>> bucket = peers.get(peer.getKey());
+                if (bucket == null) {
+                    bucket = PersistentVector.<Thing42orNull<K, D>>empty();
+                }
+                peers = peers.put(peer.getKey(), bucket.append(peer));
+            }
+            next = v.withPeers(peers, v.peerCount + newPeers.size());
+        } while (!current.compareAndSet(v, next));
+    }
+
+    /**
+     * Append a member to the pool of this object.
+     * <br />Duplicate objects are accepted.
+     *
+     * @param newMember the object to be appended to the pool
+     * @throws NullPointerException if the specified item is null
+     */
+    public void appendToPool(final Thing42orNull<K, D> newMember)
+    throws NullPointerException {
+        if (newMember == null) {
+            throw new NullPointerException();
+        }
+        Version<K, D> v;
+        do {
+            v = current.get();
+        } while (!current.compareAndSet(v, v.withPool(v.pool.append(newMember))));
+    }
+
+    /**
+     * Append several members to the pool of this object, as one
+     * version, so they appear in the pool next to each other.
+     *
+     * @param newMembers the objects to be appended to the pool
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is appended
+     */
+    @Override
+    public void appendAllToPool(final Collection<? extends Thing42orNull<K, D>> newMembers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(newMembers);
+        if (newMembers.isEmpty()) {
+            return;
+        }
+        Version<K, D> v;
+        Version<K, D> next;
+        do {
+            v = current.get();
+            PersistentVector<Thing42orNull<K, D>> pool = v.pool;
+            for (Thing42orNull<K, D> member : newMembers) {
+                pool = pool.append(member);
+            }
+            next = v.withPool(pool);
+        } while (!current.compareAndSet(v, next));
+    }
+
+    /**
+     * Access the data of this PersistentThing42.
+     *
+     * @return the data of this object
+     */
+    public D getData() {
+        return current.get().data;
+    }
+
+    /**
+     * Access the key of this PersistentThing42.
+     *
+     * @return the key of this object
+     */
+    public K getKey() {
+        return current.get().key;
+    }
+
+    /**
+     * Access the level of this PersistentThing42.
+     *
+     * @return the level of this object
+     */
+    public long getLevel() {
+        return current.get().level;
+    }
+
+    /**
+     * Access a peer matching the specified key.
+     *
+     * @param key the search key
+     * @return the first peer added with the key that is still a peer;
+     * null if no match
+     */
+    public Thing42orNull<K, D> getOnePeer(final K key) {
+        return current.get().getOnePeer(key);
+    }
+
+    /**
+     * Access all peers.
+     * <br />Returns the read-only peers of the current version, which
+     * never change.
+     *
+     * @return all peers known by this object;
+     * if no peers then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<K, D>> getPeersAsCollection() {
+        return current.get().getPeersAsCollection();
+    }
+
+    /**
+     * Access all peers matching the specified key.
+     * <br />Returns the read-only peers of the current version, which
+     * never change.
+     *
+     * @param key the search key
+     * @return all peers known by this object that match the given key;
+     * if no peer matches then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<K, D>> getPeersAsCollection(final K key) {
+        return current.get().getPeersAsCollection(key);
+    }
+
+    /**
+     * Access all members of the pool.
+     * <br />Returns the read-only pool of the current version, which
+     * never changes.
+     *
+     * @return all members of the pool known by this object;
+     * if no members then returns a List with size() == 0.
+     */
+    public List<Thing42orNull<K, D>> getPoolAsList() {
+        return current.get().getPoolAsList();
+    }
+
+    /**
+     * Remove a single instance of the specified object from this object's pool.
+     * O(n): the pool of the new version is rebuilt.
+     *
+     * @param member the member to be removed from the pool
+     * @return true if a pool member was removed as a result of this call
+     * @throws NullPointerException if the specified parameter is null
+     */
+    public boolean removeFromPool(final Thing42orNull<K, D> member)
+    throws NullPointerException {
+        if (member == null) {
+            throw new NullPointerException();
+        }
+        return removeAllFromPool(Collections.singletonList(member));
+    }
+
+    /**
+     * Remove a single instance of each of several members from the
+     * pool, as if removed one by one in iteration order, as one version.
+     *
+     * @param members the members to be removed from the pool
+     * @return true if any member was removed as a result of this call
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is removed
+     */
+    @Override
+    public boolean removeAllFromPool(final Collection<? extends Thing42orNull<K, D>> members)
+    throws NullPointerException {
+        Thing42.requireNoNulls(members);
+        Version<K, D> v;
+        Version<K, D> next;
+        do {
+            v = current.get();
+            PersistentVector<Thing42orNull<K, D>> pool = v.pool;
+            if (members.size() == 1) {
+                int i = pool.indexOf(members.iterator().next());
+                if (i < 0) {
+                    return false;
+                }
+                pool = pool.remove(i);
+            } else {
+                ArrayList<Thing42orNull<K, D>> rest
+                    = new ArrayList<Thing42orNull<K, D>>(pool.asList());
+                if (BatchRemoval.removeAll(rest, members, null) == 0) {
+                    return false;
+                }
+                pool = PersistentVector.of(rest.toArray(), rest.size());
+            }
+            next = v.withPool(pool);
+        } while (!current.compareAndSet(v, next));
+        return true;
+    }
+
+    /**
+     * Remove a single instance of the specified peer from this object.
+     * The first peer added with its key that equals it is removed.
+     * O(m) for the m peers with its key.
+     *
+     * @param peer the peer to be removed
+     * @return true if a peer was removed as a result of this call
+     * @throws NullPointerException if the specified peer is null
+     */
+    public boolean removePeer(final Thing42orNull<K, D> peer)
+    throws NullPointerException {
+        if (peer == null) {
+            throw new NullPointerException();
+        }
+        return removePeers(Collections.singletonList(peer));
+    }
+
+    /**
+     * Remove a single instance of each of several peers, as if removed
+     * one by one in iteration order, as one version.
+     *
+     * @param oldPeers the peers to be removed
+     * @return true if any peer was removed as a result of this call
+     * @throws NullPointerException if the collection or any peer is
+     * null, in which case nothing is removed
+     */
+    @Override
+    public boolean removePeers(final Collection<? extends Thing42orNull<K, D>> oldPeers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(oldPeers);
+        Version<K, D> v;
+        Version<K, D> next;
+        do {
+            v = current.get();
+            PersistentKeyMap<K, PersistentVector<Thing42orNull<K, D>>> peers = v.peers;
+            int count = v.peerCount;
+            for (Thing42orNull<K, D> peer : oldPeers) {
+                PersistentVector<Thing42orNull<K, D>> bucket = peers.get(peer.getKey());
+                int i = (bucket == null) ? -1 : bucket.indexOf(peer);
+                if (i >= 0) {
+                    peers = (bucket.size() == 1) ? peers.without(peer.getKey())
+                        : peers.put(peer.getKey(), bucket.remove(i));
+                    count--;
+                }
+            }
+            if (count == v.peerCount) {
+                return false;
+            }
+            next = v.withPeers(peers, count);
+        } while (!current.compareAndSet(v, next));
+        return true;
+    }
+
+    /**
+     * Modify the data of this PersistentThing42.
+     *
+     * @param newData the updated data for this object
+     */
+    public void setData(final D newData) {
+        Version<K, D> v;
+        do {
+            v = current.get();
+        } while (!current.compareAndSet(v, v.withData(newData)));
+    }
+
+    /**
+     * Determines whether the specified Object is this PersistentThing42.
+     *
+     * @param obj an Object to be compared with this PersistentThing42.
+     * @return true if obj is this object; false otherwise.
+     * @see #hashCode()
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return this == obj;
+    }
+
+    /**
+     * Returns the identity hashcode of this PersistentThing42.
+     *
+     * @return the hashcode for this PersistentThing42
+     */
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+}
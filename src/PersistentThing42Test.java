@@ -0,0 +1,315 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class PersistentThing42Test.
+ *
+ * Tests PersistentThing42 against the Thing42orNull contract and a
+ * Thing42, that versions never change, and that concurrent readers
+ * always see whole versions.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class PersistentThing42Test
+{
+    /** Number of writer and of reader threads in the concurrent test. */
+    private static final int THREADS = 4;
+    /** Number of batches per writer in the concurrent test. */
+    private static final int OPS = 2000;
+
+    //The PersistentThing42 object upon which tests should call methods.
+    PersistentThing42<Integer, String> testThing;
+    //A valid Thing42 object that can be passed as a parameter to methods.
+    Thing42<Integer, String> validThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new PersistentThing42<Integer, String>(1, 1, "test");
+        validThing = new Thing42<Integer, String>(2, 2, "test");
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        testThing = null;
+        validThing = null;
+    }
+
+    /**
+     * Adds, finds and removes peers, including duplicates
+     * and a peer with a null key.
+     */
+    @Test
+    public void testPeers()
+    {
+        Thing42<Integer, String> nullKey = new Thing42<Integer, String>(null, 3, "test");
+        assertNull(testThing.getOnePeer(2));
+        testThing.addPeer(validThing);
+        testThing.addPeer(validThing);
+        testThing.addPeer(nullKey);
+        assertTrue(testThing.getPeersAsCollection().size() == 3);
+        assertTrue(testThing.getPeersAsCollection(2).size() == 2);
+        assertTrue(testThing.getPeersAsCollection().contains(nullKey));
+        assertEquals(validThing, testThing.getOnePeer(2));
+        assertEquals(nullKey, testThing.getOnePeer(null));
+
+        assertTrue(testThing.removePeer(validThing));
+        assertTrue(testThing.removePeer(nullKey));
+        assertFalse(testThing.removePeer(nullKey));
+        assertTrue(testThing.getPeersAsCollection().size() == 1);
+        assertTrue(testThing.getPeersAsCollection(5).size() == 0);
+        assertNull(testThing.getOnePeer(null));
+    }
+
+    /**
+     * Appends and removes pool members and checks their order.
+     */
+    @Test
+    public void testPool()
+    {
+        Thing42<Integer, String> other = new Thing42<Integer, String>(3, 3, "test");
+        testThing.appendToPool(validThing);
+        testThing.appendToPool(other);
+        testThing.appendToPool(validThing);
+        assertTrue(testThing.getPoolAsList().size() == 3);
+        assertTrue(testThing.getPoolAsList().get(1) == other);
+        assertTrue(testThing.removeFromPool(validThing));
+        assertTrue(testThing.getPoolAsList().get(0) == other);
+        assertFalse(testThing.removeFromPool(testThing));
+        assertTrue(testThing.removeAllFromPool(Arrays.asList(validThing, other)));
+        assertTrue(testThing.getPoolAsList().isEmpty());
+    }
+
+    /**
+     * Takes snapshots, changes the object, and checks that the
+     * snapshots and their version numbers did not change.
+     */
+    @Test
+    public void testSnapshots()
+    {
+        PersistentThing42.Version<Integer, String> empty = testThing.snapshot();
+        assertTrue(empty.getVersion() == 0);
+        testThing.addPeer(validThing);
+        testThing.appendToPool(validThing);
+        PersistentThing42.Version<Integer, String> before = testThing.snapshot();
+        assertTrue(before.getVersion() == 2);
+        testThing.setData("changed");
+        testThing.removePeer(validThing);
+        testThing.addPeers(Arrays.asList(validThing, validThing));
+        testThing.removeFromPool(validThing);
+        assertTrue(testThing.getVersion() == 6);
+        // nothing removed, so no new version
+        assertFalse(testThing.removePeer(testThing.snapshot()));
+        assertTrue(testThing.getVersion() == 6);
+
+        assertTrue(empty.getPeersAsCollection().isEmpty());
+        assertTrue(empty.getPoolAsList().isEmpty());
+        assertEquals("test", before.getData());
+        assertTrue(before.getPeersAsCollection().size() == 1);
+        assertTrue(before.getPoolAsList().get(0) == validThing);
+        assertTrue(before.getKey() == 1 && before.getLevel() == 1);
+        assertEquals("changed", testThing.getData());
+        assertTrue(testThing.getPeersAsCollection(2).size() == 2);
+        assertTrue(testThing.getPoolAsList().isEmpty());
+        try {
+            before.addPeer(validThing);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Applies random operations, with keys whose hashes collide and
+     * enough peers and members to fill several levels of the tries, to
+     * a PersistentThing42 and to a Thing42, and compares them.
+     */
+    @Test
+    public void testMatchesThing42()
+    {
+        Random random = new Random(17);
+        PersistentThing42<Long, String> node = new PersistentThing42<Long, String>(0L, 0, "test");
+        Thing42<Long, String> model = new Thing42<Long, String>(0L, 0, "test");
+        List<Thing42<Long, String>> added = new ArrayList<Thing42<Long, String>>();
+        List<Long> keys = new ArrayList<Long>();
+        for (int step = 0; step < 20000; step++) {
+            int op = random.nextInt(8);
+            if (op < 3 || added.isEmpty()) {
+                // k and k << 32 have the same hashCode
+                long k = random.nextInt(300);
+                Long key = (random.nextInt(4) == 0) ? null
+                    : Long.valueOf(random.nextBoolean() ? k : k << 32);
+                Thing42<Long, String> peer = new Thing42<Long, String>(key, step, "peer");
+                added.add(peer);
+                keys.add(key);
+                node.addPeer(peer);
+                model.addPeer(peer);
+                node.appendToPool(peer);
+                model.appendToPool(peer);
+            } else if (op < 5) {
+                Thing42<Long, String> peer = added.get(random.nextInt(added.size()));
+                assertTrue(node.removePeer(peer) == model.removePeer(peer));
+                assertTrue(node.removeFromPool(peer) == model.removeFromPool(peer));
+            } else if (op == 5) {
+                List<Thing42<Long, String>> batch = new ArrayList<Thing42<Long, String>>();
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    batch.add(added.get(random.nextInt(added.size())));
+                }
+                assertTrue(node.removePeers(batch) == model.removePeers(batch));
+                assertTrue(node.removeAllFromPool(batch) == model.removeAllFromPool(batch));
+            } else {
+                Long key = keys.get(random.nextInt(keys.size()));
+                assertEquals(new ArrayList<Thing42orNull<Long, String>>(
+                                 model.getPeersAsCollection(key)),
+                             new ArrayList<Thing42orNull<Long, String>>(
+                                 node.getPeersAsCollection(key)));
+                assertTrue(node.getOnePeer(key) == model.getOnePeer(key));
+            }
+        }
+        assertTrue(node.getPeersAsCollection().size() == model.getPeersAsCollection().size());
+        int count = 0;
+        for (Thing42orNull<Long, String> peer : node.getPeersAsCollection()) {
+            assertTrue(model.containsPeer(peer));
+            count++;
+        }
+        assertTrue(count == model.getPeersAsCollection().size());
+        assertEquals(model.getPoolAsList(), node.getPoolAsList());
+    }
+
+    /**
+     * Builds pools of many sizes and checks every member, around the
+     * sizes where the trie of the pool grows a level.
+     */
+    @Test
+    public void testPoolSizes()
+    {
+        List<Thing42orNull<Integer, String>> members = new ArrayList<Thing42orNull<Integer, String>>();
+        for (int i = 0; i < 40000; i++) {
+            members.add(new Thing42<Integer, String>(i, i, "member"));
+        }
+        for (int n : new int[] {1, 31, 32, 33, 1024, 1056, 1057, 33824, 33825, 40000}) {
+            PersistentThing42<Integer, String> node = new PersistentThing42<Integer, String>(0, 0, "test");
+            for (int i = 0; i < n; i++) {
+                node.appendToPool(members.get(i));
+            }
+            assertEquals(members.subList(0, n), node.getPoolAsList());
+            node.removeFromPool(members.get(n / 2));
+            node.removeFromPool(members.get(n - 1));
+            List<Thing42orNull<Integer, String>> expected
+                = new ArrayList<Thing42orNull<Integer, String>>(members.subList(0, n));
+            expected.remove(n / 2);
+            expected.remove(members.get(n - 1));
+            assertEquals(expected, node.getPoolAsList());
+            node.appendAllToPool(members.subList(0, 40));
+            expected.addAll(members.subList(0, 40));
+            List<Thing42orNull<Integer, String>> pool = node.getPoolAsList();
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue(pool.get(i) == expected.get(i));
+            }
+        }
+    }
+
+    /**
+     * Attempts to add null as a peer.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testAddNullPeer()
+    {
+        testThing.addPeer(null);
+    }
+
+    /**
+     * Attempts to modify the pool through the returned list.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPoolIsReadOnly()
+    {
+        testThing.getPoolAsList().add(validThing);
+    }
+
+    /**
+     * Adds and removes pairs of peers and pool members from several
+     * threads while other threads read snapshots, and checks that no
+     * update was lost and that every snapshot holds whole pairs.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrentSnapshots() throws InterruptedException
+    {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicBoolean torn = new AtomicBoolean();
+        Thread[] threads = new Thread[2 * THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int key = t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < OPS; i++) {
+                        Thing42<Integer, String> peer = new Thing42<Integer, String>(key, i, "test");
+                        List<Thing42<Integer, String>> pair = Arrays.asList(peer, peer);
+                        testThing.addPeers(pair);
+                        testThing.appendAllToPool(pair);
+                        if (i % 2 == 0) {
+                            testThing.removePeers(pair);
+                            testThing.removeAllFromPool(pair);
+                        }
+                    }
+                }
+            });
+            threads[THREADS + t] = new Thread(new Runnable() {
+                public void run() {
+                    while (!done.get()) {
+                        PersistentThing42.Version<Integer, String> v = testThing.snapshot();
+                        int n = 0;
+                        for (Thing42orNull<Integer, String> peer : v.getPeersAsCollection()) {
+                            n++;
+                        }
+                        List<Thing42orNull<Integer, String>> pool = v.getPoolAsList();
+                        if (n != v.getPeersAsCollection().size() || n % 2 != 0
+                            || pool.size() % 2 != 0) {
+                            torn.set(true);
+                        }
+                        for (int i = 0; i < pool.size(); i += 2) {
+                            if (pool.get(i) != pool.get(i + 1)) {
+                                torn.set(true);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (int t = 0; t < THREADS; t++) {
+            threads[t].join();
+        }
+        done.set(true);
+        for (int t = THREADS; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertFalse(torn.get());
+        assertTrue(testThing.getPeersAsCollection().size() == THREADS * OPS);
+        assertTrue(testThing.getPoolAsList().size() == THREADS * OPS);
+        assertTrue(testThing.getVersion() == THREADS * OPS * 3);
+    }
+}
@@ -0,0 +1,334 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list that shares its structure with the lists it was made
+ * from, for the versions of PersistentThing42.
+ * <br />
+ * The elements are kept in a trie of arrays of 32, plus a tail array
+ * of up to 32 elements that are not in the trie yet. get is O(log32 n),
+ * which is at most 7 array reads; appending copies the tail, or, once
+ * every 32 appends, the path from the root to the new leaf, and shares
+ * everything else with the old list. Removing an element rebuilds the
+ * list in O(n).
+ *
+ * @param <T> the type of element
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class PersistentVector<T> implements Iterable<T> {
+    /** log2 of the width of a trie node. */
+    private static final int BITS = 5;
+    /** Width of a trie node. */
+    private static final int WIDTH = 1 << BITS;
+    /** Mask of the index within a trie node. */
+    private static final int MASK = WIDTH - 1;
+    /** The empty list. */
+    private static final PersistentVector<Object> EMPTY
+        = new PersistentVector<Object>(0, BITS, new Object[0], new Object[0]);
+
+    /** Number of elements. */
+    private final int size;
+    /** Depth of the trie in bits of the index; at least BITS. */
+    private final int shift;
+    /** Root of the trie; its leaves hold the elements. */
+    private final Object[] root;
+    /** The last elements, not in the trie. */
+    private final Object[] tail;
+
+    /**
+     * Constructor for objects of class PersistentVector.
+     *
+     * @param size the number of elements
+     * @param shift the depth of the trie
+     * @param root the root of the trie
+     * @param tail the tail
+     */
+    private PersistentVector(final int size, final int shift, final Object[] root,
+                             final Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * The empty list.
+     *
+     * @param <T> the type of element
+     * @return the empty list
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    /**
+     * Makes a list of the first elements of an array, in O(n).
+     *
+     * @param <T> the type of element
+     * @param elements the array, which is not kept
+     * @param n the number of elements
+     * @return the list
+     */
+    static <T> PersistentVector<T> of(final Object[] elements, final int n) {
+        if (n == 0) {
+            return empty();
+        }
+        int inTrie = (n - 1) & ~MASK;
+        Object[] tail = Arrays.copyOfRange(elements, inTrie, n);
+        Object[] nodes = new Object[inTrie >>> BITS];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Arrays.copyOfRange(elements, i << BITS, (i + 1) << BITS);
+        }
+        int shift = BITS;
+        while (nodes.length > WIDTH) {
+            Object[] parents = new Object[(nodes.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Arrays.copyOfRange(nodes, i << BITS,
+                                                Math.min(nodes.length, (i + 1) << BITS));
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new PersistentVector<T>(n, shift, nodes, tail);
+    }
+
+    /**
+     * Number of elements.
+     *
+     * @return the number of elements
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Index of the first element in the tail.
+     *
+     * @return the number of elements in the trie
+     */
+    private int tailOffset() {
+        return (size == 0) ? 0 : (size - 1) & ~MASK;
+    }
+
+    /**
+     * The array that holds an element: a leaf of the trie, or the tail.
+     *
+     * @param index the index of the element, which must be in range
+     * @return the array; the element is at index &amp; 31
+     */
+    private Object[] arrayFor(final int index) {
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Accesses an element.
+     *
+     * @param index the index of the element
+     * @return the element
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    @SuppressWarnings("unchecked")
+    T get(final int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return (T) arrayFor(index)[index & MASK];
+    }
+
+    /**
+     * Index of the first element equal to an object.
+     *
+     * @param o the object, not null
+     * @return the index; -1 if none
+     */
+    int indexOf(final Object o) {
+        for (int base = 0; base < size; base += WIDTH) {
+            Object[] array = arrayFor(base);
+            int n = Math.min(WIDTH, size - base);
+            for (int i = 0; i < n; i++) {
+                if (o.equals(array[i])) {
+                    return base + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes the list with an element added at the end.
+     *
+     * @param element the element
+     * @return the new list
+     */
+    PersistentVector<T> append(final T element) {
+        int inTail = size - tailOffset();
+        if (inTail < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, inTail + 1);
+            newTail[inTail] = element;
+            return new PersistentVector<T>(size + 1, shift, root, newTail);
+        }
+        // the tail is full: move it into the trie
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[] {root, path(shift, tail)};
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root);
+        }
+        return new PersistentVector<T>(size + 1, newShift, newRoot, new Object[] {element});
+    }
+
+    /**
+     * Copies the path to the first free leaf of the trie and puts the
+     * tail there.
+     *
+     * @param level the level of the node
+     * @param node the node
+     * @return the copy of the node
+     */
+    private Object[] pushTail(final int level, final Object[] node) {
+        int sub = ((size - 1) >>> level) & MASK;
+        Object[] copy = Arrays.copyOf(node, Math.max(node.length, sub + 1));
+        if (level == BITS) {
+            copy[sub] = tail;
+        } else if (sub < node.length) {
+            copy[sub] = pushTail(level - BITS, (Object[]) node[sub]);
+        } else {
+            copy[sub] = path(level - BITS, tail);
+        }
+        return copy;
+    }
+
+    /**
+     * Makes a chain of nodes down to a leaf.
+     *
+     * @param level the level of the top of the chain
+     * @param leaf the leaf
+     * @return the top of the chain
+     */
+    private static Object[] path(final int level, final Object[] leaf) {
+        return (level == 0) ? leaf : new Object[] {path(level - BITS, leaf)};
+    }
+
+    /**
+     * Makes the list without one element.
+     *
+     * @param index the index of the element
+     * @return the new list
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    PersistentVector<T> remove(final int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        if (index == size - 1 && size - tailOffset() > 1) {
+            return new PersistentVector<T>(size - 1, shift, root,
+                                           Arrays.copyOf(tail, tail.length - 1));
+        }
+        Object[] elements = toArray();
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        return of(elements, size - 1);
+    }
+
+    /**
+     * Copies the elements to a new array.
+     *
+     * @return the elements
+     */
+    Object[] toArray() {
+        Object[] elements = new Object[size];
+        for (int base = 0; base < size; base += WIDTH) {
+            System.arraycopy(arrayFor(base), 0, elements, base, Math.min(WIDTH, size - base));
+        }
+        return elements;
+    }
+
+    /**
+     * Iterates the elements in order. The iterator is read-only.
+     *
+     * @return an iterator over the elements
+     */
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next;
+            private Object[] array;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((next & MASK) == 0) {
+                    array = arrayFor(next);
+                }
+                return (T) array[next++ & MASK];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Read-only view of the list as a java.util.List.
+     *
+     * @return the view
+     */
+    List<T> asList() {
+        return new View<T>(this);
+    }
+
+    /**
+     * Read-only List view of a PersistentVector.
+     *
+     * @param <T> the type of element
+     */
+    private static final class View<T> extends AbstractList<T> implements RandomAccess {
+        /** The list. */
+        private final PersistentVector<T> vector;
+
+        /**
+         * Constructor for objects of class View.
+         *
+         * @param vector the list
+         */
+        private View(final PersistentVector<T> vector) {
+            this.vector = vector;
+        }
+
+        @Override
+        public T get(final int index) {
+            return vector.get(index);
+        }
+
+        @Override
+        public int size() {
+            return vector.size;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return vector.iterator();
+        }
+    }
+}
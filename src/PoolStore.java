@@ -0,0 +1,81 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage for the pool of a Thing42.
+ * <br />
+ * The pool is an ordered collection that accepts duplicates.
+ * Members passed to {@link #remove} and {@link #contains} are matched
+ * with equals, unless the implementation says otherwise.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+interface PoolStore<K, D> {
+    /**
+     * Appends a member.
+     *
+     * @param member the member to append, not null
+     */
+    void append(Thing42orNull<K, D> member);
+
+    /**
+     * Appends several members, in iteration order.
+     *
+     * @param batch the members to append, none null
+     */
+    void appendAll(Collection<? extends Thing42orNull<K, D>> batch);
+
+    /**
+     * Removes the first member.
+     *
+     * @return the member that was removed; null if the pool is empty
+     */
+    Thing42orNull<K, D> poll();
+
+    /**
+     * Tells whether a member equal to the given one is in the pool.
+     *
+     * @param member the member to look for, not null
+     * @return true if it is a member
+     */
+    boolean contains(Thing42orNull<K, D> member);
+
+    /**
+     * Removes the first member equal to the given one.
+     *
+     * @param member the member to remove, not null
+     * @return the member that was removed; null if none
+     */
+    Thing42orNull<K, D> remove(Thing42orNull<K, D> member);
+
+    /**
+     * Removes the first member equal to each of several members, as
+     * if they were removed one by one in iteration order.
+     *
+     * @param batch the members to remove, none null
+     * @param removed receives the stored members that were removed; may be null
+     * @return the number of members removed
+     */
+    int removeAll(Collection<? extends Thing42orNull<K, D>> batch,
+                  List<? super Thing42orNull<K, D>> removed);
+
+    /**
+     * Accesses the members as a list, in pool order.
+     * Whether the list is live or a snapshot, and whether it can be
+     * modified, depends on the implementation.
+     *
+     * @return the members
+     */
+    List<Thing42orNull<K, D>> asList();
+
+    /**
+     * Number of members, counting duplicates.
+     *
+     * @return the number of members
+     */
+    int size();
+}
@@ -0,0 +1,521 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, append-mostly pool storage that may be used by many
+ * threads at once.
+ * <br />
+ * Members live in a list of segments, published together as one
+ * immutable array. A member is appended by reserving the next slot of
+ * the last segment with a single fetch-and-add and writing it. The
+ * thread whose reservation overflows the last segment closes it and
+ * installs a new one with a compare-and-set, sized after the number of
+ * members the pool holds, not after how many were ever appended, so
+ * the pool has no limit on appends over its lifetime and a small pool
+ * allocates small segments.
+ * <br /><br />
+ * Removal scans for the first equal member and replaces it by a
+ * tombstone that keeps the member and a stamp from a removal clock.
+ * Once tombstones outnumber the members, the removing thread compacts
+ * the pool: it freezes every slot, copies the members into new, full
+ * segments and publishes them in place of the old ones. Tombstones are
+ * then only reachable from snapshots taken before the compaction, so
+ * removed members are released once those are gone. Removals that meet
+ * a frozen slot wait for the compaction to publish its segments; appends
+ * and snapshots never wait for it.
+ * <br /><br />
+ * {@link #asList()} returns a read-only snapshot in O(number of
+ * segments): it records the removal clock, the segments and how many
+ * slots of each were reserved, and then shows exactly the members
+ * appended to those slots and not removed at or before the recorded
+ * clock, however the pool changes afterwards.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class SegmentedPool<K, D> implements PoolStore<K, D> {
+    /** Smallest number of slots of a new segment. */
+    private static final int MIN_LENGTH = 8;
+    /** Largest number of slots of a segment, unless a batch needs more. */
+    private static final int MAX_LENGTH = 1 << 20;
+    /** Stamp of a tombstone whose removal is still in progress. */
+    private static final long PENDING = Long.MAX_VALUE;
+    /** No segments. */
+    private static final Segment[] NONE = new Segment[0];
+
+    /** A removed member. */
+    private static final class Tombstone {
+        /** The member, kept for snapshots taken before its removal. */
+        private final Object member;
+        /** Value of the removal clock at the removal; PENDING until set. */
+        private volatile long stamp = PENDING;
+
+        /**
+         * Constructor for objects of class Tombstone.
+         *
+         * @param member the removed member
+         */
+        private Tombstone(final Object member) {
+            this.member = member;
+        }
+    }
+
+    /** Fills slots that were reserved but never used; no snapshot shows it. */
+    private static final Tombstone FILLER = new Tombstone(null);
+
+    static {
+        FILLER.stamp = 0;
+    }
+
+    /** A member in a slot frozen by a compaction. */
+    private static final class Moved {
+        /** The member. */
+        private final Object member;
+
+        /**
+         * Constructor for objects of class Moved.
+         *
+         * @param member the member
+         */
+        private Moved(final Object member) {
+            this.member = member;
+        }
+    }
+
+    /** A segment of slots. */
+    private static final class Segment {
+        /**
+         * The slots: null until written, then a member, a Tombstone or,
+         * once frozen, a Moved.
+         */
+        private final AtomicReferenceArray<Object> slots;
+        /** Number of slots reserved; at least the length once closed. */
+        private final AtomicInteger reserved;
+
+        /**
+         * Constructor for objects of class Segment.
+         *
+         * @param length the number of slots
+         * @param reserved the number of slots already reserved
+         */
+        private Segment(final int length, final int reserved) {
+            this.slots = new AtomicReferenceArray<Object>(length);
+            this.reserved = new AtomicInteger(reserved);
+        }
+
+        /**
+         * Number of slots in use.
+         *
+         * @return the number of reserved slots, at most the length
+         */
+        private int used() {
+            return Math.min(reserved.get(), slots.length());
+        }
+    }
+
+    /** The segments, in pool order; replaced as a whole. */
+    private final AtomicReference<Segment[]> segments = new AtomicReference<Segment[]>(NONE);
+    /** Removal clock, advanced by every removal. */
+    private final AtomicLong clock = new AtomicLong();
+    /** Number of members. */
+    private final AtomicLong live = new AtomicLong();
+    /** Number of slots holding a tombstone, an estimate while removals run. */
+    private final AtomicLong dead = new AtomicLong();
+    /** Number of compactions published, to detect them racing a snapshot. */
+    private final AtomicLong compactions = new AtomicLong();
+    /** Whether a compaction is running. */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /** {@inheritDoc} */
+    public void append(final Thing42orNull<K, D> member) {
+        appendAll(new Object[] {member});
+    }
+
+    /**
+     * Appends members to adjacent slots, so the members of one batch
+     * stay together and in order even while other threads append.
+     *
+     * @param batch the members to append
+     */
+    public void appendAll(final Collection<? extends Thing42orNull<K, D>> batch) {
+        Object[] members = batch.toArray();
+        if (members.length > 0) {
+            appendAll(members);
+        }
+    }
+
+    /**
+     * Appends members to adjacent slots of the last segment, or of a new
+     * segment if they do not fit.
+     *
+     * @param members the members, at least one
+     */
+    private void appendAll(final Object[] members) {
+        int n = members.length;
+        live.addAndGet(n);
+        for (;;) {
+            Segment[] current = segments.get();
+            if (current.length > 0) {
+                Segment last = current[current.length - 1];
+                int length = last.slots.length();
+                int index = last.reserved.getAndAdd(n);
+                if (index >= 0 && index <= length - n) {
+                    for (int i = 0; i < n; i++) {
+                        last.slots.set(index + i, members[i]);
+                    }
+                    return;
+                }
+                if (index >= 0 && index < length) {
+                    // this reservation closed the segment; fill what it left
+                    for (int i = index; i < length; i++) {
+                        last.slots.set(i, FILLER);
+                    }
+                    dead.addAndGet(length - index);
+                }
+            }
+            long size = Math.max(MIN_LENGTH, Math.min(MAX_LENGTH, live.get()));
+            Segment added = new Segment(Math.max(n, Integer.highestOneBit((int) size - 1) << 1), n);
+            for (int i = 0; i < n; i++) {
+                added.slots.set(i, members[i]);
+            }
+            Segment[] next = new Segment[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = added;
+            if (segments.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the first member, scanning past the tombstones.
+     *
+     * @return the member that was removed; null if the pool is empty
+     */
+    public Thing42orNull<K, D> poll() {
+        return remove(null);
+    }
+
+    /** {@inheritDoc} */
+    public boolean contains(final Thing42orNull<K, D> member) {
+        for (Thing42orNull<K, D> m : asList()) {
+            if (member.equals(m)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the first member equal to the given one.
+     *
+     * @param member the member to remove; null for the first member
+     * @return the member that was removed; null if none
+     */
+    @SuppressWarnings("unchecked")
+    public Thing42orNull<K, D> remove(final Thing42orNull<K, D> member) {
+        long scanned = 0;
+        scan:
+        for (;;) {
+            Segment[] current = segments.get();
+            for (Segment segment : current) {
+                int length = segment.used();
+                for (int i = 0; i < length; i++) {
+                    scanned++;
+                    Object o = segment.slots.get(i);
+                    while (o != null && !(o instanceof Tombstone)) {
+                        if (o instanceof Moved) {
+                            // a compaction is moving this segment; wait for it
+                            while (segments.get() == current) {
+                                Thread.yield();
+                            }
+                            continue scan;
+                        }
+                        if (member != null && !member.equals(o)) {
+                            break;
+                        }
+                        Tombstone tombstone = new Tombstone(o);
+                        if (segment.slots.compareAndSet(i, o, tombstone)) {
+                            tombstone.stamp = clock.incrementAndGet();
+                            live.decrementAndGet();
+                            if (dead.incrementAndGet() > live.get() + MIN_LENGTH) {
+                                compact();
+                            }
+                            Thing42Metrics.record(
+                                Thing42Metrics.Distribution.REMOVE_FROM_POOL_SCAN, scanned);
+                            return (Thing42orNull<K, D>) o;
+                        }
+                        o = segment.slots.get(i);
+                    }
+                }
+            }
+            Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_FROM_POOL_SCAN, scanned);
+            return null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public int removeAll(final Collection<? extends Thing42orNull<K, D>> batch,
+                         final List<? super Thing42orNull<K, D>> removed) {
+        int count = 0;
+        for (Thing42orNull<K, D> member : batch) {
+            Thing42orNull<K, D> r = remove(member);
+            if (r != null) {
+                count++;
+                if (removed != null) {
+                    removed.add(r);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the members into new, full segments without tombstones,
+     * unless another thread is already compacting.
+     * <br />
+     * The last segment is closed first, so that later appends go to a
+     * new segment; then every slot is frozen, waiting for appends and
+     * removals in progress to finish writing it. Appends may add
+     * segments meanwhile, which are kept after the copies.
+     */
+    private void compact() {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Segment[] old = segments.get();
+            if (old.length == 0) {
+                return;
+            }
+            Segment last = old[old.length - 1];
+            int length = last.slots.length();
+            int index = last.reserved.getAndAdd(length);
+            if (index >= 0 && index < length) {
+                for (int i = index; i < length; i++) {
+                    last.slots.set(i, FILLER);
+                }
+                dead.addAndGet(length - index);
+            }
+            ArrayList<Object> members = new ArrayList<Object>();
+            long tombstones = 0;
+            for (Segment segment : old) {
+                for (int i = 0; i < segment.slots.length(); i++) {
+                    Object frozen = freeze(segment, i);
+                    if (frozen == null) {
+                        tombstones++;
+                    } else {
+                        members.add(frozen);
+                    }
+                }
+            }
+            ArrayList<Segment> copies = new ArrayList<Segment>();
+            for (int from = 0; from < members.size(); from += MAX_LENGTH) {
+                int n = Math.min(MAX_LENGTH, members.size() - from);
+                Segment copy = new Segment(n, n);
+                for (int i = 0; i < n; i++) {
+                    copy.slots.set(i, members.get(from + i));
+                }
+                copies.add(copy);
+            }
+            for (;;) {
+                Segment[] current = segments.get();
+                Segment[] next = new Segment[copies.size() + current.length - old.length];
+                copies.toArray(next);
+                System.arraycopy(current, old.length, next, copies.size(), current.length - old.length);
+                // announce the compaction before publishing it, so a snapshot
+                // that sees the copies also sees compactions change and retries
+                compactions.incrementAndGet();
+                if (segments.compareAndSet(current, next)) {
+                    break;
+                }
+            }
+            dead.addAndGet(-tombstones);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Freezes a slot, so that its member can no longer be removed in
+     * this segment.
+     *
+     * @param segment the segment
+     * @param i the slot
+     * @return the member of the slot; null if it holds a tombstone
+     */
+    private static Object freeze(final Segment segment, final int i) {
+        for (;;) {
+            Object o = segment.slots.get(i);
+            if (o == null) {
+                // an append reserved this slot and is writing it
+                Thread.yield();
+            } else if (o instanceof Tombstone) {
+                while (((Tombstone) o).stamp == PENDING) {
+                    Thread.yield();
+                }
+                return null;
+            } else if (segment.slots.compareAndSet(i, o, new Moved(o))) {
+                return o;
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public List<Thing42orNull<K, D>> asList() {
+        for (;;) {
+            long before = compactions.get();
+            long stamp = clock.get();
+            Segment[] current = segments.get();
+            int[] used = new int[current.length];
+            for (int s = 0; s < current.length; s++) {
+                used[s] = current[s].used();
+            }
+            if (compactions.get() == before) {
+                return new Snapshot(current, used, stamp);
+            }
+        }
+    }
+
+    /**
+     * Number of members. While members are appended or removed
+     * concurrently this is only an estimate.
+     *
+     * @return the number of members
+     */
+    public int size() {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, live.get()));
+    }
+
+    /**
+     * Read-only view of the pool at the time it was taken.
+     * Iteration walks the segments directly; size() and get(int)
+     * copy the members into an array on first use.
+     */
+    private final class Snapshot extends AbstractList<Thing42orNull<K, D>> {
+        /** The segments. */
+        private final Segment[] segments;
+        /** Number of slots of each segment reserved when the snapshot was taken. */
+        private final int[] used;
+        /** Removal clock when the snapshot was taken. */
+        private final long stamp;
+        /** The members, once copied. */
+        private Object[] members;
+
+        /**
+         * Constructor for objects of class Snapshot.
+         *
+         * @param segments the segments
+         * @param used the number of reserved slots of each segment
+         * @param stamp the removal clock
+         */
+        private Snapshot(final Segment[] segments, final int[] used, final long stamp) {
+            this.segments = segments;
+            this.used = used;
+            this.stamp = stamp;
+        }
+
+        /**
+         * Copies the members into an array.
+         *
+         * @return the members
+         */
+        private Object[] members() {
+            if (members == null) {
+                ArrayList<Object> list = new ArrayList<Object>();
+                for (Object o : this) {
+                    list.add(o);
+                }
+                members = list.toArray();
+            }
+            return members;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Thing42orNull<K, D> get(final int index) {
+            return (Thing42orNull<K, D>) members()[index];
+        }
+
+        @Override
+        public int size() {
+            return members().length;
+        }
+
+        @Override
+        public Iterator<Thing42orNull<K, D>> iterator() {
+            return new Iterator<Thing42orNull<K, D>>() {
+                private int s;
+                private int i;
+                private Object next = advance();
+
+                /**
+                 * Finds the next member of the snapshot.
+                 *
+                 * @return the member; null at the end
+                 */
+                private Object advance() {
+                    while (s < segments.length) {
+                        Segment segment = segments[s];
+                        while (i < used[s]) {
+                            Object o = segment.slots.get(i++);
+                            while (o == null) {
+                                // an append reserved this slot and is writing it
+                                Thread.yield();
+                                o = segment.slots.get(i - 1);
+                            }
+                            if (o instanceof Moved) {
+                                return ((Moved) o).member;
+                            }
+                            if (!(o instanceof Tombstone)) {
+                                return o;
+                            }
+                            Tombstone tombstone = (Tombstone) o;
+                            long removed = tombstone.stamp;
+                            while (removed == PENDING) {
+                                Thread.yield();
+                                removed = tombstone.stamp;
+                            }
+                            if (removed > stamp) {
+                                return tombstone.member;
+                            }
+                        }
+                        s++;
+                        i = 0;
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @SuppressWarnings("unchecked")
+                public Thing42orNull<K, D> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Object o = next;
+                    next = advance();
+                    return (Thing42orNull<K, D>) o;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,303 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class SegmentedPoolTest.
+ *
+ * Tests the pool of a Thing42 created with PoolStorage.SEGMENTED:
+ * ordering, removal, snapshots and concurrent appends.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class SegmentedPoolTest
+{
+    /** Number of threads used by the concurrent tests. */
+    private static final int THREADS = 8;
+
+    //The Thing42 object with a segmented pool.
+    Thing42<Integer, String> testThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new Thing42<Integer, String>(1, 1, "test", Thing42.PeerStorage.LISTS,
+            Thing42.Equality.DEEP, Thing42.PoolStorage.SEGMENTED);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        testThing = null;
+    }
+
+    /**
+     * Creates a distinct member.
+     *
+     * @param i the key and level of the member
+     * @return the member
+     */
+    private static Thing42<Integer, String> member(int i)
+    {
+        return new Thing42<Integer, String>(i, i, "member");
+    }
+
+    /**
+     * Appends members across several segments and removes the first
+     * instance of a duplicate.
+     */
+    @Test
+    public void testAppendAndRemove()
+    {
+        assertTrue(testThing.getPoolAsList().size() == 0);
+        for (int i = 0; i < 100; i++) {
+            testThing.appendToPool(member(i));
+        }
+        testThing.appendToPool(member(5));
+        List<Thing42orNull<Integer, String>> pool = testThing.getPoolAsList();
+        assertTrue(pool.size() == 101);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(member(i), pool.get(i));
+        }
+
+        assertTrue(testThing.removeFromPool(member(5)));
+        assertFalse(testThing.removeFromPool(member(200)));
+        pool = testThing.getPoolAsList();
+        assertTrue(pool.size() == 100);
+        assertEquals(member(6), pool.get(5));
+        assertEquals(member(5), pool.get(99));
+        assertTrue(testThing.removeFromPool(member(5)));
+        assertFalse(testThing.removeFromPool(member(5)));
+    }
+
+    /**
+     * Verifies that a snapshot does not change when the pool does.
+     */
+    @Test
+    public void testSnapshotIsStable()
+    {
+        for (int i = 0; i < 10; i++) {
+            testThing.appendToPool(member(i));
+        }
+        List<Thing42orNull<Integer, String>> before = testThing.getPoolAsList();
+        testThing.removeFromPool(member(0));
+        testThing.removeFromPool(member(9));
+        for (int i = 10; i < 50; i++) {
+            testThing.appendToPool(member(i));
+        }
+        assertTrue(before.size() == 10);
+        assertEquals(member(0), before.get(0));
+        assertEquals(member(9), before.get(9));
+        assertTrue(testThing.getPoolAsList().size() == 48);
+        assertEquals(member(1), testThing.getPoolAsList().get(0));
+    }
+
+    /**
+     * Drains the pool from the front, as a work queue does, and checks
+     * that older snapshots are unaffected by dropped segments.
+     */
+    @Test
+    public void testDrain()
+    {
+        for (int i = 0; i < 1000; i++) {
+            testThing.appendToPool(member(i));
+        }
+        List<Thing42orNull<Integer, String>> full = testThing.getPoolAsList();
+        for (int i = 0; i < 990; i++) {
+            assertTrue(testThing.removeFromPool(member(i)));
+        }
+        List<Thing42orNull<Integer, String>> rest = testThing.getPoolAsList();
+        assertTrue(rest.size() == 10);
+        assertEquals(member(990), rest.get(0));
+        assertTrue(full.size() == 1000);
+        assertEquals(member(0), full.get(0));
+        testThing.appendToPool(member(0));
+        assertEquals(member(0), testThing.getPoolAsList().get(10));
+    }
+
+    /**
+     * Appends a batch that spans several segments and removes part of
+     * it in a batch.
+     */
+    @Test
+    public void testBatches()
+    {
+        testThing.appendToPool(member(-1));
+        List<Thing42orNull<Integer, String>> batch = new ArrayList<Thing42orNull<Integer, String>>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(member(i));
+        }
+        testThing.appendAllToPool(batch);
+        testThing.appendAllToPool(new ArrayList<Thing42orNull<Integer, String>>());
+        List<Thing42orNull<Integer, String>> pool = testThing.getPoolAsList();
+        assertTrue(pool.size() == 101);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(member(i), pool.get(i + 1));
+        }
+        assertTrue(testThing.removeAllFromPool(batch.subList(0, 50)));
+        assertFalse(testThing.removeAllFromPool(batch.subList(0, 50)));
+        assertTrue(testThing.getPoolAsList().size() == 51);
+        assertEquals(member(50), testThing.getPoolAsList().get(1));
+    }
+
+    /**
+     * Uses the pool as a queue that never holds more than two members
+     * for many more appends than fit in a segment, so that it compacts
+     * often, and checks that a snapshot taken first is unaffected.
+     */
+    @Test
+    public void testQueueChurn()
+    {
+        testThing.appendToPool(member(-1));
+        List<Thing42orNull<Integer, String>> first = testThing.getPoolAsList();
+        for (int i = 0; i < 100000; i++) {
+            testThing.appendToPool(member(i));
+            assertEquals(member(i - 1), testThing.pollPool());
+            assertTrue(testThing.getPoolAsList().size() == 1);
+        }
+        assertEquals(member(99999), testThing.getPoolAsList().get(0));
+        assertTrue(first.size() == 1);
+        assertEquals(member(-1), first.get(0));
+    }
+
+    /**
+     * Appends and removes from several threads while another thread
+     * takes snapshots, so that compactions race with both, and checks
+     * that snapshots stay in order and that the pool ends empty.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrentRemovals() throws InterruptedException
+    {
+        final int perThread = 1000;
+        final List<Thing42<Integer, String>> members = new ArrayList<Thing42<Integer, String>>();
+        for (int i = 0; i < THREADS * perThread; i++) {
+            members.add(member(i));
+        }
+        final int[] removed = new int[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * perThread;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    int n = 0;
+                    for (int i = 0; i < perThread; i++) {
+                        testThing.appendToPool(members.get(first + i));
+                        if (i % 2 == 1 && testThing.removeFromPool(members.get(first + i - 1))) {
+                            n++;
+                        }
+                    }
+                    for (int i = 1; i < perThread; i += 2) {
+                        if (testThing.removeFromPool(members.get(first + i))) {
+                            n++;
+                        }
+                    }
+                    synchronized (removed) {
+                        removed[0] += n;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+            assertInOrder(testThing.getPoolAsList(), perThread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(removed[0] == members.size());
+        assertTrue(testThing.getPoolAsList().isEmpty());
+        testThing.appendToPool(member(0));
+        assertTrue(testThing.getPoolAsList().size() == 1);
+    }
+
+    /**
+     * Attempts to modify a snapshot.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly()
+    {
+        testThing.getPoolAsList().add(member(1));
+    }
+
+    /**
+     * Appends from several threads while another thread takes
+     * snapshots, and checks that no member is lost and that every
+     * snapshot keeps each thread's members in order.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrentAppends() throws InterruptedException
+    {
+        final int perThread = 5000;
+        final List<Thing42<Integer, String>> members = new ArrayList<Thing42<Integer, String>>();
+        for (int i = 0; i < THREADS * perThread; i++) {
+            members.add(member(i));
+        }
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * perThread;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        testThing.appendToPool(members.get(first + i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread thread : threads) {
+                running |= thread.isAlive();
+            }
+            assertInOrder(testThing.getPoolAsList(), perThread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(testThing.getPoolAsList().size() == members.size());
+        assertInOrder(testThing.getPoolAsList(), perThread);
+    }
+
+    /**
+     * Checks that the members of each thread appear in the order
+     * that thread appended them.
+     *
+     * @param pool a snapshot of the pool
+     * @param perThread the number of members appended by each thread
+     */
+    private static void assertInOrder(List<Thing42orNull<Integer, String>> pool, int perThread)
+    {
+        int[] last = new int[THREADS];
+        java.util.Arrays.fill(last, -1);
+        for (Thing42orNull<Integer, String> member : pool) {
+            int key = member.getKey();
+            int thread = key / perThread;
+            assertTrue(key > last[thread]);
+            last[thread] = key;
+        }
+    }
+}
@@ -0,0 +1,582 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread-safe implementation of the Thing42orNull interface for nodes
+ * that are read far more often than they are changed.
+ * <br />
+ * The peers and pool are kept in a Thing42 guarded by a StampedLock.
+ * {@link #getData()} and {@link #getOnePeer(Object)} read optimistically:
+ * they take a stamp, read without locking and then check that no write
+ * started in between, so a read writes nothing to shared memory and
+ * readers on different cores do not slow each other down. Only a read
+ * that overlaps a write retries under the read lock. For getOnePeer the
+ * first peer of each key is mirrored in an open-addressed table that
+ * writers keep up to date under the write lock, since the peer storage
+ * of Thing42 cannot be read safely while it changes.
+ * <br /><br />
+ * All other methods take the lock. Mutators are linearizable. The peer
+ * collections and the pool are returned as read-only snapshots, copied
+ * under the read lock, that do not change afterwards.
+ * <br /><br />
+ * Since the peers and pool can change at any time, equals and hashCode
+ * are those of Object: a StampedThing42 is only equal to itself.
+ * Duplicate peers and pool members are accepted, and null keys are
+ * allowed, as in Thing42.
+ *
+ * @param <K> The generic attribute Key for this StampedThing42
+ * @param <D> The generic, mutable attribute Data for this StampedThing42
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class StampedThing42<K, D> implements Thing42orNull<K, D> {
+    /** Stands in for the null key in the table of first peers. */
+    private static final Object NULL_KEY = new Object();
+    /** Smallest number of slots in the table of first peers, a power of 2. */
+    private static final int MIN_SLOTS = 8;
+
+    /** Key variable holds the key of this StampedThing42. Immutable. */
+    private final K key;
+    /** Level variable holds the level of this StampedThing42. Immutable. */
+    private final long level;
+    /** Data variable holds the data of this StampedThing42. */
+    private D data;
+
+    /** Guards every field below and the data. */
+    private final StampedLock lock = new StampedLock();
+    /** Holds the peers and the pool; its own data is unused. */
+    private final Thing42<K, D> node;
+    /**
+     * First peer of each key, in slot pairs: the key (or NULL_KEY) at
+     * 2i and its peer at 2i + 1, probed linearly. Written only under
+     * the write lock; replaced by a larger array when half full.
+     */
+    private Object[] firstPeers = new Object[2 * MIN_SLOTS];
+    /** Number of keys in firstPeers. */
+    private int keyCount;
+
+    /**
+     * Constructor for objects of class StampedThing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     */
+    public StampedThing42(final K key, final long level, final D data) {
+        this(key, level, data, Thing42.PeerStorage.LISTS);
+    }
+
+    /**
+     * Constructor for objects of class StampedThing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     * @param storage how the peers are stored
+     * @throws NullPointerException if storage is null
+     */
+    public StampedThing42(final K key, final long level, final D data,
+                          final Thing42.PeerStorage storage)
+    throws NullPointerException {
+        this.node = new Thing42<K, D>(key, level, null, storage);
+        this.key = key;
+        this.level = level;
+        this.data = data;
+    }
+
+    /**
+     * Maps a key to the key used in the table of first peers.
+     *
+     * @param k a key, possibly null
+     * @return the key, or NULL_KEY for null
+     */
+    private static Object mask(final Object k) {
+        return (k == null) ? NULL_KEY : k;
+    }
+
+    /**
+     * Add a peer to this object. <br />Accepts duplicates.
+     *
+     * @param newPeer the peer to add
+     * @throws NullPointerException if the specified peer is null
+     */
+    public void addPeer(final Thing42orNull<K, D> newPeer)
+    throws NullPointerException {
+        if (newPeer == null) {
+            throw new NullPointerException();
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            node.addPeer(newPeer);
+            refresh(newPeer.getKey());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Add several peers to this object at once. <br />Accepts duplicates.
+     *
+     * @param newPeers the peers to add
+     * @throws NullPointerException if the collection or any peer is
+     * null, in which case nothing is added
+     */
+    @Override
+    public void addPeers(final Collection<? extends Thing42orNull<K, D>> newPeers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(newPeers);
+        long stamp = lock.writeLock();
+        try {
+            node.addPeers(newPeers);
+            for (Thing42orNull<K, D> peer : newPeers) {
+                refresh(peer.getKey());
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Append a member to the pool of this object.
+     * <br />Duplicate objects are accepted.
+     *
+     * @param newMember the object to be appended to the pool
+     * @throws NullPointerException if the specified item is null
+     */
+    public void appendToPool(final Thing42orNull<K, D> newMember)
+    throws NullPointerException {
+        if (newMember == null) {
+            throw new NullPointerException();
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            node.appendToPool(newMember);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Append several members to the pool of this object at once.
+     *
+     * @param newMembers the objects to be appended to the pool
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is appended
+     */
+    @Override
+    public void appendAllToPool(final Collection<? extends Thing42orNull<K, D>> newMembers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(newMembers);
+        long stamp = lock.writeLock();
+        try {
+            node.appendAllToPool(newMembers);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Access the data of this StampedThing42.
+     * Linearizable; takes no lock unless a write is in progress.
+     *
+     * @return the data of this object
+     */
+    public D getData() {
+        long stamp = lock.tryOptimisticRead();
+        D d = data;
+        if (lock.validate(stamp)) {
+            return d;
+        }
+        stamp = lock.readLock();
+        try {
+            return data;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Access the key of this StampedThing42.
+     *
+     * @return the key of this object
+     */
+    public K getKey() {
+        return key;
+    }
+
+    /**
+     * Access the level of this StampedThing42.
+     *
+     * @return the level of this object
+     */
+    public long getLevel() {
+        return level;
+    }
+
+    /**
+     * Access a peer matching the specified key.
+     * Linearizable; takes no lock unless a write is in progress.
+     *
+     * @param key the search key
+     * @return any peer known by this object that
+     * matches the given key; null if no match
+     */
+    @SuppressWarnings("unchecked")
+    public Thing42orNull<K, D> getOnePeer(final K key) {
+        Object k = mask(key);
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            Object peer = find(firstPeers, k);
+            if (lock.validate(stamp)) {
+                return (Thing42orNull<K, D>) peer;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return (Thing42orNull<K, D>) find(firstPeers, k);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Access all peers.
+     * <br />Returns a read-only snapshot.
+     *
+     * @return all peers known by this object;
+     * if no peers then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<K, D>> getPeersAsCollection() {
+        long stamp = lock.readLock();
+        try {
+            return snapshot(node.getPeersAsCollection());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Access all peers matching the specified key.
+     * <br />Returns a read-only snapshot.
+     *
+     * @param key the search key
+     * @return all peers known by this object that match the given key;
+     * if no peer matches then returns a collection with size() == 0.
+     */
+    public Collection<Thing42orNull<K, D>> getPeersAsCollection(final K key) {
+        long stamp = lock.readLock();
+        try {
+            return snapshot(node.getPeersAsCollection(key));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Access all members of the pool.
+     * <br />Returns a read-only snapshot, in pool order.
+     *
+     * @return all members of the pool known by this object;
+     * if no members then returns a List with size() == 0.
+     */
+    public List<Thing42orNull<K, D>> getPoolAsList() {
+        long stamp = lock.readLock();
+        try {
+            return snapshot(node.getPoolAsList());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Remove a single instance of the specified object from this object's pool.
+     *
+     * @param member the member to be removed from the pool
+     * @return true if a pool member was removed as a result of this call
+     * @throws NullPointerException if the specified parameter is null
+     */
+    public boolean removeFromPool(final Thing42orNull<K, D> member)
+    throws NullPointerException {
+        if (member == null) {
+            throw new NullPointerException();
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            return node.removeFromPool(member);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove one instance of each of several objects from the pool at once.
+     *
+     * @param oldMembers the members to be removed from the pool
+     * @return true if any pool member was removed as a result of this call
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is removed
+     */
+    @Override
+    public boolean removeAllFromPool(final Collection<? extends Thing42orNull<K, D>> oldMembers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(oldMembers);
+        long stamp = lock.writeLock();
+        try {
+            return node.removeAllFromPool(oldMembers);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a single instance of the specified peer from this object.
+     *
+     * @param peer the peer to be removed
+     * @return true if a peer was removed as a result of this call
+     * @throws NullPointerException if the specified peer is null
+     */
+    public boolean removePeer(final Thing42orNull<K, D> peer)
+    throws NullPointerException {
+        if (peer == null) {
+            throw new NullPointerException();
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            if (!node.removePeer(peer)) {
+                return false;
+            }
+            refresh(peer.getKey());
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove one instance of each of several peers at once.
+     *
+     * @param oldPeers the peers to be removed
+     * @return true if any peer was removed as a result of this call
+     * @throws NullPointerException if the collection or any peer is
+     * null, in which case nothing is removed
+     */
+    @Override
+    public boolean removePeers(final Collection<? extends Thing42orNull<K, D>> oldPeers)
+    throws NullPointerException {
+        Thing42.requireNoNulls(oldPeers);
+        long stamp = lock.writeLock();
+        try {
+            if (!node.removePeers(oldPeers)) {
+                return false;
+            }
+            for (Thing42orNull<K, D> peer : oldPeers) {
+                refresh(peer.getKey());
+            }
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Modify the data of this StampedThing42.
+     * Linearizable.
+     *
+     * @param newData the updated data for this object
+     */
+    public void setData(final D newData) {
+        long stamp = lock.writeLock();
+        try {
+            this.data = newData;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Determines whether the specified Object is this StampedThing42.
+     *
+     * @param obj an Object to be compared with this StampedThing42.
+     * @return true if obj is this object; false otherwise.
+     * @see #hashCode()
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return this == obj;
+    }
+
+    /**
+     * Returns the identity hashcode of this StampedThing42.
+     *
+     * @return the hashcode for this StampedThing42
+     */
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * Copies peers or pool members into a read-only list.
+     *
+     * @param source the peers or members
+     * @return the copy
+     */
+    private static <K, D> List<Thing42orNull<K, D>> snapshot(
+        final Collection<Thing42orNull<K, D>> source) {
+        if (source.isEmpty()) {
+            return Collections.<Thing42orNull<K, D>>emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<Thing42orNull<K, D>>(source));
+    }
+
+    /**
+     * Sets the entry of a key in the table of first peers to the peer
+     * the node now returns for it. Called under the write lock after
+     * every change to the peers with that key.
+     *
+     * @param k the key, possibly null
+     */
+    private void refresh(final K k) {
+        Thing42orNull<K, D> first = node.getOnePeer(k);
+        if (first == null) {
+            removeFirst(mask(k));
+        } else {
+            putFirst(mask(k), first);
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash so that keys whose hashes differ only
+     * in their high bits get different slots.
+     *
+     * @param h the hash
+     * @return the spread hash
+     */
+    private static int spread(final int h) {
+        int x = h * 0x9E3779B9;
+        return x ^ (x >>> 16);
+    }
+
+    /**
+     * Looks a key up in a table of first peers. Safe to call while the
+     * table changes: it stops after visiting every slot once, and its
+     * result is only used if the read is validated.
+     *
+     * @param table the table
+     * @param k the key, masked
+     * @return the first peer; null if the key has none
+     */
+    private static Object find(final Object[] table, final Object k) {
+        int slots = table.length >> 1;
+        int i = spread(k.hashCode()) & (slots - 1);
+        for (int probes = 0; probes < slots; probes++) {
+            Object stored = table[2 * i];
+            if (stored == null) {
+                return null;
+            }
+            if (stored == k || stored.equals(k)) {
+                return table[2 * i + 1];
+            }
+            i = (i + 1) & (slots - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Sets the first peer of a key, growing the table when it would be
+     * more than half full.
+     *
+     * @param k the key, masked
+     * @param peer the first peer
+     */
+    private void putFirst(final Object k, final Object peer) {
+        Object[] table = firstPeers;
+        int slots = table.length >> 1;
+        int i = spread(k.hashCode()) & (slots - 1);
+        while (table[2 * i] != null) {
+            if (table[2 * i] == k || table[2 * i].equals(k)) {
+                table[2 * i + 1] = peer;
+                return;
+            }
+            i = (i + 1) & (slots - 1);
+        }
+        if (2 * (keyCount + 1) > slots) {
+            grow();
+            putFirst(k, peer);
+            return;
+        }
+        table[2 * i] = k;
+        table[2 * i + 1] = peer;
+        keyCount++;
+    }
+
+    /**
+     * Removes a key from the table of first peers, shifting back the
+     * keys probed past it so that no lookup stops early.
+     *
+     * @param k the key, masked
+     */
+    private void removeFirst(final Object k) {
+        Object[] table = firstPeers;
+        int mask = (table.length >> 1) - 1;
+        int hole = spread(k.hashCode()) & mask;
+        while (true) {
+            if (table[2 * hole] == null) {
+                return;
+            }
+            if (table[2 * hole] == k || table[2 * hole].equals(k)) {
+                break;
+            }
+            hole = (hole + 1) & mask;
+        }
+        int j = hole;
+        while (true) {
+            j = (j + 1) & mask;
+            Object stored = table[2 * j];
+            if (stored == null) {
+                break;
+            }
+            int home = spread(stored.hashCode()) & mask;
+            // move the key if the hole lies between its home slot and j
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                table[2 * hole] = stored;
+                table[2 * hole + 1] = table[2 * j + 1];
+                hole = j;
+            }
+        }
+        table[2 * hole] = null;
+        table[2 * hole + 1] = null;
+        keyCount--;
+    }
+
+    /**
+     * Doubles the table of first peers. The old table is left as it
+     * was, so optimistic readers still holding it see a consistent,
+     * if stale, table until they validate.
+     */
+    private void grow() {
+        Object[] old = firstPeers;
+        int slots = old.length;
+        Object[] table = new Object[2 * slots];
+        for (int s = 0; s < old.length; s += 2) {
+            Object k = old[s];
+            if (k != null) {
+                int i = spread(k.hashCode()) & (slots - 1);
+                while (table[2 * i] != null) {
+                    i = (i + 1) & (slots - 1);
+                }
+                table[2 * i] = k;
+                table[2 * i + 1] = old[s + 1];
+            }
+        }
+        firstPeers = table;
+    }
+}
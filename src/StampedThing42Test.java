@@ -0,0 +1,234 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class StampedThing42Test.
+ *
+ * Tests the single-threaded behaviour of StampedThing42 against the
+ * Thing42orNull contract, and that optimistic reads running alongside
+ * writers only see values that were written.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class StampedThing42Test
+{
+    /** Number of reading threads in the concurrent test. */
+    private static final int READERS = 4;
+    /** Number of operations per thread in the concurrent test. */
+    private static final int OPS = 20000;
+
+    //The StampedThing42 object upon which tests should call methods.
+    StampedThing42<Integer, String> testThing;
+    //A valid Thing42 object that can be passed as a parameter to methods.
+    Thing42<Integer, String> validThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new StampedThing42<Integer, String>(1, 1, "test");
+        validThing = new Thing42<Integer, String>(2, 2, "test");
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        testThing = null;
+        validThing = null;
+    }
+
+    /**
+     * Adds, finds and removes peers, including duplicates
+     * and a peer with a null key.
+     */
+    @Test
+    public void testPeers()
+    {
+        Thing42<Integer, String> nullKey = new Thing42<Integer, String>(null, 3, "test");
+        Thing42<Integer, String> twin = new Thing42<Integer, String>(2, 4, "twin");
+        assertNull(testThing.getOnePeer(2));
+        testThing.addPeer(validThing);
+        testThing.addPeer(twin);
+        testThing.addPeer(nullKey);
+        assertTrue(testThing.getPeersAsCollection().size() == 3);
+        assertTrue(testThing.getPeersAsCollection(2).size() == 2);
+        assertTrue(testThing.getOnePeer(2) == validThing);
+        assertTrue(testThing.getOnePeer(null) == nullKey);
+
+        assertTrue(testThing.removePeer(validThing));
+        assertTrue(testThing.getOnePeer(2) == twin);
+        assertTrue(testThing.removePeer(nullKey));
+        assertFalse(testThing.removePeer(nullKey));
+        assertNull(testThing.getOnePeer(null));
+        assertTrue(testThing.removePeers(Collections.singletonList(twin)));
+        assertNull(testThing.getOnePeer(2));
+        assertTrue(testThing.getPeersAsCollection().size() == 0);
+    }
+
+    /**
+     * Adds and removes peers with many keys, so that the table of first
+     * peers grows and shifts keys on removal, and compares every lookup
+     * with a Thing42.
+     */
+    @Test
+    public void testManyKeys()
+    {
+        Thing42<Integer, String> reference = new Thing42<Integer, String>(1, 1, "test");
+        List<Thing42orNull<Integer, String>> peers = new ArrayList<Thing42orNull<Integer, String>>();
+        for (int i = 0; i < 1000; i++) {
+            peers.add(new Thing42<Integer, String>(i * 64, i, "test"));
+        }
+        testThing.addPeers(peers);
+        reference.addPeers(peers);
+        for (int i = 0; i < 1000; i += 3) {
+            assertTrue(testThing.removePeer(peers.get(i)));
+            reference.removePeer(peers.get(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(testThing.getOnePeer(i * 64) == reference.getOnePeer(i * 64));
+        }
+        assertNull(testThing.getOnePeer(-1));
+    }
+
+    /**
+     * Appends and removes pool members and checks their order.
+     */
+    @Test
+    public void testPool()
+    {
+        Thing42<Integer, String> other = new Thing42<Integer, String>(3, 3, "test");
+        testThing.appendToPool(validThing);
+        testThing.appendToPool(other);
+        testThing.appendToPool(validThing);
+        List<Thing42orNull<Integer, String>> before = testThing.getPoolAsList();
+        assertTrue(before.size() == 3);
+        assertTrue(before.get(1) == other);
+        assertTrue(testThing.removeFromPool(validThing));
+        assertTrue(testThing.getPoolAsList().get(0) == other);
+        assertTrue(before.size() == 3);
+        assertFalse(testThing.removeFromPool(testThing));
+    }
+
+    /**
+     * Attempts to pass null arguments and to modify the snapshots.
+     */
+    @Test
+    public void testArguments()
+    {
+        try {
+            testThing.addPeer(null);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+        try {
+            testThing.appendToPool(null);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+        try {
+            testThing.getPeersAsCollection().add(validThing);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Verifies that StampedThing42 objects are only equal to themselves.
+     */
+    @Test
+    public void testEquals()
+    {
+        StampedThing42<Integer, String> other = new StampedThing42<Integer, String>(1, 1, "test");
+        assertTrue(testThing.equals(testThing));
+        assertFalse(testThing.equals(other));
+        assertTrue(testThing.hashCode() == testThing.hashCode());
+    }
+
+    /**
+     * Reads data and peers from several threads while one thread keeps
+     * changing them, and checks that every read returns a value that
+     * was written.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testReadsDuringWrites() throws InterruptedException
+    {
+        final Thing42<Integer, String>[] peers = newArray(16);
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new Thing42<Integer, String>(i, i, "test");
+        }
+        final int[] bad = new int[1];
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < OPS; i++) {
+                    Thing42<Integer, String> peer = peers[i % peers.length];
+                    testThing.addPeer(peer);
+                    testThing.setData("data" + (i % 10));
+                    testThing.removePeer(peer);
+                }
+            }
+        });
+        Thread[] readers = new Thread[READERS];
+        for (int t = 0; t < READERS; t++) {
+            readers[t] = new Thread(new Runnable() {
+                public void run() {
+                    int n = 0;
+                    for (int i = 0; i < OPS; i++) {
+                        int k = i % peers.length;
+                        Thing42orNull<Integer, String> peer = testThing.getOnePeer(k);
+                        String data = testThing.getData();
+                        if ((peer != null && peer != peers[k])
+                            || !(data.equals("test") || data.startsWith("data"))) {
+                            n++;
+                        }
+                    }
+                    synchronized (bad) {
+                        bad[0] += n;
+                    }
+                }
+            });
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(bad[0] == 0);
+        assertTrue(testThing.getPeersAsCollection().size() == 0);
+        assertEquals("data" + ((OPS - 1) % 10), testThing.getData());
+    }
+
+    /**
+     * Creates an array of Thing42 objects.
+     *
+     * @param length the length
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<Integer, String>[] newArray(final int length)
+    {
+        return new Thing42[length];
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Set of objects compared by identity that many threads may add to at
+ * once, for the visited set of a parallel traversal.
+ * <br />
+ * The objects are spread by identity hash over 64 IdentitySets, each
+ * guarded by its own lock, so threads rarely wait for each other and
+ * the set stays as compact as IdentitySet.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+final class StripedIdentitySet {
+    /** log2 of the number of stripes. */
+    private static final int STRIPE_BITS = 6;
+
+    /** The stripes. */
+    private final IdentitySet[] stripes = new IdentitySet[1 << STRIPE_BITS];
+
+    /**
+     * Constructor for objects of class StripedIdentitySet.
+     */
+    StripedIdentitySet() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new IdentitySet();
+        }
+    }
+
+    /**
+     * Adds an object.
+     *
+     * @param o the object, not null
+     * @return true if the object was not in the set
+     */
+    boolean add(final Object o) {
+        // the high bits pick the stripe; IdentitySet uses the low ones
+        IdentitySet stripe = stripes[(System.identityHashCode(o) * 0x9E3779B9) >>> (32 - STRIPE_BITS)];
+        synchronized (stripe) {
+            return stripe.add(o);
+        }
+    }
+}
@@ -1,7 +1,10 @@
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 
 /**
@@ -29,6 +32,20 @@ import java.util.Iterator;
  * a constructor with the following signature:<br/>
  * <span style="font-family: 'courier new', courier, monospace;">
  * public Thing42(K key, long level, D data)</span>
+ * <br/>
+ * Further constructors take a {@link PeerStorage} that selects how peers
+ * are stored and matched, an {@link Equality} that selects how
+ * equals and hashCode treat the peers and pool, a
+ * {@link PoolStorage} that selects how the pool is stored, and a
+ * {@link Thing42Registry} that indexes the new object by key and level.
+ * Changes can be streamed to listeners through a {@link Thing42Feed},
+ * calls counted and timed with {@link Thing42Metrics}, and the data
+ * paged in and out through a {@link Thing42DataCache}. Objects built
+ * with keys from a {@link Thing42KeyInterner} share one instance of
+ * each key, which their peers are matched against by identity first.
+ * Graphs can be shared by many threads through a {@link Thing42Async}.
+ * Lookups by key that usually miss can be short-circuited by a Bloom
+ * filter over the peer keys, turned on with {@link #setPeerFilter}.
  *
  * @param <K> The generic attribute Key for this Thing42
  * @param <D> The generic, mutable attribute Data for this Thing42
@@ -50,41 +67,241 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
     /** Level variable holds the level of this Thing42. Immutable. */
     private final long level;
     //Mutable
-    /** Key variable holds the key of this Thing42. */
+    /** Data variable holds the data of this Thing42. Null while dataCache is set. */
     private D data;
 
     /**
      * Peers
-     * We use a HashMap to store peers.
-     * The mapping for this map is the following:
-     * K key -> Arraylist of peers with this key
-     * Storing peers in this way has the following advantages:
-     * 1. O(1) peer lookup by key (note: finding a
-     *    specific peer in the list of peers
-     *    matching a given key is still O(n)).
-     * 2. Accepts duplicate peers.
+     * We group peers by key in a PeerStore, by default a small array
+     * that becomes a HashMap of K key -> Arraylist of peers with this
+     * key once there are more than a few peers (see PeerStorage).
+     * Both storages accept duplicate peers.
+     */
+    private final PeerStore<K, D> peers;
+    /** How equals and hashCode work for this Thing42. */
+    private final Equality equality;
+    /**
+     * Cached hashes for {@link Equality#STRUCTURAL}: the hash of the
+     * data, and the sums of the shallow hashes of the peers and of the
+     * pool members. Maintained by the mutators, unused otherwise.
      */
-    private HashMap<K, ArrayList<Thing42orNull<K, D>>> peers;
+    private int dataHash;
+    /** Sum of the shallow hashes of the peers, see dataHash. */
+    private int peersHash;
+    /** Sum of the shallow hashes of the pool members, see dataHash. */
+    private int poolHash;
+    /** Read-only view of all peers, created on first use. */
+    private PeersView peersView;
+    /** Peers of the keys asked for by level, sorted by level; null until first used. */
+    private LevelIndex<K, D> levelIndex;
+    /** Where changes are recorded; null for none. */
+    private Thing42Feed<K, D> feed;
+    /** Where the data is kept instead of in data; null for none. */
+    private Thing42DataCache<K, D> dataCache;
+    /** Filter over the keys of the peers; null for none. */
+    private PeerKeyFilter peerFilter;
     /**
      * Pool
-     * We use an ArrayList to represent the pool
-     * because it's simple and maintains order of insertion.
+     * We use a PoolStore to represent the pool, by default an
+     * ArrayList because it's simple and maintains order of insertion
+     * (see PoolStorage).
+     */
+    private final PoolStore<K, D> pool;
+
+    /**
+     * Ways of storing the peers of a Thing42.
+     */
+    public enum PeerStorage {
+        /**
+         * An ArrayList of peers per key. Peers are matched with equals,
+         * so removePeer and containsPeer scan the peers sharing the key
+         * of the argument. Up to 8 peers are kept in one small array
+         * instead, grouped by key; getPeersAsCollection(K) then returns
+         * a copy of the peers with the key.
+         */
+        LISTS,
+        /**
+         * An insertion-ordered multiset of peers per key, matched by
+         * identity. removePeer and containsPeer are O(1) expected, but
+         * only find the very same instance that was added, not an equal
+         * one. getPeersAsCollection(K) returns a read-only view.
+         * Peers, duplicates included, keep their insertion order, and
+         * removePeer removes the earliest instance, as with LISTS.
+         */
+        INDEXED
+    }
+
+    /**
+     * Ways of storing the pool of a Thing42.
+     */
+    public enum PoolStorage {
+        /**
+         * An ArrayList. getPoolAsList returns the ArrayList itself.
+         */
+        LIST,
+        /**
+         * A lock-free segmented array. appendToPool, removeFromPool and
+         * getPoolAsList may be called by many threads at once, also
+         * while other threads use the rest of this object read-only.
+         * Appends are lock-free; removals leave tombstones, which are
+         * compacted away once they outnumber the members. getPoolAsList
+         * returns a read-only, consistent snapshot in O(number of
+         * segments). With
+         * {@link Equality#STRUCTURAL} the cached hash is not updated
+         * atomically, so the pool must then not be changed concurrently.
+         */
+        SEGMENTED,
+        /**
+         * A ring buffer with an index of the members, for pools used as
+         * queues. appendToPool and pollPool are O(1) amortized, and
+         * poolContains and removeFromPool are O(1) expected; removal
+         * leaves the other members where they are. Members are matched
+         * by identity, so poolContains and removeFromPool only find the
+         * very instance that was appended, not an equal one.
+         * getPoolAsList returns a read-only view.
+         */
+        DEQUE
+    }
+
+    /**
+     * Ways of comparing and hashing Thing42 objects.
+     * Objects with different equality modes are never equal.
      */
-    private ArrayList<Thing42orNull<K, D>> pool;
+    public enum Equality {
+        /**
+         * Key, level and data are compared with equals, and peers and
+         * pool are compared recursively with equals. hashCode recurses
+         * through the peers and pool. Both run out of stack on graphs
+         * with cycles.
+         */
+        DEEP,
+        /**
+         * An object is only equal to itself. hashCode is the identity
+         * hash code.
+         */
+        IDENTITY,
+        /**
+         * Like DEEP, but equals walks the two graphs iteratively, keeping
+         * a set of the pairs already compared, so it terminates on
+         * cycles; a pair that is reached again is taken to be equal.
+         * Peers are compared key by key, in iteration order.
+         * hashCode only combines the key, level and data of this object
+         * with the keys and levels of its peers and pool members, and
+         * is maintained by the mutators so that it is O(1).
+         * Data is hashed when set, so it must not change its hash
+         * afterwards, and getPeersAsCollection(K) and getPoolAsList
+         * return read-only views.
+         */
+        STRUCTURAL
+    }
 
     /**
      * Constructor for objects of class Thing42.
+     * Peers are stored as {@link PeerStorage#LISTS}.
      *
      * @param key the key of this object
      * @param level the level of this object
      * @param data the data of this object
      */
     public Thing42(final K key, final long level, final D data) {
+        this(key, level, data, PeerStorage.LISTS);
+    }
+
+    /**
+     * Constructor for objects of class Thing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     * @param peerStorage how peers are stored
+     * @throws NullPointerException if peerStorage is null
+     */
+    public Thing42(final K key, final long level, final D data,
+                   final PeerStorage peerStorage) throws NullPointerException {
+        this(key, level, data, peerStorage, Equality.DEEP);
+    }
+
+    /**
+     * Constructor for objects of class Thing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     * @param peerStorage how peers are stored
+     * @param equality how this object is compared and hashed
+     * @throws NullPointerException if peerStorage or equality is null
+     */
+    public Thing42(final K key, final long level, final D data,
+                   final PeerStorage peerStorage, final Equality equality)
+    throws NullPointerException {
+        this(key, level, data, peerStorage, equality, PoolStorage.LIST);
+    }
+
+    /**
+     * Constructor for objects of class Thing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     * @param peerStorage how peers are stored
+     * @param equality how this object is compared and hashed
+     * @param poolStorage how the pool is stored
+     * @throws NullPointerException if any of the storages or equality is null
+     */
+    public Thing42(final K key, final long level, final D data,
+                   final PeerStorage peerStorage, final Equality equality,
+                   final PoolStorage poolStorage)
+    throws NullPointerException {
+        this(key, level, data, peerStorage, equality, poolStorage, null);
+    }
+
+    /**
+     * Constructor for objects of class Thing42.
+     *
+     * @param key the key of this object
+     * @param level the level of this object
+     * @param data the data of this object
+     * @param peerStorage how peers are stored
+     * @param equality how this object is compared and hashed
+     * @param poolStorage how the pool is stored
+     * @param registry registry this object is added to once
+     * constructed; null for none
+     * @throws NullPointerException if any of the storages or equality is null
+     */
+    public Thing42(final K key, final long level, final D data,
+                   final PeerStorage peerStorage, final Equality equality,
+                   final PoolStorage poolStorage, final Thing42Registry<K, D> registry)
+    throws NullPointerException {
+        if (equality == null) {
+            throw new NullPointerException();
+        }
         this.key = key;
         this.level = level;
         this.data = data;
-        this.peers = new HashMap<K, ArrayList<Thing42orNull<K, D>>>(0);
-        this.pool = new ArrayList<Thing42orNull<K, D>>(0);
+        this.equality = equality;
+        this.dataHash = (data == null) ? 0 : data.hashCode();
+        switch (peerStorage) {
+        case INDEXED:
+            this.peers = new IndexedPeerStore<K, D>();
+            break;
+        default:
+            this.peers = new ListPeerStore<K, D>();
+            break;
+        }
+        switch (poolStorage) {
+        case SEGMENTED:
+            this.pool = new SegmentedPool<K, D>();
+            break;
+        case DEQUE:
+            this.pool = new DequePool<K, D>();
+            break;
+        default:
+            this.pool = new ListPoolStore<K, D>();
+            break;
+        }
+        if (registry != null) {
+            registry.register(this);
+        }
     }
     /**
      * Add a peer to this object. <br />Accepts duplicates.
@@ -98,11 +315,25 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
             throw new NullPointerException();
         }
 
-        K k = (K) newPeer.getKey();
-        if (!peers.containsKey(k)) {
-            peers.put(k, new ArrayList<Thing42orNull<K, D>>());
+        peers.add(newPeer);
+        if (levelIndex != null) {
+            levelIndex.add(newPeer);
+        }
+        if (peerFilter != null) {
+            peerFilter.add(newPeer.getKey());
+            refreshPeerFilter();
+        }
+        if (Thing42Metrics.isEnabled()) {
+            Thing42Metrics.count(Thing42Metrics.Op.ADD_PEER);
+            Thing42Metrics.record(Thing42Metrics.Distribution.PEER_BUCKET_SIZE,
+                                  peers.get(newPeer.getKey()).size());
+        }
+        if (equality == Equality.STRUCTURAL) {
+            peersHash += shallowHash(newPeer);
+        }
+        if (feed != null) {
+            feed.record(Thing42Feed.Kind.PEER_ADDED, this, newPeer, null);
         }
-        peers.get(k).add(newPeer);
     }
     /**
      * Append a member to the pool of this object.
@@ -116,7 +347,17 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
         if (newMember == null) {
             throw new NullPointerException();
         }
-        pool.add(newMember);
+        pool.append(newMember);
+        if (equality == Equality.STRUCTURAL) {
+            poolHash += shallowHash(newMember);
+        }
+        if (Thing42Metrics.isEnabled()) {
+            Thing42Metrics.count(Thing42Metrics.Op.APPEND_TO_POOL);
+            Thing42Metrics.record(Thing42Metrics.Distribution.POOL_LENGTH, pool.size());
+        }
+        if (feed != null) {
+            feed.record(Thing42Feed.Kind.POOL_APPENDED, this, newMember, null);
+        }
     }
     /**
      * Access the data of this Thing42.
@@ -124,7 +365,8 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      * @return the data of this object
      */
     public D getData() {
-        return data;
+        Thing42DataCache<K, D> cache = dataCache;
+        return (cache == null) ? data : cache.get(this);
     }
     /**
      * Access the key of this Thing42.
@@ -150,44 +392,124 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      * matches the given key; null if no match
      */
     public Thing42orNull<K, D> getOnePeer(final K key) {
-        if (!peers.containsKey(key) || peers.get(key).size() == 0) {
+        Thing42Metrics.count(Thing42Metrics.Op.GET_ONE_PEER);
+        if (peerFilter != null && !peerFilter.mightContain(key)) {
             return null;
         }
-
-        //We always just return the first one in the list.
-        return peers.get(key).get(0);
+        return peers.getOne(key);
     }
     /**
      * Access all peers.
+     * <br />The returned collection is a live, read-only view of the
+     * peers of this object: it reflects later calls to addPeer and
+     * removePeer, and its size() is O(1).
+     * <br />It is not a List, and unlike the ArrayList this method used
+     * to return it is only equal to the peers view of a Thing42: two
+     * views are equal if they hold equal peers under each key, in the
+     * same order within each key, whatever the order of the keys. It
+     * is never equal to a List or another Collection, even one copied
+     * from it; to compare with a list, copy the view into a list first.
      *
      * @return all peers known by this object;
      * if no peers then returns a collection with size() == 0.
      */
     public Collection<Thing42orNull<K, D>> getPeersAsCollection() {
-        Iterator<K> iterator = peers.keySet().iterator();
-        ArrayList<Thing42orNull<K, D>> allPeers
-          = new ArrayList<Thing42orNull<K, D>>(0);
-        while (iterator.hasNext()) {
-            K k = (K) iterator.next();
-            for (Thing42orNull<K, D> peer: peers.get(k)) {
-                allPeers.add(peer);
-            }
+        if (peersView == null) {
+            peersView = new PeersView();
         }
-        return allPeers;
+        return peersView;
     }
     /**
      * Access all peers matching the specified key.
+     * <br />The returned collection is read-only.
      *
      * @param key the search key
      * @return all peers known by this object that match the given key;
      * if no peer matches then returns a collection with size() == 0.
      */
     public Collection<Thing42orNull<K, D>> getPeersAsCollection(final K key) {
-        if (!peers.containsKey(key)) {
-            return new ArrayList<Thing42orNull<K, D>>(0);
+        Thing42Metrics.count(Thing42Metrics.Op.GET_PEERS_BY_KEY);
+        if (peerFilter != null && !peerFilter.mightContain(key)) {
+            return Collections.<Thing42orNull<K, D>>emptyList();
         }
         return peers.get(key);
     }
+    /**
+     * Access the peer matching the specified key with the greatest level.
+     * <br />The first call for a key sorts its peers by level, in
+     * O(n log n), and indexes the key until it has no peers left. This
+     * and the other level queries for the key then take O(log n), but
+     * every peer added to or removed from the key shifts the sorted
+     * arrays, in O(n) per mutation instead of O(1). Since the first call
+     * changes this object, it must not race with other calls.
+     *
+     * @param key the search key
+     * @return the peer with the key and the greatest level, the first
+     * added if several have it; null if no match
+     */
+    public Thing42orNull<K, D> getPeerWithMaxLevel(final K key) {
+        return levels(key).max(key);
+    }
+    /**
+     * Access the peer matching the specified key with the least level.
+     * See {@link #getPeerWithMaxLevel} for the cost.
+     *
+     * @param key the search key
+     * @return the peer with the key and the least level, the first
+     * added if several have it; null if no match
+     */
+    public Thing42orNull<K, D> getPeerWithMinLevel(final K key) {
+        return levels(key).min(key);
+    }
+    /**
+     * Access the peers matching the specified key whose level lies in
+     * a range, in O(log n) plus the number of peers returned.
+     * See {@link #getPeerWithMaxLevel} for the first call.
+     *
+     * @param key the search key
+     * @param minLevel the smallest level, inclusive
+     * @param maxLevel the greatest level, inclusive
+     * @return a new list of the matching peers by ascending level,
+     * equal levels in the order they were added;
+     * if no peer matches then returns a List with size() == 0
+     */
+    public List<Thing42orNull<K, D>> getPeersInLevelRange(final K key, final long minLevel,
+                                                          final long maxLevel) {
+        return levels(key).range(key, minLevel, maxLevel);
+    }
+    /**
+     * Access the peers matching the specified key with the greatest
+     * levels, in O(log n) per distinct level returned plus the number of
+     * peers. See {@link #getPeerWithMaxLevel} for the first call.
+     *
+     * @param key the search key
+     * @param count the greatest number of peers returned
+     * @return a new list of at most count matching peers by descending
+     * level, equal levels in the order they were added
+     * @throws IllegalArgumentException if count is negative
+     */
+    public List<Thing42orNull<K, D>> getTopPeersByLevel(final K key, final int count)
+    throws IllegalArgumentException {
+        if (count < 0) {
+            throw new IllegalArgumentException("negative count " + count);
+        }
+        return levels(key).top(key, count);
+    }
+    /**
+     * The level index, with the peers of a key sorted.
+     *
+     * @param key the key
+     * @return the level index
+     */
+    private LevelIndex<K, D> levels(final K key) {
+        if (levelIndex == null) {
+            levelIndex = new LevelIndex<K, D>();
+        }
+        if (!levelIndex.covers(key)) {
+            levelIndex.cover(key, peers.get(key));
+        }
+        return levelIndex;
+    }
     /**
      * Access all members of the pool.
      *
@@ -195,7 +517,45 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      * if no members then returns a List with size() == 0.
      */
     public List<Thing42orNull<K, D>> getPoolAsList() {
-        return pool;
+        if (equality == Equality.STRUCTURAL) {
+            return Collections.unmodifiableList(pool.asList());
+        }
+        return pool.asList();
+    }
+    /**
+     * Remove the first member of the pool, so that the pool can be
+     * used as a queue. O(1) amortized with {@link PoolStorage#DEQUE},
+     * O(n) otherwise.
+     *
+     * @return the member removed; null if the pool is empty
+     */
+    public Thing42orNull<K, D> pollPool() {
+        Thing42orNull<K, D> removed = pool.poll();
+        if (removed != null) {
+            if (equality == Equality.STRUCTURAL) {
+                poolHash -= shallowHash(removed);
+            }
+            if (feed != null) {
+                feed.record(Thing42Feed.Kind.POOL_REMOVED, this, removed, null);
+            }
+        }
+        return removed;
+    }
+    /**
+     * Tell whether an object is a member of the pool. O(1) expected
+     * with {@link PoolStorage#DEQUE}, which matches members by
+     * identity; a scan with equals otherwise.
+     *
+     * @param member the object to look for
+     * @return true if it is a member of the pool
+     * @throws NullPointerException if the specified parameter is null
+     */
+    public boolean poolContains(final Thing42orNull<K, D> member)
+    throws NullPointerException {
+        if (member == null) {
+            throw new NullPointerException();
+        }
+        return pool.contains(member);
     }
     /**
      * Remove a single instance of the specified object from this object's pool.
@@ -210,7 +570,22 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
             throw new NullPointerException();
         }
 
-        return pool.remove(member);
+        long start = Thing42Metrics.isEnabled() ? System.nanoTime() : 0;
+        Thing42orNull<K, D> removed = pool.remove(member);
+        if (removed != null) {
+            if (equality == Equality.STRUCTURAL) {
+                poolHash -= shallowHash(removed);
+            }
+            if (feed != null) {
+                feed.record(Thing42Feed.Kind.POOL_REMOVED, this, removed, null);
+            }
+        }
+        if (Thing42Metrics.isEnabled()) {
+            Thing42Metrics.count(Thing42Metrics.Op.REMOVE_FROM_POOL);
+            Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_FROM_POOL_NANOS,
+                                  System.nanoTime() - start);
+        }
+        return removed != null;
     }
     /**
      * Remove a single instance of the specified peer from this object.
@@ -225,12 +600,187 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
             throw new NullPointerException();
         }
 
-        K k = (K) peer.getKey();
-        if (!peers.containsKey(k)) {
-            return false;
+        long start = Thing42Metrics.isEnabled() ? System.nanoTime() : 0;
+        Thing42orNull<K, D> removed = peers.remove(peer);
+        if (removed != null) {
+            if (levelIndex != null) {
+                levelIndex.remove(removed);
+            }
+            if (peerFilter != null) {
+                peerFilter.removed(1);
+                refreshPeerFilter();
+            }
+            if (equality == Equality.STRUCTURAL) {
+                peersHash -= shallowHash(removed);
+            }
+            if (feed != null) {
+                feed.record(Thing42Feed.Kind.PEER_REMOVED, this, removed, null);
+            }
+        }
+        if (Thing42Metrics.isEnabled()) {
+            Thing42Metrics.count(Thing42Metrics.Op.REMOVE_PEER);
+            Thing42Metrics.record(Thing42Metrics.Distribution.REMOVE_PEER_NANOS,
+                                  System.nanoTime() - start);
+        }
+        return removed != null;
+    }
+    /**
+     * Add several peers to this object in a single pass over the
+     * storage, which is sized for the whole batch up front.
+     *
+     * @param newPeers the peers to add
+     * @throws NullPointerException if the collection or any peer is
+     * null, in which case nothing is added
+     */
+    @Override
+    public void addPeers(final Collection<? extends Thing42orNull<K, D>> newPeers)
+    throws NullPointerException {
+        requireNoNulls(newPeers);
+        peers.addAll(newPeers);
+        if (levelIndex != null) {
+            for (Thing42orNull<K, D> peer : newPeers) {
+                levelIndex.add(peer);
+            }
+        }
+        if (peerFilter != null) {
+            for (Thing42orNull<K, D> peer : newPeers) {
+                peerFilter.add(peer.getKey());
+            }
+            refreshPeerFilter();
+        }
+        if (Thing42Metrics.isEnabled()) {
+            Thing42Metrics.count(Thing42Metrics.Op.ADD_PEER, newPeers.size());
+            for (Thing42orNull<K, D> peer : newPeers) {
+                Thing42Metrics.record(Thing42Metrics.Distribution.PEER_BUCKET_SIZE,
+                                      peers.get(peer.getKey()).size());
+            }
+        }
+        if (equality == Equality.STRUCTURAL) {
+            for (Thing42orNull<K, D> peer : newPeers) {
+                peersHash += shallowHash(peer);
+            }
+        }
+        if (feed != null) {
+            for (Thing42orNull<K, D> peer : newPeers) {
+                feed.record(Thing42Feed.Kind.PEER_ADDED, this, peer, null);
+            }
+        }
+    }
+    /**
+     * Append several members to the pool of this object at once.
+     *
+     * @param newMembers the objects to be appended to the pool
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is appended
+     */
+    @Override
+    public void appendAllToPool(final Collection<? extends Thing42orNull<K, D>> newMembers)
+    throws NullPointerException {
+        requireNoNulls(newMembers);
+        pool.appendAll(newMembers);
+        if (Thing42Metrics.isEnabled()) {
+            Thing42Metrics.count(Thing42Metrics.Op.APPEND_TO_POOL, newMembers.size());
+            Thing42Metrics.record(Thing42Metrics.Distribution.POOL_LENGTH, pool.size());
+        }
+        if (equality == Equality.STRUCTURAL) {
+            for (Thing42orNull<K, D> member : newMembers) {
+                poolHash += shallowHash(member);
+            }
+        }
+        if (feed != null) {
+            for (Thing42orNull<K, D> member : newMembers) {
+                feed.record(Thing42Feed.Kind.POOL_APPENDED, this, member, null);
+            }
+        }
+    }
+    /**
+     * Remove a single instance of each of several peers from this
+     * object. Peers with the same key are removed together, so each
+     * key's peers are compacted once rather than once per removal.
+     *
+     * @param oldPeers the peers to be removed
+     * @return true if any peer was removed as a result of this call
+     * @throws NullPointerException if the collection or any peer is
+     * null, in which case nothing is removed
+     */
+    @Override
+    public boolean removePeers(final Collection<? extends Thing42orNull<K, D>> oldPeers)
+    throws NullPointerException {
+        requireNoNulls(oldPeers);
+        Thing42Metrics.count(Thing42Metrics.Op.REMOVE_PEER, oldPeers.size());
+        if (equality != Equality.STRUCTURAL && levelIndex == null && !recording()) {
+            int count = peers.removeAll(oldPeers, null);
+            if (peerFilter != null) {
+                peerFilter.removed(count);
+                refreshPeerFilter();
+            }
+            return count > 0;
+        }
+        ArrayList<Thing42orNull<K, D>> removed = new ArrayList<Thing42orNull<K, D>>();
+        peers.removeAll(oldPeers, removed);
+        if (peerFilter != null) {
+            peerFilter.removed(removed.size());
+            refreshPeerFilter();
+        }
+        for (Thing42orNull<K, D> peer : removed) {
+            if (levelIndex != null) {
+                levelIndex.remove(peer);
+            }
+            if (equality == Equality.STRUCTURAL) {
+                peersHash -= shallowHash(peer);
+            }
+            if (feed != null) {
+                feed.record(Thing42Feed.Kind.PEER_REMOVED, this, peer, null);
+            }
+        }
+        return !removed.isEmpty();
+    }
+    /**
+     * Remove a single instance of each of several objects from this
+     * object's pool, compacting the pool once.
+     *
+     * @param members the members to be removed from the pool
+     * @return true if any pool member was removed as a result of this call
+     * @throws NullPointerException if the collection or any member is
+     * null, in which case nothing is removed
+     */
+    @Override
+    public boolean removeAllFromPool(final Collection<? extends Thing42orNull<K, D>> members)
+    throws NullPointerException {
+        requireNoNulls(members);
+        Thing42Metrics.count(Thing42Metrics.Op.REMOVE_FROM_POOL, members.size());
+        if (equality != Equality.STRUCTURAL && !recording()) {
+            return pool.removeAll(members, null) > 0;
+        }
+        ArrayList<Thing42orNull<K, D>> removed = new ArrayList<Thing42orNull<K, D>>();
+        pool.removeAll(members, removed);
+        for (Thing42orNull<K, D> member : removed) {
+            if (equality == Equality.STRUCTURAL) {
+                poolHash -= shallowHash(member);
+            }
+            if (feed != null) {
+                feed.record(Thing42Feed.Kind.POOL_REMOVED, this, member, null);
+            }
+        }
+        return !removed.isEmpty();
+    }
+    /**
+     * Determine whether the specified peer is known by this object.
+     * <br />With {@link PeerStorage#INDEXED} this is O(1) expected
+     * and only the very same instance matches.
+     *
+     * @param peer the peer to look for
+     * @return true if the peer is a peer of this object
+     * @throws NullPointerException if the specified peer is null
+     */
+    public boolean containsPeer(final Thing42orNull<K, D> peer)
+    throws NullPointerException {
+        if (peer == null) {
+            throw new NullPointerException();
         }
 
-        return peers.get(k).remove(peer);
+        Thing42Metrics.count(Thing42Metrics.Op.CONTAINS_PEER);
+        return peers.contains(peer);
     }
     /**
      * Modify the data of this Thing42.
@@ -238,7 +788,131 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      * @param newData the updated data for this object
      */
     public void setData(final D newData) {
-        this.data = newData;
+        Thing42Metrics.count(Thing42Metrics.Op.SET_DATA);
+        D oldData;
+        if (dataCache == null) {
+            oldData = this.data;
+            this.data = newData;
+        } else {
+            // only load the old data if the feed records it
+            oldData = recording() ? dataCache.get(this) : null;
+            dataCache.set(this, newData);
+        }
+        if (equality == Equality.STRUCTURAL) {
+            this.dataHash = (newData == null) ? 0 : newData.hashCode();
+        }
+        if (feed != null) {
+            feed.record(Thing42Feed.Kind.DATA_SET, this, newData, oldData);
+        }
+    }
+    /**
+     * Record the changes of this Thing42 in a feed, from now on.
+     * Several objects may share a feed.
+     *
+     * @param newFeed the feed; null to stop recording
+     */
+    public void setFeed(final Thing42Feed<K, D> newFeed) {
+        this.feed = newFeed;
+    }
+    /**
+     * Access the feed the changes of this Thing42 are recorded in.
+     *
+     * @return the feed; null if none
+     */
+    public Thing42Feed<K, D> getFeed() {
+        return feed;
+    }
+    /**
+     * Tells whether changes of this Thing42 are recorded, so that work
+     * done only for the feed can be skipped.
+     *
+     * @return true if there is a feed and it has listeners
+     */
+    private boolean recording() {
+        return feed != null && feed.isRecording();
+    }
+    /**
+     * Keep the data of this Thing42 in a cache instead of in this
+     * object, or take it back. The current data is written through to
+     * the new cache, or loaded from the old one when the cache is
+     * removed; the old cache then drops it. Several objects may share
+     * a cache.
+     *
+     * @param newCache the cache; null to keep the data in this object
+     */
+    public void setDataCache(final Thing42DataCache<K, D> newCache) {
+        if (newCache == dataCache) {
+            return;
+        }
+        D current = getData();
+        if (dataCache != null) {
+            dataCache.invalidate(this);
+        }
+        if (newCache == null) {
+            this.data = current;
+        } else {
+            newCache.set(this, current);
+            this.data = null;
+        }
+        this.dataCache = newCache;
+    }
+    /**
+     * Access the cache the data of this Thing42 is kept in.
+     *
+     * @return the cache; null if the data is kept in this object
+     */
+    public Thing42DataCache<K, D> getDataCache() {
+        return dataCache;
+    }
+    /**
+     * Turn the Bloom filter over the keys of the peers on or off.
+     * <br />While it is on, getOnePeer and getPeersAsCollection with a
+     * key first ask the filter, and return null or an empty collection
+     * without probing the peers when it rules the key out, which it
+     * does for about 99% of the keys no peer has. It pays off where a
+     * miss is costly, as on nodes with few peers, whose misses compare
+     * the key with every peer; a miss in the map of a node with many
+     * peers costs about as much as asking the filter.
+     * <br />Adding a peer adds its key to the filter; removed keys stay
+     * in it until it is rebuilt from the peers, in O(n), by the change
+     * of the peers after which more than half of the keys were removed
+     * or twice as many added. Lookups only read the filter, so they may
+     * run at once, like the other read-only methods.
+     *
+     * @param enabled true to build the filter; false to drop it
+     */
+    public void setPeerFilter(final boolean enabled) {
+        if (!enabled) {
+            peerFilter = null;
+        } else if (peerFilter == null) {
+            peerFilter = new PeerKeyFilter(getPeersAsCollection());
+        }
+    }
+    /**
+     * Whether lookups by key are filtered, see {@link #setPeerFilter}.
+     *
+     * @return true if the peer filter is on
+     */
+    public boolean hasPeerFilter() {
+        return peerFilter != null;
+    }
+    /**
+     * Rebuilds the peer filter from the peers if it is stale. Called by
+     * the mutators after they update the filter, so that lookups never
+     * change it.
+     */
+    private void refreshPeerFilter() {
+        if (peerFilter.isStale()) {
+            peerFilter.rebuild(getPeersAsCollection());
+        }
+    }
+    /**
+     * Access the equality mode of this Thing42.
+     *
+     * @return how this object is compared and hashed
+     */
+    public Equality getEquality() {
+        return equality;
     }
 
     /**
@@ -248,6 +922,8 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      * Thing42; if its level is the same as this Thing42;
      * and if its key, data, peers, and pool are the same
      * as this Thing42 via the equals predicate.
+     * <br />The two objects must also have the same {@link Equality};
+     * see there for how the peers and pool are compared.
      *
      * @param obj an Object to be compared with this Thing42.
      * @return true if obj is an instance of Thing42 and has
@@ -255,19 +931,42 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      * @see #hashCode()
      */
     @Override
-    @SuppressWarnings("unchecked")
     public boolean equals(final Object obj) {
-        Thing42<K, D> thing = (Thing42<K, D>) obj;
+        if (!Thing42Metrics.isEnabled()) {
+            return equalTo(obj);
+        }
+        Thing42Metrics.enter(Thing42Metrics.Op.EQUALS);
+        try {
+            return equalTo(obj);
+        } finally {
+            Thing42Metrics.exit(Thing42Metrics.Op.EQUALS);
+        }
+    }
 
+    /**
+     * Body of {@link #equals}, which wraps it in the metrics.
+     *
+     * @param obj an Object to be compared with this Thing42.
+     * @return true if obj is equal to this Thing42
+     */
+    @SuppressWarnings("unchecked")
+    private boolean equalTo(final Object obj) {
         if (this == obj) {
             return true;
         }
         if (!(obj instanceof Thing42)) {
             return false;
         }
+        Thing42<K, D> thing = (Thing42<K, D>) obj;
+        if (equality != thing.equality || equality == Equality.IDENTITY) {
+            return false;
+        }
+        if (equality == Equality.STRUCTURAL) {
+            return structurallyEqual(this, thing);
+        }
         return level == thing.getLevel()
             && key.equals(thing.getKey())
-            && data.equals(thing.getData())
+            && getData().equals(thing.getData())
             && this.getPeersAsCollection().equals(thing.getPeersAsCollection())
             && this.getPoolAsList().equals(thing.getPoolAsList());
     }
@@ -279,6 +978,26 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
      */
     @Override
     public int hashCode() {
+        if (!Thing42Metrics.isEnabled()) {
+            return hash();
+        }
+        Thing42Metrics.enter(Thing42Metrics.Op.HASH_CODE);
+        try {
+            return hash();
+        } finally {
+            Thing42Metrics.exit(Thing42Metrics.Op.HASH_CODE);
+        }
+    }
+
+    /**
+     * Body of {@link #hashCode}, which wraps it in the metrics.
+     *
+     * @return the hashcode for this Thing42
+     */
+    private int hash() {
+        if (equality == Equality.IDENTITY) {
+            return System.identityHashCode(this);
+        }
         int prime = 17;
         int result = 1;
         Long l = Long.valueOf(level);
@@ -286,11 +1005,251 @@ public class Thing42<K, D> extends Object implements Thing42orNull<K, D> {
         // use 0, if not, use their hash
         result = prime * result
                  + ((key == null) ? 0 : key.hashCode());
+        if (equality == Equality.STRUCTURAL) {
+            result = prime * result + dataHash;
+            result = prime * result + l.hashCode();
+            result = prime * result + peersHash;
+            result = prime * result + poolHash;
+            return result;
+        }
+        D d = getData();
         result = prime * result
-                 + ((data == null) ? 0 : data.hashCode());
+                 + ((d == null) ? 0 : d.hashCode());
         result = prime * result + l.hashCode();
         result = prime * result + peers.hashCode();
-        result = prime * result + pool.hashCode();
+        result = prime * result + pool.asList().hashCode();
         return result;
     }
+
+    /**
+     * Checks that a batch and all of its elements are not null, before
+     * any of them is stored.
+     *
+     * @param batch the batch
+     * @throws NullPointerException if the batch or any element is null
+     */
+    static void requireNoNulls(final Collection<?> batch) throws NullPointerException {
+        for (Object o : batch) {
+            if (o == null) {
+                throw new NullPointerException();
+            }
+        }
+    }
+
+    /**
+     * Hash of the immutable attributes of a peer or pool member, mixed
+     * so that sums of these hashes do not cancel out easily.
+     *
+     * @param thing the peer or pool member
+     * @return the hash of its key and level
+     */
+    private static int shallowHash(final Thing42orNull<?, ?> thing) {
+        Object k = thing.getKey();
+        long l = thing.getLevel();
+        int h = 31 * ((k == null) ? 0 : k.hashCode()) + (int) (l ^ (l >>> 32));
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Compares the data of two Thing42 objects with equals, reading
+     * each only once since it may come from a cache.
+     *
+     * @param a a Thing42
+     * @param b another Thing42
+     * @return true if both data are null or equal
+     */
+    private static boolean dataEqual(final Thing42<?, ?> a, final Thing42<?, ?> b) {
+        Object x = a.getData();
+        Object y = b.getData();
+        return (x == null) ? y == null : x.equals(y);
+    }
+
+    /**
+     * Compares two graphs for {@link Equality#STRUCTURAL}.
+     * Pairs of objects still to be compared are kept on a worklist and
+     * every pair is compared at most once, so this uses constant stack
+     * and terminates on cycles.
+     *
+     * @param first a Thing42
+     * @param second another Thing42 with the same equality mode
+     * @return true if the graphs reachable from both are equal
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean structurallyEqual(final Thing42<?, ?> first,
+                                             final Thing42<?, ?> second) {
+        ArrayDeque<Pair> work = new ArrayDeque<Pair>();
+        HashSet<Pair> seen = new HashSet<Pair>();
+        Pair start = new Pair(first, second);
+        work.push(start);
+        seen.add(start);
+        while (!work.isEmpty()) {
+            Pair pair = work.pop();
+            if (pair.a == pair.b) {
+                continue;
+            }
+            if (!(pair.a instanceof Thing42) || !(pair.b instanceof Thing42)) {
+                if (!pair.a.equals(pair.b)) {
+                    return false;
+                }
+                continue;
+            }
+            Thing42<Object, Object> a = (Thing42<Object, Object>) pair.a;
+            Thing42<Object, Object> b = (Thing42<Object, Object>) pair.b;
+            List<Thing42orNull<Object, Object>> poolA = a.pool.asList();
+            List<Thing42orNull<Object, Object>> poolB = b.pool.asList();
+            if (a.equality != b.equality || a.equality == Equality.IDENTITY
+                || a.level != b.level
+                || !(a.key == null ? b.key == null : a.key.equals(b.key))
+                || !dataEqual(a, b)
+                || poolA.size() != poolB.size()
+                || a.peers.size() != b.peers.size()) {
+                return false;
+            }
+            Iterator<Thing42orNull<Object, Object>> members = poolB.iterator();
+            for (Thing42orNull<Object, Object> member : poolA) {
+                push(work, seen, member, members.next());
+            }
+            for (Object k : a.peers.keys()) {
+                Collection<Thing42orNull<Object, Object>> mine = a.peers.get(k);
+                Collection<Thing42orNull<Object, Object>> theirs = b.peers.get(k);
+                if (mine.size() != theirs.size()) {
+                    return false;
+                }
+                Iterator<Thing42orNull<Object, Object>> it = theirs.iterator();
+                for (Thing42orNull<Object, Object> peer : mine) {
+                    push(work, seen, peer, it.next());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a pair to the worklist of structurallyEqual unless it was
+     * seen before.
+     *
+     * @param work the worklist
+     * @param seen the pairs seen so far
+     * @param a an object of the first graph
+     * @param b the object of the second graph it must equal
+     */
+    private static void push(final ArrayDeque<Pair> work, final HashSet<Pair> seen,
+                             final Object a, final Object b) {
+        Pair pair = new Pair(a, b);
+        if (seen.add(pair)) {
+            work.push(pair);
+        }
+    }
+
+    /**
+     * Pair of objects compared by structurallyEqual, itself compared
+     * by the identity of its members.
+     */
+    private static final class Pair {
+        /** Object of the first graph. */
+        private final Object a;
+        /** Object of the second graph. */
+        private final Object b;
+
+        /**
+         * Constructor for objects of class Pair.
+         *
+         * @param a object of the first graph
+         * @param b object of the second graph
+         */
+        private Pair(final Object a, final Object b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Pair && ((Pair) o).a == a && ((Pair) o).b == b;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(a) + System.identityHashCode(b);
+        }
+    }
+
+    /**
+     * Read-only view of all peers, iterating the per-key lists in place.
+     * Two views are equal if they contain equal peers key by key, in
+     * the same order within each key, so that the order in which the
+     * keys were first added and the layout of the storage do not matter.
+     * A view is never equal to another kind of collection, since no
+     * order-independent equality could be symmetric with List's.
+     */
+    private final class PeersView extends AbstractCollection<Thing42orNull<K, D>> {
+        @Override
+        public int size() {
+            return peers.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return peers.size() == 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean contains(final Object o) {
+            if (!(o instanceof Thing42orNull)) {
+                return false;
+            }
+            return peers.get(((Thing42orNull<K, D>) o).getKey()).contains(o);
+        }
+
+        @Override
+        public Iterator<Thing42orNull<K, D>> iterator() {
+            return peers.iterator();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean equals(final Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Thing42.PeersView)) {
+                return false;
+            }
+            Thing42<K, D>.PeersView other = (Thing42<K, D>.PeersView) o;
+            if (size() != other.size()) {
+                return false;
+            }
+            for (K k : peers.keys()) {
+                Collection<Thing42orNull<K, D>> mine = peers.get(k);
+                Collection<Thing42orNull<K, D>> theirs = other.owner().peers.get(k);
+                if (mine.size() != theirs.size()) {
+                    return false;
+                }
+                Iterator<Thing42orNull<K, D>> it = theirs.iterator();
+                for (Thing42orNull<K, D> peer : mine) {
+                    if (!peer.equals(it.next())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return peers.hashCode();
+        }
+
+        /**
+         * Accesses the Thing42 this is a view of.
+         *
+         * @return the Thing42
+         */
+        private Thing42<K, D> owner() {
+            return Thing42.this;
+        }
+    }
 }
@@ -0,0 +1,476 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Asynchronous access to a graph of Thing42orNull objects shared by
+ * many threads.
+ * <br />
+ * Thing42 is not thread-safe, and equals and hashCode walk from one
+ * object to its peers and pool, so a facade guards a whole graph with
+ * one read-write lock: reads run together, and each mutation runs
+ * alone. Every operation runs on the facade's executor and returns a
+ * CompletableFuture, or a Flow.Publisher for the members of a
+ * collection, so callers never wait for the lock. Collections are
+ * returned as copies taken under the lock, since views of a Thing42
+ * must not be read while it changes.
+ * <br /><br />
+ * The lock is a ReentrantReadWriteLock rather than a monitor, so
+ * operations may run on virtual threads without pinning their carrier
+ * thread while they wait for it. The default executor starts a virtual
+ * thread per operation when the Java runtime has them, and is the
+ * common ForkJoinPool otherwise.
+ * <br /><br />
+ * All access to the objects of the graph, from any thread, must go
+ * through the facade, or be otherwise ordered with it, for as long as
+ * it is shared.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Async<K, D> {
+    /** Executor of facades created without one; see {@link #defaultExecutor()}. */
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+    /** Guards the graph. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Runs the operations. */
+    private final Executor executor;
+
+    /**
+     * Constructor for objects of class Thing42Async, running the
+     * operations on the {@link #defaultExecutor()}.
+     */
+    public Thing42Async() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Constructor for objects of class Thing42Async.
+     *
+     * @param executor runs the operations
+     * @throws NullPointerException if the executor is null
+     */
+    public Thing42Async(final Executor executor) throws NullPointerException {
+        if (executor == null) {
+            throw new NullPointerException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Executor of facades created without one: a new virtual thread
+     * per operation on Java 21 and later, the common ForkJoinPool
+     * before.
+     *
+     * @return the executor
+     */
+    public static Executor defaultExecutor() {
+        return DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Creates the default executor, looking the virtual thread
+     * executor up by reflection since it is not in every runtime.
+     *
+     * @return the executor
+     */
+    private static Executor createDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return ForkJoinPool.commonPool();
+        }
+    }
+
+    /**
+     * Executor the operations run on.
+     *
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs an operation that only reads the graph, together with other
+     * reads. The operation must not change any object, nor call methods
+     * that fill caches on first use, such as the level queries of
+     * Thing42; those must run with {@link #write}.
+     *
+     * @param <R> the type of result
+     * @param operation the operation
+     * @return the result; completed exceptionally if the operation throws
+     * @throws NullPointerException if the operation is null
+     */
+    public <R> CompletableFuture<R> read(final Callable<R> operation) throws NullPointerException {
+        return submit(lock.readLock(), operation);
+    }
+
+    /**
+     * Runs an operation that changes the graph, alone.
+     *
+     * @param <R> the type of result
+     * @param operation the operation
+     * @return the result; completed exceptionally if the operation throws
+     * @throws NullPointerException if the operation is null
+     */
+    public <R> CompletableFuture<R> write(final Callable<R> operation) throws NullPointerException {
+        return submit(lock.writeLock(), operation);
+    }
+
+    /**
+     * Copies all peers of an object.
+     *
+     * @param node the object
+     * @return the peers
+     */
+    public CompletableFuture<Collection<Thing42orNull<K, D>>> getPeersAsCollection(
+            final Thing42orNull<K, D> node) {
+        return read(new Callable<Collection<Thing42orNull<K, D>>>() {
+            public Collection<Thing42orNull<K, D>> call() {
+                return new ArrayList<Thing42orNull<K, D>>(node.getPeersAsCollection());
+            }
+        });
+    }
+
+    /**
+     * Copies the peers of an object with a key.
+     *
+     * @param node the object
+     * @param key the key
+     * @return the peers with the key
+     */
+    public CompletableFuture<Collection<Thing42orNull<K, D>>> getPeersAsCollection(
+            final Thing42orNull<K, D> node, final K key) {
+        return read(new Callable<Collection<Thing42orNull<K, D>>>() {
+            public Collection<Thing42orNull<K, D>> call() {
+                return new ArrayList<Thing42orNull<K, D>>(node.getPeersAsCollection(key));
+            }
+        });
+    }
+
+    /**
+     * Copies the pool of an object.
+     *
+     * @param node the object
+     * @return the members, in pool order
+     */
+    public CompletableFuture<List<Thing42orNull<K, D>>> getPoolAsList(
+            final Thing42orNull<K, D> node) {
+        return read(new Callable<List<Thing42orNull<K, D>>>() {
+            public List<Thing42orNull<K, D>> call() {
+                return new ArrayList<Thing42orNull<K, D>>(node.getPoolAsList());
+            }
+        });
+    }
+
+    /**
+     * Publishes all peers of an object, as copied when first requested.
+     *
+     * @param node the object
+     * @return a publisher of the peers; each subscriber gets its own copy
+     */
+    public Flow.Publisher<Thing42orNull<K, D>> publishPeers(final Thing42orNull<K, D> node) {
+        return new SnapshotPublisher(new Callable<Collection<Thing42orNull<K, D>>>() {
+            public Collection<Thing42orNull<K, D>> call() {
+                return node.getPeersAsCollection();
+            }
+        });
+    }
+
+    /**
+     * Publishes the peers of an object with a key, as copied when
+     * first requested.
+     *
+     * @param node the object
+     * @param key the key
+     * @return a publisher of the peers; each subscriber gets its own copy
+     */
+    public Flow.Publisher<Thing42orNull<K, D>> publishPeers(final Thing42orNull<K, D> node,
+                                                            final K key) {
+        return new SnapshotPublisher(new Callable<Collection<Thing42orNull<K, D>>>() {
+            public Collection<Thing42orNull<K, D>> call() {
+                return node.getPeersAsCollection(key);
+            }
+        });
+    }
+
+    /**
+     * Publishes the pool of an object, in pool order, as copied when
+     * first requested.
+     *
+     * @param node the object
+     * @return a publisher of the members; each subscriber gets its own copy
+     */
+    public Flow.Publisher<Thing42orNull<K, D>> publishPool(final Thing42orNull<K, D> node) {
+        return new SnapshotPublisher(new Callable<Collection<Thing42orNull<K, D>>>() {
+            public Collection<Thing42orNull<K, D>> call() {
+                return node.getPoolAsList();
+            }
+        });
+    }
+
+    /**
+     * Adds several peers to an object.
+     *
+     * @param node the object
+     * @param newPeers the peers; see {@link Thing42orNull#addPeers}
+     * @return completed once the peers are added
+     */
+    public CompletableFuture<Void> addPeers(final Thing42orNull<K, D> node,
+                                            final Collection<? extends Thing42orNull<K, D>> newPeers) {
+        return write(new Callable<Void>() {
+            public Void call() {
+                node.addPeers(newPeers);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes several peers from an object.
+     *
+     * @param node the object
+     * @param oldPeers the peers; see {@link Thing42orNull#removePeers}
+     * @return true if any peer was removed
+     */
+    public CompletableFuture<Boolean> removePeers(final Thing42orNull<K, D> node,
+                                                  final Collection<? extends Thing42orNull<K, D>> oldPeers) {
+        return write(new Callable<Boolean>() {
+            public Boolean call() {
+                return Boolean.valueOf(node.removePeers(oldPeers));
+            }
+        });
+    }
+
+    /**
+     * Appends several members to the pool of an object.
+     *
+     * @param node the object
+     * @param newMembers the members; see {@link Thing42orNull#appendAllToPool}
+     * @return completed once the members are appended
+     */
+    public CompletableFuture<Void> appendAllToPool(final Thing42orNull<K, D> node,
+            final Collection<? extends Thing42orNull<K, D>> newMembers) {
+        return write(new Callable<Void>() {
+            public Void call() {
+                node.appendAllToPool(newMembers);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes several members from the pool of an object.
+     *
+     * @param node the object
+     * @param oldMembers the members; see {@link Thing42orNull#removeAllFromPool}
+     * @return true if any member was removed
+     */
+    public CompletableFuture<Boolean> removeAllFromPool(final Thing42orNull<K, D> node,
+            final Collection<? extends Thing42orNull<K, D>> oldMembers) {
+        return write(new Callable<Boolean>() {
+            public Boolean call() {
+                return Boolean.valueOf(node.removeAllFromPool(oldMembers));
+            }
+        });
+    }
+
+    /**
+     * Runs an operation on the executor while holding a lock.
+     *
+     * @param <R> the type of result
+     * @param held the lock
+     * @param operation the operation
+     * @return the result
+     * @throws NullPointerException if the operation is null
+     */
+    private <R> CompletableFuture<R> submit(final Lock held, final Callable<R> operation)
+    throws NullPointerException {
+        if (operation == null) {
+            throw new NullPointerException();
+        }
+        final CompletableFuture<R> result = new CompletableFuture<R>();
+        executor.execute(new Runnable() {
+            public void run() {
+                R value;
+                held.lock();
+                try {
+                    value = operation.call();
+                } catch (Throwable ex) {
+                    result.completeExceptionally(ex);
+                    return;
+                } finally {
+                    held.unlock();
+                }
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Cold publisher of a collection copied under the read lock when a
+     * subscriber first requests items. Items are delivered on the
+     * executor, as requested, by one task at a time per subscriber.
+     * A request of less than 1 fails the subscriber, and a subscriber
+     * that throws is cancelled.
+     */
+    private final class SnapshotPublisher implements Flow.Publisher<Thing42orNull<K, D>> {
+        /** Returns the collection, copied with the read lock held. */
+        private final Callable<Collection<Thing42orNull<K, D>>> source;
+
+        /**
+         * Constructor for objects of class SnapshotPublisher.
+         *
+         * @param source returns the collection
+         */
+        private SnapshotPublisher(final Callable<Collection<Thing42orNull<K, D>>> source) {
+            this.source = source;
+        }
+
+        /** {@inheritDoc} */
+        public void subscribe(final Flow.Subscriber<? super Thing42orNull<K, D>> subscriber) {
+            if (subscriber == null) {
+                throw new NullPointerException();
+            }
+            subscriber.onSubscribe(new Delivery(subscriber));
+        }
+
+        /**
+         * The subscription of one subscriber. A counter of pending
+         * signals makes sure a single task delivers at a time.
+         */
+        private final class Delivery implements Flow.Subscription, Runnable {
+            /** The subscriber. */
+            private final Flow.Subscriber<? super Thing42orNull<K, D>> subscriber;
+            /** Items requested and not delivered yet. */
+            private final AtomicLong requested = new AtomicLong();
+            /** Signals not handled yet by the delivering task. */
+            private final AtomicInteger pending = new AtomicInteger();
+            /** Set once the subscriber cancelled or was completed. */
+            private volatile boolean done;
+            /** Error to deliver instead of items, for a bad request. */
+            private volatile Throwable error;
+            /** The copy; null until first requested. Only read by the delivering task. */
+            private List<Thing42orNull<K, D>> items;
+            /** Index of the next item. Only used by the delivering task. */
+            private int next;
+
+            /**
+             * Constructor for objects of class Delivery.
+             *
+             * @param subscriber the subscriber
+             */
+            private Delivery(final Flow.Subscriber<? super Thing42orNull<K, D>> subscriber) {
+                this.subscriber = subscriber;
+            }
+
+            /** {@inheritDoc} */
+            public void request(final long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("request " + n);
+                } else {
+                    long r;
+                    do {
+                        r = requested.get();
+                    } while (!requested.compareAndSet(r, (r + n < 0) ? Long.MAX_VALUE : r + n));
+                }
+                signal();
+            }
+
+            /** {@inheritDoc} */
+            public void cancel() {
+                done = true;
+            }
+
+            /**
+             * Starts the delivering task unless it is running.
+             */
+            private void signal() {
+                if (pending.getAndIncrement() == 0) {
+                    executor.execute(this);
+                }
+            }
+
+            /**
+             * Delivers the items requested, then completes or fails the
+             * subscriber if there is nothing left.
+             */
+            public void run() {
+                int missed = 1;
+                do {
+                    try {
+                        deliver();
+                    } catch (RuntimeException ex) {
+                        // a subscriber that throws is cancelled
+                        done = true;
+                        items = null;
+                    }
+                    missed = pending.addAndGet(-missed);
+                } while (missed != 0);
+            }
+
+            /**
+             * Delivers what can be delivered now.
+             */
+            private void deliver() {
+                if (done) {
+                    return;
+                }
+                if (error != null) {
+                    done = true;
+                    subscriber.onError(error);
+                    return;
+                }
+                if (items == null) {
+                    Throwable failure = null;
+                    Lock held = lock.readLock();
+                    held.lock();
+                    try {
+                        items = new ArrayList<Thing42orNull<K, D>>(source.call());
+                    } catch (Throwable ex) {
+                        failure = ex;
+                    } finally {
+                        held.unlock();
+                    }
+                    // the subscriber is called without the lock
+                    if (failure != null) {
+                        done = true;
+                        subscriber.onError(failure);
+                        return;
+                    }
+                }
+                while (!done && next < items.size() && requested.get() > 0) {
+                    Thing42orNull<K, D> item = items.get(next);
+                    items.set(next++, null);
+                    if (requested.get() != Long.MAX_VALUE) {
+                        requested.decrementAndGet();
+                    }
+                    subscriber.onNext(item);
+                }
+                if (!done && next == items.size()) {
+                    done = true;
+                    items = null;
+                    subscriber.onComplete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42AsyncTest.
+ *
+ * Reads and changes a graph through a Thing42Async facade, subscribes
+ * to its publishers, and runs a load of 100000 concurrent requests.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42AsyncTest
+{
+    //The facade, on the default executor.
+    Thing42Async<Integer, String> async;
+    //The node read and changed through the facade.
+    Thing42<Integer, String> node;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        async = new Thing42Async<Integer, String>();
+        node = new Thing42<Integer, String>(0, 0, "node");
+        for (int i = 0; i < 10; i++) {
+            node.addPeer(new Thing42<Integer, String>(i % 3, i, "peer"));
+            node.appendToPool(new Thing42<Integer, String>(i, i, "member"));
+        }
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        async = null;
+        node = null;
+    }
+
+    /**
+     * Reads copies and makes bulk changes.
+     *
+     * @throws Exception if an operation fails
+     */
+    @Test
+    public void testFutures() throws Exception
+    {
+        Collection<Thing42orNull<Integer, String>> peers = async.getPeersAsCollection(node).get();
+        assertTrue(peers.size() == 10);
+        assertTrue(async.getPeersAsCollection(node, 1).get().size() == 3);
+        List<Thing42orNull<Integer, String>> pool = async.getPoolAsList(node).get();
+        assertEquals(node.getPoolAsList(), pool);
+        assertTrue(pool != node.getPoolAsList());
+
+        Thing42<Integer, String> a = new Thing42<Integer, String>(7, 7, "a");
+        List<Thing42<Integer, String>> batch = Arrays.asList(a, a);
+        async.addPeers(node, batch).get();
+        async.appendAllToPool(node, batch).get();
+        assertTrue(node.getPeersAsCollection(7).size() == 2);
+        assertTrue(async.removePeers(node, batch).get().booleanValue());
+        assertTrue(async.removeAllFromPool(node, batch).get().booleanValue());
+        assertFalse(async.removePeers(node, batch).get().booleanValue());
+        assertTrue(node.getPeersAsCollection().size() == 10 && node.getPoolAsList().size() == 10);
+
+        try {
+            async.read(new Callable<Object>() {
+                public Object call() {
+                    throw new IllegalStateException("failed");
+                }
+            }).get();
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        try {
+            new Thing42Async<Integer, String>(null);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Subscribes to the pool, requesting one member at a time, and
+     * makes a bad request.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testPublisher() throws InterruptedException
+    {
+        final List<Object> received = new ArrayList<Object>();
+        final CountDownLatch finished = new CountDownLatch(1);
+        async.publishPool(node).subscribe(new Flow.Subscriber<Thing42orNull<Integer, String>>() {
+            private Flow.Subscription subscription;
+            public void onSubscribe(final Flow.Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+            public void onNext(final Thing42orNull<Integer, String> item) {
+                received.add(item);
+                subscription.request(1);
+            }
+            public void onError(final Throwable ex) {
+                received.add(ex);
+                finished.countDown();
+            }
+            public void onComplete() {
+                received.add("complete");
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        List<Object> expected = new ArrayList<Object>(node.getPoolAsList());
+        expected.add("complete");
+        assertEquals(expected, received);
+
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch failed = new CountDownLatch(1);
+        async.publishPeers(node, 1).subscribe(new Flow.Subscriber<Thing42orNull<Integer, String>>() {
+            public void onSubscribe(final Flow.Subscription s) {
+                s.request(0);
+            }
+            public void onNext(final Thing42orNull<Integer, String> item) {
+                fail();
+            }
+            public void onError(final Throwable ex) {
+                error[0] = ex;
+                failed.countDown();
+            }
+            public void onComplete() {
+                fail();
+            }
+        });
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        assertTrue(error[0] instanceof IllegalArgumentException);
+    }
+
+    /**
+     * Subscribes to the pool of an object whose pool cannot be read,
+     * and changes the object from onError, which must not hold the
+     * read lock.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testPublisherErrorWithoutLock() throws InterruptedException
+    {
+        final Thing42<Integer, String> broken = new Thing42<Integer, String>(1, 1, "broken") {
+            @Override
+            public List<Thing42orNull<Integer, String>> getPoolAsList() {
+                throw new IllegalStateException("unreadable");
+            }
+        };
+        final Thing42<Integer, String> peer = new Thing42<Integer, String>(2, 2, "peer");
+        final Object[] outcome = new Object[1];
+        final CountDownLatch finished = new CountDownLatch(1);
+        async.publishPool(broken).subscribe(new Flow.Subscriber<Thing42orNull<Integer, String>>() {
+            public void onSubscribe(final Flow.Subscription s) {
+                s.request(1);
+            }
+            public void onNext(final Thing42orNull<Integer, String> item) {
+                fail();
+            }
+            public void onError(final Throwable ex) {
+                try {
+                    async.addPeers(broken, Arrays.asList(peer)).get(10, TimeUnit.SECONDS);
+                    outcome[0] = ex;
+                } catch (Exception e) {
+                    outcome[0] = e;
+                }
+                finished.countDown();
+            }
+            public void onComplete() {
+                fail();
+            }
+        });
+        assertTrue(finished.await(20, TimeUnit.SECONDS));
+        assertTrue(outcome[0] instanceof IllegalStateException);
+        assertTrue(broken.containsPeer(peer));
+    }
+
+    /**
+     * Runs 100000 requests at once, each reading peers or adding and
+     * removing its own peers, and checks that none was lost.
+     *
+     * @throws Exception if a request fails
+     */
+    @Test
+    public void testLoad() throws Exception
+    {
+        final int requests = 100000;
+        List<CompletableFuture<?>> futures = new ArrayList<CompletableFuture<?>>(requests);
+        for (int i = 0; i < requests; i++) {
+            if (i % 10 == 0) {
+                final List<Thing42<Integer, String>> batch = Arrays.asList(
+                    new Thing42<Integer, String>(i % 3, i, "new"),
+                    new Thing42<Integer, String>(i % 5, i, "new"));
+                futures.add(async.addPeers(node, batch).thenCompose(
+                    new Function<Void, CompletableFuture<Boolean>>() {
+                        public CompletableFuture<Boolean> apply(final Void done) {
+                            return async.removePeers(node, batch);
+                        }
+                    }));
+            } else {
+                futures.add(async.getPeersAsCollection(node, i % 3));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        for (int i = 0; i < requests; i += 10) {
+            assertTrue(Boolean.TRUE.equals(futures.get(i).get()));
+        }
+        assertTrue(node.getPeersAsCollection().size() == 10);
+    }
+}
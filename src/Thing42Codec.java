@@ -0,0 +1,37 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts the keys or data of Thing42 objects to and from bytes, for
+ * storing graphs in files and streams.
+ * <br />
+ * A codec must read back exactly the bytes it wrote, and must write
+ * equal values as equal bytes, since stored keys are compared by their
+ * bytes. Null values never reach a codec. {@link Thing42Codecs} has
+ * codecs for common types.
+ *
+ * @param <T> the type of value
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public interface Thing42Codec<T> {
+    /**
+     * Writes a value.
+     *
+     * @param value the value, not null
+     * @param out where to write it
+     * @throws IOException if writing fails
+     */
+    void write(T value, DataOutput out) throws IOException;
+
+    /**
+     * Reads a value written by {@link #write}.
+     *
+     * @param in where to read it from
+     * @return the value
+     * @throws IOException if reading fails or the bytes are not a value
+     */
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,108 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+/**
+ * Codecs for common types of keys and data.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Codecs {
+    /** Charset of strings. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Codec for Long values, as 8 bytes. */
+    public static final Thing42Codec<Long> LONG = new Thing42Codec<Long>() {
+        public void write(final Long value, final DataOutput out) throws IOException {
+            out.writeLong(value.longValue());
+        }
+
+        public Long read(final DataInput in) throws IOException {
+            return Long.valueOf(in.readLong());
+        }
+    };
+
+    /** Codec for Integer values, as 4 bytes. */
+    public static final Thing42Codec<Integer> INTEGER = new Thing42Codec<Integer>() {
+        public void write(final Integer value, final DataOutput out) throws IOException {
+            out.writeInt(value.intValue());
+        }
+
+        public Integer read(final DataInput in) throws IOException {
+            return Integer.valueOf(in.readInt());
+        }
+    };
+
+    /** Codec for String values of any length, as a length and UTF-8. */
+    public static final Thing42Codec<String> STRING = new Thing42Codec<String>() {
+        public void write(final String value, final DataOutput out) throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        public String read(final DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new IOException("bad string length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+    };
+
+    /**
+     * Prevents instantiation.
+     */
+    private Thing42Codecs() {
+    }
+
+    /**
+     * Codec for any Serializable values, using Java serialization for
+     * each value on its own. Slow and large; meant for data types that
+     * have no codec of their own. Equal keys must serialize to equal
+     * bytes.
+     *
+     * @param <T> the type of value
+     * @return the codec
+     */
+    public static <T extends Serializable> Thing42Codec<T> serializable() {
+        return new Thing42Codec<T>() {
+            public void write(final T value, final DataOutput out) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream objects = new ObjectOutputStream(bytes);
+                objects.writeObject(value);
+                objects.close();
+                out.writeInt(bytes.size());
+                out.write(bytes.toByteArray());
+            }
+
+            @SuppressWarnings("unchecked")
+            public T read(final DataInput in) throws IOException {
+                int length = in.readInt();
+                if (length < 0) {
+                    throw new IOException("bad object length " + length);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                ObjectInputStream objects
+                    = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return (T) objects.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                } finally {
+                    objects.close();
+                }
+            }
+        };
+    }
+}
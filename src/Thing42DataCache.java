@@ -0,0 +1,542 @@
+import java.util.IdentityHashMap;
+
+/**
+ * Bounded, read-through cache of the data of Thing42 objects, for
+ * graphs whose topology fits in memory but whose data does not.
+ * <br />
+ * A Thing42 given a cache with {@link Thing42#setDataCache} keeps no
+ * data of its own: getData returns the cached data, loading it with the
+ * cache's {@link Loader} on a miss, and setData writes the new data
+ * through to the loader before caching it. Since every change has been
+ * written when it is made, evicting data just drops it.
+ * <br /><br />
+ * Data is evicted by segmented LRU, once the cache holds more than its
+ * most entries or its entries weigh more than its most weight. New
+ * data enters a probation segment and is moved to a protected segment,
+ * of at most 80% of the entries and weight, when it is read again, so a scan of
+ * data read once only evicts other data read once; data pushed out of
+ * the protected segment goes back to probation, and data is evicted
+ * from the least recently used end of probation.
+ * <br /><br />
+ * Several objects, of one or several graphs, may share a cache; each
+ * object is cached under its identity. All methods may be called by
+ * many threads at once and hold the lock of the cache, except the
+ * loader, which is called without it. Threads setting the data of the
+ * same object take turns, so the loader and the cache are left with
+ * the data of the same call; two threads that miss the same
+ * object at once may both load it, and data loaded while that object's
+ * data was set or invalidated is not cached; the read returns the data
+ * set meanwhile if it is cached, and the loaded data otherwise. Writes
+ * to other objects do not keep a load from being cached.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42DataCache<K, D> {
+    /**
+     * Where the data of the objects of a cache is kept.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     */
+    public interface Loader<K, D> {
+        /**
+         * Reads the data of an object.
+         *
+         * @param node the object; its key and level identify its data
+         * @return the data, which may be null
+         */
+        D load(Thing42orNull<K, D> node);
+
+        /**
+         * Writes the data of an object.
+         *
+         * @param node the object
+         * @param data the new data, which may be null
+         */
+        void store(Thing42orNull<K, D> node, D data);
+    }
+
+    /**
+     * Weight of the data of an object, such as its size in bytes.
+     *
+     * @param <D> the type of data
+     */
+    public interface Weigher<D> {
+        /**
+         * Weighs data.
+         *
+         * @param data the data, which may be null
+         * @return the weight, at least 0
+         */
+        long weigh(D data);
+    }
+
+    /**
+     * Cached data of an object, linked into the list of its segment.
+     */
+    private static final class Entry {
+        /** The object. */
+        private final Thing42orNull<?, ?> node;
+        /** Its data. */
+        private Object data;
+        /** Weight of the data. */
+        private long weight;
+        /** True in the protected segment, false in probation. */
+        private boolean hot;
+        /** More recently used entry of the segment. */
+        private Entry newer;
+        /** Less recently used entry of the segment. */
+        private Entry older;
+
+        /**
+         * Constructor for objects of class Entry.
+         *
+         * @param node the object
+         */
+        private Entry(final Thing42orNull<?, ?> node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * A load of the data of an object that is under way, shared by the
+     * threads that missed the object at once.
+     */
+    private static final class Load {
+        /** Number of threads loading. */
+        private int loaders;
+    }
+
+    /**
+     * Writes of the data of an object that are under way; the threads
+     * setting the same object take turns on it.
+     */
+    private static final class Write {
+        /** Number of threads writing or waiting to. */
+        private int writers;
+    }
+
+    /** Where the data is kept. */
+    private final Loader<K, D> loader;
+    /** Weighs the data; null to weigh each entry 1. */
+    private final Weigher<? super D> weigher;
+    /** Most entries cached. */
+    private final int maxEntries;
+    /** Most total weight cached. */
+    private final long maxWeight;
+    /** Most entries of the protected segment. */
+    private final int maxHotEntries;
+    /** Most total weight of the protected segment. */
+    private final long maxHotWeight;
+    /** Entries by object. */
+    private final IdentityHashMap<Thing42orNull<?, ?>, Entry> entries
+        = new IdentityHashMap<Thing42orNull<?, ?>, Entry>();
+    /** Sentinel of the probation list; newest is cold.older, oldest cold.newer. */
+    private final Entry cold = new Entry(null);
+    /** Sentinel of the protected list. */
+    private final Entry hot = new Entry(null);
+    /** Total weight cached. */
+    private long weight;
+    /** Number of entries of the protected segment. */
+    private int hotEntries;
+    /** Weight of the protected segment. */
+    private long hotWeight;
+    /**
+     * Loads under way, by object. Setting or invalidating the data of an
+     * object drops its load, so that data loaded before is not cached.
+     */
+    private final IdentityHashMap<Thing42orNull<?, ?>, Load> loading
+        = new IdentityHashMap<Thing42orNull<?, ?>, Load>();
+    /** Writes under way, by object. */
+    private final IdentityHashMap<Thing42orNull<?, ?>, Write> writing
+        = new IdentityHashMap<Thing42orNull<?, ?>, Write>();
+    /** Number of reads that found the data cached. */
+    private long hits;
+    /** Number of reads that loaded the data. */
+    private long misses;
+    /** Number of entries evicted. */
+    private long evictions;
+
+    /**
+     * Constructor for objects of class Thing42DataCache, bounded by
+     * number of entries.
+     *
+     * @param loader where the data is kept
+     * @param maxEntries the most objects whose data is cached
+     * @throws NullPointerException if the loader is null
+     * @throws IllegalArgumentException if maxEntries is less than 1
+     */
+    public Thing42DataCache(final Loader<K, D> loader, final int maxEntries)
+    throws NullPointerException, IllegalArgumentException {
+        this(loader, maxEntries, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Constructor for objects of class Thing42DataCache, bounded by
+     * number of entries and by weight. Data weighing more than
+     * maxWeight on its own is returned but not cached.
+     *
+     * @param loader where the data is kept
+     * @param maxEntries the most objects whose data is cached
+     * @param maxWeight the most total weight of the data cached
+     * @param weigher weighs the data; null to weigh each entry 1
+     * @throws NullPointerException if the loader is null
+     * @throws IllegalArgumentException if maxEntries or maxWeight is
+     * less than 1
+     */
+    public Thing42DataCache(final Loader<K, D> loader, final int maxEntries,
+                            final long maxWeight, final Weigher<? super D> weigher)
+    throws NullPointerException, IllegalArgumentException {
+        if (loader == null) {
+            throw new NullPointerException();
+        }
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("maxEntries " + maxEntries
+                                               + ", maxWeight " + maxWeight);
+        }
+        this.loader = loader;
+        this.weigher = weigher;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.maxHotEntries = maxEntries - maxEntries / 5;
+        this.maxHotWeight = maxWeight - maxWeight / 5;
+        cold.newer = cold;
+        cold.older = cold;
+        hot.newer = hot;
+        hot.older = hot;
+    }
+
+    /**
+     * Returns the data of an object, loading and caching it if it is
+     * not cached.
+     *
+     * @param node the object
+     * @return the data
+     */
+    @SuppressWarnings("unchecked")
+    public D get(final Thing42orNull<K, D> node) {
+        Load load;
+        synchronized (this) {
+            Entry entry = entries.get(node);
+            if (entry != null) {
+                hits++;
+                if (entry.hot) {
+                    unlink(entry);
+                    link(hot, entry);
+                } else {
+                    promote(entry);
+                }
+                return (D) entry.data;
+            }
+            misses++;
+            load = loading.get(node);
+            if (load == null) {
+                load = new Load();
+                loading.put(node, load);
+            }
+            load.loaders++;
+        }
+        boolean done = false;
+        try {
+            D data = loader.load(node);
+            long w = weigh(data);
+            synchronized (this) {
+                done = true;
+                boolean current = loading.get(node) == load;
+                finish(node, load);
+                Entry entry = entries.get(node);
+                if (entry != null) {
+                    return (D) entry.data;
+                }
+                if (current) {
+                    insert(node, data, w);
+                }
+            }
+            return data;
+        } finally {
+            if (!done) {
+                synchronized (this) {
+                    finish(node, load);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the data of an object through to the loader and caches it.
+     * Data that was cached keeps its segment. Writes of the same object
+     * take turns, so the loader and the cache end up with the data of
+     * the same write; writes of different objects run at once.
+     *
+     * @param node the object
+     * @param data the new data
+     */
+    public void set(final Thing42orNull<K, D> node, final D data) {
+        Write write;
+        synchronized (this) {
+            write = writing.get(node);
+            if (write == null) {
+                write = new Write();
+                writing.put(node, write);
+            }
+            write.writers++;
+        }
+        try {
+            synchronized (write) {
+                loader.store(node, data);
+                cache(node, data, weigh(data));
+            }
+        } finally {
+            synchronized (this) {
+                if (--write.writers == 0) {
+                    writing.remove(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the data of an object from the cache, if it is cached.
+     * Its data stays with the loader.
+     *
+     * @param node the object
+     * @return true if it was cached
+     */
+    public synchronized boolean invalidate(final Thing42orNull<K, D> node) {
+        loading.remove(node);
+        Entry entry = entries.get(node);
+        if (entry == null) {
+            return false;
+        }
+        remove(entry);
+        return true;
+    }
+
+    /**
+     * Drops all data from the cache.
+     */
+    public synchronized void clear() {
+        loading.clear();
+        entries.clear();
+        cold.newer = cold;
+        cold.older = cold;
+        hot.newer = hot;
+        hot.older = hot;
+        weight = 0;
+        hotEntries = 0;
+        hotWeight = 0;
+    }
+
+    /**
+     * Number of objects whose data is cached.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Total weight of the data cached.
+     *
+     * @return the weight
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * Number of reads that found the data cached.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Number of reads that loaded the data.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Number of entries evicted to stay within the bounds.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Weighs data.
+     *
+     * @param data the data
+     * @return its weight
+     * @throws IllegalArgumentException if the weigher returns less than 0
+     */
+    private long weigh(final D data) throws IllegalArgumentException {
+        if (weigher == null) {
+            return 1;
+        }
+        long w = weigher.weigh(data);
+        if (w < 0) {
+            throw new IllegalArgumentException("weight " + w);
+        }
+        return w;
+    }
+
+    /**
+     * Records that a thread finished loading the data of an object,
+     * and drops the load once no thread is loading.
+     *
+     * @param node the object
+     * @param load the load, possibly already dropped
+     */
+    private void finish(final Thing42orNull<?, ?> node, final Load load) {
+        if (--load.loaders == 0 && loading.get(node) == load) {
+            loading.remove(node);
+        }
+    }
+
+    /**
+     * Caches data that was just written, dropping any load of it under
+     * way.
+     *
+     * @param node the object
+     * @param data its data
+     * @param w the weight of the data
+     */
+    private synchronized void cache(final Thing42orNull<?, ?> node, final Object data,
+                                    final long w) {
+        loading.remove(node);
+        Entry entry = entries.get(node);
+        if (entry == null) {
+            insert(node, data, w);
+        } else if (w > maxWeight) {
+            remove(entry);
+        } else {
+            entry.data = data;
+            weight += w - entry.weight;
+            if (entry.hot) {
+                hotWeight += w - entry.weight;
+            }
+            entry.weight = w;
+            unlink(entry);
+            link(entry.hot ? hot : cold, entry);
+            evict(entry);
+        }
+    }
+
+    /**
+     * Caches data in probation, then evicts until within the bounds.
+     *
+     * @param node the object
+     * @param data its data
+     * @param w the weight of the data
+     */
+    private void insert(final Thing42orNull<?, ?> node, final Object data, final long w) {
+        if (w > maxWeight) {
+            return;
+        }
+        Entry entry = new Entry(node);
+        entry.data = data;
+        entry.weight = w;
+        entries.put(node, entry);
+        link(cold, entry);
+        weight += w;
+        evict(entry);
+    }
+
+    /**
+     * Evicts the least recently used entries of probation, then of the
+     * protected segment, until the cache is within its bounds.
+     *
+     * @param kept an entry just cached, which is evicted last
+     */
+    private void evict(final Entry kept) {
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            Entry victim = cold.newer;
+            if (victim == kept) {
+                victim = victim.newer;
+            }
+            if (victim == cold) {
+                victim = (hot.newer != hot) ? hot.newer : kept;
+            }
+            remove(victim);
+            evictions++;
+        }
+    }
+
+    /**
+     * Moves an entry from probation to the protected segment, demoting
+     * the least recently used protected entries to probation until the
+     * protected segment is within its bound.
+     *
+     * @param entry the entry
+     */
+    private void promote(final Entry entry) {
+        unlink(entry);
+        entry.hot = true;
+        link(hot, entry);
+        hotEntries++;
+        hotWeight += entry.weight;
+        while ((hotEntries > maxHotEntries || hotWeight > maxHotWeight)
+               && hot.newer != entry) {
+            Entry demoted = hot.newer;
+            unlink(demoted);
+            demoted.hot = false;
+            hotEntries--;
+            hotWeight -= demoted.weight;
+            link(cold, demoted);
+        }
+    }
+
+    /**
+     * Drops an entry from the cache.
+     *
+     * @param entry the entry
+     */
+    private void remove(final Entry entry) {
+        entries.remove(entry.node);
+        unlink(entry);
+        weight -= entry.weight;
+        if (entry.hot) {
+            hotEntries--;
+            hotWeight -= entry.weight;
+        }
+    }
+
+    /**
+     * Links an entry as the most recently used of a segment.
+     *
+     * @param segment the sentinel of the segment
+     * @param entry the entry
+     */
+    private static void link(final Entry segment, final Entry entry) {
+        entry.newer = segment;
+        entry.older = segment.older;
+        segment.older.newer = entry;
+        segment.older = entry;
+    }
+
+    /**
+     * Unlinks an entry from its segment.
+     *
+     * @param entry the entry
+     */
+    private static void unlink(final Entry entry) {
+        entry.newer.older = entry.older;
+        entry.older.newer = entry.newer;
+        entry.newer = null;
+        entry.older = null;
+    }
+}
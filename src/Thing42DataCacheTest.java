@@ -0,0 +1,343 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42DataCacheTest.
+ *
+ * Keeps the data of Thing42 objects in a map behind a cache, and checks
+ * what is loaded, written through and evicted.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42DataCacheTest
+{
+    //The data behind the cache, by object.
+    IdentityHashMap<Thing42orNull<Integer, String>, String> store;
+    //Number of loads and stores.
+    int[] calls;
+    //Loads from and stores into store, counting calls.
+    Thing42DataCache.Loader<Integer, String> loader;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        store = new IdentityHashMap<Thing42orNull<Integer, String>, String>();
+        calls = new int[2];
+        loader = new Thing42DataCache.Loader<Integer, String>() {
+            public String load(final Thing42orNull<Integer, String> node) {
+                calls[0]++;
+                return store.get(node);
+            }
+            public void store(final Thing42orNull<Integer, String> node, final String data) {
+                calls[1]++;
+                store.put(node, data);
+            }
+        };
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        store = null;
+        calls = null;
+        loader = null;
+    }
+
+    /**
+     * Reads and writes the data of an object through a cache, then
+     * takes the data back.
+     */
+    @Test
+    public void testReadThrough()
+    {
+        Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(loader, 1);
+        Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "a");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(2, 0, "b");
+        a.setDataCache(cache);
+        assertTrue(a.getDataCache() == cache);
+        assertEquals("a", store.get(a));
+        assertEquals("a", a.getData());
+        assertTrue(calls[0] == 0 && cache.getHitCount() == 1);
+        b.setDataCache(cache);
+        assertTrue(cache.size() == 1 && cache.getEvictionCount() == 1);
+        assertEquals("a", a.getData());
+        assertTrue(calls[0] == 1 && cache.getMissCount() == 1);
+        a.setData("a2");
+        assertEquals("a2", store.get(a));
+        assertEquals("a2", a.getData());
+        assertEquals("b", b.getData());
+        assertEquals("a2", a.getData());
+        assertTrue(calls[0] == 3 && calls[1] == 3);
+        a.setDataCache(null);
+        assertTrue(a.getDataCache() == null);
+        assertEquals("a2", a.getData());
+        assertTrue(cache.size() == 0);
+        assertFalse(cache.invalidate(a));
+    }
+
+    /**
+     * Checks that objects read more than once survive a scan of
+     * objects read once.
+     */
+    @Test
+    public void testScanResistance()
+    {
+        Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(loader, 10);
+        List<Thing42<Integer, String>> hot = nodes(cache, 8);
+        for (Thing42<Integer, String> node : hot) {
+            node.getData();
+        }
+        nodes(cache, 100);
+        int loads = calls[0];
+        for (Thing42<Integer, String> node : hot) {
+            assertEquals("data" + node.getKey(), node.getData());
+        }
+        assertTrue(calls[0] == loads);
+        assertTrue(cache.size() == 10);
+        assertTrue(cache.getEvictionCount() == 98);
+    }
+
+    /**
+     * Bounds a cache by the lengths of its strings.
+     */
+    @Test
+    public void testWeight()
+    {
+        Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(
+            loader, 100, 10, new Thing42DataCache.Weigher<String>() {
+                public long weigh(final String data) {
+                    return (data == null) ? 0 : data.length();
+                }
+            });
+        Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "aaaa");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(2, 0, "bbbb");
+        a.setDataCache(cache);
+        b.setDataCache(cache);
+        assertTrue(cache.weight() == 8);
+        b.setData("bbbbbbb");
+        assertTrue(cache.weight() == 7 && cache.size() == 1);
+        b.setData("way too long");
+        assertTrue(cache.weight() == 0);
+        assertEquals("way too long", b.getData());
+        b.setData(null);
+        assertNull(b.getData());
+        assertTrue(cache.size() == 1);
+        cache.clear();
+        assertTrue(cache.size() == 0 && cache.weight() == 0);
+        assertEquals("aaaa", a.getData());
+    }
+
+    /**
+     * Compares, hashes and records objects whose data is cached.
+     */
+    @Test
+    public void testCachedData()
+    {
+        Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(loader, 4);
+        Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "same");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(1, 0, "same");
+        int hash = a.hashCode();
+        a.setDataCache(cache);
+        assertTrue(a.equals(b) && b.equals(a));
+        assertTrue(a.hashCode() == hash);
+        Thing42<Integer, String> c = new Thing42<Integer, String>(1, 0, "same",
+            Thing42.PeerStorage.LISTS, Thing42.Equality.STRUCTURAL);
+        Thing42<Integer, String> d = new Thing42<Integer, String>(1, 0, "same",
+            Thing42.PeerStorage.LISTS, Thing42.Equality.STRUCTURAL);
+        c.setDataCache(cache);
+        assertTrue(c.equals(d));
+        c.setData("other");
+        assertFalse(c.equals(d));
+
+        final List<String> olds = new ArrayList<String>();
+        Thing42Feed<Integer, String> feed = new Thing42Feed<Integer, String>(4);
+        feed.addListener(new Thing42Feed.Listener<Integer, String>() {
+            public void onChanges(final Thing42Feed<Integer, String>.Changes changes) {
+                for (int i = 0; i < changes.size(); i++) {
+                    olds.add(changes.getOldData(i) + "->" + changes.getNewData(i));
+                }
+            }
+        });
+        a.setFeed(feed);
+        cache.clear();
+        a.setData("new");
+        feed.flush();
+        assertEquals("[same->new]", olds.toString());
+    }
+
+    /**
+     * Sets the data of an object whose data is not cached, and checks
+     * that the old data is only loaded for a feed with listeners.
+     */
+    @Test
+    public void testSetDataLoadsOnlyForFeed()
+    {
+        Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(loader, 4);
+        Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "a");
+        a.setDataCache(cache);
+        Thing42Feed<Integer, String> feed = new Thing42Feed<Integer, String>(4);
+        a.setFeed(feed);
+        cache.clear();
+        a.setData("b");
+        assertTrue(calls[0] == 0);
+        feed.addListener(new Thing42Feed.Listener<Integer, String>() {
+            public void onChanges(final Thing42Feed<Integer, String>.Changes changes) {
+            }
+        });
+        cache.clear();
+        a.setData("c");
+        assertTrue(calls[0] == 1);
+        assertEquals("c", a.getData());
+    }
+
+    /**
+     * Writes data while data is loaded, and checks that a load is
+     * cached when another object was written, and that the written data
+     * wins when the same object was.
+     */
+    @Test
+    public void testWriteDuringLoad()
+    {
+        final Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "a");
+        final Thing42<Integer, String> b = new Thing42<Integer, String>(2, 0, "b");
+        store.put(a, "a");
+        store.put(b, "b");
+        final List<Thing42DataCache<Integer, String>> caches
+            = new ArrayList<Thing42DataCache<Integer, String>>();
+        // sets the data of the object named by written while loading a
+        final List<Thing42<Integer, String>> written = new ArrayList<Thing42<Integer, String>>();
+        Thing42DataCache.Loader<Integer, String> racing = new Thing42DataCache.Loader<Integer, String>() {
+            public String load(final Thing42orNull<Integer, String> node) {
+                String data = loader.load(node);
+                if (node == a) {
+                    caches.get(0).set(written.get(0), "x");
+                }
+                return data;
+            }
+            public void store(final Thing42orNull<Integer, String> node, final String data) {
+                loader.store(node, data);
+            }
+        };
+        Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(racing, 4);
+        caches.add(cache);
+
+        written.add(b);
+        assertEquals("a", cache.get(a));
+        assertEquals("a", cache.get(a));
+        assertTrue(cache.getHitCount() == 1 && cache.getMissCount() == 1);
+
+        cache.clear();
+        written.set(0, a);
+        assertEquals("x", cache.get(a));
+        assertEquals("x", store.get(a));
+        assertEquals("x", cache.get(a));
+        assertTrue(cache.getHitCount() == 2 && cache.getMissCount() == 2);
+    }
+
+    /**
+     * Sets the data of one object from several threads, with a loader
+     * that is slow to store, and checks that the loader and the cache
+     * end up with the same data.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrentSets() throws InterruptedException
+    {
+        final Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "a");
+        final String[] stored = new String[1];
+        Thing42DataCache.Loader<Integer, String> slow = new Thing42DataCache.Loader<Integer, String>() {
+            public String load(final Thing42orNull<Integer, String> node) {
+                synchronized (stored) {
+                    return stored[0];
+                }
+            }
+            public void store(final Thing42orNull<Integer, String> node, final String data) {
+                Thread.yield();
+                synchronized (stored) {
+                    stored[0] = data;
+                }
+            }
+        };
+        final Thing42DataCache<Integer, String> cache = new Thing42DataCache<Integer, String>(slow, 4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String data = "t" + t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        cache.set(a, data);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(stored[0], cache.get(a));
+        assertTrue(cache.getMissCount() == 0);
+    }
+
+    /**
+     * Checks the arguments.
+     */
+    @Test
+    public void testArguments()
+    {
+        try {
+            new Thing42DataCache<Integer, String>(null, 1);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+        try {
+            new Thing42DataCache<Integer, String>(loader, 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            new Thing42DataCache<Integer, String>(loader, 1, 0, null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Creates objects with data "data" + key and puts their data in a
+     * cache.
+     *
+     * @param cache the cache
+     * @param count the number of objects
+     * @return the objects
+     */
+    private static List<Thing42<Integer, String>> nodes(final Thing42DataCache<Integer, String> cache,
+                                                        final int count)
+    {
+        List<Thing42<Integer, String>> nodes = new ArrayList<Thing42<Integer, String>>();
+        for (int i = 0; i < count; i++) {
+            Thing42<Integer, String> node = new Thing42<Integer, String>(i, 0, "data" + i);
+            node.setDataCache(cache);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+}
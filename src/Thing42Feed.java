@@ -0,0 +1,334 @@
+import java.util.Arrays;
+
+/**
+ * Stream of the changes made to one or more Thing42 objects, for
+ * consumers that keep derived state such as caches and indexes up to
+ * date without rescanning.
+ * <br />
+ * A Thing42 given a feed with {@link Thing42#setFeed} records every
+ * change it makes to its data, peers and pool in the feed's ring
+ * buffer: the kind of change, the object that changed, and the peer or
+ * member added or removed (the very instance that was stored), or the
+ * old and new data. Changes are numbered in the order they were made.
+ * The recorded changes are passed to the listeners as one batch when
+ * the buffer is full and whenever {@link #flush()} is called, so a
+ * listener is called once per batch instead of once per change.
+ * <br /><br />
+ * Recording a change writes four array slots and allocates nothing. A
+ * feed with no listeners records nothing, and a Thing42 without a feed
+ * pays a single null check per mutation.
+ * <br /><br />
+ * Like Thing42, a feed is not thread-safe: the objects sharing a feed
+ * must be mutated by one thread at a time, and listeners run on the
+ * thread that fills the buffer or flushes it. Listeners may mutate the
+ * objects of the feed; their changes are delivered in a later batch of
+ * the same flush, unless they fill the buffer while it is being
+ * delivered, which throws IllegalStateException.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Feed<K, D> {
+    /**
+     * Kinds of change.
+     */
+    public enum Kind {
+        /** A peer was added; the subject is the peer. */
+        PEER_ADDED,
+        /** A peer was removed; the subject is the stored peer removed. */
+        PEER_REMOVED,
+        /** A member was appended to the pool; the subject is the member. */
+        POOL_APPENDED,
+        /** A member was removed from the pool; the subject is the stored member removed. */
+        POOL_REMOVED,
+        /** The data was set; the subject is the new data. */
+        DATA_SET
+    }
+
+    /**
+     * Receives the changes of a feed.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     */
+    public interface Listener<K, D> {
+        /**
+         * Handles a batch of changes.
+         *
+         * @param changes the changes, in the order they were made;
+         * valid only until this method returns
+         */
+        void onChanges(Thing42Feed<K, D>.Changes changes);
+    }
+
+    /**
+     * A batch of changes, read in place from the ring buffer.
+     */
+    public final class Changes {
+        /** Number of the first change. */
+        private long first;
+        /** Number of changes. */
+        private int size;
+
+        /**
+         * Number of changes in the batch.
+         *
+         * @return the number of changes
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Slot of a change in the ring buffer.
+         *
+         * @param i the index of the change in the batch
+         * @return the slot
+         * @throws IndexOutOfBoundsException if i is out of range
+         */
+        private int slot(final int i) throws IndexOutOfBoundsException {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(String.valueOf(i));
+            }
+            return (int) (first + i) & mask;
+        }
+
+        /**
+         * Number of a change. The changes a feed records are
+         * numbered from 0 in the order they were made.
+         *
+         * @param i the index of the change in the batch
+         * @return the number of the change
+         */
+        public long getSequence(final int i) {
+            slot(i);
+            return first + i;
+        }
+
+        /**
+         * Kind of a change.
+         *
+         * @param i the index of the change in the batch
+         * @return the kind
+         */
+        public Kind getKind(final int i) {
+            return kinds[slot(i)];
+        }
+
+        /**
+         * The object that changed.
+         *
+         * @param i the index of the change in the batch
+         * @return the object
+         */
+        @SuppressWarnings("unchecked")
+        public Thing42orNull<K, D> getSource(final int i) {
+            return (Thing42orNull<K, D>) sources[slot(i)];
+        }
+
+        /**
+         * The peer or pool member added or removed.
+         *
+         * @param i the index of the change in the batch
+         * @return the peer or member; null for {@link Kind#DATA_SET}
+         */
+        @SuppressWarnings("unchecked")
+        public Thing42orNull<K, D> getSubject(final int i) {
+            int s = slot(i);
+            return (kinds[s] == Kind.DATA_SET) ? null : (Thing42orNull<K, D>) subjects[s];
+        }
+
+        /**
+         * The data before a change.
+         *
+         * @param i the index of the change in the batch
+         * @return the old data; null unless {@link Kind#DATA_SET}
+         */
+        @SuppressWarnings("unchecked")
+        public D getOldData(final int i) {
+            return (D) olds[slot(i)];
+        }
+
+        /**
+         * The data after a change.
+         *
+         * @param i the index of the change in the batch
+         * @return the new data; null unless {@link Kind#DATA_SET}
+         */
+        @SuppressWarnings("unchecked")
+        public D getNewData(final int i) {
+            int s = slot(i);
+            return (kinds[s] == Kind.DATA_SET) ? (D) subjects[s] : null;
+        }
+    }
+
+    /** Capacity of the ring buffer minus 1; the capacity is a power of 2. */
+    private final int mask;
+    /** Kinds of the recorded changes. */
+    private final Kind[] kinds;
+    /** Objects that changed. */
+    private final Object[] sources;
+    /** Peers or members added or removed, or new data. */
+    private final Object[] subjects;
+    /** Old data. */
+    private final Object[] olds;
+    /** Number of the oldest change not yet delivered. */
+    private long head;
+    /** Number of the next change. */
+    private long tail;
+    /** The listeners; replaced, never modified. */
+    @SuppressWarnings("unchecked")
+    private Listener<K, D>[] listeners = new Listener[0];
+    /** The batch being delivered. */
+    private final Changes changes = new Changes();
+    /** True while listeners are called. */
+    private boolean delivering;
+
+    /**
+     * Constructor for objects of class Thing42Feed.
+     *
+     * @param capacity the most changes delivered in one batch; rounded
+     * up to a power of 2
+     * @throws IllegalArgumentException if capacity is less than 1 or
+     * greater than 2^30
+     */
+    public Thing42Feed(final int capacity) throws IllegalArgumentException {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int n = Integer.highestOneBit(capacity);
+        if (n < capacity) {
+            n <<= 1;
+        }
+        this.mask = n - 1;
+        this.kinds = new Kind[n];
+        this.sources = new Object[n];
+        this.subjects = new Object[n];
+        this.olds = new Object[n];
+    }
+
+    /**
+     * Adds a listener. A listener added twice is called twice.
+     *
+     * @param listener the listener
+     * @throws NullPointerException if the listener is null
+     */
+    public void addListener(final Listener<K, D> listener) throws NullPointerException {
+        if (listener == null) {
+            throw new NullPointerException();
+        }
+        Listener<K, D>[] more = Arrays.copyOf(listeners, listeners.length + 1);
+        more[listeners.length] = listener;
+        listeners = more;
+    }
+
+    /**
+     * Removes a listener. Once the last listener is removed, the feed
+     * stops recording; changes already recorded are still delivered
+     * to listeners added before the next flush.
+     *
+     * @param listener the listener
+     * @return true if it was a listener
+     */
+    public boolean removeListener(final Listener<K, D> listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                @SuppressWarnings("unchecked")
+                Listener<K, D>[] fewer = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, fewer, 0, i);
+                System.arraycopy(listeners, i + 1, fewer, i, fewer.length - i);
+                listeners = fewer;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of changes recorded and not delivered yet.
+     *
+     * @return the number of changes
+     */
+    public int pending() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Tells whether changes are recorded, so that callers can skip
+     * work done only for the record.
+     *
+     * @return true if the feed has listeners
+     */
+    boolean isRecording() {
+        return listeners.length > 0;
+    }
+
+    /**
+     * Records a change, delivering the buffer first if it is full.
+     *
+     * @param kind the kind of change
+     * @param source the object that changed
+     * @param subject the peer or member, or the new data
+     * @param old the old data, or null
+     * @throws IllegalStateException if the buffer is full while it is
+     * being delivered
+     */
+    void record(final Kind kind, final Thing42orNull<K, D> source, final Object subject,
+                final Object old) throws IllegalStateException {
+        if (!isRecording()) {
+            return;
+        }
+        if (tail - head > mask) {
+            if (delivering) {
+                throw new IllegalStateException("feed is full while it is delivered");
+            }
+            flush();
+        }
+        int s = (int) tail & mask;
+        kinds[s] = kind;
+        sources[s] = source;
+        subjects[s] = subject;
+        olds[s] = old;
+        tail++;
+    }
+
+    /**
+     * Delivers the recorded changes to the listeners, as one batch,
+     * followed by a batch of the changes the listeners make meanwhile,
+     * until none are left. Does nothing if called by a listener.
+     * If a listener throws, the batch is dropped for all listeners
+     * and the exception is passed on.
+     */
+    public void flush() {
+        if (delivering) {
+            return;
+        }
+        delivering = true;
+        try {
+            while (head < tail) {
+                long to = tail;
+                changes.first = head;
+                changes.size = (int) (to - head);
+                try {
+                    for (Listener<K, D> listener : listeners) {
+                        listener.onChanges(changes);
+                    }
+                } finally {
+                    for (long c = head; c < to; c++) {
+                        int s = (int) c & mask;
+                        sources[s] = null;
+                        subjects[s] = null;
+                        olds[s] = null;
+                    }
+                    head = to;
+                    changes.size = 0;
+                }
+            }
+        } finally {
+            delivering = false;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42FeedTest.
+ *
+ * Mutates Thing42 objects that share a feed and checks the changes the
+ * listeners receive, their batches and their order.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42FeedTest
+{
+    //The feed under test, with a buffer of 4 changes.
+    Thing42Feed<Integer, String> feed;
+    //Every change received, one line each.
+    List<String> log;
+    //Sizes of the batches received.
+    List<Integer> batches;
+    //Records the changes in log and batches.
+    Thing42Feed.Listener<Integer, String> recorder;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        feed = new Thing42Feed<Integer, String>(3);
+        log = new ArrayList<String>();
+        batches = new ArrayList<Integer>();
+        recorder = new Thing42Feed.Listener<Integer, String>() {
+            public void onChanges(final Thing42Feed<Integer, String>.Changes changes) {
+                batches.add(changes.size());
+                for (int i = 0; i < changes.size(); i++) {
+                    String line = changes.getSequence(i) + " " + changes.getKind(i) + " "
+                        + changes.getSource(i).getKey();
+                    if (changes.getKind(i) == Thing42Feed.Kind.DATA_SET) {
+                        line += " " + changes.getOldData(i) + "->" + changes.getNewData(i);
+                    } else {
+                        line += " " + changes.getSubject(i).getData();
+                    }
+                    log.add(line);
+                }
+            }
+        };
+        feed.addListener(recorder);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        feed = null;
+        log = null;
+        batches = null;
+        recorder = null;
+    }
+
+    /**
+     * Makes every kind of change to two objects and checks the
+     * batches: full buffers are delivered on their own, and flush
+     * delivers the rest.
+     */
+    @Test
+    public void testChanges()
+    {
+        Thing42<Integer, String> a = new Thing42<Integer, String>(1, 0, "a");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(2, 0, "b");
+        Thing42<Integer, String> p = new Thing42<Integer, String>(3, 0, "p");
+        a.setFeed(feed);
+        b.setFeed(feed);
+        assertTrue(a.getFeed() == feed);
+        a.addPeer(p);
+        b.appendToPool(p);
+        a.setData("a2");
+        assertTrue(feed.pending() == 3);
+        assertFalse(a.removePeer(b));
+        assertTrue(a.removePeer(p));
+        assertTrue(b.removeFromPool(p));
+        a.addPeers(Arrays.asList(p, b));
+        assertTrue(a.removePeers(Arrays.asList(p, p)));
+        b.appendAllToPool(Arrays.asList(a, a));
+        assertTrue(b.removeAllFromPool(Arrays.asList(a)));
+        assertTrue(batches.equals(Arrays.asList(4, 4)));
+        feed.flush();
+        feed.flush();
+        assertTrue(feed.pending() == 0);
+        assertEquals(Arrays.asList(
+            "0 PEER_ADDED 1 p", "1 POOL_APPENDED 2 p", "2 DATA_SET 1 a->a2",
+            "3 PEER_REMOVED 1 p", "4 POOL_REMOVED 2 p", "5 PEER_ADDED 1 p",
+            "6 PEER_ADDED 1 b", "7 PEER_REMOVED 1 p", "8 POOL_APPENDED 2 a2",
+            "9 POOL_APPENDED 2 a2", "10 POOL_REMOVED 2 a2"), log);
+        assertTrue(batches.equals(Arrays.asList(4, 4, 3)));
+    }
+
+    /**
+     * Removes a peer and a member with objects that are equal to them
+     * but not the same, and checks that the stored instances are
+     * reported.
+     */
+    @Test
+    public void testStoredInstances()
+    {
+        final List<Thing42orNull<Integer, String>> subjects
+            = new ArrayList<Thing42orNull<Integer, String>>();
+        feed.addListener(new Thing42Feed.Listener<Integer, String>() {
+            public void onChanges(final Thing42Feed<Integer, String>.Changes changes) {
+                for (int i = 0; i < changes.size(); i++) {
+                    subjects.add(changes.getSubject(i));
+                }
+            }
+        });
+        Thing42<Integer, String> node = new Thing42<Integer, String>(1, 0, "node");
+        Thing42<Integer, String> stored = new Thing42<Integer, String>(2, 0, "peer");
+        Thing42<Integer, String> twin = new Thing42<Integer, String>(2, 0, "peer");
+        assertEquals(stored, twin);
+        node.addPeer(stored);
+        node.appendToPool(stored);
+        node.setFeed(feed);
+        assertTrue(node.removePeer(twin));
+        assertTrue(node.removeFromPool(twin));
+        feed.flush();
+        assertTrue(subjects.size() == 2);
+        assertTrue(subjects.get(0) == stored && subjects.get(1) == stored);
+    }
+
+    /**
+     * Checks that nothing is recorded without listeners or without a
+     * feed, and that recording stops when the feed is detached.
+     */
+    @Test
+    public void testNotRecorded()
+    {
+        Thing42<Integer, String> node = new Thing42<Integer, String>(1, 0, "node");
+        node.setData("unrecorded");
+        node.setFeed(feed);
+        assertTrue(feed.removeListener(recorder));
+        assertFalse(feed.removeListener(recorder));
+        node.setData("no listener");
+        assertTrue(feed.pending() == 0);
+        feed.addListener(recorder);
+        node.setData("recorded");
+        node.setFeed(null);
+        node.setData("detached");
+        feed.flush();
+        assertEquals(Arrays.asList("0 DATA_SET 1 no listener->recorded"), log);
+    }
+
+    /**
+     * Mutates from a listener, and fills the buffer from a listener.
+     */
+    @Test
+    public void testListenerMutations()
+    {
+        final Thing42<Integer, String> node = new Thing42<Integer, String>(1, 0, "node");
+        node.setFeed(feed);
+        final int[] calls = new int[1];
+        feed.addListener(new Thing42Feed.Listener<Integer, String>() {
+            public void onChanges(final Thing42Feed<Integer, String>.Changes changes) {
+                if (calls[0]++ == 0) {
+                    node.setData("from listener");
+                }
+            }
+        });
+        node.setData("first");
+        feed.flush();
+        assertEquals(Arrays.asList("0 DATA_SET 1 node->first",
+                                   "1 DATA_SET 1 first->from listener"), log);
+        assertTrue(batches.equals(Arrays.asList(1, 1)));
+
+        feed.addListener(new Thing42Feed.Listener<Integer, String>() {
+            public void onChanges(final Thing42Feed<Integer, String>.Changes changes) {
+                for (int i = 0; i < 4; i++) {
+                    node.setData("overflow");
+                }
+            }
+        });
+        node.setData("last");
+        try {
+            feed.flush();
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Checks the arguments.
+     */
+    @Test
+    public void testArguments()
+    {
+        try {
+            new Thing42Feed<Integer, String>(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            feed.addListener(null);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,781 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact binary file holding a whole graph of Thing42orNull objects,
+ * read through a memory mapping.
+ * <br />
+ * {@link #write} stores every object reachable from some roots through
+ * peers and pool; it walks the graph iteratively, so long chains and
+ * cycles are fine. {@link #open} maps the file and returns at once:
+ * nothing is read until a node is asked for, and nodes are then
+ * read-only flyweights that decode their key and data from the mapping
+ * on each access and find their peers and pool in it.
+ * <br /><br />
+ * The file is big-endian and made of these sections:
+ * <pre>
+ *  header      magic "T42G", version, node, key and root counts,
+ *              and the offsets of the other sections
+ *  keys        the distinct non-null keys, each encoded by the key
+ *              codec, sorted by their bytes
+ *  key index   for each key its offset, then the end of the keys
+ *  data        the non-null data, each encoded by the data codec
+ *  adjacency   for each node the indices of its peers, then of its
+ *              pool members, as ints
+ *  roots       the indices of the roots, as ints
+ *  node table  for each node, 40 bytes: key index (-1 for null),
+ *              data length (-1 for null), level, data offset,
+ *              first adjacency entry, number of peers, pool size
+ * </pre>
+ * Nodes are numbered in the order they are reached, breadth first from
+ * the roots, and keys are matched by their encoded bytes, so a codec
+ * must encode equal keys identically.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42GraphFile<K, D> {
+    /** First 4 bytes of a graph file: "T42G". */
+    private static final int MAGIC = 0x54343247;
+    /** Version of the format. */
+    private static final int VERSION = 1;
+    /** Size of the header. */
+    private static final int HEADER = 64;
+    /** Size of a node table record. */
+    private static final int RECORD = 40;
+    /** Orders encoded keys by their bytes, as unsigned. */
+    private static final Comparator<byte[]> BYTES = new Comparator<byte[]>() {
+        public int compare(final byte[] a, final byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    /** The mapped file. */
+    private final MappedBuffer file;
+    /** Codec of the keys. */
+    private final Thing42Codec<K> keyCodec;
+    /** Codec of the data. */
+    private final Thing42Codec<D> dataCodec;
+    /** Number of nodes. */
+    private final int nodeCount;
+    /** Number of distinct non-null keys. */
+    private final int keyCount;
+    /** Number of roots. */
+    private final int rootCount;
+    /** Offset of the key index. */
+    private final long keyIndex;
+    /** Offset of the adjacency section. */
+    private final long adjacency;
+    /** Offset of the roots. */
+    private final long roots;
+    /** Offset of the node table. */
+    private final long nodes;
+
+    /**
+     * Constructor for objects of class Thing42GraphFile.
+     *
+     * @param file the mapped file
+     * @param keyCodec codec of the keys
+     * @param dataCodec codec of the data
+     * @throws IOException if the file is not a graph file
+     */
+    private Thing42GraphFile(final MappedBuffer file, final Thing42Codec<K> keyCodec,
+                             final Thing42Codec<D> dataCodec) throws IOException {
+        if (file.size() < HEADER || file.getInt(0) != MAGIC) {
+            throw new IOException("not a Thing42 graph file");
+        }
+        if (file.getInt(4) != VERSION) {
+            throw new IOException("unsupported graph file version " + file.getInt(4));
+        }
+        this.file = file;
+        this.keyCodec = keyCodec;
+        this.dataCodec = dataCodec;
+        this.nodeCount = file.getInt(8);
+        this.keyCount = file.getInt(12);
+        this.rootCount = file.getInt(16);
+        this.keyIndex = file.getLong(24);
+        this.adjacency = file.getLong(32);
+        this.roots = file.getLong(40);
+        this.nodes = file.getLong(48);
+        if (nodes + (long) nodeCount * RECORD > file.size()) {
+            throw new IOException("truncated graph file");
+        }
+    }
+
+    /**
+     * Opens a graph file. The file is mapped, not read, and can be
+     * closed or replaced by the caller afterwards only on systems that
+     * allow this for mapped files.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param path the file
+     * @param keyCodec codec of the keys
+     * @param dataCodec codec of the data
+     * @return the graph
+     * @throws IOException if the file cannot be mapped or is not a graph file
+     * @throws NullPointerException if any argument is null
+     */
+    public static <K, D> Thing42GraphFile<K, D> open(final File path,
+                                                     final Thing42Codec<K> keyCodec,
+                                                     final Thing42Codec<D> dataCodec)
+    throws IOException, NullPointerException {
+        if (keyCodec == null || dataCodec == null) {
+            throw new NullPointerException();
+        }
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            return new Thing42GraphFile<K, D>(new MappedBuffer(raf.getChannel()),
+                                              keyCodec, dataCodec);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes all objects reachable from some roots to a graph file.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param path the file, which is replaced
+     * @param rootNodes the roots; later duplicates are ignored
+     * @param keyCodec codec of the keys
+     * @param dataCodec codec of the data
+     * @throws IOException if the file cannot be written
+     * @throws NullPointerException if any argument or root is null
+     */
+    public static <K, D> void write(final File path,
+                                    final Collection<? extends Thing42orNull<K, D>> rootNodes,
+                                    final Thing42Codec<K> keyCodec,
+                                    final Thing42Codec<D> dataCodec)
+    throws IOException, NullPointerException {
+        if (path == null || keyCodec == null || dataCodec == null) {
+            throw new NullPointerException();
+        }
+
+        // number the nodes breadth first
+        IdentityHashMap<Thing42orNull<K, D>, Integer> index
+            = new IdentityHashMap<Thing42orNull<K, D>, Integer>();
+        ArrayList<Thing42orNull<K, D>> all = new ArrayList<Thing42orNull<K, D>>();
+        ArrayList<Integer> rootIndices = new ArrayList<Integer>();
+        for (Thing42orNull<K, D> root : rootNodes) {
+            if (root == null) {
+                throw new NullPointerException();
+            }
+            if (!index.containsKey(root)) {
+                rootIndices.add(number(root, index, all));
+            }
+        }
+        long edges = 0;
+        for (int i = 0; i < all.size(); i++) {
+            Thing42orNull<K, D> node = all.get(i);
+            for (Thing42orNull<K, D> peer : node.getPeersAsCollection()) {
+                number(peer, index, all);
+                edges++;
+            }
+            for (Thing42orNull<K, D> member : node.getPoolAsList()) {
+                number(member, index, all);
+                edges++;
+            }
+        }
+
+        // encode the distinct keys and sort them by their bytes
+        HashMap<K, byte[]> encoded = new HashMap<K, byte[]>();
+        for (Thing42orNull<K, D> node : all) {
+            K k = node.getKey();
+            if (k != null && !encoded.containsKey(k)) {
+                encoded.put(k, encode(keyCodec, k));
+            }
+        }
+        byte[][] keys = encoded.values().toArray(new byte[encoded.size()][]);
+        Arrays.sort(keys, BYTES);
+        IdentityHashMap<byte[], Integer> keyIds = new IdentityHashMap<byte[], Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            keyIds.put(keys[i], Integer.valueOf(i));
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(path, "rw");
+        try {
+            raf.setLength(0);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 16));
+            long pos = HEADER;
+            out.write(new byte[HEADER]);
+
+            long[] keyOffsets = new long[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                keyOffsets[i] = pos;
+                out.write(keys[i]);
+                pos += keys[i].length;
+            }
+            long keyIndexOffset = pos;
+            for (long offset : keyOffsets) {
+                out.writeLong(offset);
+            }
+            out.writeLong(keyIndexOffset);
+            pos += 8L * (keys.length + 1);
+
+            long[] dataOffsets = new long[all.size()];
+            int[] dataLengths = new int[all.size()];
+            for (int i = 0; i < all.size(); i++) {
+                D d = all.get(i).getData();
+                dataLengths[i] = -1;
+                if (d != null) {
+                    byte[] bytes = encode(dataCodec, d);
+                    dataOffsets[i] = pos;
+                    dataLengths[i] = bytes.length;
+                    out.write(bytes);
+                    pos += bytes.length;
+                }
+            }
+
+            long adjacencyOffset = pos;
+            for (Thing42orNull<K, D> node : all) {
+                for (Thing42orNull<K, D> peer : node.getPeersAsCollection()) {
+                    out.writeInt(index.get(peer).intValue());
+                }
+                for (Thing42orNull<K, D> member : node.getPoolAsList()) {
+                    out.writeInt(index.get(member).intValue());
+                }
+            }
+            pos += 4 * edges;
+
+            long rootsOffset = pos;
+            for (Integer root : rootIndices) {
+                out.writeInt(root.intValue());
+            }
+            pos += 4L * rootIndices.size();
+
+            long nodesOffset = pos;
+            long first = 0;
+            for (int i = 0; i < all.size(); i++) {
+                Thing42orNull<K, D> node = all.get(i);
+                K k = node.getKey();
+                int peerCount = node.getPeersAsCollection().size();
+                int poolSize = node.getPoolAsList().size();
+                out.writeInt((k == null) ? -1 : keyIds.get(encoded.get(k)).intValue());
+                out.writeInt(dataLengths[i]);
+                out.writeLong(node.getLevel());
+                out.writeLong(dataOffsets[i]);
+                out.writeLong(first);
+                out.writeInt(peerCount);
+                out.writeInt(poolSize);
+                first += peerCount + poolSize;
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(all.size()).putInt(keys.length)
+                .putInt(rootIndices.size()).putInt(0)
+                .putLong(keyIndexOffset).putLong(adjacencyOffset)
+                .putLong(rootsOffset).putLong(nodesOffset);
+            header.rewind();
+            raf.getChannel().write(header, 0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Numbers a node if it has no number yet.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param node the node
+     * @param index the numbers so far
+     * @param all the nodes in order of their numbers
+     * @return the number of the node
+     */
+    private static <K, D> Integer number(final Thing42orNull<K, D> node,
+                                         final IdentityHashMap<Thing42orNull<K, D>, Integer> index,
+                                         final ArrayList<Thing42orNull<K, D>> all) {
+        Integer i = index.get(node);
+        if (i == null) {
+            i = Integer.valueOf(all.size());
+            index.put(node, i);
+            all.add(node);
+        }
+        return i;
+    }
+
+    /**
+     * Encodes a value.
+     *
+     * @param <T> the type of value
+     * @param codec the codec
+     * @param value the value, not null
+     * @return the bytes
+     * @throws IOException if the codec fails
+     */
+    private static <T> byte[] encode(final Thing42Codec<T> codec, final T value)
+    throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        codec.write(value, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Number of nodes.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    /**
+     * Number of roots.
+     *
+     * @return the number of roots
+     */
+    public int getRootCount() {
+        return rootCount;
+    }
+
+    /**
+     * Accesses a root.
+     *
+     * @param i the position of the root among those written
+     * @return the root
+     * @throws IndexOutOfBoundsException if there is no such root
+     */
+    public Thing42orNull<K, D> getRoot(final int i) throws IndexOutOfBoundsException {
+        if (i < 0 || i >= rootCount) {
+            throw new IndexOutOfBoundsException("no root " + i);
+        }
+        return new Node(file.getInt(roots + 4L * i));
+    }
+
+    /**
+     * Accesses a node by number.
+     *
+     * @param i the number of the node
+     * @return the node
+     * @throws IndexOutOfBoundsException if there is no such node
+     */
+    public Thing42orNull<K, D> getNode(final int i) throws IndexOutOfBoundsException {
+        if (i < 0 || i >= nodeCount) {
+            throw new IndexOutOfBoundsException("no node " + i);
+        }
+        return new Node(i);
+    }
+
+    /**
+     * Decodes a value from the file.
+     *
+     * @param <T> the type of value
+     * @param codec the codec
+     * @param pos the position of the value
+     * @param length the length of the value
+     * @return the value
+     * @throws IllegalStateException if the codec fails
+     */
+    private <T> T decode(final Thing42Codec<T> codec, final long pos, final int length)
+    throws IllegalStateException {
+        try {
+            return codec.read(new DataInputStream(new BufferInput(file.slice(pos, length))));
+        } catch (IOException e) {
+            throw new IllegalStateException("corrupt graph file", e);
+        }
+    }
+
+    /**
+     * Finds the index of a key in the key section.
+     *
+     * @param key the key, not null
+     * @return the index; -1 if no node has the key
+     * @throws IllegalStateException if the codec fails
+     */
+    private int findKey(final K key) throws IllegalStateException {
+        byte[] bytes;
+        try {
+            bytes = encode(keyCodec, key);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long start = file.getLong(keyIndex + 8L * mid);
+            long end = file.getLong(keyIndex + 8L * (mid + 1));
+            int c = 0;
+            long n = Math.min(end - start, bytes.length);
+            for (int i = 0; i < n && c == 0; i++) {
+                c = (file.get(start + i) & 0xFF) - (bytes[i] & 0xFF);
+            }
+            if (c == 0) {
+                c = (int) Math.signum((end - start) - bytes.length);
+            }
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * InputStream over a ByteBuffer, for decoding values in place.
+     */
+    private static final class BufferInput extends InputStream {
+        /** The bytes. */
+        private final ByteBuffer buffer;
+
+        /**
+         * Constructor for objects of class BufferInput.
+         *
+         * @param buffer the bytes
+         */
+        private BufferInput(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Read-only flyweight for a node of the file.
+     * <br />
+     * Key and data are decoded on every access. The mutators throw
+     * UnsupportedOperationException. Two flyweights are equal if they
+     * stand for the same node of the same opened file.
+     */
+    private final class Node implements Thing42orNull<K, D> {
+        /** Number of the node. */
+        private final int index;
+        /** Offset of the record of the node. */
+        private final long record;
+
+        /**
+         * Constructor for objects of class Node.
+         *
+         * @param index the number of the node
+         */
+        private Node(final int index) {
+            this.index = index;
+            this.record = nodes + (long) index * RECORD;
+        }
+
+        /**
+         * Index of the key of this node.
+         *
+         * @return the key index; -1 for a null key
+         */
+        private int keyIndex() {
+            return file.getInt(record);
+        }
+
+        /**
+         * Number of peers.
+         *
+         * @return the number of peers
+         */
+        private int peerCount() {
+            return file.getInt(record + 32);
+        }
+
+        /**
+         * Number of pool members.
+         *
+         * @return the pool size
+         */
+        private int poolSize() {
+            return file.getInt(record + 36);
+        }
+
+        /**
+         * Reads an entry of the adjacency of this node.
+         *
+         * @param i the entry; peers first, then pool members
+         * @return the number of the node in the entry
+         */
+        private int adjacent(final int i) {
+            return file.getInt(adjacency + 4 * (file.getLong(record + 24) + i));
+        }
+
+        /**
+         * Not supported: the file is read-only.
+         *
+         * @param newPeer ignored
+         * @throws UnsupportedOperationException always
+         */
+        public void addPeer(final Thing42orNull<K, D> newPeer)
+        throws UnsupportedOperationException {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not supported: the file is read-only.
+         *
+         * @param newMember ignored
+         * @throws UnsupportedOperationException always
+         */
+        public void appendToPool(final Thing42orNull<K, D> newMember)
+        throws UnsupportedOperationException {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Access the data of this node, decoding it.
+         *
+         * @return the data of this object
+         */
+        public D getData() {
+            int length = file.getInt(record + 4);
+            if (length < 0) {
+                return null;
+            }
+            return decode(dataCodec, file.getLong(record + 16), length);
+        }
+
+        /**
+         * Access the key of this node, decoding it.
+         *
+         * @return the key of this object
+         */
+        public K getKey() {
+            int k = keyIndex();
+            if (k < 0) {
+                return null;
+            }
+            long start = file.getLong(keyIndex + 8L * k);
+            long end = file.getLong(keyIndex + 8L * (k + 1));
+            return decode(keyCodec, start, (int) (end - start));
+        }
+
+        /**
+         * Access the level of this node.
+         *
+         * @return the level of this object
+         */
+        public long getLevel() {
+            return file.getLong(record + 8);
+        }
+
+        /**
+         * Access a peer matching the specified key.
+         *
+         * @param key the search key
+         * @return the first peer with the given key; null if no match
+         */
+        public Thing42orNull<K, D> getOnePeer(final K key) {
+            int k = (key == null) ? -1 : findKey(key);
+            if (key != null && k < 0) {
+                return null;
+            }
+            int n = peerCount();
+            for (int i = 0; i < n; i++) {
+                int peer = adjacent(i);
+                if (file.getInt(nodes + (long) peer * RECORD) == k) {
+                    return new Node(peer);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Access all peers.
+         *
+         * @return a read-only collection of all peers of this node
+         */
+        public Collection<Thing42orNull<K, D>> getPeersAsCollection() {
+            return new AbstractCollection<Thing42orNull<K, D>>() {
+                @Override
+                public int size() {
+                    return peerCount();
+                }
+
+                @Override
+                public Iterator<Thing42orNull<K, D>> iterator() {
+                    return new Iterator<Thing42orNull<K, D>>() {
+                        private int i;
+
+                        public boolean hasNext() {
+                            return i < peerCount();
+                        }
+
+                        public Thing42orNull<K, D> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return new Node(adjacent(i++));
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        /**
+         * Access all peers matching the specified key.
+         *
+         * @param key the search key
+         * @return a copy of the peers with the given key;
+         * if no peer matches then returns a collection with size() == 0.
+         */
+        public Collection<Thing42orNull<K, D>> getPeersAsCollection(final K key) {
+            ArrayList<Thing42orNull<K, D>> matches = new ArrayList<Thing42orNull<K, D>>(0);
+            int k = (key == null) ? -1 : findKey(key);
+            if (key != null && k < 0) {
+                return matches;
+            }
+            int n = peerCount();
+            for (int i = 0; i < n; i++) {
+                int peer = adjacent(i);
+                if (file.getInt(nodes + (long) peer * RECORD) == k) {
+                    matches.add(new Node(peer));
+                }
+            }
+            return matches;
+        }
+
+        /**
+         * Access all members of the pool.
+         *
+         * @return a read-only list of the pool of this node
+         */
+        public List<Thing42orNull<K, D>> getPoolAsList() {
+            return new AbstractList<Thing42orNull<K, D>>() {
+                @Override
+                public Thing42orNull<K, D> get(final int i) {
+                    if (i < 0 || i >= poolSize()) {
+                        throw new IndexOutOfBoundsException("no member " + i);
+                    }
+                    return new Node(adjacent(peerCount() + i));
+                }
+
+                @Override
+                public int size() {
+                    return poolSize();
+                }
+            };
+        }
+
+        /**
+         * Not supported: the file is read-only.
+         *
+         * @param member ignored
+         * @return never
+         * @throws UnsupportedOperationException always
+         */
+        public boolean removeFromPool(final Thing42orNull<K, D> member)
+        throws UnsupportedOperationException {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not supported: the file is read-only.
+         *
+         * @param peer ignored
+         * @return never
+         * @throws UnsupportedOperationException always
+         */
+        public boolean removePeer(final Thing42orNull<K, D> peer)
+        throws UnsupportedOperationException {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not supported: the file is read-only.
+         *
+         * @param newData ignored
+         * @throws UnsupportedOperationException always
+         */
+        public void setData(final D newData) throws UnsupportedOperationException {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Determines whether the specified Object stands for the same
+         * node of the same file.
+         *
+         * @param obj an Object to be compared with this node.
+         * @return true if obj stands for the same node; false otherwise.
+         * @see #hashCode()
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Thing42GraphFile.Node)) {
+                return false;
+            }
+            Thing42GraphFile<?, ?>.Node node = (Thing42GraphFile<?, ?>.Node) obj;
+            return node.owner() == Thing42GraphFile.this && node.index == index;
+        }
+
+        /**
+         * Returns the hashcode for this node.
+         *
+         * @return the hashcode for this node
+         */
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(Thing42GraphFile.this) + index;
+        }
+
+        /**
+         * Accesses the file of this node.
+         *
+         * @return the file
+         */
+        private Thing42GraphFile<K, D> owner() {
+            return Thing42GraphFile.this;
+        }
+    }
+}
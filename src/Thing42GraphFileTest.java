@@ -0,0 +1,159 @@
+import static org.junit.Assert.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42GraphFileTest.
+ *
+ * Writes graphs to graph files and reads them back through the
+ * mapping: attributes, peers, pool, cycles, long chains and bad files.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42GraphFileTest
+{
+    //The file graphs are written to.
+    File file;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     *
+     * @throws IOException if the file cannot be created
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile("thing42", ".t42g");
+        file.deleteOnExit();
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        file.delete();
+        file = null;
+    }
+
+    /**
+     * Writes a small graph with a cycle, duplicates and nulls and reads
+     * every attribute back.
+     *
+     * @throws IOException if the file cannot be written or read
+     */
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        Thing42<String, String> root = new Thing42<String, String>("root", 1, "data");
+        Thing42<String, String> a = new Thing42<String, String>("a", 2, null);
+        Thing42<String, String> b = new Thing42<String, String>(null, 3, "b");
+        root.addPeer(a);
+        root.addPeer(a);
+        root.addPeer(b);
+        a.addPeer(root);
+        root.appendToPool(b);
+        root.appendToPool(a);
+        Thing42GraphFile.write(file, Collections.singletonList(root),
+                               Thing42Codecs.STRING, Thing42Codecs.STRING);
+
+        Thing42GraphFile<String, String> graph
+            = Thing42GraphFile.open(file, Thing42Codecs.STRING, Thing42Codecs.STRING);
+        assertTrue(graph.size() == 3);
+        assertTrue(graph.getRootCount() == 1);
+        Thing42orNull<String, String> r = graph.getRoot(0);
+        assertEquals("root", r.getKey());
+        assertEquals("data", r.getData());
+        assertTrue(r.getLevel() == 1);
+        assertTrue(r.getPeersAsCollection().size() == 3);
+        assertTrue(r.getPeersAsCollection("a").size() == 2);
+        assertTrue(r.getPeersAsCollection("z").size() == 0);
+
+        Thing42orNull<String, String> ra = r.getOnePeer("a");
+        assertNull(ra.getData());
+        assertTrue(ra.getLevel() == 2);
+        assertEquals(r, ra.getOnePeer("root"));
+        assertTrue(r.getOnePeer(null).getLevel() == 3);
+        assertNull(r.getOnePeer("z"));
+
+        List<Thing42orNull<String, String>> pool = r.getPoolAsList();
+        assertTrue(pool.size() == 2);
+        assertEquals("b", pool.get(0).getData());
+        assertEquals(ra, pool.get(1));
+        assertEquals(graph.getNode(0), r);
+    }
+
+    /**
+     * Writes and reads a chain too long for recursive serialization.
+     *
+     * @throws IOException if the file cannot be written or read
+     */
+    @Test
+    public void testLongChain() throws IOException
+    {
+        Thing42<Long, Long> head = new Thing42<Long, Long>(0L, 0, 0L);
+        Thing42<Long, Long> last = head;
+        for (long i = 1; i < 100000; i++) {
+            Thing42<Long, Long> next = new Thing42<Long, Long>(i, i, i);
+            last.addPeer(next);
+            last = next;
+        }
+        Thing42GraphFile.write(file, Arrays.asList(head, last),
+                               Thing42Codecs.LONG, Thing42Codecs.LONG);
+
+        Thing42GraphFile<Long, Long> graph
+            = Thing42GraphFile.open(file, Thing42Codecs.LONG, Thing42Codecs.LONG);
+        assertTrue(graph.size() == 100000);
+        assertTrue(graph.getRootCount() == 2);
+        assertTrue(graph.getRoot(1).getLevel() == 99999);
+        Thing42orNull<Long, Long> node = graph.getRoot(0);
+        for (long i = 1; i < 100000; i++) {
+            node = node.getOnePeer(i);
+            assertEquals(Long.valueOf(i), node.getData());
+        }
+        assertTrue(node.getPeersAsCollection().isEmpty());
+        assertEquals(graph.getRoot(1), node);
+    }
+
+    /**
+     * Attempts to open a file that is not a graph file.
+     *
+     * @throws IOException always
+     */
+    @Test(expected = IOException.class)
+    public void testNotAGraphFile() throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[100]);
+        out.close();
+        Thing42GraphFile.open(file, Thing42Codecs.LONG, Thing42Codecs.LONG);
+    }
+
+    /**
+     * Attempts to modify a node of a graph file.
+     *
+     * @throws IOException if the file cannot be written or read
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws IOException
+    {
+        Thing42GraphFile.write(file,
+            Collections.singletonList(new Thing42<Long, Long>(1L, 1, 1L)),
+            Thing42Codecs.LONG, Thing42Codecs.LONG);
+        Thing42GraphFile.open(file, Thing42Codecs.LONG, Thing42Codecs.LONG)
+            .getRoot(0).setData(2L);
+    }
+}
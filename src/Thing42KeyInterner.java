@@ -0,0 +1,160 @@
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of canonical keys, so that equal keys of a graph are one
+ * instance.
+ * <br />
+ * Keys read from files or built from strings are usually new instances
+ * even when equal, so a key shared by a million objects is stored a
+ * million times, and every lookup by key compares its contents with
+ * equals. Objects created with <code>interner.intern(key)</code> share
+ * one instance per distinct key: the peer stores then hold canonical
+ * keys, the hash of each is computed once where the key caches it (as
+ * String does), and a lookup with a canonical key matches by identity
+ * before equals is called. Lookups with keys that were not interned
+ * still work, through equals.
+ * <br /><br />
+ * Keys are held through weak references: a key no longer used by any
+ * object is collected, and its entry is dropped by a later call to the
+ * interner. Keys must not change their hash or equality while interned.
+ * All methods may be called by many threads at once.
+ *
+ * @param <K> the type of key
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42KeyInterner<K> {
+    /**
+     * An interned key, equal to another entry whose key is equal.
+     * A cleared entry is only equal to itself.
+     */
+    private static final class Entry extends WeakReference<Object> {
+        /** Hash of the key, kept once the key is collected. */
+        private final int hash;
+
+        /**
+         * Constructor for objects of class Entry.
+         *
+         * @param key the key
+         * @param queue where the entry goes once the key is collected
+         */
+        private Entry(final Object key, final ReferenceQueue<Object> queue) {
+            super(key, queue);
+            this.hash = key.hashCode();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Object key = get();
+            return key != null && key.equals(((Entry) obj).get());
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A key being looked up, equal to the entry of an equal key, so
+     * that finding a key allocates no entry.
+     */
+    private static final class Probe {
+        /** The key. */
+        private final Object key;
+
+        /**
+         * Constructor for objects of class Probe.
+         *
+         * @param key the key
+         */
+        private Probe(final Object key) {
+            this.key = key;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Object other = ((Entry) obj).get();
+            return other == key || key.equals(other);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+
+    /** Entries, each mapped to itself. */
+    private final ConcurrentHashMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+    /** Entries whose keys were collected. */
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+    /**
+     * Returns the canonical instance of a key: the first instance
+     * interned that is equal to it and still in use, or the key itself.
+     *
+     * @param key the key
+     * @return the canonical key; null if the key is null
+     */
+    @SuppressWarnings("unchecked")
+    public K intern(final K key) {
+        if (key == null) {
+            return null;
+        }
+        expunge();
+        while (true) {
+            Entry entry = entries.get(new Probe(key));
+            if (entry == null) {
+                Entry fresh = new Entry(key, collected);
+                entry = entries.putIfAbsent(fresh, fresh);
+                if (entry == null) {
+                    return key;
+                }
+            }
+            Object canonical = entry.get();
+            if (canonical != null) {
+                return (K) canonical;
+            }
+            // collected but not yet dropped
+            entries.remove(entry, entry);
+        }
+    }
+
+    /**
+     * Number of keys interned, including those collected and not yet
+     * dropped.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        expunge();
+        return entries.size();
+    }
+
+    /**
+     * Drops the entries whose keys were collected.
+     */
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            entries.remove(ref, ref);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42KeyInternerTest.
+ *
+ * Interns equal keys from one and from many threads, and builds peers
+ * with interned keys.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42KeyInternerTest
+{
+    //The interner under test.
+    Thing42KeyInterner<String> interner;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        interner = new Thing42KeyInterner<String>();
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        interner = null;
+    }
+
+    /**
+     * Interns equal and different keys.
+     */
+    @Test
+    public void testIntern()
+    {
+        String first = new String("key");
+        String second = new String("key");
+        assertTrue(interner.intern(first) == first);
+        assertTrue(interner.intern(second) == first);
+        assertTrue(interner.intern("other") == "other");
+        assertNull(interner.intern(null));
+        assertTrue(interner.size() == 2);
+    }
+
+    /**
+     * Checks that keys no longer used are dropped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testCollected() throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++) {
+            interner.intern(new String("key" + i));
+        }
+        for (int tries = 0; tries < 50 && interner.size() > 0; tries++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(interner.size() == 0);
+        String key = new String("key0");
+        assertTrue(interner.intern(key) == key);
+    }
+
+    /**
+     * Interns the same keys from many threads, which must all get the
+     * same instances.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException
+    {
+        final int keys = 100;
+        final String[][] seen = new String[4][keys];
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < seen.length; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < keys; i++) {
+                            seen[thread][i] = interner.intern(new String("key" + i));
+                        }
+                    } catch (RuntimeException ex) {
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.get() == 0);
+        for (int i = 0; i < keys; i++) {
+            for (int t = 1; t < seen.length; t++) {
+                assertTrue(seen[t][i] == seen[0][i]);
+            }
+        }
+    }
+
+    /**
+     * Looks up and removes peers with interned keys and with copies.
+     */
+    @Test
+    public void testPeers()
+    {
+        for (Thing42.PeerStorage storage : Thing42.PeerStorage.values()) {
+            Thing42<String, String> node = new Thing42<String, String>("node", 0, "node", storage);
+            List<Thing42<String, String>> peers = new ArrayList<Thing42<String, String>>();
+            for (int i = 0; i < 20; i++) {
+                Thing42<String, String> peer = new Thing42<String, String>(
+                    interner.intern(new String("key" + (i % 5))), i, "peer");
+                peers.add(peer);
+                node.addPeer(peer);
+            }
+            assertTrue(node.getPeersAsCollection(interner.intern("key3")).size() == 4);
+            assertTrue(node.getPeersAsCollection(new String("key3")).size() == 4);
+            assertTrue(node.getOnePeer(new String("key4")).getKey() == interner.intern("key4"));
+            assertTrue(node.removePeer(peers.get(7)));
+            assertFalse(node.containsPeer(peers.get(7)));
+        }
+    }
+}
@@ -0,0 +1,494 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in counters and histograms for the hot paths of Thing42 and its
+ * storages, shared by all objects.
+ * <br />
+ * When enabled, Thing42 counts the calls of each {@link Op}, and
+ * records in log2 histograms ({@link Distribution}) the size of a
+ * key's peers when a peer is added, the length of the pool when a
+ * member is appended, how many peers or members removePeer and
+ * removeFromPool compare before they find one, how long they take, and
+ * how deeply equals and hashCode call themselves on the peers and pool.
+ * Counters are LongAdders, so threads recording at once do not contend.
+ * <br /><br />
+ * Metrics are disabled by default and toggled at runtime with
+ * {@link #setEnabled}. The switch is a constant method handle behind a
+ * MutableCallSite, which the JIT compiler folds into the compiled code:
+ * while metrics are disabled, the instrumentation is dead code and is
+ * removed, and toggling deoptimizes the methods that depend on it.
+ * <br /><br />
+ * The metrics can be read with {@link #snapshot()}, through JMX once
+ * {@link #registerMBean()} is called, and by a {@link Reporter}
+ * scheduled with {@link #schedule}.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Metrics {
+    /**
+     * Counted operations.
+     */
+    public enum Op {
+        /** addPeer, and each peer of addPeers. */
+        ADD_PEER,
+        /** appendToPool, and each member of appendAllToPool. */
+        APPEND_TO_POOL,
+        /** removePeer, and each peer of removePeers. */
+        REMOVE_PEER,
+        /** removeFromPool, and each member of removeAllFromPool. */
+        REMOVE_FROM_POOL,
+        /** getOnePeer. */
+        GET_ONE_PEER,
+        /** getPeersAsCollection with a key. */
+        GET_PEERS_BY_KEY,
+        /** containsPeer. */
+        CONTAINS_PEER,
+        /** setData. */
+        SET_DATA,
+        /** equals, including the calls it makes on peers and pool members. */
+        EQUALS,
+        /** hashCode, including the calls it makes on peers and pool members. */
+        HASH_CODE
+    }
+
+    /**
+     * Recorded distributions.
+     */
+    public enum Distribution {
+        /** Number of peers with the key of a peer just added. */
+        PEER_BUCKET_SIZE,
+        /** Length of the pool after a member is appended. */
+        POOL_LENGTH,
+        /** Peers compared by a removal from list storage; all of them if none matched. */
+        REMOVE_PEER_SCAN,
+        /** Members compared by a removal from the pool; all of them if none matched. */
+        REMOVE_FROM_POOL_SCAN,
+        /** Nanoseconds taken by removePeer. */
+        REMOVE_PEER_NANOS,
+        /** Nanoseconds taken by removeFromPool. */
+        REMOVE_FROM_POOL_NANOS,
+        /** Deepest nesting of equals calls under an outermost equals. */
+        EQUALS_DEPTH,
+        /** Deepest nesting of hashCode calls under an outermost hashCode. */
+        HASH_CODE_DEPTH
+    }
+
+    /**
+     * Receives snapshots of the metrics at a fixed rate.
+     */
+    public interface Reporter {
+        /**
+         * Reports a snapshot. Called on the reporting thread.
+         *
+         * @param snapshot the metrics at the time of the call
+         */
+        void report(Snapshot snapshot);
+    }
+
+    /**
+     * Immutable copy of the metrics at some instant. The counters are
+     * read one by one while other threads may record, so they need not
+     * agree exactly with each other.
+     */
+    public static final class Snapshot {
+        /** Time of the snapshot, from System.currentTimeMillis. */
+        private final long time;
+        /** Count of each Op. */
+        private final long[] counts;
+        /** Buckets of each Distribution. */
+        private final long[][] buckets;
+        /** Sum of the values of each Distribution. */
+        private final long[] sums;
+
+        /**
+         * Constructor for objects of class Snapshot.
+         */
+        private Snapshot() {
+            this.time = System.currentTimeMillis();
+            this.counts = new long[COUNTS.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = COUNTS[i].sum();
+            }
+            this.buckets = new long[BUCKETS.length][BUCKETS[0].length];
+            this.sums = new long[SUMS.length];
+            for (int d = 0; d < buckets.length; d++) {
+                for (int b = 0; b < buckets[d].length; b++) {
+                    buckets[d][b] = BUCKETS[d][b].sum();
+                }
+                sums[d] = SUMS[d].sum();
+            }
+        }
+
+        /**
+         * Time the snapshot was taken.
+         *
+         * @return the time, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Number of calls of an operation.
+         *
+         * @param op the operation
+         * @return the count
+         */
+        public long getCount(final Op op) {
+            return counts[op.ordinal()];
+        }
+
+        /**
+         * Buckets of a distribution. Bucket 0 counts the values 0, and
+         * bucket b &gt; 0 the values from 2^(b-1) to 2^b - 1.
+         *
+         * @param d the distribution
+         * @return a copy of the 65 buckets
+         */
+        public long[] getBuckets(final Distribution d) {
+            return buckets[d.ordinal()].clone();
+        }
+
+        /**
+         * Number of values recorded for a distribution.
+         *
+         * @param d the distribution
+         * @return the number of values
+         */
+        public long getTotal(final Distribution d) {
+            long total = 0;
+            for (long b : buckets[d.ordinal()]) {
+                total += b;
+            }
+            return total;
+        }
+
+        /**
+         * Mean of the values recorded for a distribution.
+         *
+         * @param d the distribution
+         * @return the mean; 0 if none
+         */
+        public double getMean(final Distribution d) {
+            long total = getTotal(d);
+            return (total == 0) ? 0 : (double) sums[d.ordinal()] / total;
+        }
+
+        /**
+         * Lists the nonzero counts, and the number of values and the
+         * mean of each nonempty distribution, one per line.
+         *
+         * @return the metrics as text
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (Op op : Op.values()) {
+                if (getCount(op) != 0) {
+                    text.append(op).append(' ').append(getCount(op)).append('\n');
+                }
+            }
+            for (Distribution d : Distribution.values()) {
+                long total = getTotal(d);
+                if (total != 0) {
+                    text.append(d).append(" n=").append(total)
+                        .append(" mean=").append(String.format("%.2f", getMean(d))).append('\n');
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    /** Name of the MBean registered by registerMBean. */
+    public static final String MBEAN_NAME = "Thing42:type=Metrics";
+
+    /** Holds the switch; its target returns a constant. */
+    private static final MutableCallSite SWITCH
+        = new MutableCallSite(MethodHandles.constant(boolean.class, false));
+    /** Invokes the current target of SWITCH. */
+    private static final MethodHandle ENABLED = SWITCH.dynamicInvoker();
+
+    /** Count of each Op. */
+    private static final LongAdder[] COUNTS = adders(Op.values().length);
+    /** Buckets of each Distribution. */
+    private static final LongAdder[][] BUCKETS = new LongAdder[Distribution.values().length][];
+    /** Sum of the values of each Distribution. */
+    private static final LongAdder[] SUMS = adders(Distribution.values().length);
+    /** Nesting of equals and of hashCode calls on each thread: current and deepest. */
+    private static final ThreadLocal<int[]> DEPTH = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[4];
+        }
+    };
+    /** Runs the reporters; created on first use. */
+    private static ScheduledExecutorService reporting;
+
+    static {
+        for (int d = 0; d < BUCKETS.length; d++) {
+            BUCKETS[d] = adders(Long.SIZE + 1);
+        }
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private Thing42Metrics() {
+    }
+
+    /**
+     * Creates an array of counters.
+     *
+     * @param n the number of counters
+     * @return the counters
+     */
+    private static LongAdder[] adders(final int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Tells whether metrics are recorded. Once compiled, this is a
+     * constant.
+     *
+     * @return true if enabled
+     */
+    public static boolean isEnabled() {
+        try {
+            return (boolean) ENABLED.invokeExact();
+        } catch (Throwable t) {
+            throw new AssertionError(t);
+        }
+    }
+
+    /**
+     * Turns the recording of metrics on or off, for all threads.
+     * Recorded metrics are kept; see {@link #reset()}.
+     *
+     * @param enabled true to record metrics
+     */
+    public static synchronized void setEnabled(final boolean enabled) {
+        if (enabled != isEnabled()) {
+            SWITCH.setTarget(MethodHandles.constant(boolean.class, enabled));
+            MutableCallSite.syncAll(new MutableCallSite[] {SWITCH});
+        }
+    }
+
+    /**
+     * Sets every counter to zero. Values recorded meanwhile may be lost.
+     */
+    public static void reset() {
+        for (LongAdder a : COUNTS) {
+            a.reset();
+        }
+        for (int d = 0; d < BUCKETS.length; d++) {
+            for (LongAdder a : BUCKETS[d]) {
+                a.reset();
+            }
+            SUMS[d].reset();
+        }
+    }
+
+    /**
+     * Copies the metrics.
+     *
+     * @return the metrics at this time
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Counts a call, if enabled.
+     *
+     * @param op the operation
+     */
+    static void count(final Op op) {
+        if (isEnabled()) {
+            COUNTS[op.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Counts several calls at once, if enabled, as batch operations do
+     * for the single operation they stand for.
+     *
+     * @param op the operation
+     * @param n the number of calls
+     */
+    static void count(final Op op, final long n) {
+        if (isEnabled()) {
+            COUNTS[op.ordinal()].add(n);
+        }
+    }
+
+    /**
+     * Records a value, if enabled.
+     *
+     * @param d the distribution
+     * @param value the value; negative values count as 0
+     */
+    static void record(final Distribution d, final long value) {
+        if (isEnabled()) {
+            long v = Math.max(0, value);
+            BUCKETS[d.ordinal()][Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+            SUMS[d.ordinal()].add(v);
+        }
+    }
+
+    /**
+     * Enters a call of equals or hashCode. Must be followed by exit
+     * with the same operation, in a finally block.
+     *
+     * @param op {@link Op#EQUALS} or {@link Op#HASH_CODE}
+     */
+    static void enter(final Op op) {
+        COUNTS[op.ordinal()].increment();
+        int[] depth = DEPTH.get();
+        int i = (op == Op.EQUALS) ? 0 : 2;
+        if (++depth[i] > depth[i + 1]) {
+            depth[i + 1] = depth[i];
+        }
+    }
+
+    /**
+     * Leaves a call of equals or hashCode, recording the deepest
+     * nesting when the outermost call returns.
+     *
+     * @param op {@link Op#EQUALS} or {@link Op#HASH_CODE}
+     */
+    static void exit(final Op op) {
+        int[] depth = DEPTH.get();
+        int i = (op == Op.EQUALS) ? 0 : 2;
+        if (--depth[i] == 0) {
+            Distribution d = (op == Op.EQUALS) ? Distribution.EQUALS_DEPTH
+                : Distribution.HASH_CODE_DEPTH;
+            BUCKETS[d.ordinal()][Long.SIZE - Long.numberOfLeadingZeros(depth[i + 1])].increment();
+            SUMS[d.ordinal()].add(depth[i + 1]);
+            depth[i + 1] = 0;
+        }
+    }
+
+    /**
+     * Calls a reporter at a fixed rate, on a shared daemon thread,
+     * until the returned future is cancelled. If the reporter throws,
+     * it is not called again.
+     *
+     * @param reporter the reporter
+     * @param period the time between reports
+     * @param unit the unit of period
+     * @return the future that cancels the reports
+     * @throws NullPointerException if reporter or unit is null
+     * @throws IllegalArgumentException if period is not positive
+     */
+    public static synchronized ScheduledFuture<?> schedule(final Reporter reporter,
+                                                           final long period,
+                                                           final TimeUnit unit)
+    throws NullPointerException, IllegalArgumentException {
+        if (reporter == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (reporting == null) {
+            reporting = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(r, "Thing42Metrics reporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return reporting.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                reporter.report(snapshot());
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as
+     * {@link #MBEAN_NAME}, unless they already are.
+     *
+     * @return the name of the MBean
+     * @throws IllegalStateException if the MBean cannot be registered
+     */
+    public static synchronized ObjectName registerMBean() throws IllegalStateException {
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new Bean(), name);
+            }
+            return name;
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The MBean, which reads and writes the static state.
+     */
+    private static final class Bean implements Thing42MetricsMXBean {
+        /** {@inheritDoc} */
+        public boolean isEnabled() {
+            return Thing42Metrics.isEnabled();
+        }
+
+        /** {@inheritDoc} */
+        public void setEnabled(final boolean enabled) {
+            Thing42Metrics.setEnabled(enabled);
+        }
+
+        /** {@inheritDoc} */
+        public Map<String, Long> getCounts() {
+            Snapshot snapshot = snapshot();
+            Map<String, Long> counts = new LinkedHashMap<String, Long>();
+            for (Op op : Op.values()) {
+                counts.put(op.name(), snapshot.getCount(op));
+            }
+            return counts;
+        }
+
+        /** {@inheritDoc} */
+        public Map<String, long[]> getHistograms() {
+            Snapshot snapshot = snapshot();
+            Map<String, long[]> histograms = new LinkedHashMap<String, long[]>();
+            for (Distribution d : Distribution.values()) {
+                histograms.put(d.name(), snapshot.getBuckets(d));
+            }
+            return histograms;
+        }
+
+        /** {@inheritDoc} */
+        public Map<String, Double> getMeans() {
+            Snapshot snapshot = snapshot();
+            Map<String, Double> means = new LinkedHashMap<String, Double>();
+            for (Distribution d : Distribution.values()) {
+                means.put(d.name(), snapshot.getMean(d));
+            }
+            return means;
+        }
+
+        /** {@inheritDoc} */
+        public void reset() {
+            Thing42Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.Map;
+
+/**
+ * Management interface of {@link Thing42Metrics}, registered by
+ * {@link Thing42Metrics#registerMBean()}.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public interface Thing42MetricsMXBean {
+    /**
+     * Tells whether metrics are recorded.
+     *
+     * @return true if enabled
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns the recording of metrics on or off.
+     *
+     * @param enabled true to record metrics
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Number of calls of each operation.
+     *
+     * @return the counts, by name of {@link Thing42Metrics.Op}
+     */
+    Map<String, Long> getCounts();
+
+    /**
+     * Log2 buckets of each distribution; see
+     * {@link Thing42Metrics.Snapshot#getBuckets}.
+     *
+     * @return the buckets, by name of {@link Thing42Metrics.Distribution}
+     */
+    Map<String, long[]> getHistograms();
+
+    /**
+     * Mean of each distribution.
+     *
+     * @return the means, by name of {@link Thing42Metrics.Distribution}
+     */
+    Map<String, Double> getMeans();
+
+    /**
+     * Sets every counter to zero.
+     */
+    void reset();
+}
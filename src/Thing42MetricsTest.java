@@ -0,0 +1,226 @@
+import static org.junit.Assert.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42MetricsTest.
+ *
+ * Turns the metrics on and off, and checks the counts and histograms
+ * recorded by Thing42 and its storages, the JMX bean and a reporter.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42MetricsTest
+{
+    //The Thing42 object upon which tests should call methods.
+    Thing42<Integer, String> testThing;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        testThing = new Thing42<Integer, String>(1, 1, "test");
+        Thing42Metrics.reset();
+        Thing42Metrics.setEnabled(true);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        Thing42Metrics.setEnabled(false);
+        Thing42Metrics.reset();
+        testThing = null;
+    }
+
+    /**
+     * Counts calls and records bucket sizes, pool lengths and scans.
+     */
+    @Test
+    public void testCounts()
+    {
+        Thing42<Integer, String> a = new Thing42<Integer, String>(2, 0, "a");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(2, 1, "b");
+        testThing.addPeer(a);
+        testThing.addPeers(Arrays.asList(b, a));
+        testThing.appendToPool(a);
+        testThing.appendToPool(b);
+        assertTrue(testThing.removePeer(b));
+        assertFalse(testThing.removePeer(testThing));
+        assertTrue(testThing.removeFromPool(b));
+        testThing.getOnePeer(2);
+        testThing.getPeersAsCollection(2);
+        testThing.containsPeer(a);
+        testThing.setData("changed");
+
+        Thing42Metrics.Snapshot snapshot = Thing42Metrics.snapshot();
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.ADD_PEER) == 3);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.APPEND_TO_POOL) == 2);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.REMOVE_PEER) == 2);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.REMOVE_FROM_POOL) == 1);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.GET_ONE_PEER) == 1);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.GET_PEERS_BY_KEY) == 1);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.CONTAINS_PEER) == 1);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.SET_DATA) == 1);
+        // the key had 1 peer, then 3 after the batch
+        assertArrayEquals(new long[] {0, 1, 2},
+            Arrays.copyOf(snapshot.getBuckets(Thing42Metrics.Distribution.PEER_BUCKET_SIZE), 3));
+        assertArrayEquals(new long[] {0, 1, 1},
+            Arrays.copyOf(snapshot.getBuckets(Thing42Metrics.Distribution.POOL_LENGTH), 3));
+        // b was second of the three peers, and a miss looks at all three
+        assertArrayEquals(new long[] {0, 0, 2},
+            Arrays.copyOf(snapshot.getBuckets(Thing42Metrics.Distribution.REMOVE_PEER_SCAN), 3));
+        assertTrue(snapshot.getMean(Thing42Metrics.Distribution.REMOVE_FROM_POOL_SCAN) == 2);
+        assertTrue(snapshot.getTotal(Thing42Metrics.Distribution.REMOVE_PEER_NANOS) == 2);
+        assertTrue(snapshot.getTotal(Thing42Metrics.Distribution.REMOVE_FROM_POOL_NANOS) == 1);
+        assertTrue(snapshot.toString().contains("ADD_PEER 3"));
+    }
+
+    /**
+     * Counts each peer and member of a batch as one call of the single
+     * operation it stands for.
+     */
+    @Test
+    public void testBatchCounts()
+    {
+        Thing42<Integer, String> a = new Thing42<Integer, String>(2, 0, "a");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(2, 1, "b");
+        testThing.addPeers(Arrays.asList(a, b, a));
+        testThing.appendAllToPool(Arrays.asList(a, b));
+        assertTrue(testThing.removePeers(Arrays.asList(a, b)));
+        assertTrue(testThing.removeAllFromPool(Arrays.asList(b, testThing)));
+
+        Thing42Metrics.Snapshot snapshot = Thing42Metrics.snapshot();
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.ADD_PEER) == 3);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.APPEND_TO_POOL) == 2);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.REMOVE_PEER) == 2);
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.REMOVE_FROM_POOL) == 2);
+    }
+
+    /**
+     * Checks that nothing is recorded while disabled, and that
+     * re-enabling records again.
+     */
+    @Test
+    public void testToggle()
+    {
+        assertTrue(Thing42Metrics.isEnabled());
+        Thing42Metrics.setEnabled(false);
+        assertFalse(Thing42Metrics.isEnabled());
+        for (int i = 0; i < 100000; i++) {
+            testThing.setData("off");
+        }
+        assertTrue(Thing42Metrics.snapshot().getCount(Thing42Metrics.Op.SET_DATA) == 0);
+        Thing42Metrics.setEnabled(true);
+        for (int i = 0; i < 100000; i++) {
+            testThing.setData("on");
+        }
+        assertTrue(Thing42Metrics.snapshot().getCount(Thing42Metrics.Op.SET_DATA) == 100000);
+        Thing42Metrics.reset();
+        assertTrue(Thing42Metrics.snapshot().getCount(Thing42Metrics.Op.SET_DATA) == 0);
+    }
+
+    /**
+     * Records how deeply equals and hashCode nest on a chain of peers.
+     */
+    @Test
+    public void testDepth()
+    {
+        Thing42<Integer, String> x = chain(4);
+        Thing42<Integer, String> y = chain(4);
+        assertTrue(x.equals(y));
+        x.hashCode();
+        Thing42Metrics.Snapshot snapshot = Thing42Metrics.snapshot();
+        // the peers of the chain are compared by one equals call each
+        assertTrue(snapshot.getCount(Thing42Metrics.Op.EQUALS) == 4);
+        assertTrue(snapshot.getTotal(Thing42Metrics.Distribution.EQUALS_DEPTH) == 1);
+        assertTrue(snapshot.getMean(Thing42Metrics.Distribution.EQUALS_DEPTH) == 4);
+        assertTrue(snapshot.getMean(Thing42Metrics.Distribution.HASH_CODE_DEPTH) == 4);
+    }
+
+    /**
+     * Reads and toggles the metrics through the platform MBean server.
+     *
+     * @throws Exception if JMX fails
+     */
+    @Test
+    public void testMBean() throws Exception
+    {
+        ObjectName name = Thing42Metrics.registerMBean();
+        assertEquals(name, Thing42Metrics.registerMBean());
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        testThing.setData("jmx");
+        TabularData counts = (TabularData) server.getAttribute(name, "Counts");
+        CompositeData row = counts.get(new Object[] {"SET_DATA"});
+        assertEquals(Long.valueOf(1), row.get("value"));
+        TabularData histograms = (TabularData) server.getAttribute(name, "Histograms");
+        assertTrue(histograms.size() == Thing42Metrics.Distribution.values().length);
+        server.setAttribute(name, new javax.management.Attribute("Enabled", Boolean.FALSE));
+        assertFalse(Thing42Metrics.isEnabled());
+        server.invoke(name, "reset", new Object[0], new String[0]);
+        assertTrue(Thing42Metrics.snapshot().getCount(Thing42Metrics.Op.SET_DATA) == 0);
+    }
+
+    /**
+     * Schedules a reporter and waits for two reports.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Test
+    public void testReporter() throws InterruptedException
+    {
+        testThing.setData("reported");
+        final CountDownLatch reports = new CountDownLatch(2);
+        final long[] seen = new long[1];
+        ScheduledFuture<?> future = Thing42Metrics.schedule(new Thing42Metrics.Reporter() {
+            public void report(final Thing42Metrics.Snapshot snapshot) {
+                seen[0] = snapshot.getCount(Thing42Metrics.Op.SET_DATA);
+                reports.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue(reports.await(10, TimeUnit.SECONDS));
+            assertTrue(seen[0] == 1);
+        } finally {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Creates a chain of Thing42 objects, each the only peer of the one
+     * before it.
+     *
+     * @param length the number of objects
+     * @return the first object
+     */
+    private static Thing42<Integer, String> chain(final int length)
+    {
+        Thing42<Integer, String> first = new Thing42<Integer, String>(0, 0, "link");
+        Thing42<Integer, String> last = first;
+        for (int i = 1; i < length; i++) {
+            Thing42<Integer, String> next = new Thing42<Integer, String>(i, i, "link");
+            last.addPeer(next);
+            last = next;
+        }
+        return first;
+    }
+}
@@ -0,0 +1,233 @@
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Index of Thing42orNull objects by key and by level, across a whole
+ * graph or any set of objects that share it.
+ * <br />
+ * A Thing42 constructed with a registry registers itself, so every
+ * object of a graph can be found by key in O(1) expected, and by range
+ * of levels in O(log n) plus the number found, without walking the
+ * graph. Objects are indexed by their key and level, which never
+ * change, and are held through weak references: an object that is
+ * only reachable from a registry is collected, and its entries are
+ * dropped by the next call to the registry.
+ * <br /><br />
+ * All methods may be called by many threads at once; each holds the
+ * lock of the registry. Lookups return new lists of the objects that
+ * were registered and still reachable at the time of the call.
+ * Flyweights such as the nodes of OffHeapGraph, which are new objects
+ * on each access, should not be registered, since they are collected
+ * as soon as they are no longer used.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Registry<K, D> {
+    /**
+     * A registered object. It knows where it is in both indexes, so it
+     * can be removed from them in O(1) once its object is collected.
+     */
+    private static final class Entry extends WeakReference<Thing42orNull<?, ?>> {
+        /** Key of the object. */
+        private final Object key;
+        /** Level of the object. */
+        private final long level;
+        /** Index of this entry in the bucket of its key. */
+        private int keySlot;
+        /** Index of this entry in the bucket of its level. */
+        private int levelSlot;
+
+        /**
+         * Constructor for objects of class Entry.
+         *
+         * @param node the object
+         * @param queue where the entry goes once the object is collected
+         */
+        private Entry(final Thing42orNull<?, ?> node,
+                      final ReferenceQueue<Thing42orNull<?, ?>> queue) {
+            super(node, queue);
+            this.key = node.getKey();
+            this.level = node.getLevel();
+        }
+    }
+
+    /** Objects by key; null keys are allowed. */
+    private final HashMap<K, ArrayList<Entry>> byKey = new HashMap<K, ArrayList<Entry>>();
+    /** Objects by level, in order of levels. */
+    private final TreeMap<Long, ArrayList<Entry>> byLevel = new TreeMap<Long, ArrayList<Entry>>();
+    /** Entries whose objects were collected. */
+    private final ReferenceQueue<Thing42orNull<?, ?>> collected
+        = new ReferenceQueue<Thing42orNull<?, ?>>();
+    /** Number of entries, including those not yet dropped. */
+    private int size;
+
+    /**
+     * Adds an object to the registry. Adding an object twice makes it
+     * be found twice.
+     *
+     * @param node the object
+     * @throws NullPointerException if the object is null
+     */
+    public synchronized void register(final Thing42orNull<K, D> node)
+    throws NullPointerException {
+        if (node == null) {
+            throw new NullPointerException();
+        }
+        expunge();
+        Entry entry = new Entry(node, collected);
+        ArrayList<Entry> keyBucket = byKey.get(node.getKey());
+        if (keyBucket == null) {
+            keyBucket = new ArrayList<Entry>(2);
+            byKey.put(node.getKey(), keyBucket);
+        }
+        entry.keySlot = keyBucket.size();
+        keyBucket.add(entry);
+        Long level = Long.valueOf(entry.level);
+        ArrayList<Entry> levelBucket = byLevel.get(level);
+        if (levelBucket == null) {
+            levelBucket = new ArrayList<Entry>(2);
+            byLevel.put(level, levelBucket);
+        }
+        entry.levelSlot = levelBucket.size();
+        levelBucket.add(entry);
+        size++;
+    }
+
+    /**
+     * Finds all registered objects with a key.
+     *
+     * @param key the key, which may be null
+     * @return the objects, in no particular order;
+     * if none then returns a list with size() == 0
+     */
+    public synchronized List<Thing42orNull<K, D>> get(final K key) {
+        expunge();
+        ArrayList<Thing42orNull<K, D>> found = new ArrayList<Thing42orNull<K, D>>();
+        ArrayList<Entry> bucket = byKey.get(key);
+        if (bucket != null) {
+            addLive(bucket, found);
+        }
+        return found;
+    }
+
+    /**
+     * Finds any registered object with a key.
+     *
+     * @param key the key, which may be null
+     * @return an object with the key; null if none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Thing42orNull<K, D> getOne(final K key) {
+        expunge();
+        ArrayList<Entry> bucket = byKey.get(key);
+        if (bucket != null) {
+            for (Entry entry : bucket) {
+                Thing42orNull<?, ?> node = entry.get();
+                if (node != null) {
+                    return (Thing42orNull<K, D>) node;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds all registered objects whose level lies in a range.
+     *
+     * @param min the smallest level, inclusive
+     * @param max the greatest level, inclusive
+     * @return the objects, in order of levels;
+     * if none then returns a list with size() == 0
+     */
+    public synchronized List<Thing42orNull<K, D>> getInLevelRange(final long min,
+                                                                final long max) {
+        expunge();
+        ArrayList<Thing42orNull<K, D>> found = new ArrayList<Thing42orNull<K, D>>();
+        if (min <= max) {
+            for (ArrayList<Entry> bucket
+                     : byLevel.subMap(Long.valueOf(min), true, Long.valueOf(max), true).values()) {
+                addLive(bucket, found);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Number of registered objects that have not been collected, or
+     * whose collection has not been noticed yet.
+     *
+     * @return the number of objects
+     */
+    public synchronized int size() {
+        expunge();
+        return size;
+    }
+
+    /**
+     * Adds the objects of a bucket that are still reachable to a list.
+     *
+     * @param bucket the bucket
+     * @param found the list
+     */
+    @SuppressWarnings("unchecked")
+    private static <K, D> void addLive(final ArrayList<Entry> bucket,
+                                       final List<Thing42orNull<K, D>> found) {
+        for (Entry entry : bucket) {
+            Thing42orNull<?, ?> node = entry.get();
+            if (node != null) {
+                found.add((Thing42orNull<K, D>) node);
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of collected objects from both indexes.
+     */
+    private void expunge() {
+        for (Reference<? extends Thing42orNull<?, ?>> r = collected.poll(); r != null;
+             r = collected.poll()) {
+            Entry entry = (Entry) r;
+            ArrayList<Entry> keyBucket = byKey.get(entry.key);
+            if (remove(keyBucket, entry.keySlot, true)) {
+                byKey.remove(entry.key);
+            }
+            Long level = Long.valueOf(entry.level);
+            if (remove(byLevel.get(level), entry.levelSlot, false)) {
+                byLevel.remove(level);
+            }
+            size--;
+        }
+    }
+
+    /**
+     * Removes an entry from a bucket by moving the last entry into its
+     * slot.
+     *
+     * @param bucket the bucket
+     * @param slot the index of the entry
+     * @param keys whether the bucket is one of keys or of levels
+     * @return true if the bucket is now empty
+     */
+    private static boolean remove(final ArrayList<Entry> bucket, final int slot,
+                                  final boolean keys) {
+        Entry last = bucket.remove(bucket.size() - 1);
+        if (slot < bucket.size()) {
+            bucket.set(slot, last);
+            if (keys) {
+                last.keySlot = slot;
+            } else {
+                last.levelSlot = slot;
+            }
+        }
+        return bucket.isEmpty();
+    }
+}
@@ -0,0 +1,136 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42RegistryTest.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42RegistryTest
+{
+    //The registry upon which tests should call methods.
+    Thing42Registry<String, String> registry;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        registry = new Thing42Registry<String, String>();
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        registry = null;
+    }
+
+    /**
+     * Finds objects by key, including the null key.
+     */
+    @Test
+    public void testGet()
+    {
+        List<Thing42<String, String>> things = new ArrayList<Thing42<String, String>>();
+        for (int i = 0; i < 30; i++) {
+            things.add(thing((i % 3 == 0) ? null : "k" + (i % 3), i));
+        }
+        assertTrue(registry.size() == 30);
+        assertTrue(registry.get("k1").size() == 10);
+        assertTrue(registry.get(null).size() == 10);
+        assertTrue(registry.get("k1").contains(things.get(4)));
+        assertTrue(registry.get("none").size() == 0);
+        assertEquals("k2", registry.getOne("k2").getKey());
+        assertNull(registry.getOne("none"));
+        new Thing42<String, String>("k1", 0, "unregistered");
+        assertTrue(registry.get("k1").size() == 10);
+    }
+
+    /**
+     * Finds objects by range of levels, in order of levels.
+     */
+    @Test
+    public void testGetInLevelRange()
+    {
+        List<Thing42<String, String>> things = new ArrayList<Thing42<String, String>>();
+        for (long level : new long[] {5, Long.MIN_VALUE, 3, Long.MAX_VALUE, 4, 3, -2}) {
+            things.add(thing("k", level));
+        }
+        List<Thing42orNull<String, String>> found = registry.getInLevelRange(3, 5);
+        assertTrue(found.size() == 4);
+        long last = 3;
+        for (Thing42orNull<String, String> thing : found) {
+            assertTrue(thing.getLevel() >= last);
+            last = thing.getLevel();
+        }
+        assertTrue(registry.getInLevelRange(Long.MIN_VALUE, Long.MAX_VALUE).size() == 7);
+        assertTrue(registry.getInLevelRange(Long.MIN_VALUE, -1).size() == 2);
+        assertTrue(registry.getInLevelRange(6, 100).size() == 0);
+        assertTrue(registry.getInLevelRange(5, 3).size() == 0);
+    }
+
+    /**
+     * Lets unreachable objects be collected and checks that they are
+     * dropped, and that reachable ones are kept.
+     */
+    @Test
+    public void testCollected()
+    {
+        List<Thing42<String, String>> kept = new ArrayList<Thing42<String, String>>();
+        for (int i = 0; i < 1000; i++) {
+            Thing42<String, String> thing = thing("k" + (i % 10), i);
+            if (i % 100 == 0) {
+                kept.add(thing);
+            }
+        }
+        for (int i = 0; i < 50 && registry.size() > kept.size(); i++) {
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        assertTrue(registry.size() == kept.size());
+        assertTrue(registry.get("k0").size() == kept.size());
+        assertTrue(registry.get("k1").size() == 0);
+        assertTrue(registry.getInLevelRange(0, 1000).size() == kept.size());
+        kept.add(thing("k1", 7));
+        assertTrue(registry.get("k1").size() == 1);
+    }
+
+    /**
+     * Registers null.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testRegisterNull()
+    {
+        registry.register(null);
+    }
+
+    /**
+     * Creates a Thing42 in the registry.
+     *
+     * @param key the key
+     * @param level the level
+     * @return the new Thing42
+     */
+    private Thing42<String, String> thing(final String key, final long level)
+    {
+        return new Thing42<String, String>(key, level, "data", Thing42.PeerStorage.LISTS,
+            Thing42.Equality.DEEP, Thing42.PoolStorage.LIST, registry);
+    }
+}
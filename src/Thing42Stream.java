@@ -0,0 +1,342 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Streaming serialization of graphs of Thing42orNull objects.
+ * <br />
+ * {@link #write} walks the graph iteratively, breadth first from the
+ * roots, and writes one record per node as soon as it is reached; it
+ * never recurses, so long chains and cycles are fine. Nodes are
+ * numbered in the order they are written, starting with the roots, and
+ * peers and pool members are written as the numbers of their nodes,
+ * which may refer back to a node already written or forward to one
+ * still to come.
+ * <br /><br />
+ * {@link #read} decodes one record at a time and passes it to a
+ * {@link Handler}, holding nothing but the record, so a graph larger
+ * than the heap can be loaded into some other store. {@link #readGraph}
+ * is a handler that builds Thing42 objects.
+ * <br /><br />
+ * The stream holds the magic number "T42S", a version and the number
+ * of roots, then per node a flags byte (null key, null data), the key
+ * and data as written by their codecs, the level, and the counts and
+ * numbers of its peers and pool members, and finally a zero byte and
+ * the number of nodes. Counts and numbers are unsigned variable-length
+ * integers.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Stream {
+    /** First 4 bytes of a stream: "T42S". */
+    private static final int MAGIC = 0x54343253;
+    /** Version of the format. */
+    private static final int VERSION = 1;
+    /** Flags bit of a record: the node exists (never 0). */
+    private static final int NODE = 1;
+    /** Flags bit of a record: the key is null. */
+    private static final int NULL_KEY = 2;
+    /** Flags bit of a record: the data is null. */
+    private static final int NULL_DATA = 4;
+
+    /**
+     * Receives the nodes of a stream as they are read.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     */
+    public interface Handler<K, D> {
+        /**
+         * Called once before any node, with the number of roots. The
+         * roots are the nodes numbered 0 to rootCount - 1.
+         *
+         * @param rootCount the number of roots
+         * @throws IOException to stop reading
+         */
+        void start(long rootCount) throws IOException;
+
+        /**
+         * Called for each node, in order of their numbers.
+         *
+         * @param id the number of the node
+         * @param key the key of the node
+         * @param level the level of the node
+         * @param data the data of the node
+         * @param peers the numbers of the peers, in order
+         * @param pool the numbers of the pool members, in order
+         * @throws IOException to stop reading
+         */
+        void node(long id, K key, long level, D data, long[] peers, long[] pool)
+        throws IOException;
+    }
+
+    /**
+     * Prevents instantiation.
+     */
+    private Thing42Stream() {
+    }
+
+    /**
+     * Writes all objects reachable from some roots to a stream.
+     * The stream is flushed, not closed.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param stream where to write
+     * @param roots the roots; later duplicates are ignored
+     * @param keyCodec codec of the keys
+     * @param dataCodec codec of the data
+     * @return the number of nodes written
+     * @throws IOException if writing fails
+     * @throws NullPointerException if any argument or root is null
+     */
+    public static <K, D> long write(final OutputStream stream,
+                                    final Collection<? extends Thing42orNull<K, D>> roots,
+                                    final Thing42Codec<K> keyCodec,
+                                    final Thing42Codec<D> dataCodec)
+    throws IOException, NullPointerException {
+        if (stream == null || keyCodec == null || dataCodec == null) {
+            throw new NullPointerException();
+        }
+        IdentityHashMap<Thing42orNull<K, D>, Long> ids
+            = new IdentityHashMap<Thing42orNull<K, D>, Long>();
+        ArrayList<Thing42orNull<K, D>> queue = new ArrayList<Thing42orNull<K, D>>();
+        for (Thing42orNull<K, D> root : roots) {
+            if (root == null) {
+                throw new NullPointerException();
+            }
+            id(root, ids, queue);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeNumber(out, queue.size());
+        long count = 0;
+        // queue grows while nodes are written; written nodes are dropped
+        for (int i = 0; i < queue.size(); i++) {
+            Thing42orNull<K, D> node = queue.get(i);
+            queue.set(i, null);
+            K k = node.getKey();
+            D d = node.getData();
+            out.writeByte(NODE | ((k == null) ? NULL_KEY : 0) | ((d == null) ? NULL_DATA : 0));
+            if (k != null) {
+                keyCodec.write(k, out);
+            }
+            if (d != null) {
+                dataCodec.write(d, out);
+            }
+            out.writeLong(node.getLevel());
+            Collection<Thing42orNull<K, D>> peers = node.getPeersAsCollection();
+            writeNumber(out, peers.size());
+            for (Thing42orNull<K, D> peer : peers) {
+                writeNumber(out, id(peer, ids, queue));
+            }
+            List<Thing42orNull<K, D>> pool = node.getPoolAsList();
+            writeNumber(out, pool.size());
+            for (Thing42orNull<K, D> member : pool) {
+                writeNumber(out, id(member, ids, queue));
+            }
+            count++;
+        }
+        out.writeByte(0);
+        writeNumber(out, count);
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Numbers a node if it has no number yet, queueing it for writing.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param node the node
+     * @param ids the numbers so far
+     * @param queue the nodes in order of their numbers
+     * @return the number of the node
+     */
+    private static <K, D> long id(final Thing42orNull<K, D> node,
+                                  final IdentityHashMap<Thing42orNull<K, D>, Long> ids,
+                                  final ArrayList<Thing42orNull<K, D>> queue) {
+        Long id = ids.get(node);
+        if (id == null) {
+            id = Long.valueOf(queue.size());
+            ids.put(node, id);
+            queue.add(node);
+        }
+        return id.longValue();
+    }
+
+    /**
+     * Reads a stream, passing each node to a handler as soon as it is
+     * decoded. A stream that does not support mark is buffered, so
+     * it may be read beyond the end of the graph.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param stream where to read from
+     * @param keyCodec codec of the keys
+     * @param dataCodec codec of the data
+     * @param handler receives the nodes
+     * @return the number of nodes read
+     * @throws IOException if reading fails, the stream is not a graph
+     * stream, or the handler throws it
+     * @throws NullPointerException if any argument is null
+     */
+    public static <K, D> long read(final InputStream stream, final Thing42Codec<K> keyCodec,
+                                   final Thing42Codec<D> dataCodec,
+                                   final Handler<K, D> handler)
+    throws IOException, NullPointerException {
+        if (stream == null || keyCodec == null || dataCodec == null || handler == null) {
+            throw new NullPointerException();
+        }
+        DataInputStream in = new DataInputStream(stream.markSupported()
+            ? stream : new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a Thing42 graph stream");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported graph stream version " + version);
+        }
+        long rootCount = readNumber(in);
+        handler.start(rootCount);
+        long id = 0;
+        long highest = rootCount - 1;
+        for (;;) {
+            int flags = in.readUnsignedByte();
+            if (flags == 0) {
+                break;
+            }
+            K k = ((flags & NULL_KEY) != 0) ? null : keyCodec.read(in);
+            D d = ((flags & NULL_DATA) != 0) ? null : dataCodec.read(in);
+            long level = in.readLong();
+            long[] peers = readNumbers(in);
+            long[] pool = readNumbers(in);
+            for (long p : peers) {
+                highest = Math.max(highest, p);
+            }
+            for (long p : pool) {
+                highest = Math.max(highest, p);
+            }
+            handler.node(id++, k, level, d, peers, pool);
+        }
+        if (readNumber(in) != id || highest >= id) {
+            throw new IOException("truncated graph stream");
+        }
+        return id;
+    }
+
+    /**
+     * Reads a stream into new Thing42 objects with the default storage.
+     * The whole graph is held until the stream ends, since peers and
+     * pool members may come after the nodes that refer to them.
+     *
+     * @param <K> the type of key
+     * @param <D> the type of data
+     * @param stream where to read from
+     * @param keyCodec codec of the keys
+     * @param dataCodec codec of the data
+     * @return the roots, in the order they were written
+     * @throws IOException if reading fails or the stream is not a graph stream
+     * @throws NullPointerException if any argument is null
+     */
+    public static <K, D> List<Thing42<K, D>> readGraph(final InputStream stream,
+                                                       final Thing42Codec<K> keyCodec,
+                                                       final Thing42Codec<D> dataCodec)
+    throws IOException, NullPointerException {
+        final ArrayList<Thing42<K, D>> nodes = new ArrayList<Thing42<K, D>>();
+        final ArrayList<long[]> edges = new ArrayList<long[]>();
+        final long[] roots = new long[1];
+        read(stream, keyCodec, dataCodec, new Handler<K, D>() {
+            public void start(final long rootCount) {
+                roots[0] = rootCount;
+            }
+
+            public void node(final long id, final K key, final long level, final D data,
+                             final long[] peers, final long[] pool) {
+                nodes.add(new Thing42<K, D>(key, level, data));
+                edges.add(peers);
+                edges.add(pool);
+            }
+        });
+        for (int i = 0; i < nodes.size(); i++) {
+            Thing42<K, D> node = nodes.get(i);
+            for (long p : edges.get(2 * i)) {
+                node.addPeer(nodes.get((int) p));
+            }
+            for (long p : edges.get(2 * i + 1)) {
+                node.appendToPool(nodes.get((int) p));
+            }
+        }
+        return new ArrayList<Thing42<K, D>>(nodes.subList(0, (int) roots[0]));
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, 7 bits per byte.
+     *
+     * @param out where to write
+     * @param value the value, not negative
+     * @throws IOException if writing fails
+     */
+    private static void writeNumber(final DataOutputStream out, final long value)
+    throws IOException {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Reads an unsigned variable-length integer.
+     *
+     * @param in where to read from
+     * @return the value
+     * @throws IOException if reading fails or the number is too long
+     */
+    private static long readNumber(final DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 63; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("bad number in graph stream");
+    }
+
+    /**
+     * Reads a count and that many numbers.
+     *
+     * @param in where to read from
+     * @return the numbers
+     * @throws IOException if reading fails
+     */
+    private static long[] readNumbers(final DataInputStream in) throws IOException {
+        long n = readNumber(in);
+        if (n > Integer.MAX_VALUE) {
+            throw new IOException("bad count in graph stream");
+        }
+        long[] numbers = new long[(int) n];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = readNumber(in);
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,134 @@
+import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * The test class Thing42StreamTest.
+ *
+ * Writes graphs to streams and reads them back, both into Thing42
+ * objects and through a handler.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42StreamTest
+{
+    /**
+     * Writes a graph with a cycle, duplicates and nulls and reads it
+     * back into Thing42 objects.
+     *
+     * @throws IOException if writing or reading fails
+     */
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        Thing42<String, Integer> root = new Thing42<String, Integer>("root", 1, 10);
+        Thing42<String, Integer> a = new Thing42<String, Integer>("a", 2, null);
+        Thing42<String, Integer> b = new Thing42<String, Integer>(null, 3, 30);
+        root.addPeer(a);
+        root.addPeer(a);
+        root.addPeer(b);
+        a.addPeer(root);
+        root.appendToPool(b);
+        root.appendToPool(a);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertTrue(Thing42Stream.write(bytes, Collections.singletonList(root),
+                   Thing42Codecs.STRING, Thing42Codecs.INTEGER) == 3);
+
+        List<Thing42<String, Integer>> roots = Thing42Stream.readGraph(
+            new ByteArrayInputStream(bytes.toByteArray()),
+            Thing42Codecs.STRING, Thing42Codecs.INTEGER);
+        assertTrue(roots.size() == 1);
+        Thing42<String, Integer> r = roots.get(0);
+        assertEquals("root", r.getKey());
+        assertEquals(Integer.valueOf(10), r.getData());
+        assertTrue(r.getPeersAsCollection().size() == 3);
+        assertTrue(r.getPeersAsCollection("a").size() == 2);
+        Thing42orNull<String, Integer> ra = r.getOnePeer("a");
+        assertNull(ra.getData());
+        assertTrue(ra.getOnePeer("root") == r);
+        assertTrue(r.getOnePeer(null).getLevel() == 3);
+        Iterator<Thing42orNull<String, Integer>> pool = r.getPoolAsList().iterator();
+        assertTrue(pool.next() == r.getOnePeer(null));
+        assertTrue(pool.next() == ra);
+    }
+
+    /**
+     * Streams a chain too long for recursive serialization through a
+     * handler, checking that nodes arrive one by one in order.
+     *
+     * @throws IOException if writing or reading fails
+     */
+    @Test
+    public void testLongChain() throws IOException
+    {
+        final int length = 100000;
+        Thing42<Long, Long> head = new Thing42<Long, Long>(0L, 0, 0L);
+        Thing42<Long, Long> last = head;
+        for (long i = 1; i < length; i++) {
+            Thing42<Long, Long> next = new Thing42<Long, Long>(i, i, i);
+            last.addPeer(next);
+            last = next;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Thing42Stream.write(bytes, Arrays.asList(head, head),
+                            Thing42Codecs.LONG, Thing42Codecs.LONG);
+
+        final long[] seen = new long[2];
+        long count = Thing42Stream.read(new ByteArrayInputStream(bytes.toByteArray()),
+            Thing42Codecs.LONG, Thing42Codecs.LONG, new Thing42Stream.Handler<Long, Long>() {
+                public void start(final long rootCount) {
+                    seen[1] = rootCount;
+                }
+
+                public void node(final long id, final Long key, final long level,
+                                 final Long data, final long[] peers, final long[] pool) {
+                    assertTrue(id == seen[0]++);
+                    assertEquals(Long.valueOf(id), key);
+                    assertTrue(peers.length == ((id == length - 1) ? 0 : 1));
+                    assertTrue(pool.length == 0);
+                }
+            });
+        assertTrue(count == length);
+        assertTrue(seen[0] == length);
+        assertTrue(seen[1] == 1);
+    }
+
+    /**
+     * Attempts to read a stream that ends in the middle of the graph.
+     *
+     * @throws IOException always
+     */
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException
+    {
+        Thing42<Long, Long> root = new Thing42<Long, Long>(1L, 1, 1L);
+        root.addPeer(new Thing42<Long, Long>(2L, 2, 2L));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Thing42Stream.write(bytes, Collections.singletonList(root),
+                            Thing42Codecs.LONG, Thing42Codecs.LONG);
+        byte[] cut = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 4);
+        Thing42Stream.readGraph(new ByteArrayInputStream(cut),
+                                Thing42Codecs.LONG, Thing42Codecs.LONG);
+    }
+
+    /**
+     * Attempts to read a serialized value with a negative length.
+     *
+     * @throws IOException always
+     */
+    @Test(expected = IOException.class)
+    public void testBadSerializableLength() throws IOException
+    {
+        byte[] bytes = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xfe};
+        Thing42Codecs.<String>serializable().read(
+            new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
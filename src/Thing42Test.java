@@ -1,4 +1,12 @@
 import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -170,6 +178,60 @@ public class Thing42Test
         assertTrue(testThing.getPeersAsCollection().contains(validThing));
     }
     
+    /**
+     * Verifies that the collection of all peers is a live,
+     * read-only view whose size follows addPeer and removePeer.
+     */
+    @Test
+    public void testPeersAsCollectionIsLiveView()
+    {
+        java.util.Collection<Thing42orNull<Integer, String>> all = testThing.getPeersAsCollection();
+        Thing42<Integer, String> other = new Thing42<Integer, String>(3, 3, "test");
+        assertTrue(all.isEmpty());
+
+        testThing.addPeer(validThing);
+        testThing.addPeer(validThing);
+        testThing.addPeer(other);
+        assertTrue(all.size() == 3);
+        assertTrue(all.contains(other));
+        int count = 0;
+        for (Thing42orNull<Integer, String> peer : all) {
+            count++;
+        }
+        assertTrue(count == 3);
+
+        assertTrue(testThing.removePeer(validThing));
+        assertFalse(testThing.removePeer(testThing));
+        assertTrue(all.size() == 2);
+        assertTrue(testThing.removePeer(other));
+        assertFalse(all.contains(other));
+        assertTrue(all.size() == 1);
+    }
+
+    /**
+     * Compares the view of all peers with a list copied from it, which
+     * it is not equal to, and the copy with another copy.
+     */
+    @Test
+    public void testPeersAsCollectionEquality()
+    {
+        testThing.addPeer(validThing);
+        Collection<Thing42orNull<Integer, String>> view = testThing.getPeersAsCollection();
+        List<Thing42orNull<Integer, String>> copy = new ArrayList<Thing42orNull<Integer, String>>(view);
+        assertFalse(view.equals(copy));
+        assertFalse(copy.equals(view));
+        assertTrue(copy.equals(new ArrayList<Thing42orNull<Integer, String>>(view)));
+    }
+
+    /**
+     * Attempts to modify the collection of all peers.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPeersAsCollectionIsReadOnly()
+    {
+        testThing.getPeersAsCollection().add(validThing);
+    }
+
     /**
      * Attempts twice to get the pool as list.
      *  The first time, the pool is empty,
@@ -236,6 +298,117 @@ public class Thing42Test
         assertTrue(testThing.getPeersAsCollection().size() == 0);
     }
     
+    /**
+     * Verifies containsPeer before and after adding and removing a peer.
+     */
+    @Test
+    public void testContainsPeer()
+    {
+        assertFalse(testThing.containsPeer(validThing));
+        testThing.addPeer(validThing);
+        assertTrue(testThing.containsPeer(validThing));
+        // default storage matches peers with equals
+        assertTrue(testThing.containsPeer(new Thing42<Integer, String>(2, 2, "test")));
+        testThing.removePeer(validThing);
+        assertFalse(testThing.containsPeer(validThing));
+    }
+
+    /**
+     * Attempt to look for a null peer.
+     */
+    @Test(expected = NullPointerException.class)
+    public void testContainsNullPeer()
+    {
+        testThing.containsPeer(null);
+    }
+
+    /**
+     * Verifies that indexed peer storage accepts duplicates, keeps
+     * insertion order and matches peers by identity.
+     */
+    @Test
+    public void testIndexedPeerStorage()
+    {
+        Thing42<Integer, String> indexed = new Thing42<Integer, String>(1, 1, "test",
+            Thing42.PeerStorage.INDEXED);
+        Thing42<Integer, String> twin = new Thing42<Integer, String>(2, 2, "test");
+        Thing42<Integer, String> other = new Thing42<Integer, String>(2, 3, "other");
+
+        indexed.addPeer(validThing);
+        indexed.addPeer(validThing);
+        indexed.addPeer(other);
+        assertTrue(indexed.getPeersAsCollection().size() == 3);
+        assertTrue(indexed.getPeersAsCollection(2).size() == 3);
+        assertTrue(indexed.getOnePeer(2) == validThing);
+        assertTrue(indexed.containsPeer(validThing));
+        // an equal but distinct instance is not a peer
+        assertFalse(indexed.containsPeer(twin));
+        assertFalse(indexed.removePeer(twin));
+        assertTrue(indexed.getPeersAsCollection().contains(twin));
+
+        assertTrue(indexed.removePeer(validThing));
+        assertTrue(indexed.containsPeer(validThing));
+        assertTrue(indexed.removePeer(validThing));
+        assertFalse(indexed.containsPeer(validThing));
+        assertTrue(indexed.getOnePeer(2) == other);
+        assertTrue(indexed.removePeer(other));
+        assertNull(indexed.getOnePeer(2));
+        assertTrue(indexed.getPeersAsCollection(2).size() == 0);
+        assertTrue(indexed.getPeersAsCollection().size() == 0);
+    }
+
+    /**
+     * Verifies that indexed peer storage iterates duplicates in insertion
+     * order and removes the earliest instance, as list storage does.
+     */
+    @Test
+    public void testIndexedPeerOrder()
+    {
+        Thing42<Integer, String> lists = new Thing42<Integer, String>(0, 0, "test");
+        Thing42<Integer, String> indexed = new Thing42<Integer, String>(0, 0, "test",
+            Thing42.PeerStorage.INDEXED);
+        Thing42<Integer, String> a = new Thing42<Integer, String>(1, 1, "a");
+        Thing42<Integer, String> b = new Thing42<Integer, String>(1, 2, "b");
+        // enough peers to grow the hash table of the key
+        for (int i = 0; i < 20; i++) {
+            Thing42<Integer, String> peer = i % 3 == 1 ? b : a;
+            lists.addPeer(peer);
+            indexed.addPeer(peer);
+        }
+        assertEquals(new ArrayList<Thing42orNull<Integer, String>>(lists.getPeersAsCollection(1)),
+            new ArrayList<Thing42orNull<Integer, String>>(indexed.getPeersAsCollection(1)));
+        Iterator<Thing42orNull<Integer, String>> it = indexed.getPeersAsCollection(1).iterator();
+        assertTrue(it.next() == a);
+        assertTrue(it.next() == b);
+        assertTrue(it.next() == a);
+
+        assertTrue(indexed.removePeer(a));
+        it = indexed.getPeersAsCollection(1).iterator();
+        assertTrue(it.next() == b);
+        assertTrue(it.next() == a);
+        assertTrue(it.next() == a);
+        assertTrue(indexed.getOnePeer(1) == b);
+    }
+
+    /**
+     * Verifies that the peer storage does not affect equals and hashCode.
+     */
+    @Test
+    public void testIndexedPeerStorageEquals()
+    {
+        Thing42<Integer, String> lists = new Thing42<Integer, String>(0, 0, "test");
+        Thing42<Integer, String> indexed = new Thing42<Integer, String>(0, 0, "test",
+            Thing42.PeerStorage.INDEXED);
+        for (int i = 1; i < 15; i++) {
+            Thing42<Integer, String> peer = new Thing42<Integer, String>(i % 3, i, "test");
+            lists.addPeer(peer);
+            indexed.addPeer(peer);
+        }
+        assertTrue(lists.equals(indexed));
+        assertTrue(indexed.equals(lists));
+        assertTrue(lists.hashCode() == indexed.hashCode());
+    }
+
     /**
      * Attempt to remove null from peer Collection
      */    
@@ -528,6 +701,469 @@ public class Thing42Test
 		assertTrue(thing1.equals(thing2));
 		assertTrue(thing1.hashCode() == thing2.hashCode());
 	}
-}
 
+    /**
+     * Creates a Thing42 with structural equality.
+     *
+     * @param key the key
+     * @param level the level
+     * @param data the data
+     * @return the new Thing42
+     */
+    private static Thing42<Integer, String> structural(int key, long level, String data) {
+        return new Thing42<Integer, String>(key, level, data,
+            Thing42.PeerStorage.LISTS, Thing42.Equality.STRUCTURAL);
+    }
+
+    /**
+     * Verifies that structural equality terminates on cycles
+     * that make the default equals overflow the stack.
+     */
+    @Test
+    public void testStructuralEqualsCycles() {
+        Thing42<Integer, String> thing1 = structural(0, 0, "test");
+        Thing42<Integer, String> thing2 = structural(0, 0, "test");
+        thing1.addPeer(thing1);
+        thing2.addPeer(thing2);
+        assertTrue(thing1.equals(thing2));
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+
+        // two-node cycles through the pool
+        Thing42<Integer, String> a1 = structural(1, 1, "a");
+        Thing42<Integer, String> b1 = structural(2, 2, "b");
+        Thing42<Integer, String> a2 = structural(1, 1, "a");
+        Thing42<Integer, String> b2 = structural(2, 2, "b");
+        a1.appendToPool(b1);
+        b1.appendToPool(a1);
+        a2.appendToPool(b2);
+        b2.appendToPool(a2);
+        assertTrue(a1.equals(a2));
+        assertTrue(a2.equals(a1));
+        assertTrue(a1.hashCode() == a2.hashCode());
+        assertFalse(a1.equals(b2));
+
+        // a difference deep inside the cycle is found
+        b2.setData("changed");
+        assertFalse(a1.equals(a2));
+        assertFalse(a2.equals(a1));
+    }
+
+    /**
+     * Verifies that a long chain can be compared without recursion.
+     */
+    @Test
+    public void testStructuralEqualsLongChain() {
+        Thing42<Integer, String> head1 = structural(0, 0, "test");
+        Thing42<Integer, String> head2 = structural(0, 0, "test");
+        Thing42<Integer, String> tail1 = head1;
+        Thing42<Integer, String> tail2 = head2;
+        for (int i = 1; i < 100000; i++) {
+            Thing42<Integer, String> next1 = structural(i, i, "test");
+            Thing42<Integer, String> next2 = structural(i, i, "test");
+            tail1.addPeer(next1);
+            tail2.addPeer(next2);
+            tail1 = next1;
+            tail2 = next2;
+        }
+        assertTrue(head1.equals(head2));
+        tail2.appendToPool(head2);
+        assertFalse(head1.equals(head2));
+    }
+
+    /**
+     * Verifies that the cached structural hash follows every mutation.
+     */
+    @Test
+    public void testStructuralHashCodeInvalidation() {
+        Thing42<Integer, String> thing1 = structural(0, 0, "test");
+        Thing42<Integer, String> thing2 = structural(0, 0, "test");
+        Thing42<Integer, String> peer = structural(1, 1, "peer");
+        final int empty = thing1.hashCode();
+
+        thing1.addPeer(peer);
+        assertFalse(thing1.hashCode() == empty);
+        assertFalse(thing1.equals(thing2));
+        thing2.addPeer(structural(1, 1, "peer"));
+        assertTrue(thing1.equals(thing2));
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+
+        thing1.appendToPool(peer);
+        int withPool = thing1.hashCode();
+        assertFalse(thing1.equals(thing2));
+        assertTrue(thing1.removeFromPool(peer));
+        assertFalse(thing1.hashCode() == withPool);
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+
+        thing1.setData("modified");
+        assertFalse(thing1.equals(thing2));
+        thing1.setData("test");
+        assertTrue(thing1.hashCode() == thing2.hashCode());
+
+        assertTrue(thing1.removePeer(peer));
+        assertTrue(thing1.hashCode() == empty);
+    }
+
+    /**
+     * Verifies identity equality and that different equality modes
+     * are never equal.
+     */
+    @Test
+    public void testIdentityEquality() {
+        Thing42<Integer, String> thing1 = new Thing42<Integer, String>(0, 0, "test",
+            Thing42.PeerStorage.LISTS, Thing42.Equality.IDENTITY);
+        Thing42<Integer, String> thing2 = new Thing42<Integer, String>(0, 0, "test",
+            Thing42.PeerStorage.LISTS, Thing42.Equality.IDENTITY);
+        assertTrue(thing1.equals(thing1));
+        assertFalse(thing1.equals(thing2));
+        assertTrue(thing1.hashCode() == System.identityHashCode(thing1));
+
+        Thing42<Integer, String> deep = new Thing42<Integer, String>(0, 0, "test");
+        Thing42<Integer, String> struct = structural(0, 0, "test");
+        assertFalse(deep.equals(struct));
+        assertFalse(struct.equals(deep));
+        assertFalse(deep.equals("test"));
+    }
+
+    /**
+     * Attempts to modify the pool of a Thing42 with structural equality.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStructuralPoolIsReadOnly() {
+        structural(0, 0, "test").getPoolAsList().add(validThing);
+    }
+
+    /**
+     * Adds peers past the size at which they are moved from the compact
+     * array to the hash index, and removes them all again.
+     */
+    @Test
+    public void testPeersPromoteAndShrink() {
+        Thing42<Integer, String>[] peers = newArray(40);
+        for (int i = 0; i < peers.length; i++) {
+            peers[i] = new Thing42<Integer, String>(i % 5, i, "peer");
+            testThing.addPeer(peers[i]);
+            assertTrue(testThing.getPeersAsCollection().size() == i + 1);
+            assertTrue(testThing.getOnePeer(i % 5) == peers[i % 5]);
+            assertTrue(testThing.containsPeer(peers[i]));
+        }
+        assertTrue(testThing.getPeersAsCollection(3).size() == 8);
+        for (int i = peers.length - 1; i >= 0; i--) {
+            assertTrue(testThing.removePeer(peers[i]));
+            assertFalse(testThing.containsPeer(peers[i]));
+        }
+        assertTrue(testThing.getPeersAsCollection().size() == 0);
+        assertNull(testThing.getOnePeer(0));
+        assertTrue(testThing.getPeersAsCollection(0).size() == 0);
+    }
+
+    /**
+     * Attempts to modify the peers with a key, in the compact and
+     * indexed layouts and for a key without peers, and checks that the
+     * node is unchanged.
+     */
+    @Test
+    public void testPeersByKeyAreReadOnly() {
+        for (int n : new int[] {3, 20}) {
+            Thing42<Integer, String> node = new Thing42<Integer, String>(1, 1, "test");
+            for (int i = 0; i < n; i++) {
+                node.addPeer(new Thing42<Integer, String>(0, i, "peer"));
+            }
+            for (int key : new int[] {0, 1}) {
+                try {
+                    node.getPeersAsCollection(key).clear();
+                    assertTrue(key == 1);
+                } catch (UnsupportedOperationException e) {
+                    // expected
+                }
+            }
+            assertTrue(node.getPeersAsCollection().size() == n);
+            assertTrue(node.getPeersAsCollection(0).size() == n);
+            assertNotNull(node.getOnePeer(0));
+            assertNull(node.getOnePeer(1));
+        }
+    }
+
+    /**
+     * Verifies that the order in which keys are first added does not
+     * matter for equals and hashCode, in the compact and indexed layouts.
+     */
+    @Test
+    public void testEqualsIgnoresKeyOrder() {
+        for (int n : new int[] {3, 20}) {
+            Thing42<Integer, String> thing1 = new Thing42<Integer, String>(1, 1, "test");
+            Thing42<Integer, String> thing2 = new Thing42<Integer, String>(1, 1, "test");
+            for (int i = 0; i < n; i++) {
+                thing1.addPeer(new Thing42<Integer, String>(i, i, "peer"));
+                thing2.addPeer(new Thing42<Integer, String>(n - 1 - i, n - 1 - i, "peer"));
+            }
+            assertTrue(thing1.equals(thing2));
+            assertTrue(thing1.hashCode() == thing2.hashCode());
+            assertTrue(thing1.getPeersAsCollection().hashCode()
+                       == thing2.getPeersAsCollection().hashCode());
+        }
+    }
+
+    /**
+     * Adds and removes peers and pool members in batches, across the
+     * compact and indexed layouts, and checks the result against the
+     * same changes made one at a time.
+     */
+    @Test
+    public void testBatchesMatchLoops() {
+        for (Thing42.PeerStorage storage : Thing42.PeerStorage.values()) {
+            for (int n : new int[] {3, 40}) {
+                Thing42<Integer, String>[] things = newArray(n);
+                for (int i = 0; i < n; i++) {
+                    things[i] = new Thing42<Integer, String>(i % 5, i, "peer");
+                }
+                List<Thing42<Integer, String>> batch = Arrays.asList(things);
+                Thing42<Integer, String> batched = new Thing42<Integer, String>(1, 1, "test",
+                    storage, Thing42.Equality.DEEP);
+                Thing42<Integer, String> looped = new Thing42<Integer, String>(1, 1, "test",
+                    storage, Thing42.Equality.DEEP);
+                batched.addPeer(things[0]);
+                looped.addPeer(things[0]);
+                batched.addPeers(batch);
+                batched.appendAllToPool(batch);
+                for (Thing42<Integer, String> thing : things) {
+                    looped.addPeer(thing);
+                    looped.appendToPool(thing);
+                }
+                assertTrue(batched.getPeersAsCollection().size() == n + 1);
+                assertTrue(batched.equals(looped));
+
+                // duplicates remove one instance each; the last is absent
+                List<Thing42<Integer, String>> gone = Arrays.asList(things[0], things[0],
+                    things[0], things[n - 1], new Thing42<Integer, String>(9, 9, "absent"));
+                assertTrue(batched.removePeers(gone));
+                assertTrue(batched.removeAllFromPool(gone));
+                for (Thing42<Integer, String> thing : gone) {
+                    looped.removePeer(thing);
+                    looped.removeFromPool(thing);
+                }
+                assertTrue(batched.getPeersAsCollection().size() == n - 2);
+                assertTrue(batched.getPoolAsList().size() == n - 2);
+                assertTrue(batched.equals(looped));
+                assertFalse(batched.containsPeer(things[0]));
+                assertFalse(batched.removePeers(gone.subList(0, 1)));
+                assertFalse(batched.removeAllFromPool(gone.subList(0, 1)));
+
+                batched.removePeers(batch);
+                assertTrue(batched.getPeersAsCollection().size() == 0);
+                batched.addPeers(batch.subList(0, 2));
+                assertTrue(batched.getPeersAsCollection().size() == 2);
+            }
+        }
+    }
+
+    /**
+     * Verifies that a batch holding null changes nothing.
+     */
+    @Test
+    public void testBatchWithNull() {
+        List<Thing42<Integer, String>> batch = Arrays.asList(validThing, null);
+        try {
+            testThing.addPeers(batch);
+            fail();
+        } catch (NullPointerException e) {
+            assertTrue(testThing.getPeersAsCollection().size() == 0);
+        }
+        try {
+            testThing.appendAllToPool(batch);
+            fail();
+        } catch (NullPointerException e) {
+            assertTrue(testThing.getPoolAsList().size() == 0);
+        }
+        testThing.addPeer(validThing);
+        try {
+            testThing.removePeers(batch);
+            fail();
+        } catch (NullPointerException e) {
+            assertTrue(testThing.containsPeer(validThing));
+        }
+    }
+
+    /**
+     * Verifies that batches keep the cached structural hash consistent.
+     */
+    @Test
+    public void testStructuralHashCodeBatches() {
+        Thing42<Integer, String> batched = structural(1, 1, "test");
+        Thing42<Integer, String> looped = structural(1, 1, "test");
+        Thing42<Integer, String>[] things = newArray(20);
+        for (int i = 0; i < things.length; i++) {
+            things[i] = structural(i % 3, i, "peer");
+            looped.addPeer(things[i]);
+            looped.appendToPool(things[i]);
+        }
+        batched.addPeers(Arrays.asList(things));
+        batched.appendAllToPool(Arrays.asList(things));
+        assertTrue(batched.equals(looped));
+        assertTrue(batched.hashCode() == looped.hashCode());
+        List<Thing42<Integer, String>> gone = Arrays.asList(things).subList(5, 15);
+        batched.removePeers(gone);
+        batched.removeAllFromPool(gone);
+        for (Thing42<Integer, String> thing : gone) {
+            looped.removePeer(thing);
+            looped.removeFromPool(thing);
+        }
+        assertTrue(batched.equals(looped));
+        assertTrue(batched.hashCode() == looped.hashCode());
+    }
 
+    /**
+     * Polls and looks up pool members with every pool storage, and
+     * checks that the structural hash follows.
+     */
+    @Test
+    public void testPollPool() {
+        for (Thing42.PoolStorage storage : Thing42.PoolStorage.values()) {
+            Thing42<Integer, String> node = new Thing42<Integer, String>(0, 0, "node",
+                Thing42.PeerStorage.LISTS, Thing42.Equality.STRUCTURAL, storage);
+            Thing42<Integer, String> empty = new Thing42<Integer, String>(0, 0, "node",
+                Thing42.PeerStorage.LISTS, Thing42.Equality.STRUCTURAL, storage);
+            assertNull(node.pollPool());
+            Thing42<Integer, String> a = new Thing42<Integer, String>(1, 1, "a");
+            Thing42<Integer, String> b = new Thing42<Integer, String>(2, 2, "b");
+            node.appendToPool(a);
+            node.appendToPool(b);
+            assertTrue(node.poolContains(b));
+            assertTrue(node.poolContains(new Thing42<Integer, String>(1, 1, "a"))
+                       == (storage != Thing42.PoolStorage.DEQUE));
+            assertTrue(node.pollPool() == a);
+            assertFalse(node.poolContains(a));
+            assertTrue(node.pollPool() == b);
+            assertNull(node.pollPool());
+            assertTrue(node.hashCode() == empty.hashCode());
+            assertTrue(node.equals(empty));
+        }
+    }
+
+    /**
+     * Queries peers by level while peers are added and removed one by
+     * one and in batches, and checks against a scan of the peers.
+     */
+    @Test
+    public void testPeersByLevel() {
+        for (Thing42.PeerStorage storage : Thing42.PeerStorage.values()) {
+            Random random = new Random(7);
+            Thing42<Integer, String> node = new Thing42<Integer, String>(1, 1, "test", storage);
+            List<Thing42<Integer, String>> added = new ArrayList<Thing42<Integer, String>>();
+            assertNull(node.getPeerWithMaxLevel(0));
+            assertTrue(node.getTopPeersByLevel(0, 3).size() == 0);
+            for (int step = 0; step < 2000; step++) {
+                int op = random.nextInt(10);
+                if (op < 5 || added.isEmpty()) {
+                    Thing42<Integer, String> peer = new Thing42<Integer, String>(
+                        random.nextInt(3), random.nextInt(20) - 10, "peer");
+                    added.add(peer);
+                    if (op == 0) {
+                        node.addPeers(Arrays.asList(peer));
+                    } else {
+                        node.addPeer(peer);
+                    }
+                } else if (op < 8) {
+                    Thing42<Integer, String> peer = added.remove(random.nextInt(added.size()));
+                    if (op == 5) {
+                        assertTrue(node.removePeers(Arrays.asList(peer)));
+                    } else {
+                        assertTrue(node.removePeer(peer));
+                    }
+                } else {
+                    int key = random.nextInt(3);
+                    long min = random.nextInt(24) - 12;
+                    long max = min + random.nextInt(8);
+                    List<Thing42orNull<Integer, String>> expected
+                        = new ArrayList<Thing42orNull<Integer, String>>();
+                    for (Thing42orNull<Integer, String> peer : node.getPeersAsCollection(key)) {
+                        expected.add(peer);
+                    }
+                    // stable, so equal levels stay in the order they were added
+                    Collections.sort(expected, new Comparator<Thing42orNull<Integer, String>>() {
+                        public int compare(final Thing42orNull<Integer, String> x,
+                                           final Thing42orNull<Integer, String> y) {
+                            return Long.compare(x.getLevel(), y.getLevel());
+                        }
+                    });
+                    List<Thing42orNull<Integer, String>> range
+                        = node.getPeersInLevelRange(key, min, max);
+                    List<Thing42orNull<Integer, String>> inRange
+                        = new ArrayList<Thing42orNull<Integer, String>>();
+                    for (Thing42orNull<Integer, String> peer : expected) {
+                        if (peer.getLevel() >= min && peer.getLevel() <= max) {
+                            inRange.add(peer);
+                        }
+                    }
+                    assertTrue(range.size() == inRange.size());
+                    for (int i = 0; i < range.size(); i++) {
+                        assertTrue(range.get(i) == inRange.get(i));
+                    }
+                    if (expected.isEmpty()) {
+                        assertNull(node.getPeerWithMinLevel(key));
+                        assertNull(node.getPeerWithMaxLevel(key));
+                    } else {
+                        assertTrue(node.getPeerWithMinLevel(key) == expected.get(0));
+                        Thing42orNull<Integer, String> top = node.getPeerWithMaxLevel(key);
+                        long maxLevel = expected.get(expected.size() - 1).getLevel();
+                        assertTrue(top.getLevel() == maxLevel);
+                        for (Thing42orNull<Integer, String> peer : expected) {
+                            if (peer.getLevel() == maxLevel) {
+                                assertTrue(top == peer);
+                                break;
+                            }
+                        }
+                    }
+                    List<Thing42orNull<Integer, String>> best = node.getTopPeersByLevel(key, 5);
+                    assertTrue(best.size() == Math.min(5, expected.size()));
+                    for (int i = 1; i < best.size(); i++) {
+                        assertTrue(best.get(i - 1).getLevel() >= best.get(i).getLevel());
+                    }
+                    if (!best.isEmpty()) {
+                        assertTrue(best.get(0) == node.getPeerWithMaxLevel(key));
+                    }
+                }
+            }
+            node.addPeer(new Thing42<Integer, String>(null, 3, "peer"));
+            assertTrue(node.getPeerWithMaxLevel(null).getLevel() == 3);
+            try {
+                node.getTopPeersByLevel(0, -1);
+                fail();
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Empties a key whose peers were queried by level, and checks that
+     * the queries follow the key once it has peers again.
+     */
+    @Test
+    public void testPeersByLevelOfEmptiedKey() {
+        Thing42<Integer, String> low = new Thing42<Integer, String>(0, 1, "peer");
+        Thing42<Integer, String> high = new Thing42<Integer, String>(0, 5, "peer");
+        testThing.addPeer(low);
+        testThing.addPeer(high);
+        assertTrue(testThing.getPeerWithMaxLevel(0) == high);
+        assertTrue(testThing.removePeer(high));
+        assertTrue(testThing.removePeer(low));
+        assertNull(testThing.getPeerWithMaxLevel(0));
+        assertTrue(testThing.getPeersInLevelRange(0, 0, 10).isEmpty());
+        testThing.addPeer(low);
+        assertTrue(testThing.getPeerWithMinLevel(0) == low);
+        testThing.addPeer(high);
+        assertTrue(testThing.getTopPeersByLevel(0, 1).get(0) == high);
+        assertTrue(testThing.getPeersInLevelRange(0, 0, 10).size() == 2);
+    }
+
+    /**
+     * Creates an array of Thing42 objects.
+     *
+     * @param length the length
+     * @return the array
+     */
+    @SuppressWarnings("unchecked")
+    private static Thing42<Integer, String>[] newArray(final int length) {
+        return new Thing42[length];
+    }
+}
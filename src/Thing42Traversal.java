@@ -0,0 +1,829 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy walk over the graph of Thing42orNull objects reachable from
+ * some roots through their peers, their pools, or both.
+ * <br />
+ * The walk is iterative, breadth first or depth first (pre-order), so
+ * long chains need no stack and cycles end, since every object is
+ * returned at most once. Nothing is copied: the children of an object
+ * are only looked at when the walk moves past it, through the views
+ * returned by getPeersAsCollection and getPoolAsList, so stopping
+ * early, for instance with {@code stream().filter(...).findFirst()},
+ * costs only what was consumed.
+ * <br /><br />
+ * A walk can be limited to a depth, to objects whose level lies in a
+ * range, and to peers and pool members with a given key, which uses
+ * getPeersAsCollection(K) and so the per-key index of the peers. Roots
+ * are at depth 0 and are not subject to the key. An object outside
+ * the range of levels is neither returned nor walked through.
+ * <br /><br />
+ * {@link #collect} and the reductions built on it walk the same graph
+ * in parallel on a ForkJoinPool, breadth first one depth at a time:
+ * the objects at a depth are split among the workers, which feed them
+ * to the accumulators of their own thread and gather their children
+ * into the next depth, checking a concurrent visited set. The objects
+ * reached are those of a breadth first walk, in no particular order.
+ * <br /><br />
+ * The settings are read when a walk starts, so one traversal may be
+ * walked several times. Objects that change while they are walked may
+ * make the walk fail, as their views do.
+ *
+ * @param <K> the type of key
+ * @param <D> the type of data
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public final class Thing42Traversal<K, D> implements Iterable<Thing42orNull<K, D>> {
+    /**
+     * Order in which objects are returned.
+     */
+    public enum Order {
+        /** All objects at depth n before any at depth n + 1. */
+        BREADTH_FIRST,
+        /** Each object before its children, each subtree in turn. */
+        DEPTH_FIRST
+    }
+
+    /**
+     * Which links lead from an object to its children.
+     */
+    public enum Edges {
+        /** The peers. */
+        PEERS,
+        /** The pool members, in pool order. */
+        POOL,
+        /** The peers, then the pool members. */
+        PEERS_AND_POOL
+    }
+
+    /**
+     * When two objects count as the same node, so that only the first
+     * is returned.
+     */
+    public enum Visited {
+        /**
+         * When they are the very same object. Objects are held in a
+         * compact identity set and equals is never called.
+         */
+        IDENTITY,
+        /**
+         * When they are equal. For views that create a new object for
+         * each access to a node; equals and hashCode must be cheap,
+         * which rules out Thing42.
+         */
+        EQUALS,
+        /**
+         * When they are nodes of the same OffHeapGraph with the same
+         * handle. Handles are held in a bitmap, one bit per node of
+         * the graph, and all objects reached must be such nodes.
+         */
+        HANDLES
+    }
+
+    /** Number of objects at a depth below which a parallel task is not split. */
+    private static final int GRAIN = 256;
+
+    /** The roots. */
+    private final List<Thing42orNull<K, D>> roots;
+    /** Order of the walk. */
+    private Order order = Order.BREADTH_FIRST;
+    /** Links to follow. */
+    private Edges edges = Edges.PEERS;
+    /** Identity of nodes. */
+    private Visited visited = Visited.IDENTITY;
+    /** Greatest depth returned. */
+    private int maxDepth = Integer.MAX_VALUE;
+    /** Smallest level returned. */
+    private long minLevel = Long.MIN_VALUE;
+    /** Greatest level returned. */
+    private long maxLevel = Long.MAX_VALUE;
+    /** Whether only children with the key are followed. */
+    private boolean keyed;
+    /** The key children must have, if keyed. */
+    private K key;
+
+    /**
+     * Constructor for objects of class Thing42Traversal.
+     * By default the walk is breadth first through the peers, with no
+     * limit, and objects are compared by identity.
+     *
+     * @param root the object to start from
+     * @throws NullPointerException if the root is null
+     */
+    public Thing42Traversal(final Thing42orNull<K, D> root) throws NullPointerException {
+        this(Collections.singletonList(root));
+    }
+
+    /**
+     * Constructor for objects of class Thing42Traversal.
+     * By default the walk is breadth first through the peers, with no
+     * limit, and objects are compared by identity.
+     *
+     * @param roots the objects to start from, in order
+     * @throws NullPointerException if the collection or any root is null
+     */
+    public Thing42Traversal(final Collection<? extends Thing42orNull<K, D>> roots)
+    throws NullPointerException {
+        this.roots = new ArrayList<Thing42orNull<K, D>>(roots);
+        for (Thing42orNull<K, D> root : this.roots) {
+            if (root == null) {
+                throw new NullPointerException();
+            }
+        }
+    }
+
+    /**
+     * Sets the order of the walk.
+     *
+     * @param newOrder the order
+     * @return this traversal
+     * @throws NullPointerException if the order is null
+     */
+    public Thing42Traversal<K, D> order(final Order newOrder) throws NullPointerException {
+        if (newOrder == null) {
+            throw new NullPointerException();
+        }
+        order = newOrder;
+        return this;
+    }
+
+    /**
+     * Sets the links to follow.
+     *
+     * @param newEdges the links
+     * @return this traversal
+     * @throws NullPointerException if the links are null
+     */
+    public Thing42Traversal<K, D> edges(final Edges newEdges) throws NullPointerException {
+        if (newEdges == null) {
+            throw new NullPointerException();
+        }
+        edges = newEdges;
+        return this;
+    }
+
+    /**
+     * Sets when two objects count as the same node.
+     *
+     * @param newVisited the identity of nodes
+     * @return this traversal
+     * @throws NullPointerException if the argument is null
+     */
+    public Thing42Traversal<K, D> visited(final Visited newVisited)
+    throws NullPointerException {
+        if (newVisited == null) {
+            throw new NullPointerException();
+        }
+        visited = newVisited;
+        return this;
+    }
+
+    /**
+     * Limits the walk to a depth; 0 returns only the roots.
+     *
+     * @param depth the greatest depth returned
+     * @return this traversal
+     * @throws IllegalArgumentException if the depth is negative
+     */
+    public Thing42Traversal<K, D> maxDepth(final int depth) throws IllegalArgumentException {
+        if (depth < 0) {
+            throw new IllegalArgumentException("negative depth " + depth);
+        }
+        maxDepth = depth;
+        return this;
+    }
+
+    /**
+     * Limits the walk to objects whose level lies in a range.
+     *
+     * @param min the smallest level, inclusive
+     * @param max the greatest level, inclusive
+     * @return this traversal
+     * @throws IllegalArgumentException if min is greater than max
+     */
+    public Thing42Traversal<K, D> levels(final long min, final long max)
+    throws IllegalArgumentException {
+        if (min > max) {
+            throw new IllegalArgumentException("empty range of levels " + min + ".." + max);
+        }
+        minLevel = min;
+        maxLevel = max;
+        return this;
+    }
+
+    /**
+     * Limits the walk to peers and pool members with a key.
+     *
+     * @param newKey the key, which may be null
+     * @return this traversal
+     */
+    public Thing42Traversal<K, D> key(final K newKey) {
+        keyed = true;
+        key = newKey;
+        return this;
+    }
+
+    /**
+     * Starts a walk.
+     *
+     * @return the objects reached, each once, in the order of the walk
+     * @throws IllegalArgumentException if nodes are visited by handle
+     * and the first root is not an off-heap node
+     */
+    public Walk iterator() throws IllegalArgumentException {
+        return new Walk();
+    }
+
+    /**
+     * Starts a walk as a sequential stream.
+     *
+     * @return the objects reached, each once, in the order of the walk
+     */
+    public Stream<Thing42orNull<K, D>> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+            Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    /**
+     * Walks in parallel and reduces the objects reached with a
+     * collector. Each thread of the pool that takes part gets its own
+     * container, and the containers are combined at the end, so the
+     * collector need not be concurrent. The order is ignored.
+     *
+     * @param <A> the type of container of the collector
+     * @param <R> the type of result
+     * @param pool the pool to walk on
+     * @param collector the reduction
+     * @return the result of the collector
+     * @throws NullPointerException if the pool or collector is null
+     * @throws IllegalArgumentException if nodes are visited by handle
+     * and one is not a node of the graph of the first root
+     */
+    public <A, R> R collect(final ForkJoinPool pool,
+                            final Collector<? super Thing42orNull<K, D>, A, R> collector)
+    throws NullPointerException, IllegalArgumentException {
+        if (pool == null || collector == null) {
+            throw new NullPointerException();
+        }
+        Rules rules = new Rules(true);
+        ConcurrentHashMap<Thread, A> containers = new ConcurrentHashMap<Thread, A>();
+        ArrayList<Object> first = new ArrayList<Object>();
+        for (Thing42orNull<K, D> root : roots) {
+            if (rules.inRange(root) && rules.firstVisit(root)) {
+                first.add(root);
+            }
+        }
+        List<Object[]> level = new ArrayList<Object[]>();
+        if (!first.isEmpty()) {
+            level.add(first.toArray());
+        }
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            ConcurrentLinkedQueue<Object[]> next = new ConcurrentLinkedQueue<Object[]>();
+            pool.invoke(new Level<A>(rules, collector, containers, level, depth, next,
+                                     0, level.size(), 0, level.get(0).length));
+            level = new ArrayList<Object[]>(next);
+        }
+        A result = null;
+        BinaryOperator<A> combiner = collector.combiner();
+        for (A container : containers.values()) {
+            result = (result == null) ? container : combiner.apply(result, container);
+        }
+        if (result == null) {
+            result = collector.supplier().get();
+        }
+        return collector.finisher().apply(result);
+    }
+
+    /**
+     * Counts the objects reached, walking in parallel.
+     *
+     * @param pool the pool to walk on
+     * @return the number of objects reached
+     * @throws NullPointerException if the pool is null
+     */
+    public long count(final ForkJoinPool pool) throws NullPointerException {
+        return collect(pool, Collectors.counting()).longValue();
+    }
+
+    /**
+     * Adds up the levels of the objects reached, walking in parallel.
+     *
+     * @param pool the pool to walk on
+     * @return the sum of their levels
+     * @throws NullPointerException if the pool is null
+     */
+    public long sumOfLevels(final ForkJoinPool pool) throws NullPointerException {
+        return collect(pool, Collectors.summingLong(new ToLongFunction<Thing42orNull<K, D>>() {
+            public long applyAsLong(final Thing42orNull<K, D> node) {
+                return node.getLevel();
+            }
+        })).longValue();
+    }
+
+    /**
+     * Groups the objects reached by key, walking in parallel.
+     * Unlike Collectors.groupingBy this accepts a null key.
+     *
+     * @param pool the pool to walk on
+     * @return the objects reached by key, in no particular order
+     * @throws NullPointerException if the pool is null
+     */
+    public Map<K, List<Thing42orNull<K, D>>> groupByKey(final ForkJoinPool pool)
+    throws NullPointerException {
+        return collect(pool, Collector.of(
+            new Supplier<HashMap<K, List<Thing42orNull<K, D>>>>() {
+                public HashMap<K, List<Thing42orNull<K, D>>> get() {
+                    return new HashMap<K, List<Thing42orNull<K, D>>>();
+                }
+            },
+            new BiConsumer<HashMap<K, List<Thing42orNull<K, D>>>, Thing42orNull<K, D>>() {
+                public void accept(final HashMap<K, List<Thing42orNull<K, D>>> groups,
+                                   final Thing42orNull<K, D> node) {
+                    List<Thing42orNull<K, D>> group = groups.get(node.getKey());
+                    if (group == null) {
+                        group = new ArrayList<Thing42orNull<K, D>>(2);
+                        groups.put(node.getKey(), group);
+                    }
+                    group.add(node);
+                }
+            },
+            new BinaryOperator<HashMap<K, List<Thing42orNull<K, D>>>>() {
+                public HashMap<K, List<Thing42orNull<K, D>>> apply(
+                        final HashMap<K, List<Thing42orNull<K, D>>> a,
+                        final HashMap<K, List<Thing42orNull<K, D>>> b) {
+                    for (Map.Entry<K, List<Thing42orNull<K, D>>> e : b.entrySet()) {
+                        List<Thing42orNull<K, D>> group = a.get(e.getKey());
+                        if (group == null) {
+                            a.put(e.getKey(), e.getValue());
+                        } else {
+                            group.addAll(e.getValue());
+                        }
+                    }
+                    return a;
+                }
+            }));
+    }
+
+    /**
+     * The settings of one walk, read when it starts, and its visited set.
+     */
+    private final class Rules {
+        /** Links of this walk. */
+        private final Edges walkEdges = edges;
+        /** Depth limit of this walk. */
+        private final int walkDepth = maxDepth;
+        /** Smallest level of this walk. */
+        private final long walkMin = minLevel;
+        /** Greatest level of this walk. */
+        private final long walkMax = maxLevel;
+        /** Whether this walk follows only one key. */
+        private final boolean walkKeyed = keyed;
+        /** The key this walk follows. */
+        private final K walkKey = key;
+        /** Identity of nodes in this walk. */
+        private final Visited walkVisited = visited;
+        /** Nodes seen, by identity, in a sequential walk. */
+        private final IdentitySet same;
+        /** Nodes seen, by identity, in a parallel walk. */
+        private final StripedIdentitySet sameConcurrent;
+        /** Nodes seen, by equals. */
+        private final Set<Object> equal;
+        /** Nodes seen, by handle. */
+        private final ConcurrentBitmap handles;
+        /** The graph of the nodes, by handle; that of the first root. */
+        private final OffHeapGraph graph;
+
+        /**
+         * Constructor for objects of class Rules.
+         *
+         * @param concurrent whether many threads will check the visited set
+         * @throws IllegalArgumentException if nodes are visited by
+         * handle and the first root is not an off-heap node
+         */
+        private Rules(final boolean concurrent) throws IllegalArgumentException {
+            same = (walkVisited == Visited.IDENTITY && !concurrent) ? new IdentitySet() : null;
+            sameConcurrent = (walkVisited == Visited.IDENTITY && concurrent)
+                ? new StripedIdentitySet() : null;
+            if (walkVisited == Visited.EQUALS) {
+                equal = concurrent ? ConcurrentHashMap.<Object>newKeySet() : new HashSet<Object>();
+            } else {
+                equal = null;
+            }
+            if (walkVisited == Visited.HANDLES && !roots.isEmpty()) {
+                handles = new ConcurrentBitmap();
+                graph = node(roots.get(0)).getGraph();
+            } else {
+                handles = null;
+                graph = null;
+            }
+        }
+
+        /**
+         * The children of a node, through the links of this walk.
+         *
+         * @param node the node
+         * @return the children; they still have to be accepted
+         */
+        private Iterator<Thing42orNull<K, D>> children(final Thing42orNull<K, D> node) {
+            switch (walkEdges) {
+            case POOL:
+                return node.getPoolAsList().iterator();
+            case PEERS_AND_POOL:
+                return new BucketIterator<K, D>(Arrays.asList(peers(node),
+                    node.getPoolAsList()).iterator());
+            default:
+                return peers(node).iterator();
+            }
+        }
+
+        /**
+         * The peers of a node, only those with the key if keyed.
+         *
+         * @param node the node
+         * @return the peers
+         */
+        private Collection<Thing42orNull<K, D>> peers(final Thing42orNull<K, D> node) {
+            return walkKeyed ? node.getPeersAsCollection(walkKey) : node.getPeersAsCollection();
+        }
+
+        /**
+         * Tells whether a child may be returned, leaving aside whether
+         * it was seen before.
+         *
+         * @param child the child
+         * @return true if its level is in range and its key matches
+         */
+        private boolean accept(final Thing42orNull<K, D> child) {
+            if (!inRange(child)) {
+                return false;
+            }
+            if (!walkKeyed) {
+                return true;
+            }
+            K k = child.getKey();
+            return (k == null) ? walkKey == null : k.equals(walkKey);
+        }
+
+        /**
+         * Tells whether the level of a node is in range.
+         *
+         * @param node the node
+         * @return true if the node may be returned
+         */
+        private boolean inRange(final Thing42orNull<K, D> node) {
+            long level = node.getLevel();
+            return level >= walkMin && level <= walkMax;
+        }
+
+        /**
+         * Marks a node as seen.
+         *
+         * @param node the node
+         * @return true if it was not seen before
+         * @throws IllegalArgumentException if nodes are visited by
+         * handle and this is not a node of the same OffHeapGraph
+         */
+        private boolean firstVisit(final Thing42orNull<K, D> node)
+        throws IllegalArgumentException {
+            if (same != null) {
+                return same.add(node);
+            }
+            if (sameConcurrent != null) {
+                return sameConcurrent.add(node);
+            }
+            if (equal != null) {
+                return equal.add(node);
+            }
+            OffHeapGraph.Node n = node(node);
+            if (n.getGraph() != graph) {
+                throw new IllegalArgumentException("node of another graph: " + node);
+            }
+            return handles.set(n.getHandle());
+        }
+    }
+
+    /**
+     * An object as a node of an OffHeapGraph.
+     *
+     * @param node the object
+     * @return the node
+     * @throws IllegalArgumentException if it is not such a node
+     */
+    private static OffHeapGraph.Node node(final Thing42orNull<?, ?> node)
+    throws IllegalArgumentException {
+        if (!(node instanceof OffHeapGraph.Node)) {
+            throw new IllegalArgumentException("not an off-heap node: " + node);
+        }
+        return (OffHeapGraph.Node) node;
+    }
+
+    /**
+     * A walk in progress. Besides the objects, it tells the depth at
+     * which each was reached.
+     */
+    public final class Walk implements Iterator<Thing42orNull<K, D>> {
+        /** Settings and visited set of this walk. */
+        private final Rules rules = new Rules(false);
+        /** Breadth first: nodes reached and not yet returned. */
+        private final ArrayDeque<Thing42orNull<K, D>> queue;
+        /** Depth first: the children still to look at, per depth. */
+        private final ArrayList<Iterator<Thing42orNull<K, D>>> stack;
+        /** Breadth first: depth of the head of the queue. */
+        private int depth;
+        /** Breadth first: nodes in the queue at that depth. */
+        private int remaining;
+        /** Breadth first: nodes in the queue at the next depth. */
+        private int following;
+        /** Next node to return; null if not found yet. */
+        private Thing42orNull<K, D> ahead;
+        /** Depth of the next node. */
+        private int aheadDepth;
+        /** Last node returned, whose children are not looked at yet. */
+        private Thing42orNull<K, D> last;
+        /** Depth of the last node returned; -1 before the first. */
+        private int lastDepth = -1;
+
+        /**
+         * Constructor for objects of class Walk.
+         */
+        private Walk() {
+            if (order == Order.BREADTH_FIRST) {
+                queue = new ArrayDeque<Thing42orNull<K, D>>();
+                stack = null;
+                for (Thing42orNull<K, D> root : roots) {
+                    if (rules.inRange(root) && rules.firstVisit(root)) {
+                        queue.add(root);
+                        remaining++;
+                    }
+                }
+            } else {
+                queue = null;
+                stack = new ArrayList<Iterator<Thing42orNull<K, D>>>();
+                stack.add(roots.iterator());
+            }
+        }
+
+        /**
+         * Tells whether there are more objects. Looks at the children
+         * of the last object returned, if it has not yet.
+         *
+         * @return true if next() returns an object
+         */
+        public boolean hasNext() {
+            if (ahead == null) {
+                if (last != null) {
+                    expand(last, lastDepth);
+                    last = null;
+                }
+                findNext();
+            }
+            return ahead != null;
+        }
+
+        /**
+         * Returns the next object.
+         *
+         * @return the next object
+         * @throws NoSuchElementException if there are no more objects
+         */
+        public Thing42orNull<K, D> next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = ahead;
+            lastDepth = aheadDepth;
+            ahead = null;
+            return last;
+        }
+
+        /**
+         * Depth at which the object last returned by next() was
+         * reached: 0 for a root, 1 for its children and so on. In a
+         * breadth first walk this is the length of a shortest path.
+         *
+         * @return the depth
+         * @throws IllegalStateException if next() has not been called
+         */
+        public int getDepth() throws IllegalStateException {
+            if (lastDepth < 0) {
+                throw new IllegalStateException();
+            }
+            return lastDepth;
+        }
+
+        /**
+         * Not supported.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Queues or stacks the children of a node returned.
+         *
+         * @param node the node
+         * @param nodeDepth its depth
+         */
+        private void expand(final Thing42orNull<K, D> node, final int nodeDepth) {
+            if (nodeDepth >= rules.walkDepth) {
+                return;
+            }
+            if (stack != null) {
+                stack.add(rules.children(node));
+                return;
+            }
+            for (Iterator<Thing42orNull<K, D>> i = rules.children(node); i.hasNext();) {
+                Thing42orNull<K, D> child = i.next();
+                if (rules.accept(child) && rules.firstVisit(child)) {
+                    queue.add(child);
+                    following++;
+                }
+            }
+        }
+
+        /**
+         * Finds the next node to return, if any, and sets ahead.
+         */
+        private void findNext() {
+            if (queue != null) {
+                if (remaining == 0) {
+                    if (following == 0) {
+                        return;
+                    }
+                    depth++;
+                    remaining = following;
+                    following = 0;
+                }
+                remaining--;
+                ahead = queue.poll();
+                aheadDepth = depth;
+                return;
+            }
+            while (!stack.isEmpty()) {
+                int top = stack.size() - 1;
+                Iterator<Thing42orNull<K, D>> i = stack.get(top);
+                if (!i.hasNext()) {
+                    stack.remove(top);
+                    continue;
+                }
+                Thing42orNull<K, D> node = i.next();
+                // roots are only limited by level
+                if ((top == 0 ? rules.inRange(node) : rules.accept(node))
+                    && rules.firstVisit(node)) {
+                    ahead = node;
+                    aheadDepth = top;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parallel task over part of the objects at one depth. A task
+     * covers a range of whole arrays, or a slice of a single array,
+     * and splits until it covers at most GRAIN objects.
+     *
+     * @param <A> the type of container of the collector
+     */
+    private final class Level<A> extends RecursiveAction {
+        /** Version for serialization. */
+        private static final long serialVersionUID = 1L;
+        /** Settings and visited set of the walk. */
+        private final Rules rules;
+        /** The reduction. */
+        private final Collector<? super Thing42orNull<K, D>, A, ?> collector;
+        /** Container of each thread taking part. */
+        private final ConcurrentHashMap<Thread, A> containers;
+        /** The objects at this depth, in arrays. */
+        private final List<Object[]> arrays;
+        /** This depth. */
+        private final int depth;
+        /** Receives arrays of the objects at the next depth. */
+        private final ConcurrentLinkedQueue<Object[]> next;
+        /** First array covered. */
+        private final int from;
+        /** End of the arrays covered. */
+        private final int to;
+        /** Start of the slice, if a single array is covered. */
+        private final int lo;
+        /** End of the slice, if a single array is covered. */
+        private final int hi;
+
+        /**
+         * Constructor for objects of class Level.
+         *
+         * @param rules settings and visited set of the walk
+         * @param collector the reduction
+         * @param containers container of each thread taking part
+         * @param arrays the objects at this depth
+         * @param depth this depth
+         * @param next receives the objects at the next depth
+         * @param from first array covered
+         * @param to end of the arrays covered
+         * @param lo start of the slice of array from, if to is from + 1
+         * @param hi end of the slice of array from, if to is from + 1
+         */
+        private Level(final Rules rules, final Collector<? super Thing42orNull<K, D>, A, ?> collector,
+                      final ConcurrentHashMap<Thread, A> containers, final List<Object[]> arrays,
+                      final int depth, final ConcurrentLinkedQueue<Object[]> next,
+                      final int from, final int to, final int lo, final int hi) {
+            this.rules = rules;
+            this.collector = collector;
+            this.containers = containers;
+            this.arrays = arrays;
+            this.depth = depth;
+            this.next = next;
+            this.from = from;
+            this.to = to;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        /**
+         * Splits or walks.
+         */
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Level<A>(rules, collector, containers, arrays, depth, next,
+                                       from, mid, 0, arrays.get(from).length),
+                          new Level<A>(rules, collector, containers, arrays, depth, next,
+                                       mid, to, 0, arrays.get(mid).length));
+            } else if (hi - lo > GRAIN) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Level<A>(rules, collector, containers, arrays, depth, next,
+                                       from, to, lo, mid),
+                          new Level<A>(rules, collector, containers, arrays, depth, next,
+                                       from, to, mid, hi));
+            } else {
+                walk();
+            }
+        }
+
+        /**
+         * Accumulates a slice of one array and gathers the children.
+         */
+        @SuppressWarnings("unchecked")
+        private void walk() {
+            // only this thread ever puts its own container
+            A container = containers.get(Thread.currentThread());
+            if (container == null) {
+                container = collector.supplier().get();
+                containers.put(Thread.currentThread(), container);
+            }
+            BiConsumer<A, ? super Thing42orNull<K, D>> accumulator = collector.accumulator();
+            boolean deeper = depth < rules.walkDepth;
+            ArrayList<Object> children = null;
+            Object[] array = arrays.get(from);
+            for (int i = lo; i < hi; i++) {
+                Thing42orNull<K, D> node = (Thing42orNull<K, D>) array[i];
+                accumulator.accept(container, node);
+                if (!deeper) {
+                    continue;
+                }
+                for (Iterator<Thing42orNull<K, D>> c = rules.children(node); c.hasNext();) {
+                    Thing42orNull<K, D> child = c.next();
+                    if (rules.accept(child) && rules.firstVisit(child)) {
+                        if (children == null) {
+                            children = new ArrayList<Object>();
+                        }
+                        children.add(child);
+                    }
+                }
+            }
+            if (children != null) {
+                next.add(children.toArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+import static org.junit.Assert.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The test class Thing42TraversalTest.
+ *
+ * Walks a small graph with a cycle:
+ * <pre>
+ *   a -&gt; b, c      (peers)
+ *   b -&gt; d         (peer), e (pool)
+ *   c -&gt; d, a      (peers)
+ *   d -&gt; b         (peer)
+ * </pre>
+ * Each node's key is its name and its level is its depth from a.
+ *
+ * @author Paul Ankenman
+ * @version 10/17/26
+ */
+public class Thing42TraversalTest
+{
+    //The nodes of the graph.
+    Thing42<String, String> a, b, c, d, e;
+
+    /**
+     * Sets up the test fixture
+     *
+     * Called before every test case method.
+     */
+    @Before
+    public void setUp()
+    {
+        a = new Thing42<String, String>("a", 0, "node");
+        b = new Thing42<String, String>("b", 1, "node");
+        c = new Thing42<String, String>("c", 1, "node");
+        d = new Thing42<String, String>("d", 2, "node");
+        e = new Thing42<String, String>("e", 2, "node");
+        a.addPeer(b);
+        a.addPeer(c);
+        b.addPeer(d);
+        b.appendToPool(e);
+        c.addPeer(d);
+        c.addPeer(a);
+        d.addPeer(b);
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @After
+    public void tearDown()
+    {
+        a = b = c = d = e = null;
+    }
+
+    /**
+     * Walks breadth first and checks the order and the depths.
+     */
+    @Test
+    public void testBreadthFirst()
+    {
+        Thing42Traversal<String, String>.Walk walk
+            = new Thing42Traversal<String, String>(a).iterator();
+        String order = "";
+        String depths = "";
+        while (walk.hasNext()) {
+            order += walk.next().getKey();
+            depths += walk.getDepth();
+        }
+        assertEquals("abcd", order);
+        assertEquals("0112", depths);
+    }
+
+    /**
+     * Walks depth first, through peers and pool.
+     */
+    @Test
+    public void testDepthFirst()
+    {
+        Thing42Traversal<String, String>.Walk walk = new Thing42Traversal<String, String>(a)
+            .order(Thing42Traversal.Order.DEPTH_FIRST)
+            .edges(Thing42Traversal.Edges.PEERS_AND_POOL).iterator();
+        String order = "";
+        String depths = "";
+        while (walk.hasNext()) {
+            order += walk.next().getKey();
+            depths += walk.getDepth();
+        }
+        assertEquals("abdec", order);
+        assertEquals("01221", depths);
+    }
+
+    /**
+     * Limits the walk by depth, level and key.
+     */
+    @Test
+    public void testLimits()
+    {
+        assertEquals("abc", keys(new Thing42Traversal<String, String>(a).maxDepth(1)));
+        assertEquals("a", keys(new Thing42Traversal<String, String>(a).maxDepth(0)));
+        assertEquals("abc", keys(new Thing42Traversal<String, String>(a).levels(0, 1)));
+        assertEquals("cd", keys(new Thing42Traversal<String, String>(c).key("d")));
+        // d is out of range, so it is not a root and b is not reached
+        assertEquals("a", keys(new Thing42Traversal<String, String>(
+            Arrays.asList(d, a)).levels(0, 1).maxDepth(0)));
+        assertEquals("ac", keys(new Thing42Traversal<String, String>(a).key("c")));
+        assertEquals("be", keys(new Thing42Traversal<String, String>(b)
+            .edges(Thing42Traversal.Edges.POOL)));
+        assertEquals("", keys(new Thing42Traversal<String, String>(a).levels(1, 2)));
+    }
+
+    /**
+     * Walks the same traversal twice, and a stream that stops early.
+     */
+    @Test
+    public void testStream()
+    {
+        Thing42Traversal<String, String> traversal = new Thing42Traversal<String, String>(c);
+        assertEquals("cdab", keys(traversal));
+        assertEquals("cdab", keys(traversal));
+        assertTrue(traversal.stream().count() == 4);
+        assertTrue(traversal.stream().filter(new Predicate<Thing42orNull<String, String>>() {
+            public boolean test(final Thing42orNull<String, String> t) {
+                return t.getLevel() == 0;
+            }
+        }).findFirst().get() == a);
+    }
+
+    /**
+     * Walks a chain too long for a recursive walk, both ways.
+     */
+    @Test
+    public void testLongChain()
+    {
+        Thing42<String, String> first = new Thing42<String, String>("x", 0, "node");
+        Thing42<String, String> last = first;
+        for (int i = 1; i < 200000; i++) {
+            Thing42<String, String> next = new Thing42<String, String>("x", i, "node");
+            last.addPeer(next);
+            last = next;
+        }
+        last.addPeer(first);
+        for (Thing42Traversal.Order order : Thing42Traversal.Order.values()) {
+            Thing42Traversal<String, String>.Walk walk
+                = new Thing42Traversal<String, String>(first).order(order).iterator();
+            int n = 0;
+            while (walk.hasNext()) {
+                assertTrue(walk.next().getLevel() == n);
+                assertTrue(walk.getDepth() == n);
+                n++;
+            }
+            assertTrue(n == 200000);
+        }
+    }
+
+    /**
+     * Walks a cycle of off-heap nodes, which are new objects on each
+     * access, by equals.
+     */
+    @Test
+    public void testFlyweights()
+    {
+        OffHeapGraph graph = new OffHeapGraph();
+        long x = graph.add(1, 0, 0);
+        long y = graph.add(2, 1, 0);
+        graph.addPeer(x, y);
+        graph.addPeer(y, x);
+        Thing42Traversal<Long, Long> traversal = new Thing42Traversal<Long, Long>(graph.node(x))
+            .visited(Thing42Traversal.Visited.EQUALS);
+        assertTrue(traversal.stream().count() == 2);
+        assertTrue(traversal.visited(Thing42Traversal.Visited.IDENTITY).maxDepth(9)
+            .stream().count() == 10);
+    }
+
+    /**
+     * Reduces a random graph in parallel, with and without limits,
+     * and compares with the sequential walk.
+     */
+    @Test
+    public void testParallel()
+    {
+        Random random = new Random(42);
+        List<Thing42<String, String>> nodes = new ArrayList<Thing42<String, String>>();
+        for (int i = 0; i < 20000; i++) {
+            nodes.add(new Thing42<String, String>((i % 7 == 0) ? null : "k" + (i % 5), i % 50,
+                                                  "node"));
+        }
+        for (Thing42<String, String> node : nodes) {
+            for (int j = 0; j < 3; j++) {
+                node.addPeer(nodes.get(random.nextInt(nodes.size())));
+            }
+            node.appendToPool(nodes.get(random.nextInt(nodes.size())));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Thing42Traversal<String, String>> traversals
+                = new ArrayList<Thing42Traversal<String, String>>();
+            traversals.add(new Thing42Traversal<String, String>(nodes.subList(0, 3)));
+            traversals.add(new Thing42Traversal<String, String>(nodes.get(0)).maxDepth(4)
+                .edges(Thing42Traversal.Edges.PEERS_AND_POOL));
+            traversals.add(new Thing42Traversal<String, String>(nodes.get(1)).levels(10, 40));
+            traversals.add(new Thing42Traversal<String, String>(nodes.get(2)).key("k2")
+                .edges(Thing42Traversal.Edges.POOL));
+            for (Thing42Traversal<String, String> traversal : traversals) {
+                long count = 0;
+                long levels = 0;
+                Map<String, Integer> keys = new HashMap<String, Integer>();
+                for (Thing42orNull<String, String> node : traversal) {
+                    count++;
+                    levels += node.getLevel();
+                    Integer n = keys.get(node.getKey());
+                    keys.put(node.getKey(), (n == null) ? 1 : n + 1);
+                }
+                assertTrue(traversal.count(pool) == count);
+                assertTrue(traversal.sumOfLevels(pool) == levels);
+                Map<String, List<Thing42orNull<String, String>>> groups
+                    = traversal.groupByKey(pool);
+                assertTrue(groups.size() == keys.size());
+                for (Map.Entry<String, List<Thing42orNull<String, String>>> e
+                         : groups.entrySet()) {
+                    assertTrue(e.getValue().size() == keys.get(e.getKey()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Walks off-heap nodes by handle, sequentially and in parallel.
+     */
+    @Test
+    public void testHandles()
+    {
+        OffHeapGraph graph = new OffHeapGraph();
+        int n = 10000;
+        for (int i = 0; i < n; i++) {
+            graph.add(i, i, 0);
+        }
+        for (int i = 0; i < n; i++) {
+            graph.addPeer(i, (i + 1) % n);
+            graph.addPeer(i, (i * 7) % n);
+        }
+        Thing42Traversal<Long, Long> traversal = new Thing42Traversal<Long, Long>(graph.node(0))
+            .visited(Thing42Traversal.Visited.HANDLES);
+        assertTrue(traversal.stream().count() == n);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertTrue(traversal.count(pool) == n);
+            assertTrue(traversal.sumOfLevels(pool) == (long) n * (n - 1) / 2);
+            OffHeapGraph other = new OffHeapGraph();
+            other.add(0, 0, 0);
+            traversal = new Thing42Traversal<Long, Long>(Arrays.asList(graph.node(0),
+                other.node(0))).visited(Thing42Traversal.Visited.HANDLES);
+            try {
+                traversal.count(pool);
+                fail();
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Checks the arguments.
+     */
+    @Test
+    public void testArguments()
+    {
+        List<Thing42<String, String>> roots = new ArrayList<Thing42<String, String>>();
+        roots.add(null);
+        try {
+            new Thing42Traversal<String, String>(roots);
+            fail();
+        } catch (NullPointerException ex) {
+            // expected
+        }
+        try {
+            new Thing42Traversal<String, String>(a).maxDepth(-1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            new Thing42Traversal<String, String>(a).levels(2, 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Concatenates the keys of a walk.
+     *
+     * @param traversal the traversal
+     * @return the keys, in the order of the walk
+     */
+    private static String keys(final Thing42Traversal<String, String> traversal)
+    {
+        String keys = "";
+        for (Thing42orNull<String, String> node : traversal) {
+            keys += node.getKey();
+        }
+        return keys;
+    }
+}
@@ -112,6 +112,95 @@ public interface Thing42orNull<K, D> {
      */
 	void setData(D newData);
 
+    /**
+     * Adds several peers to this object, as if by calling addPeer for
+     * each of them in iteration order. Implementations may do this in a
+     * single pass. If the collection holds null, nothing is added.
+     *
+     * @param newPeers the peers to be added
+     * @throws NullPointerException if the collection or any peer is null
+     */
+	default void addPeers(Collection<? extends Thing42orNull<K, D>> newPeers)
+	throws NullPointerException {
+		for (Thing42orNull<K, D> peer : newPeers) {
+			if (peer == null) {
+				throw new NullPointerException();
+			}
+		}
+		for (Thing42orNull<K, D> peer : newPeers) {
+			addPeer(peer);
+		}
+	}
+
+    /**
+     * Appends several members to the pool of this object, as if by
+     * calling appendToPool for each of them in iteration order.
+     * Implementations may do this in a single pass. If the collection
+     * holds null, nothing is appended.
+     *
+     * @param newMembers the objects to be appended to the pool
+     * @throws NullPointerException if the collection or any member is null
+     */
+	default void appendAllToPool(Collection<? extends Thing42orNull<K, D>> newMembers)
+	throws NullPointerException {
+		for (Thing42orNull<K, D> member : newMembers) {
+			if (member == null) {
+				throw new NullPointerException();
+			}
+		}
+		for (Thing42orNull<K, D> member : newMembers) {
+			appendToPool(member);
+		}
+	}
+
+    /**
+     * Removes several peers from this object, as if by calling
+     * removePeer for each of them in iteration order: each element
+     * removes a single instance. If the collection holds null,
+     * nothing is removed.
+     *
+     * @param oldPeers the peers to be removed
+     * @return true if any peer was removed as a result of this call
+     * @throws NullPointerException if the collection or any peer is null
+     */
+	default boolean removePeers(Collection<? extends Thing42orNull<K, D>> oldPeers)
+	throws NullPointerException {
+		for (Thing42orNull<K, D> peer : oldPeers) {
+			if (peer == null) {
+				throw new NullPointerException();
+			}
+		}
+		boolean removed = false;
+		for (Thing42orNull<K, D> peer : oldPeers) {
+			removed |= removePeer(peer);
+		}
+		return removed;
+	}
+
+    /**
+     * Removes several members from the pool of this object, as if by
+     * calling removeFromPool for each of them in iteration order: each
+     * element removes a single instance. If the collection holds null,
+     * nothing is removed.
+     *
+     * @param oldMembers the members to be removed from the pool
+     * @return true if any pool member was removed as a result of this call
+     * @throws NullPointerException if the collection or any member is null
+     */
+	default boolean removeAllFromPool(Collection<? extends Thing42orNull<K, D>> oldMembers)
+	throws NullPointerException {
+		for (Thing42orNull<K, D> member : oldMembers) {
+			if (member == null) {
+				throw new NullPointerException();
+			}
+		}
+		boolean removed = false;
+		for (Thing42orNull<K, D> member : oldMembers) {
+			removed |= removeFromPool(member);
+		}
+		return removed;
+	}
+
 	/**
 	 * Indicates whether some other object is equal to this one.
 	 *